@@ -0,0 +1,210 @@
+package com.bikevibes.bikeapp;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.room.Room;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.bikevibes.bikeapp.db.AccelChunk;
+import com.bikevibes.bikeapp.db.AccelerometerData;
+import com.bikevibes.bikeapp.db.AppDatabase;
+import com.bikevibes.bikeapp.db.SensorStore;
+import com.bikevibes.bikeapp.db.TrackingDao;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the packed accelerometer chunks against one row per reading.
+ * Measures insert rate, database size and the time to aggregate readings for every segment of a trip.
+ * Each layout is written to its own database file so the sizes can be compared. The chunks are not
+ * part of the app schema, so the benchmark creates their table itself.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class AccelChunkBenchmark {
+    private static final String TAG = "AccelChunkBenchmark";
+    private static final String ROW_DB = "accel_rows_bench.db";
+    private static final String CHUNK_DB = "accel_chunks_bench.db";
+    private static final int TRIP_ID = 1;
+    private static final int READINGS = 90000; // 5 hours at 5 Hz
+    private static final int BATCH = 250;
+    private static final long PERIOD_MS = 200;
+    private static final long SEGMENT_MS = 5000;
+
+    private Context context;
+    private AppDatabase rowDb;
+    private AppDatabase chunkDb;
+    private List<AccelerometerData> readings;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(ROW_DB);
+        context.deleteDatabase(CHUNK_DB);
+        rowDb = Room.databaseBuilder(context, AppDatabase.class, ROW_DB).build();
+        chunkDb = Room.databaseBuilder(context, AppDatabase.class, CHUNK_DB).build();
+
+        Random random = new Random(42);
+        readings = new ArrayList<>(READINGS);
+        long time = 1640995200000L;
+        for (int i = 0; i < READINGS; i++) {
+            float[] values = {(float) random.nextGaussian(), (float) random.nextGaussian(), (float) (random.nextGaussian() * 2)};
+            readings.add(new AccelerometerData(new Date(time), values, TRIP_ID));
+            time += PERIOD_MS + random.nextInt(3);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        rowDb.close();
+        chunkDb.close();
+        context.deleteDatabase(ROW_DB);
+        context.deleteDatabase(CHUNK_DB);
+    }
+
+    @Test
+    public void chunks_vsRows() {
+        TrackingDao rows = rowDb.myDao();
+        SupportSQLiteDatabase chunks = chunkDb.getOpenHelper().getWritableDatabase();
+        chunks.execSQL("CREATE TABLE AccelChunk (tripID INTEGER NOT NULL, chunkStart INTEGER NOT NULL, "
+                + "chunkEnd INTEGER NOT NULL, count INTEGER NOT NULL, sumSquares REAL NOT NULL, "
+                + "maxZAccel REAL NOT NULL, data BLOB NOT NULL, PRIMARY KEY(tripID, chunkStart))");
+
+        // Insert rate, using the same batch size as the tracking service
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < READINGS; i += BATCH) {
+            rows.insertAccelBatch(readings.subList(i, Math.min(i + BATCH, READINGS)));
+        }
+        long rowInsert = SystemClock.elapsedRealtime() - start;
+
+        start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < READINGS; i += BATCH) {
+            appendChunks(chunks, readings.subList(i, Math.min(i + BATCH, READINGS)));
+        }
+        long chunkInsert = SystemClock.elapsedRealtime() - start;
+
+        // Database size
+        long rowBytes = getSize(rowDb);
+        long chunkBytes = getSize(chunkDb);
+
+        // Segment building: RMS and maximum over consecutive 5 second windows
+        Date first = readings.get(0).getTimestamp();
+        Date last = readings.get(READINGS - 1).getTimestamp();
+        start = SystemClock.elapsedRealtime();
+        double rowSum = 0;
+        for (long t = first.getTime(); t < last.getTime(); t += SEGMENT_MS) {
+            rowSum += Math.sqrt(rows.getRmsZAccel(new Date(t), new Date(t + SEGMENT_MS)));
+            rows.getMaxZAccel(new Date(t), new Date(t + SEGMENT_MS));
+        }
+        long rowSegments = SystemClock.elapsedRealtime() - start;
+
+        start = SystemClock.elapsedRealtime();
+        double chunkSum = 0;
+        for (long t = first.getTime(); t < last.getTime(); t += SEGMENT_MS) {
+            SensorStore.Stats stats = new SensorStore.Stats();
+            for (AccelChunk chunk : getChunks(chunks, new Date(t), new Date(t + SEGMENT_MS))) {
+                chunk.addStats(stats, new Date(t), new Date(t + SEGMENT_MS));
+            }
+            chunkSum += stats.getRms();
+        }
+        long chunkSegments = SystemClock.elapsedRealtime() - start;
+
+        Log.i(TAG, String.format("Insert: rows %d/s, chunks %d/s",
+                READINGS * 1000L / Math.max(rowInsert, 1), READINGS * 1000L / Math.max(chunkInsert, 1)));
+        Log.i(TAG, String.format("Size: rows %d KB, chunks %d KB", rowBytes / 1024, chunkBytes / 1024));
+        Log.i(TAG, String.format("Segments: rows %d ms, chunks %d ms", rowSegments, chunkSegments));
+
+        int decoded = 0;
+        for (AccelChunk chunk : getChunks(chunks, first, last)) {
+            decoded += chunk.decode().size();
+        }
+        assertEquals(READINGS, decoded);
+        assertEquals(rowSum, chunkSum, rowSum * 0.001);
+        assertTrue("Chunks should be smaller than rows", chunkBytes < rowBytes);
+    }
+
+    /**
+     * Pack readings into chunks, merging them into chunks that are already stored, in one transaction.
+     * @param db - the chunk database
+     * @param batch - the readings to store
+     */
+    private static void appendChunks(SupportSQLiteDatabase db, List<AccelerometerData> batch) {
+        db.beginTransaction();
+        try {
+            for (AccelChunk chunk : AccelChunk.fromReadings(batch)) {
+                List<AccelChunk> stored = getChunks(db, chunk.getChunkStart(), chunk.getChunkStart());
+                if (!stored.isEmpty() && stored.get(0).getChunkStart().equals(chunk.getChunkStart())) {
+                    chunk = stored.get(0).merge(chunk);
+                }
+                ContentValues values = new ContentValues();
+                values.put("tripID", chunk.getTripID());
+                values.put("chunkStart", chunk.getChunkStart().getTime());
+                values.put("chunkEnd", chunk.getChunkEnd().getTime());
+                values.put("count", chunk.getCount());
+                values.put("sumSquares", chunk.getSumSquares());
+                values.put("maxZAccel", chunk.getMaxZAccel());
+                values.put("data", chunk.getData());
+                db.insert("AccelChunk", SQLiteDatabase.CONFLICT_REPLACE, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Read the chunks of the trip that overlap a time range.
+     * @param db - the chunk database
+     * @param start - the start of the range, inclusive
+     * @param end - the end of the range, inclusive
+     * @return - the chunks in timestamp order
+     */
+    private static List<AccelChunk> getChunks(SupportSQLiteDatabase db, Date start, Date end) {
+        List<AccelChunk> chunks = new ArrayList<>();
+        try (Cursor cursor = db.query("SELECT chunkStart, chunkEnd, count, sumSquares, maxZAccel, data FROM AccelChunk "
+                        + "WHERE tripID = ? AND chunkStart <= ? AND chunkEnd >= ? ORDER BY chunkStart ASC",
+                new Object[]{TRIP_ID, end.getTime(), start.getTime()})) {
+            while (cursor.moveToNext()) {
+                chunks.add(new AccelChunk(TRIP_ID, new Date(cursor.getLong(0)), new Date(cursor.getLong(1)),
+                        cursor.getInt(2), cursor.getDouble(3), cursor.getDouble(4), cursor.getBlob(5)));
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * Return the size of a database after checkpointing the write-ahead log.
+     * @param db - the database to measure
+     * @return - the size in bytes
+     */
+    private static long getSize(AppDatabase db) {
+        db.query("PRAGMA wal_checkpoint(TRUNCATE)", null).close();
+        return getPragma(db, "page_count") * getPragma(db, "page_size");
+    }
+
+    private static long getPragma(AppDatabase db, String name) {
+        try (Cursor cursor = db.query("PRAGMA " + name, null)) {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        }
+    }
+}
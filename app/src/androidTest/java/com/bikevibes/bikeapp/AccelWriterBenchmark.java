@@ -0,0 +1,115 @@
+package com.bikevibes.bikeapp;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.bikevibes.bikeapp.db.AccelBuffer;
+import com.bikevibes.bikeapp.db.AccelWriter;
+import com.bikevibes.bikeapp.db.AccelerometerData;
+import com.bikevibes.bikeapp.db.AppDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the rows per second inserted by AccelWriter against TrackingDao.insertAccelBatch.
+ * Both paths insert batches of the size used by the tracking service into an on-disk database.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class AccelWriterBenchmark {
+    private static final String TAG = "AccelWriterBenchmark";
+    private static final String DB_NAME = "accel_writer_bench.db";
+    private static final int BATCH = 250;
+    private static final int BATCHES = 400;
+    private static final long PERIOD_MS = 200;
+
+    private Context context;
+    private AppDatabase db;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DB_NAME);
+        db = Room.databaseBuilder(context, AppDatabase.class, DB_NAME).build();
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void writer_vsDao() {
+        // Warm up both paths so the statement and adapter are compiled
+        AccelWriter writer = new AccelWriter(db.getOpenHelper().getWritableDatabase());
+        writer.insert(createBuffer(1, 0));
+        db.myDao().insertAccelBatch(createList(2, 0));
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < BATCHES; i++) {
+            db.myDao().insertAccelBatch(createList(3, i * BATCH * PERIOD_MS));
+        }
+        long daoNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < BATCHES; i++) {
+            writer.insert(createBuffer(4, i * BATCH * PERIOD_MS));
+        }
+        long writerNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        long rows = (long) BATCH * BATCHES;
+        Log.i(TAG, String.format("DAO %d rows/s, writer %d rows/s",
+                rows * 1000000000L / daoNanos, rows * 1000000000L / writerNanos));
+
+        assertEquals(rows, countRows(3));
+        assertEquals(rows, countRows(4));
+    }
+
+    /**
+     * Create a batch of readings for the DAO. Each trip uses its own time range.
+     */
+    private static List<AccelerometerData> createList(int tripID, long offset) {
+        List<AccelerometerData> list = new ArrayList<>(BATCH);
+        long base = tripID * 1000000000000L + offset;
+        for (int i = 0; i < BATCH; i++) {
+            list.add(new AccelerometerData(new Date(base + i * PERIOD_MS), 0.1f * i, -0.2f, 9.81f, tripID));
+        }
+        return list;
+    }
+
+    /**
+     * Create the same batch as createList in a primitive buffer.
+     */
+    private static AccelBuffer createBuffer(int tripID, long offset) {
+        AccelBuffer buffer = new AccelBuffer(BATCH);
+        long base = tripID * 1000000000000L + offset;
+        for (int i = 0; i < BATCH; i++) {
+            buffer.add(base + i * PERIOD_MS, 0.1f * i, -0.2f, 9.81f, tripID);
+        }
+        return buffer;
+    }
+
+    private long countRows(int tripID) {
+        try (Cursor cursor = db.query("SELECT COUNT(*) FROM AccelerometerData WHERE tripID = ?", new Object[]{tripID})) {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.bikevibes.bikeapp;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.bikevibes.bikeapp.db.AppDatabase;
+import com.bikevibes.bikeapp.db.BackgroundMigrator;
+import com.bikevibes.bikeapp.db.BatchMigration;
+import com.bikevibes.bikeapp.db.MigrationState;
+import com.bikevibes.bikeapp.db.PartitionMigration;
+import com.bikevibes.bikeapp.db.PriorityExecutor;
+import com.bikevibes.bikeapp.db.SensorStore;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Upgrades a generated version 3 database with 5M accelerometer readings and moves the
+ * readings into partitions in batches, including after an interruption and a failed batch.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class BatchMigrationTest {
+    private static final String TAG = "BatchMigrationTest";
+    private static final String DB_NAME = "batch_migration_test.db";
+    private static final String V3_IDENTITY = "e32999c988bff2aec1cc6c55b792065d";
+    private static final long START = 1600000000000L;
+    private static final int ACCEL_ROWS = 5000000;
+    private static final int TRIPS = 50;
+    private static final int ACCEL_PER_TRIP = ACCEL_ROWS / TRIPS;
+    private static final int ACCEL_PER_LOC = 50;
+    private static final int LOC_ROWS = ACCEL_ROWS / ACCEL_PER_LOC;
+    private static final int BATCH = 5000;
+    private static final long UPGRADE_BUDGET_MS = 2000;
+
+    private Context context;
+    private AppDatabase db;
+    private SensorStore store;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DB_NAME);
+        createV3Database(context.getDatabasePath(DB_NAME));
+
+        long start = SystemClock.elapsedRealtime();
+        db = AppDatabase.configure(Room.databaseBuilder(context, AppDatabase.class, DB_NAME)).build();
+        db.getOpenHelper().getWritableDatabase();
+        long upgradeMs = SystemClock.elapsedRealtime() - start;
+        Log.i(TAG, "Upgrade from version 3 took " + upgradeMs + " ms");
+        assertTrue("Upgrade took " + upgradeMs + " ms", upgradeMs < UPGRADE_BUDGET_MS);
+
+        File dir = new File(context.getCacheDir(), "migration_partitions");
+        File[] stale = dir.listFiles();
+        if (stale != null) {
+            for (File file : stale) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        store = new SensorStore(context, db, dir);
+    }
+
+    @After
+    public void tearDown() {
+        store.deleteAll();
+        db.close();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void upgrade_leavesRowsForTheBackgroundMigration() {
+        assertEquals(ACCEL_ROWS, db.myDao().countAllAccel());
+        assertEquals(LOC_ROWS, db.myDao().countAllLocs());
+        assertTrue(store.getTripIDs().isEmpty());
+    }
+
+    @Test
+    public void migrate_resumesAfterInterruption() {
+        BackgroundMigrator first = newMigrator(new PartitionMigration(db, store));
+        int batches = ACCEL_PER_TRIP * 5 / 2 / BATCH;
+        for (int i = 0; i < batches; i++) {
+            assertTrue(first.runBatch());
+        }
+
+        // Trip 3 is split between bike.db and its partition, but reads see all of it
+        MigrationState state = db.myDao().getMigrationState(PartitionMigration.NAME);
+        assertEquals((long) batches * BATCH, state.getDone());
+        assertEquals(ACCEL_ROWS + LOC_ROWS, state.getTotal());
+        long tripStart = START + 2L * ACCEL_PER_TRIP * 20;
+        Date tripEnd = new Date(tripStart + (ACCEL_PER_TRIP - 1) * 20L);
+        assertEquals(ACCEL_PER_TRIP, store.getAccelStats(3, new Date(tripStart), tripEnd).getCount());
+        assertEquals(ACCEL_PER_TRIP / ACCEL_PER_LOC, store.getTripLocs(3).size());
+        assertEquals(ACCEL_ROWS - batches * BATCH, db.myDao().countAllAccel());
+
+        // A new migrator stands in for the app being restarted
+        BackgroundMigrator second = newMigrator(new PartitionMigration(db, store));
+        long start = SystemClock.elapsedRealtime();
+        int rest = 0;
+        while (second.runBatch()) {
+            rest++;
+        }
+        Log.i(TAG, "Migrated " + rest + " batches in " + (SystemClock.elapsedRealtime() - start) + " ms");
+
+        state = db.myDao().getMigrationState(PartitionMigration.NAME);
+        assertTrue(state.isFinished());
+        assertEquals(ACCEL_ROWS + LOC_ROWS, state.getDone());
+        assertEquals(0, db.myDao().countAllAccel());
+        assertEquals(0, db.myDao().countAllLocs());
+        assertEquals(TRIPS, store.getTripIDs().size());
+        assertEquals(ACCEL_PER_TRIP, store.getPartitionAccels(3).size());
+        assertEquals(ACCEL_PER_TRIP, store.getPartitionAccels(TRIPS).size());
+        assertEquals(ACCEL_PER_TRIP / ACCEL_PER_LOC, store.getTripLocs(TRIPS).size());
+        assertFalse(newMigrator(new PartitionMigration(db, store)).runBatch());
+    }
+
+    @Test
+    public void migrate_repeatsFailedBatchWithoutDuplicates() {
+        BatchMigration failing = new BatchMigration() {
+            private final PartitionMigration migration = new PartitionMigration(db, store);
+            private boolean failed = false;
+
+            @NonNull
+            @Override
+            public String getName() {
+                return migration.getName();
+            }
+
+            @Override
+            public long countRows() {
+                return migration.countRows();
+            }
+
+            @Override
+            public int migrateBatch(@NonNull MigrationState state, int limit) {
+                int count = migration.migrateBatch(state, limit);
+                if (!failed) {
+                    // The partition has committed, but the deletes in bike.db roll back
+                    failed = true;
+                    throw new IllegalStateException("Interrupted");
+                }
+                return count;
+            }
+        };
+        BackgroundMigrator migrator = newMigrator(failing);
+        try {
+            migrator.runBatch();
+            fail();
+        } catch (IllegalStateException expected) {
+            assertEquals(ACCEL_ROWS, db.myDao().countAllAccel());
+        }
+
+        assertTrue(migrator.runBatch());
+        assertEquals(BATCH, db.myDao().getMigrationState(PartitionMigration.NAME).getDone());
+        assertEquals(ACCEL_ROWS - BATCH, db.myDao().countAllAccel());
+        assertEquals(BATCH, store.getPartitionAccels(1).size());
+    }
+
+    @NonNull
+    private BackgroundMigrator newMigrator(@NonNull BatchMigration migration) {
+        return new BackgroundMigrator(db, new PriorityExecutor(1, "test-migrate"),
+                Collections.singletonList(migration), BATCH);
+    }
+
+    /**
+     * Create a database with the version 3 schema and readings for TRIPS back-to-back trips.
+     */
+    private static void createV3Database(@NonNull File file) {
+        //noinspection ResultOfMethodCallIgnored
+        file.getParentFile().mkdirs();
+        SQLiteDatabase v3 = SQLiteDatabase.openOrCreateDatabase(file, null);
+        v3.execSQL("CREATE TABLE IF NOT EXISTS `AccelerometerData` (`timestamp` INTEGER NOT NULL, `x` REAL, `y` REAL, "
+                + "`z` REAL, `tripID` INTEGER NOT NULL, PRIMARY KEY(`timestamp`))");
+        v3.execSQL("CREATE TABLE IF NOT EXISTS `LocationData` (`timestamp` INTEGER NOT NULL, `latitude` REAL, "
+                + "`longitude` REAL, `tripID` INTEGER NOT NULL, PRIMARY KEY(`timestamp`))");
+        v3.execSQL("CREATE TABLE IF NOT EXISTS `Segment` (`tripID` INTEGER NOT NULL, `ts1` INTEGER NOT NULL, `lat1` REAL, "
+                + "`lon1` REAL, `ts2` INTEGER NOT NULL, `lat2` REAL, `lon2` REAL, `rmsZAccel` REAL, `maxZAccel` REAL, "
+                + "PRIMARY KEY(`tripID`, `ts1`))");
+        v3.execSQL("CREATE TABLE IF NOT EXISTS `TripSurface` (`tripID` INTEGER NOT NULL, `surface` TEXT, PRIMARY KEY(`tripID`))");
+        v3.execSQL("CREATE TABLE IF NOT EXISTS room_master_table (id INTEGER PRIMARY KEY,identity_hash TEXT)");
+        v3.execSQL("INSERT OR REPLACE INTO room_master_table (id,identity_hash) VALUES(42, '" + V3_IDENTITY + "')");
+
+        // Generate the readings inside SQLite, since building 5M rows in Java would take minutes.
+        // Accelerometer readings are 20 ms apart with one GPS fix every 50 readings.
+        v3.execSQL("INSERT INTO `AccelerometerData` (`timestamp`, `x`, `y`, `z`, `tripID`) "
+                + "WITH RECURSIVE n(i) AS (SELECT 0 UNION ALL SELECT i + 1 FROM n WHERE i < " + (ACCEL_ROWS - 1) + ") "
+                + "SELECT " + START + " + i * 20, 0.1, 0.2, (i % 5) - 2.0, 1 + i / " + ACCEL_PER_TRIP + " FROM n");
+        v3.execSQL("INSERT INTO `LocationData` (`timestamp`, `latitude`, `longitude`, `tripID`) "
+                + "WITH RECURSIVE n(i) AS (SELECT 0 UNION ALL SELECT i + 1 FROM n WHERE i < " + (LOC_ROWS - 1) + ") "
+                + "SELECT " + START + " + i * " + (20 * ACCEL_PER_LOC) + ", 53.5 + (i % 1000) * 0.00001, -113.5, "
+                + "1 + i / " + (ACCEL_PER_TRIP / ACCEL_PER_LOC) + " FROM n");
+        v3.setVersion(3);
+        v3.close();
+    }
+}
@@ -0,0 +1,151 @@
+package com.bikevibes.bikeapp;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.bikevibes.bikeapp.db.AccelBuffer;
+import com.bikevibes.bikeapp.db.AccelWriter;
+import com.bikevibes.bikeapp.db.AppDatabase;
+import com.bikevibes.bikeapp.db.PriorityExecutor;
+import com.bikevibes.bikeapp.db.Segment;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the latency of a UI query while accelerometer batches are continuously written.
+ * Compares queueing the query on the writer thread, as all queries were before, with the reader pool.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class ContentionBenchmark {
+    private static final String TAG = "ContentionBenchmark";
+    private static final String DB_NAME = "contention_bench.db";
+    private static final int TRIP_ID = 1;
+    private static final int BATCH = 250;
+    private static final int QUERIES = 50;
+    private static final long QUERY_PERIOD_MS = 20;
+
+    private Context context;
+    private AppDatabase db;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DB_NAME);
+        db = AppDatabase.configure(Room.databaseBuilder(context, AppDatabase.class, DB_NAME)).build();
+
+        List<Segment> segs = new ArrayList<>();
+        long time = 1640995200000L;
+        for (int i = 0; i < 2000; i++) {
+            segs.add(new Segment(TRIP_ID, new Date(time), 53.5, -113.5, new Date(time + 5000), 53.5001, -113.5001, 1.0, 2.0));
+            time += 5000;
+        }
+        db.myDao().insertSegments(segs);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void uiQuery_duringIngest() throws Exception {
+        PriorityExecutor writer = new PriorityExecutor(1, "bench-write");
+        PriorityExecutor readers = new PriorityExecutor(2, "bench-read");
+        AtomicBoolean ingesting = new AtomicBoolean(true);
+        Thread ingest = startIngest(writer, ingesting);
+
+        long[] queued = measure(writer);
+        long[] pooled = measure(readers);
+
+        ingesting.set(false);
+        ingest.join();
+
+        long queuedP95 = percentile(queued, 95);
+        long pooledP95 = percentile(pooled, 95);
+        Log.i(TAG, String.format("Writer queue: p50 %d ms, p95 %d ms; reader pool: p50 %d ms, p95 %d ms",
+                percentile(queued, 50), queuedP95, percentile(pooled, 50), pooledP95));
+        assertTrue("Reader pool p95 " + pooledP95 + " ms should beat writer queue p95 " + queuedP95 + " ms",
+                pooledP95 <= queuedP95);
+    }
+
+    /**
+     * Keep the writer busy with back-to-back accelerometer batches, as fast as the tracking service
+     * would submit them after a backlog.
+     */
+    private Thread startIngest(PriorityExecutor writer, AtomicBoolean ingesting) {
+        AccelWriter accelWriter = new AccelWriter(db.getOpenHelper().getWritableDatabase());
+        Thread thread = new Thread(() -> {
+            long time = 1700000000000L;
+            while (ingesting.get()) {
+                AccelBuffer buffer = new AccelBuffer(BATCH);
+                for (int i = 0; i < BATCH; i++) {
+                    buffer.add(time, 0.1f, 0.2f, 0.3f, TRIP_ID + 1);
+                    time += 200;
+                }
+                CountDownLatch done = new CountDownLatch(1);
+                writer.execute(PriorityExecutor.PRIORITY_INGEST, () -> {
+                    accelWriter.insert(buffer);
+                    done.countDown();
+                });
+                // Keep a few batches queued without growing the queue forever
+                if (writer.getQueueSize() > 4) {
+                    try {
+                        done.await(1, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Time a trip summary query submitted to the executor at UI priority.
+     * @return - the latency of each query in ms, from submission to completion
+     */
+    private long[] measure(PriorityExecutor executor) throws InterruptedException {
+        long[] latencies = new long[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            CountDownLatch done = new CountDownLatch(1);
+            long start = SystemClock.elapsedRealtime();
+            final int index = i;
+            executor.execute(PriorityExecutor.PRIORITY_UI, () -> {
+                db.myDao().getSegments(TRIP_ID);
+                latencies[index] = SystemClock.elapsedRealtime() - start;
+                done.countDown();
+            });
+            assertTrue(done.await(30, TimeUnit.SECONDS));
+            SystemClock.sleep(QUERY_PERIOD_MS);
+        }
+        return latencies;
+    }
+
+    private static long percentile(long[] values, int p) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[Math.min(sorted.length - 1, sorted.length * p / 100)];
+    }
+}
@@ -0,0 +1,131 @@
+package com.bikevibes.bikeapp;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.bikevibes.bikeapp.db.AppDatabase;
+import com.bikevibes.bikeapp.db.PriorityExecutor;
+import com.bikevibes.bikeapp.db.SensorStore;
+import com.bikevibes.bikeapp.db.Trip;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Generates synthetic datasets with millions of readings and checks that they finalize into
+ * realistic trips.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class DatasetGeneratorTest {
+    private static final String TAG = "DatasetGeneratorTest";
+    private static final String DB_NAME = "dataset_generator_test.db";
+    private static final long END = 1640995200000L;
+    private static final long BUDGET_MS = 60000;
+
+    private Context context;
+    private AppDatabase db;
+    private SensorStore store;
+    private DataRepository repository;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DB_NAME);
+        db = AppDatabase.configure(Room.databaseBuilder(context, AppDatabase.class, DB_NAME)).build();
+        store = new SensorStore(context, db, new File(context.getCacheDir(), "generator_partitions"));
+        store.deleteAll();
+        repository = new DataRepository(db, store, new File(context.getCacheDir(), "generator_snapshot"),
+                new File(context.getCacheDir(), "generator_logs"), Runnable::run);
+    }
+
+    @After
+    public void tearDown() {
+        store.deleteAll();
+        db.close();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void generate_millionsOfRowsWithinBudget() throws Exception {
+        // 60 trips of 30 minutes at 20 Hz is 2.16M accelerometer readings
+        DatasetGenerator.Config config = new DatasetGenerator.Config()
+                .setTrips(60)
+                .setSampleHz(20);
+        DatasetGenerator.Result result = new DatasetGenerator(db, store).generate(config, END);
+        Log.i(TAG, "Generated " + result);
+        assertEquals(60 * 30 * 60 * 20, result.getAccelRows());
+        assertEquals(60 * 30 * 60 / 5, result.getLocRows());
+        assertTrue("Took " + result.getMillis() + " ms", result.getMillis() < BUDGET_MS);
+        assertEquals(60, store.getTripIDs().size());
+
+        repository.recoverTrips(0);
+        awaitWriter();
+        assertEquals(60, count("SELECT COUNT(*) FROM Trip WHERE state = " + Trip.FINALIZED));
+        assertEquals(60, count("SELECT COUNT(*) FROM TripSurface"));
+        assertEquals(60 * (30 * 60 / 5 - 1), count("SELECT COUNT(*) FROM Segment"));
+        assertTrue(count("SELECT COUNT(*) FROM GridCell") > 0);
+        assertTrue(count("SELECT MAX(tripEnd) FROM Trip") < END);
+
+        // Rougher surfaces finalize into bumpier trips
+        double pavement = average("SELECT AVG(bumpiness) FROM Trip JOIN TripSurface USING (tripID) WHERE surface = 'Pavement'");
+        double gravel = average("SELECT AVG(bumpiness) FROM Trip JOIN TripSurface USING (tripID) WHERE surface = 'Gravel'");
+        assertTrue("Pavement " + pavement + ", gravel " + gravel, gravel > pavement);
+    }
+
+    @Test
+    public void generate_legacyFillsBikeDb() {
+        DatasetGenerator.Config config = new DatasetGenerator.Config()
+                .setTrips(4)
+                .setDurationMinutes(10)
+                .setLegacy(true);
+        DatasetGenerator generator = new DatasetGenerator(db, store);
+        DatasetGenerator.Result first = generator.generate(config, END);
+        assertEquals(4 * 10 * 60 * 5, db.myDao().countAllAccel());
+        assertEquals(4 * 10 * 60 / 5, db.myDao().countAllLocs());
+        assertTrue(store.getTripIDs().isEmpty());
+
+        // A second dataset continues after the first
+        DatasetGenerator.Result second = generator.generate(config, END + 4 * 24 * 60 * 60 * 1000L);
+        assertEquals(first.getFirstTrip() + 4, second.getFirstTrip());
+        assertEquals(2 * 4 * 10 * 60 * 5, db.myDao().countAllAccel());
+    }
+
+    private long count(String sql) {
+        try (Cursor cursor = db.query(sql, null)) {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        }
+    }
+
+    private double average(String sql) {
+        try (Cursor cursor = db.query(sql, null)) {
+            cursor.moveToFirst();
+            return cursor.getDouble(0);
+        }
+    }
+
+    /**
+     * Wait until the work queued on the writer so far has run.
+     */
+    private static void awaitWriter() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        AppDatabase.getExecutor().execute(PriorityExecutor.PRIORITY_BACKGROUND, done::countDown);
+        assertTrue(done.await(120, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,87 @@
+package com.bikevibes.bikeapp;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the privacy filter drops readings near the start and end of a trip and inside zones.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PrivacyFilterTest {
+    // About 10 m of latitude
+    private static final double STEP = 0.00009;
+
+    private final List<Long> locs = new ArrayList<>();
+    private final List<Long> accels = new ArrayList<>();
+    private final PrivacyFilter.Sink sink = new PrivacyFilter.Sink() {
+        @Override
+        public void accel(long timestamp, float x, float y, float z) {
+            accels.add(timestamp);
+        }
+
+        @Override
+        public void location(long timestamp, double lat, double lon) {
+            locs.add(timestamp);
+        }
+    };
+
+    @Test
+    public void filter_trimsStartAndEnd() {
+        PrivacyFilter filter = new PrivacyFilter(Collections.emptyList(), 50, sink);
+        ride(filter, 100);
+
+        // The first fix at least 50 m from the start and the last at least 50 m from the end
+        assertEquals(5000L, (long) locs.get(0));
+        assertEquals(94000L, (long) locs.get(locs.size() - 1));
+        assertEquals(90, locs.size());
+        for (long timestamp : accels) {
+            assertTrue(timestamp >= 5000 && timestamp <= 94000);
+        }
+    }
+
+    @Test
+    public void filter_dropsZone() {
+        List<PrivacyZone> zones = PrivacyZone.decode(PrivacyZone.encode(
+                Collections.singletonList(new PrivacyZone(53.5 + 50 * STEP, -113.5, 100))));
+        PrivacyFilter filter = new PrivacyFilter(zones, 0, sink);
+        ride(filter, 100);
+
+        assertFalse(locs.contains(50000L));
+        assertFalse(accels.contains(50200L));
+        assertTrue(locs.contains(30000L));
+        assertTrue(accels.contains(30200L));
+    }
+
+    @Test
+    public void filter_dropsShortTrip() {
+        PrivacyFilter filter = new PrivacyFilter(Collections.emptyList(), 500, sink);
+        ride(filter, 40);
+        assertTrue(locs.isEmpty());
+        assertTrue(accels.isEmpty());
+    }
+
+    /**
+     * Ride north at 10 m/s with an accelerometer reading every 200 ms, then finish the trip.
+     */
+    private static void ride(PrivacyFilter filter, int fixes) {
+        long time = 0;
+        for (int i = 0; i < fixes; i++) {
+            filter.addLocation(time, 53.5 + i * STEP, -113.5);
+            for (int j = 1; j < 5; j++) {
+                filter.addAccel(time + j * 200, 0, 0, 1);
+            }
+            time += 1000;
+        }
+        filter.finish();
+    }
+}
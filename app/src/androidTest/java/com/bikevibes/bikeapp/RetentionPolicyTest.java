@@ -0,0 +1,131 @@
+package com.bikevibes.bikeapp;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.bikevibes.bikeapp.db.AccelerometerData;
+import com.bikevibes.bikeapp.db.AccelRollup;
+import com.bikevibes.bikeapp.db.AppDatabase;
+import com.bikevibes.bikeapp.db.LocationData;
+import com.bikevibes.bikeapp.db.RetentionPolicy;
+import com.bikevibes.bikeapp.db.Segment;
+import com.bikevibes.bikeapp.db.SensorStore;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the retention stages on a database with one old and one recent trip.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RetentionPolicyTest {
+    private static final String DB_NAME = "retention_test.db";
+    private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+    private static final long NOW = 1700000000000L;
+    private static final int OLD_TRIP = 1;
+    private static final int NEW_TRIP = 2;
+    private static final int SECONDS = 60;
+
+    private Context context;
+    private AppDatabase db;
+    private SensorStore store;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DB_NAME);
+        AppDatabase.createFile(context.getDatabasePath(DB_NAME));
+        db = AppDatabase.configure(Room.databaseBuilder(context, AppDatabase.class, DB_NAME)).build();
+        store = new SensorStore(context, db, new File(context.getCacheDir(), "retention_partitions"));
+        store.deleteAll();
+        insertTrip(OLD_TRIP, NOW - 100 * DAY_MS);
+        insertTrip(NEW_TRIP, NOW - DAY_MS);
+    }
+
+    @After
+    public void tearDown() {
+        store.deleteAll();
+        db.close();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void run_rollsUpOldTrips() {
+        RetentionPolicy.Report report = new RetentionPolicy(db, store, 30, 0, 0).run(NOW);
+
+        assertEquals(1, report.getRolledUp());
+        assertTrue(db.myDao().getTripAccels(OLD_TRIP).isEmpty());
+        List<AccelRollup> rollups = db.myDao().getAccelRollups(OLD_TRIP);
+        assertEquals(SECONDS, rollups.size());
+        assertEquals(5, rollups.get(0).getCount());
+        assertEquals(4, rollups.get(0).getMaxZAccel(), 1e-6);
+        assertEquals(Math.sqrt(6), rollups.get(0).getRmsZAccel(), 1e-6);
+        assertEquals(SECONDS * 5, db.myDao().getTripAccels(NEW_TRIP).size());
+    }
+
+    @Test
+    public void run_keepsSegmentsOfOldTrips() {
+        RetentionPolicy.Report report = new RetentionPolicy(db, store, 30, 60, 0).run(NOW);
+
+        assertEquals(1, report.getCollapsed());
+        assertTrue(db.myDao().getTripLocs(OLD_TRIP).isEmpty());
+        assertEquals(SECONDS - 1, db.myDao().getSegments(OLD_TRIP).size());
+        assertEquals(SECONDS, db.myDao().getTripLocs(NEW_TRIP).size());
+    }
+
+    @Test
+    public void run_evictsOldestFirst() {
+        RetentionPolicy.Report report = new RetentionPolicy(db, store, 0, 0, 1).run(NOW);
+
+        assertEquals(2, report.getEvicted());
+        assertNull(db.myDao().getOldestTrip());
+        assertTrue(report.getBytesReclaimed() >= 0);
+    }
+
+    @Test
+    public void createFile_usesIncrementalAutoVacuum() {
+        // 2 is INCREMENTAL, which a run without idle could not switch to
+        new RetentionPolicy(db, store, 0, 0, 0).run(NOW);
+        try (Cursor cursor = db.query("PRAGMA auto_vacuum", null)) {
+            cursor.moveToFirst();
+            assertEquals(2, cursor.getLong(0));
+        }
+    }
+
+    /**
+     * Insert a finalized trip with one fix and five accelerometer readings per second.
+     */
+    private void insertTrip(int tripID, long start) {
+        List<LocationData> locs = new ArrayList<>();
+        List<AccelerometerData> accels = new ArrayList<>();
+        for (int i = 0; i < SECONDS; i++) {
+            long time = start + i * 1000L;
+            locs.add(new LocationData(new Date(time), 53.5 + i * 0.0001, -113.5, tripID));
+            for (int j = 0; j < 5; j++) {
+                accels.add(new AccelerometerData(new Date(time + j * 200), 0f, 0f, (float) j, tripID));
+            }
+        }
+        List<Segment> segs = new ArrayList<>();
+        for (int i = 1; i < locs.size(); i++) {
+            segs.add(new Segment(tripID, locs.get(i - 1), locs.get(i), 1.0, 2.0));
+        }
+        db.myDao().insertLocBatch(locs);
+        db.myDao().insertAccelBatch(accels);
+        db.myDao().insertSegments(segs);
+    }
+}
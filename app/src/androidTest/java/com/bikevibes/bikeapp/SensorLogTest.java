@@ -0,0 +1,93 @@
+package com.bikevibes.bikeapp;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.bikevibes.bikeapp.db.SensorLog;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that sensor logs survive an unclean shutdown and can be trimmed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SensorLogTest {
+    private File file;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        file = new File(context.getCacheDir(), "sensor_log_test.log");
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    @Test
+    public void recover_removesTornTail() throws Exception {
+        // Write without closing, as if the process was killed
+        SensorLog log = SensorLog.open(file, Runnable::run);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(log.appendAccel(1000 + i, 0.1f, 0.2f, i));
+        }
+        assertTrue(log.appendLocation(3000, 53.5, -113.5));
+        long valid = file.length();
+
+        // Corrupt the start of the next record
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long end = 16 + 1001 * 32L;
+            raf.seek(end);
+            raf.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 0, 0, 0, 1});
+        }
+
+        assertEquals(16 + 1001 * 32L, SensorLog.recover(file));
+        assertTrue(file.length() < valid);
+
+        int accels = 0;
+        int locations = 0;
+        try (SensorLog.Reader reader = new SensorLog.Reader(file)) {
+            while (reader.next()) {
+                if (reader.getType() == SensorLog.TYPE_ACCEL) {
+                    assertEquals(accels, reader.getZ(), 0);
+                    accels++;
+                } else {
+                    assertEquals(53.5, reader.getLatitude(), 0);
+                    locations++;
+                }
+            }
+        }
+        assertEquals(1000, accels);
+        assertEquals(1, locations);
+    }
+
+    @Test
+    public void trim_keepsRecordsInRange() throws Exception {
+        try (SensorLog log = SensorLog.open(file, Runnable::run)) {
+            for (int i = 0; i < 100; i++) {
+                log.appendLocation(i, 53.5, -113.5);
+            }
+        }
+        assertEquals(51, SensorLog.trim(file, 20, 70));
+
+        try (SensorLog.Reader reader = new SensorLog.Reader(file)) {
+            assertTrue(reader.next());
+            assertEquals(20, reader.getTimestamp());
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.bikevibes.bikeapp;
+
+import android.content.Context;
+
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.bikevibes.bikeapp.db.AccelBuffer;
+import com.bikevibes.bikeapp.db.AppDatabase;
+import com.bikevibes.bikeapp.db.LocationData;
+import com.bikevibes.bikeapp.db.SensorStore;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that readings are written to per-trip partitions and read back together with
+ * readings stored in the database before partitioning.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SensorStoreTest {
+    private static final String DB_NAME = "sensor_store_test.db";
+    private static final long START = 1700000000000L;
+    private static final int SECONDS = 10;
+
+    private Context context;
+    private AppDatabase db;
+    private File dir;
+    private SensorStore store;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DB_NAME);
+        db = AppDatabase.configure(Room.databaseBuilder(context, AppDatabase.class, DB_NAME)).build();
+        dir = new File(context.getCacheDir(), "store_partitions");
+        store = new SensorStore(context, db, dir);
+        store.deleteAll();
+    }
+
+    @After
+    public void tearDown() {
+        store.deleteAll();
+        db.close();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void insert_writesOnePartitionPerTrip() {
+        insertTrip(1, START);
+        insertTrip(2, START + SECONDS * 1000L);
+
+        assertEquals(Arrays.asList(1, 2), store.getTripIDs());
+        assertEquals(SECONDS, store.getTripLocs(1).size());
+        assertEquals(SECONDS * 5, store.getPartitionAccels(2).size());
+        assertTrue(db.myDao().getTripLocs(1).isEmpty());
+        assertTrue(store.getBytes() > 0);
+
+        SensorStore.Stats stats = store.getAccelStats(1, new Date(START), new Date(START + 999));
+        assertEquals(5, stats.getCount());
+        assertEquals(4, stats.getMaxZAccel(), 1e-6);
+        assertEquals(Math.sqrt(6), stats.getRms(), 1e-6);
+    }
+
+    @Test
+    public void reads_includeLegacyRows() {
+        insertTrip(2, START + SECONDS * 1000L);
+        List<LocationData> legacy = new ArrayList<>();
+        for (int i = 0; i < SECONDS; i++) {
+            legacy.add(new LocationData(new Date(START + i * 1000L), 53.5, -113.5, 1));
+        }
+        db.myDao().insertLocBatch(legacy);
+
+        assertEquals(SECONDS, store.getTripLocs(1).size());
+        assertEquals(SECONDS * 2, store.getLocs(2).size());
+        assertEquals(SECONDS, store.getLocs(1).size());
+    }
+
+    @Test
+    public void deleteUpTo_deletesPartitionFiles() {
+        insertTrip(1, START);
+        insertTrip(2, START + SECONDS * 1000L);
+
+        store.deleteUpTo(1);
+
+        assertEquals(Collections.singletonList(2), store.getTripIDs());
+        assertFalse(new File(dir, "trip_1.db").exists());
+        assertTrue(store.getTripLocs(1).isEmpty());
+        assertEquals(SECONDS, store.getTripLocs(2).size());
+    }
+
+    @Test
+    public void deleteOutside_trimsPartition() {
+        insertTrip(1, START);
+
+        int left = store.deleteOutside(1, new Date(START + 2000), new Date(START + 5000));
+
+        assertEquals(4, left);
+        assertEquals(3 * 5 + 1, store.getPartitionAccels(1).size());
+    }
+
+    @Test
+    public void insert_commitsOncePerPartition() {
+        List<AccelBuffer> buffers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            AccelBuffer buffer = new AccelBuffer(2);
+            buffer.add(START + i * 200, 0f, 0f, 1f, 1);
+            buffer.add(START + i * 200 + 100, 0f, 0f, 1f, i == 2 ? 2 : 1);
+            buffers.add(buffer);
+        }
+        List<LocationData> locs = Arrays.asList(new LocationData(new Date(START), 53.5, -113.5, 1),
+                new LocationData(new Date(START), 53.5, -113.5, 3));
+
+        assertEquals(3, store.insert(buffers, locs));
+        assertEquals(5, store.getPartitionAccels(1).size());
+        assertEquals(1, store.getPartitionAccels(2).size());
+        assertEquals(1, store.getTripLocs(3).size());
+    }
+
+    /**
+     * Insert a trip with one fix and five accelerometer readings per second.
+     */
+    private void insertTrip(int tripID, long start) {
+        List<LocationData> locs = new ArrayList<>();
+        AccelBuffer buffer = new AccelBuffer(SECONDS * 5);
+        for (int i = 0; i < SECONDS; i++) {
+            long time = start + i * 1000L;
+            locs.add(new LocationData(new Date(time), 53.5 + i * 0.0001, -113.5, tripID));
+            for (int j = 0; j < 5; j++) {
+                buffer.add(time + j * 200, 0f, 0f, j, tripID);
+            }
+        }
+        store.insertLocations(locs);
+        store.insertAccel(buffer);
+    }
+}
@@ -0,0 +1,161 @@
+package com.bikevibes.bikeapp;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.bikevibes.bikeapp.db.AppDatabase;
+import com.bikevibes.bikeapp.db.GridCell;
+import com.bikevibes.bikeapp.db.Segment;
+import com.bikevibes.bikeapp.db.SegmentTile;
+import com.bikevibes.bikeapp.db.TrackingDao;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures viewport and "trips through here" query latency with and without the spatial index.
+ * Trips are random walks spread over an area the size of Edmonton.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class SpatialIndexBenchmark {
+    private static final String TAG = "SpatialIndexBenchmark";
+    private static final int SEGMENTS_PER_TRIP = 10;
+    private static final int RUNS = 15;
+
+    // Viewport of roughly 1 km x 1 km in the middle of the area
+    private static final double NORTH = 53.540;
+    private static final double SOUTH = 53.531;
+    private static final double WEST = -113.500;
+    private static final double EAST = -113.485;
+
+    private AppDatabase db;
+    private TrackingDao dao;
+
+    @Before
+    public void createDb() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        db = Room.inMemoryDatabaseBuilder(context, AppDatabase.class).build();
+        dao = db.myDao();
+    }
+
+    @After
+    public void closeDb() {
+        db.close();
+    }
+
+    @Test
+    public void viewport_1kTrips() {
+        runViewportBenchmark(1000);
+    }
+
+    @Test
+    public void viewport_100kTrips() {
+        runViewportBenchmark(100000);
+    }
+
+    /**
+     * Insert the given number of trips and compare the indexed queries against a full scan.
+     * @param numTrips - the number of trips to generate
+     */
+    private void runViewportBenchmark(int numTrips) {
+        insertTrips(numTrips);
+        final int zoom = SegmentTile.ZOOM;
+        int minX = GridCell.getTileX(WEST, zoom);
+        int maxX = GridCell.getTileX(EAST, zoom);
+        int minY = GridCell.getTileY(NORTH, zoom);
+        int maxY = GridCell.getTileY(SOUTH, zoom);
+
+        long[] indexed = new long[RUNS];
+        long[] trips = new long[RUNS];
+        long[] scan = new long[RUNS];
+        int indexedCount = 0;
+        int scanCount = 0;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            indexedCount = dao.getSegmentsInArea(minX, maxX, minY, maxY).size();
+            indexed[i] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            dao.getTripsInArea(minX, maxX, minY, maxY);
+            trips[i] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            scanCount = 0;
+            try (Cursor cursor = db.query("SELECT lat1, lon1, lat2, lon2 FROM segment", null)) {
+                while (cursor.moveToNext()) {
+                    int x = GridCell.getTileX((cursor.getDouble(1) + cursor.getDouble(3)) / 2, zoom);
+                    int y = GridCell.getTileY((cursor.getDouble(0) + cursor.getDouble(2)) / 2, zoom);
+                    if (x >= minX && x <= maxX && y >= minY && y <= maxY) {
+                        scanCount++;
+                    }
+                }
+            }
+            scan[i] = System.nanoTime() - start;
+        }
+
+        Log.i(TAG, String.format("%d trips: viewport %.2f ms (%d segments), trips through area %.2f ms, full scan %.2f ms (%d segments)",
+                numTrips, median(indexed), indexedCount, median(trips), median(scan), scanCount));
+        assertTrue(indexedCount >= scanCount);
+        assertTrue(median(indexed) < median(scan));
+    }
+
+    /**
+     * Insert random walk trips along with their spatial index rows.
+     * @param numTrips - the number of trips to insert
+     */
+    private void insertTrips(int numTrips) {
+        Random random = new Random(numTrips);
+        final int batch = 1000;
+        List<Segment> segs = new ArrayList<>();
+        long time = 1640995200000L;
+        for (int trip = 1; trip <= numTrips; trip++) {
+            double lat = 53.45 + random.nextDouble() * 0.2;
+            double lon = -113.65 + random.nextDouble() * 0.35;
+            for (int i = 0; i < SEGMENTS_PER_TRIP; i++) {
+                double nextLat = lat + (random.nextDouble() - 0.5) * 0.001;
+                double nextLon = lon + (random.nextDouble() - 0.5) * 0.0015;
+                segs.add(new Segment(trip, new Date(time), lat, lon, new Date(time + 5000),
+                        nextLat, nextLon, random.nextDouble() * 3, random.nextDouble() * 8));
+                lat = nextLat;
+                lon = nextLon;
+                time += 5000;
+            }
+            if (trip % batch == 0 || trip == numTrips) {
+                List<Segment> toInsert = segs;
+                db.runInTransaction(() -> {
+                    dao.insertSegments(toInsert);
+                    dao.insertSegmentTiles(SegmentTile.fromSegments(toInsert));
+                });
+                segs = new ArrayList<>();
+            }
+        }
+        try (Cursor cursor = db.query("SELECT COUNT(*) FROM segment", null)) {
+            cursor.moveToFirst();
+            assertEquals(numTrips * SEGMENTS_PER_TRIP, cursor.getInt(0));
+        }
+    }
+
+    private static double median(long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2] / 1e6;
+    }
+}
@@ -0,0 +1,140 @@
+package com.bikevibes.bikeapp;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.osmdroid.tileprovider.tilesource.ITileSource;
+import org.osmdroid.tileprovider.tilesource.TileSourceFactory;
+import org.osmdroid.util.MapTileIndex;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the offline tile pack module and the LRU tile cache using a locally generated MBTiles archive.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TilePackTest {
+    private static final ITileSource SOURCE = TileSourceFactory.MAPNIK;
+    private static final int ZOOM = 12;
+
+    private File dir;
+    private byte[] tile;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        dir = new File(context.getCacheDir(), "tile_pack_test");
+        deleteRecursive(dir);
+        assertTrue(dir.mkdirs());
+
+        Bitmap bitmap = Bitmap.createBitmap(256, 256, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.GREEN);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        tile = out.toByteArray();
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursive(dir);
+    }
+
+    @Test
+    public void loadTile_fromPack() throws Exception {
+        File pack = createPack(new File(dir, "region.mbtiles"), 10, 20);
+        TilePackModule module = new TilePackModule(SOURCE, new File[]{pack}, new TileDiskCache(new File(dir, "cache"), 1024 * 1024));
+
+        long hits = TilePackModule.getPackHits();
+        long misses = TilePackModule.getMisses();
+        assertNotNull(module.getTileLoader().loadTile(MapTileIndex.getTileIndex(ZOOM, 10, 20)));
+        assertEquals(hits + 1, TilePackModule.getPackHits());
+
+        assertNull(module.getTileLoader().loadTile(MapTileIndex.getTileIndex(ZOOM, 11, 20)));
+        assertEquals(misses + 1, TilePackModule.getMisses());
+        module.detach();
+    }
+
+    @Test
+    public void loadTile_fromCache() throws Exception {
+        TileDiskCache cache = new TileDiskCache(new File(dir, "cache"), 1024 * 1024);
+        TilePackModule module = new TilePackModule(SOURCE, new File[0], cache);
+        long index = MapTileIndex.getTileIndex(ZOOM, 3, 4);
+        assertTrue(cache.saveFile(SOURCE, index, new ByteArrayInputStream(tile), null));
+
+        long hits = TilePackModule.getCacheHits();
+        assertNotNull(module.getTileLoader().loadTile(index));
+        assertEquals(hits + 1, TilePackModule.getCacheHits());
+        module.detach();
+    }
+
+    @Test
+    public void saveFile_evictsLeastRecentlyUsed() throws Exception {
+        TileDiskCache cache = new TileDiskCache(new File(dir, "cache"), tile.length * 2L);
+        long first = MapTileIndex.getTileIndex(ZOOM, 1, 1);
+        long second = MapTileIndex.getTileIndex(ZOOM, 1, 2);
+        long third = MapTileIndex.getTileIndex(ZOOM, 1, 3);
+
+        cache.saveFile(SOURCE, first, new ByteArrayInputStream(tile), null);
+        cache.saveFile(SOURCE, second, new ByteArrayInputStream(tile), null);
+        assertNotNull(cache.loadTile(SOURCE, first));
+        cache.saveFile(SOURCE, third, new ByteArrayInputStream(tile), null);
+
+        assertTrue(cache.exists(SOURCE, first));
+        assertFalse(cache.exists(SOURCE, second));
+        assertTrue(cache.exists(SOURCE, third));
+        assertTrue(cache.getTotalBytes() <= tile.length * 2L);
+
+        // Reopening the cache keeps the bound and the surviving tiles
+        TileDiskCache reopened = new TileDiskCache(new File(dir, "cache"), tile.length * 2L);
+        assertEquals(cache.getTotalBytes(), reopened.getTotalBytes());
+        assertTrue(reopened.exists(SOURCE, third));
+    }
+
+    /**
+     * Write an MBTiles archive containing a single tile.
+     * MBTiles uses TMS row numbering, so the y index is flipped.
+     */
+    private File createPack(File file, int x, int y) {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        db.execSQL("CREATE TABLE metadata (name TEXT, value TEXT)");
+        db.execSQL("CREATE TABLE tiles (zoom_level INTEGER, tile_column INTEGER, tile_row INTEGER, tile_data BLOB)");
+        db.execSQL("INSERT INTO metadata VALUES ('name', 'test'), ('format', 'png')");
+        ContentValues values = new ContentValues();
+        values.put("zoom_level", ZOOM);
+        values.put("tile_column", x);
+        values.put("tile_row", (1 << ZOOM) - y - 1);
+        values.put("tile_data", tile);
+        db.insert("tiles", null, values);
+        db.close();
+        return file;
+    }
+
+    private static void deleteRecursive(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursive(child);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+}
@@ -0,0 +1,188 @@
+package com.bikevibes.bikeapp;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.bikevibes.bikeapp.db.AccelerometerData;
+import com.bikevibes.bikeapp.db.AppDatabase;
+import com.bikevibes.bikeapp.db.EnergyReport;
+import com.bikevibes.bikeapp.db.LocationData;
+import com.bikevibes.bikeapp.db.PriorityExecutor;
+import com.bikevibes.bikeapp.db.Segment;
+import com.bikevibes.bikeapp.db.SensorStore;
+import com.bikevibes.bikeapp.db.Trip;
+import com.bikevibes.core.MetricRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that finalizing a trip is idempotent, that interrupted trips are finished on recovery,
+ * that the energy report of a recording is stored with its trip, and that segments weight readings
+ * by the sampling rate they were taken at.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TripFinalizeTest {
+    private static final String DB_NAME = "trip_finalize_test.db";
+    private static final int POINTS = 20;
+
+    private Context context;
+    private AppDatabase db;
+    private DataRepository repository;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DB_NAME);
+        db = AppDatabase.configure(Room.databaseBuilder(context, AppDatabase.class, DB_NAME)).build();
+        SensorStore store = new SensorStore(context, db, new File(context.getCacheDir(), "finalize_partitions"));
+        repository = new DataRepository(db, store, new File(context.getCacheDir(), "finalize_snapshot"),
+                new File(context.getCacheDir(), "finalize_logs"), Runnable::run);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void finalize_isIdempotent() throws Exception {
+        int tripID = repository.startTrip(1);
+        insertTrip(tripID);
+        repository.createSegments(tripID, 0);
+        awaitWriter();
+
+        Trip trip = db.myDao().getTrip(tripID);
+        assertNotNull(trip);
+        assertEquals(Trip.FINALIZED, trip.getState());
+        assertTrue(trip.hasSummary());
+        assertEquals(POINTS - 1, db.myDao().getSegments(tripID).size());
+        long cellCount = sumGridCounts();
+
+        // A second run must not add segments or count them in the heatmap twice
+        repository.createSegments(tripID, 0);
+        awaitWriter();
+        assertEquals(POINTS - 1, db.myDao().getSegments(tripID).size());
+        assertEquals(cellCount, sumGridCounts());
+    }
+
+    @Test
+    public void recover_finishesInterruptedTrip() throws Exception {
+        int tripID = 7;
+        db.myDao().saveTrip(new Trip(tripID));
+        insertTrip(tripID);
+
+        repository.recoverTrips(0);
+        awaitWriter();
+
+        assertEquals(Trip.FINALIZED, db.myDao().getTrip(tripID).getState());
+        assertEquals(POINTS - 1, db.myDao().getSegments(tripID).size());
+        assertTrue(repository.startTrip(1) > tripID);
+    }
+
+    @Test
+    public void finalize_storesEnergyReport() throws Exception {
+        MetricRegistry metrics = MetricRegistry.getDefault();
+        int tripID = repository.startTrip(1);
+        metrics.counter(EnergyReport.GPS_FIXES).add(POINTS);
+        metrics.counter(EnergyReport.ACCEL_EVENTS).add(POINTS * 5);
+        metrics.counter(EnergyReport.WAKEUPS).add(3);
+        insertTrip(tripID);
+        repository.createSegments(tripID, 0);
+        awaitWriter();
+
+        EnergyReport energy = db.myDao().getTrip(tripID).getEnergy();
+        assertEquals(POINTS, energy.getGpsFixes());
+        assertEquals(POINTS * 5, energy.getSensorEvents());
+        assertEquals(3, energy.getWakeups());
+        assertTrue(energy.getTransactions() >= 1);
+        assertEquals(0, energy.getUploadBytes());
+
+        // The upload fills in its own columns without touching the recording figures
+        repository.recordUpload(tripID, 7000000, 1234);
+        awaitWriter();
+        energy = db.myDao().getTrip(tripID).getEnergy();
+        assertEquals(7, energy.getUploadCpuMillis());
+        assertEquals(1234, energy.getUploadBytes());
+        assertEquals(POINTS, energy.getGpsFixes());
+    }
+
+    @Test
+    public void finalize_weightsReadingsBySampleRate() throws Exception {
+        int tripID = repository.startTrip(1);
+        insertTrip(tripID);
+        long start = getStartTime(tripID);
+        // The first two readings at 5 Hz, the rest of the segment at 1 Hz
+        repository.recordSampleRate(tripID, start, 200000);
+        repository.recordSampleRate(tripID, start + 400, 1000000);
+        repository.createSegments(tripID, 0);
+        awaitWriter();
+
+        // Readings 1 to 5, and the 1 at the next fix since segments include both ends
+        Segment first = null;
+        for (Segment segment : db.myDao().getSegments(tripID)) {
+            if (segment.getTs1().getTime() == start) {
+                first = segment;
+            }
+        }
+        assertNotNull(first);
+        double expected = Math.sqrt((0.2 * (1 + 4) + 1.0 * (9 + 16 + 25 + 1)) / (0.2 * 2 + 1.0 * 4));
+        assertEquals(expected, first.getRmsZAccel(), 1e-6);
+    }
+
+    private static long getStartTime(int tripID) {
+        return 1640995200000L + tripID * 3600000L;
+    }
+
+    /**
+     * Insert a straight trip with a few accelerometer readings between each location.
+     */
+    private void insertTrip(int tripID) {
+        List<LocationData> locs = new ArrayList<>();
+        List<AccelerometerData> accels = new ArrayList<>();
+        long time = getStartTime(tripID);
+        for (int i = 0; i < POINTS; i++) {
+            locs.add(new LocationData(new Date(time), 53.5 + i * 0.0005, -113.5, tripID));
+            for (int j = 0; j < 5; j++) {
+                accels.add(new AccelerometerData(new Date(time + j * 200), 0f, 0f, 1f + j, tripID));
+            }
+            time += 1000;
+        }
+        db.myDao().insertLocBatch(locs);
+        db.myDao().insertAccelBatch(accels);
+    }
+
+    /**
+     * Wait until the work queued on the writer so far has run.
+     */
+    private static void awaitWriter() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        AppDatabase.getExecutor().execute(PriorityExecutor.PRIORITY_BACKGROUND, done::countDown);
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+    }
+
+    private long sumGridCounts() {
+        try (Cursor cursor = db.query("SELECT SUM(count) FROM GridCell", null)) {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        }
+    }
+}
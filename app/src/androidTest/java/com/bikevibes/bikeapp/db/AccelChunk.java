@@ -0,0 +1,253 @@
+package com.bikevibes.bikeapp.db;
+
+import androidx.annotation.NonNull;
+
+import com.bikevibes.core.AccelCodec;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Packed accelerometer readings.
+ * Each chunk holds every reading of a trip within a fixed CHUNK_MS window, encoded as a BLOB
+ * by AccelCodec.
+ * The sum of squares, maximum and count of vertical acceleration are kept alongside the BLOB
+ * so aggregates over whole chunks do not need to decode it.
+ * Chunks are not part of the app, which stores raw readings in partitions; the layout only exists
+ * for AccelChunkBenchmark, which compares it against one row per reading.
+ */
+public class AccelChunk {
+    public static final long CHUNK_MS = 60000;
+
+    private int tripID;
+    @NonNull
+    private Date chunkStart;
+    @NonNull
+    private Date chunkEnd;
+    private int count;
+    private double sumSquares;
+    private double maxZAccel;
+    @NonNull
+    private byte[] data;
+
+    /**
+     * Initialize a chunk from its encoded readings and their aggregates.
+     * @param tripID - the trip ID of the readings
+     * @param chunkStart - the start of the chunk's window
+     * @param chunkEnd - the timestamp of the last reading in the chunk
+     * @param count - the number of readings in the chunk
+     * @param sumSquares - the sum of squared vertical acceleration
+     * @param maxZAccel - the maximum absolute vertical acceleration
+     * @param data - the encoded readings
+     */
+    public AccelChunk(int tripID, @NonNull Date chunkStart, @NonNull Date chunkEnd, int count,
+                      double sumSquares, double maxZAccel, @NonNull byte[] data) {
+        this.tripID = tripID;
+        this.chunkStart = chunkStart;
+        this.chunkEnd = chunkEnd;
+        this.count = count;
+        this.sumSquares = sumSquares;
+        this.maxZAccel = maxZAccel;
+        this.data = data;
+    }
+
+    /**
+     * Return the start of the window that a timestamp falls into.
+     * @param timestamp - the time of a reading
+     * @return - the start of the chunk window
+     */
+    @NonNull
+    public static Date getWindowStart(@NonNull Date timestamp) {
+        return new Date(timestamp.getTime() / CHUNK_MS * CHUNK_MS);
+    }
+
+    /**
+     * Group readings into chunks by trip and window and encode each chunk.
+     * @param readings - the readings to pack, in any order
+     * @return - one chunk for each trip and window that has readings
+     */
+    @NonNull
+    public static List<AccelChunk> fromReadings(@NonNull List<AccelerometerData> readings) {
+        List<AccelerometerData> sorted = new ArrayList<>(readings);
+        Collections.sort(sorted, (a, b) -> {
+            if (a.getTripID() != b.getTripID()) {
+                return Integer.compare(a.getTripID(), b.getTripID());
+            }
+            return a.getTimestamp().compareTo(b.getTimestamp());
+        });
+
+        List<AccelChunk> chunks = new ArrayList<>();
+        int first = 0;
+        for (int i = 1; i <= sorted.size(); i++) {
+            if (i == sorted.size() || !sameChunk(sorted.get(first), sorted.get(i))) {
+                chunks.add(encode(sorted.subList(first, i)));
+                first = i;
+            }
+        }
+        return chunks;
+    }
+
+    private static boolean sameChunk(@NonNull AccelerometerData a, @NonNull AccelerometerData b) {
+        return a.getTripID() == b.getTripID() && getWindowStart(a.getTimestamp()).equals(getWindowStart(b.getTimestamp()));
+    }
+
+    /**
+     * Encode readings from a single trip and window.
+     * @param readings - the readings sorted by timestamp
+     * @return - the encoded chunk
+     */
+    @NonNull
+    static AccelChunk encode(@NonNull List<AccelerometerData> readings) {
+        AccelerometerData head = readings.get(0);
+        Date start = getWindowStart(head.getTimestamp());
+        AccelCodec.Encoder encoder = new AccelCodec.Encoder(start.getTime(), readings.size());
+        double sumSquares = 0;
+        double max = 0;
+        for (AccelerometerData acc : readings) {
+            int z = quantize(acc.getZ());
+            encoder.add(acc.getTimestamp().getTime(), quantize(acc.getX()), quantize(acc.getY()), z);
+
+            // Aggregate the stored values so they match what decoding returns
+            double zAccel = z / AccelCodec.SCALE;
+            sumSquares += zAccel * zAccel;
+            max = Math.max(max, Math.abs(zAccel));
+        }
+        return new AccelChunk(head.getTripID(), start, new Date(encoder.getLastTimestamp()), readings.size(),
+                sumSquares, max, encoder.toByteArray());
+    }
+
+    /**
+     * Decode the readings stored in the chunk.
+     * @return - the readings in timestamp order
+     */
+    @NonNull
+    public List<AccelerometerData> decode() {
+        List<AccelerometerData> readings = new ArrayList<>(count);
+        AccelCodec.Decoder decoder = new AccelCodec.Decoder(data, chunkStart.getTime());
+        for (int i = 0; i < count && decoder.next(); i++) {
+            readings.add(new AccelerometerData(new Date(decoder.getTimestamp()), decoder.getX(), decoder.getY(),
+                    decoder.getZ(), tripID));
+        }
+        return readings;
+    }
+
+    /**
+     * Produce a chunk holding the readings of this chunk and another chunk of the same window.
+     * Readings from the other chunk replace readings with the same timestamp.
+     * @param other - a chunk with the same trip ID and window
+     * @return - the combined chunk
+     */
+    @NonNull
+    public AccelChunk merge(@NonNull AccelChunk other) {
+        List<AccelerometerData> readings = decode();
+        List<AccelerometerData> added = other.decode();
+        List<AccelerometerData> merged = new ArrayList<>(readings.size() + added.size());
+        int i = 0;
+        int j = 0;
+        while (i < readings.size() || j < added.size()) {
+            if (j == added.size()) {
+                merged.add(readings.get(i++));
+            } else if (i == readings.size()) {
+                merged.add(added.get(j++));
+            } else {
+                int cmp = readings.get(i).getTimestamp().compareTo(added.get(j).getTimestamp());
+                if (cmp < 0) {
+                    merged.add(readings.get(i++));
+                } else {
+                    if (cmp == 0) {
+                        i++;
+                    }
+                    merged.add(added.get(j++));
+                }
+            }
+        }
+        return encode(merged);
+    }
+
+    /**
+     * Add the readings of the chunk within a time range to an aggregate.
+     * A chunk inside the range adds its stored aggregates; only a chunk at an edge of it is decoded.
+     * @param stats - the aggregate to add to
+     * @param start - the start of the range, inclusive
+     * @param end - the end of the range, inclusive
+     */
+    public void addStats(@NonNull SensorStore.Stats stats, @NonNull Date start, @NonNull Date end) {
+        if (chunkStart.compareTo(start) >= 0 && chunkEnd.compareTo(end) <= 0) {
+            stats.add(sumSquares, maxZAccel, count);
+            return;
+        }
+        for (AccelerometerData acc : decode()) {
+            if (acc.getTimestamp().compareTo(start) >= 0 && acc.getTimestamp().compareTo(end) <= 0) {
+                double z = acc.getZ();
+                stats.add(z * z, Math.abs(z), 1);
+            }
+        }
+    }
+
+    private static int quantize(Float value) {
+        return value == null ? 0 : AccelCodec.quantize(value);
+    }
+
+    // ***************************** Getters and Setters *******************************************
+
+    public int getTripID() {
+        return tripID;
+    }
+
+    @NonNull
+    public Date getChunkStart() {
+        return chunkStart;
+    }
+
+    @NonNull
+    public Date getChunkEnd() {
+        return chunkEnd;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public double getSumSquares() {
+        return sumSquares;
+    }
+
+    public double getMaxZAccel() {
+        return maxZAccel;
+    }
+
+    @NonNull
+    public byte[] getData() {
+        return data;
+    }
+
+    public void setTripID(int tripID) {
+        this.tripID = tripID;
+    }
+
+    public void setChunkStart(@NonNull Date chunkStart) {
+        this.chunkStart = chunkStart;
+    }
+
+    public void setChunkEnd(@NonNull Date chunkEnd) {
+        this.chunkEnd = chunkEnd;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+
+    public void setSumSquares(double sumSquares) {
+        this.sumSquares = sumSquares;
+    }
+
+    public void setMaxZAccel(double maxZAccel) {
+        this.maxZAccel = maxZAccel;
+    }
+
+    public void setData(@NonNull byte[] data) {
+        this.data = data;
+    }
+}
@@ -0,0 +1,170 @@
+package com.bikevibes.bikeapp.db;
+
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+import androidx.room.testing.MigrationTestHelper;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.MediumTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Upgrades databases created from the exported schemas through each manual migration and
+ * validates the result against the schema of the next version, so the hand-written SQL of the
+ * migrations is checked against the entities.
+ */
+@RunWith(AndroidJUnit4.class)
+@MediumTest
+public class MigrationTest {
+    private static final String DB_NAME = "migration_test.db";
+    private static final long START = 1600000000000L;
+
+    @Rule
+    public MigrationTestHelper helper = new MigrationTestHelper(InstrumentationRegistry.getInstrumentation(),
+            AppDatabase.class);
+
+    @Test
+    public void migrate3To4() throws IOException {
+        SupportSQLiteDatabase db = helper.createDatabase(DB_NAME, 3);
+        insertSegment(db, 1);
+        db.close();
+
+        db = helper.runMigrationsAndValidate(DB_NAME, 4, true, AppDatabase.MIGRATION_3_4);
+        assertEquals(1, count(db, "Segment"));
+        assertEquals(0, count(db, "GridCell"));
+    }
+
+    @Test
+    public void migrate4To5() throws IOException {
+        SupportSQLiteDatabase db = helper.createDatabase(DB_NAME, 4);
+        insertSegment(db, 1);
+        db.close();
+
+        // Existing segments are indexed by the repository, not the migration
+        db = helper.runMigrationsAndValidate(DB_NAME, 5, true, AppDatabase.MIGRATION_4_5);
+        assertEquals(1, count(db, "Segment"));
+        assertEquals(0, count(db, "SegmentTile"));
+    }
+
+    @Test
+    public void migrate5To6() throws IOException {
+        SupportSQLiteDatabase db = helper.createDatabase(DB_NAME, 5);
+        insertSegment(db, 1);
+        db.close();
+
+        // Trips stored before have no state row and count as finalized
+        db = helper.runMigrationsAndValidate(DB_NAME, 6, true, AppDatabase.MIGRATION_5_6);
+        assertEquals(1, count(db, "Segment"));
+        assertEquals(0, count(db, "Trip"));
+    }
+
+    @Test
+    public void migrate6To7() throws IOException {
+        SupportSQLiteDatabase db = helper.createDatabase(DB_NAME, 6);
+        insertSegment(db, 1);
+        db.close();
+
+        db = helper.runMigrationsAndValidate(DB_NAME, 7, true, AppDatabase.MIGRATION_6_7);
+        assertEquals(1, count(db, "Segment"));
+        assertEquals(0, count(db, "AccelRollup"));
+    }
+
+    @Test
+    public void migrate7To8() throws IOException {
+        SupportSQLiteDatabase db = helper.createDatabase(DB_NAME, 7);
+        insertSegment(db, 1);
+        db.close();
+
+        // Rows are moved by the background migrations afterwards, not by the schema change
+        db = helper.runMigrationsAndValidate(DB_NAME, 8, true, AppDatabase.MIGRATION_7_8);
+        assertEquals(1, count(db, "Segment"));
+        assertEquals(0, count(db, "MigrationState"));
+    }
+
+    @Test
+    public void migrate8To9() throws IOException {
+        SupportSQLiteDatabase db = helper.createDatabase(DB_NAME, 8);
+        insertSegment(db, 1);
+        insertTrip(db, 1);
+        db.close();
+
+        // Trips recorded before have a report of zeros
+        db = helper.runMigrationsAndValidate(DB_NAME, 9, true, AppDatabase.MIGRATION_8_9);
+        assertEquals(1, count(db, "Trip"));
+        assertEquals(0, getLong(db, "SELECT energy_recordingMillis + energy_wakeups + energy_uploadBytes FROM Trip"));
+    }
+
+    @Test
+    public void migrate9To10() throws IOException {
+        SupportSQLiteDatabase db = helper.createDatabase(DB_NAME, 9);
+        insertSegment(db, 1);
+        insertTrip(db, 1);
+        db.close();
+
+        db = helper.runMigrationsAndValidate(DB_NAME, 10, true, AppDatabase.MIGRATION_9_10);
+        assertEquals(1, count(db, "Trip"));
+        assertEquals(0, count(db, "SampleRate"));
+    }
+
+    @Test
+    public void migrate10To11() throws IOException {
+        SupportSQLiteDatabase db = helper.createDatabase(DB_NAME, 10);
+        insertTrip(db, 1);
+        db.close();
+
+        db = helper.runMigrationsAndValidate(DB_NAME, 11, true, AppDatabase.MIGRATION_10_11);
+        assertEquals(0, getLong(db, "SELECT energy_gpsOffMillis FROM Trip"));
+    }
+
+    @Test
+    public void migrate3ToLatest() throws IOException {
+        SupportSQLiteDatabase db = helper.createDatabase(DB_NAME, 3);
+        insertSegment(db, 1);
+        db.close();
+
+        db = helper.runMigrationsAndValidate(DB_NAME, 11, true, AppDatabase.MIGRATION_3_4,
+                AppDatabase.MIGRATION_4_5, AppDatabase.MIGRATION_5_6, AppDatabase.MIGRATION_6_7,
+                AppDatabase.MIGRATION_7_8, AppDatabase.MIGRATION_8_9, AppDatabase.MIGRATION_9_10,
+                AppDatabase.MIGRATION_10_11);
+        assertEquals(1, count(db, "Segment"));
+    }
+
+    /**
+     * Insert a segment of a trip, which every version since 3 has.
+     */
+    private static void insertSegment(@NonNull SupportSQLiteDatabase db, int tripID) {
+        db.execSQL("INSERT INTO Segment (tripID, ts1, lat1, lon1, ts2, lat2, lon2, rmsZAccel, maxZAccel) "
+                        + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)",
+                new Object[]{tripID, START, 49.26, -123.25, START + 5000, 49.2605, -123.2505, 1.5, 3.0});
+    }
+
+    /**
+     * Insert the state row of a finalized trip, which every version since 6 has.
+     */
+    private static void insertTrip(@NonNull SupportSQLiteDatabase db, int tripID) {
+        db.execSQL("INSERT INTO Trip (tripID, state, tripStart, tripEnd, dist, bumpiness, minLat, maxLat, minLon, "
+                        + "maxLon, finalizeMillis) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+                new Object[]{tripID, Trip.FINALIZED, START, START + 5000, 0.07, 1.5, 49.26, 49.2605, -123.2505,
+                        -123.25, 12});
+    }
+
+    private static long count(@NonNull SupportSQLiteDatabase db, @NonNull String table) {
+        return getLong(db, "SELECT COUNT(*) FROM `" + table + "`");
+    }
+
+    private static long getLong(@NonNull SupportSQLiteDatabase db, @NonNull String query) {
+        try (Cursor cursor = db.query(query)) {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        }
+    }
+}
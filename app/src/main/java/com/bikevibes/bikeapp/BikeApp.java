@@ -4,13 +4,20 @@ import android.app.Application;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
 
 import com.android.volley.RequestQueue;
 import com.android.volley.toolbox.Volley;
+import androidx.preference.PreferenceManager;
+
 import com.bikevibes.bikeapp.db.AppDatabase;
+import com.bikevibes.bikeapp.db.SensorStore;
+import com.bikevibes.core.MetricRegistry;
 
 import org.osmdroid.config.Configuration;
 import org.osmdroid.config.IConfigurationProvider;
+import org.osmdroid.library.BuildConfig;
 
 import java.io.File;
 import java.util.concurrent.ExecutorService;
@@ -24,26 +31,96 @@ import java.util.concurrent.Executors;
 public class BikeApp extends Application {
 
     private static final int THREADS = 1;
+    private static final String SNAPSHOT_FILE = "last_trip.bin";
+    private static final String LOG_DIR = "sensor_logs";
+    private static final String PARTITION_DIR = "partitions";
+    private static final String METRICS_DIR = "metrics";
+    private static final long METRICS_INTERVAL_MS = 60 * 1000;
+    private static final long METRICS_MAX_BYTES = 256 * 1024;
+    // Debug builds started by the startup macrobenchmark keep their data apart from the rider's
+    private static final String BENCHMARK_MARKER = "benchmark_data";
+    private static final String BENCHMARK_PREFIX = "benchmark_";
     private static final ExecutorService executors = Executors.newFixedThreadPool(THREADS);
     private static volatile RequestQueue queue;
+    private static MetricsLog metricsLog;
+    private boolean osmdroidInitialized = false;
+    private String dataPrefix = "";
 
+    /**
+     * Create notification channels and start loading slow components in the background.
+     * The database is opened (running any migrations) and OSMdroid is configured off the
+     * main thread so that the first frame is not blocked on disk I/O.
+     */
     @Override
     public void onCreate() {
         super.onCreate();
+        if (com.bikevibes.bikeapp.BuildConfig.DEBUG && new File(getFilesDir(), BENCHMARK_MARKER).exists()) {
+            dataPrefix = BENCHMARK_PREFIX;
+        }
         createNotificationChannels();
-        setOsmdroidPath();
+        executors.execute(this::initializeOsmdroid);
+        AppDatabase.getExecutor().execute(() -> getDatabase().getOpenHelper().getWritableDatabase());
+        executors.execute(this::recoverTrips);
+        executors.execute(() -> getRepository().startMigrations());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            MaintenanceJobService.schedule(this);
+        } else {
+            executors.execute(() -> runMaintenance(false, null));
+        }
     }
 
     public ExecutorService getExecutors() {
         return executors;
     }
 
+    /**
+     * Get the database, which is a separate file for the startup benchmark's data.
+     * @return - the singleton database instance
+     */
     public AppDatabase getDatabase() {
-        return AppDatabase.getDatabase(this);
+        return AppDatabase.getDatabase(this, dataPrefix + AppDatabase.DB_NAME);
     }
 
     public DataRepository getRepository() {
-        return DataRepository.getInstance(getDatabase());
+        return DataRepository.getInstance(getDatabase(),
+                new SensorStore(this, getDatabase(), getDatabasePath(dataPrefix + PARTITION_DIR)),
+                new File(getFilesDir(), dataPrefix + SNAPSHOT_FILE), new File(getFilesDir(), dataPrefix + LOG_DIR),
+                executors);
+    }
+
+    /**
+     * Return the log of pipeline metrics, creating it on first use.
+     * @return - the metrics log
+     */
+    public synchronized MetricsLog getMetricsLog() {
+        if (metricsLog == null) {
+            metricsLog = new MetricsLog(new File(getFilesDir(), METRICS_DIR), MetricRegistry.getDefault(),
+                    METRICS_INTERVAL_MS, METRICS_MAX_BYTES);
+        }
+        return metricsLog;
+    }
+
+    /**
+     * Repair sensor logs left by a crash and finalize the trips that were interrupted.
+     * WARNING: This method should not be called from the Main/UI thread
+     */
+    private void recoverTrips() {
+        int blackoutRadius = PreferenceManager.getDefaultSharedPreferences(this)
+                .getInt(getString(R.string.radius_pref_key), 50);
+        getRepository().recoverTrips(blackoutRadius);
+    }
+
+    /**
+     * Apply the storage retention settings to the database.
+     * @param idle - true if the device is idle and charging, which allows converting an old database
+     * @param onDone - called when the maintenance has finished, or null
+     */
+    void runMaintenance(boolean idle, Runnable onDone) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+        int rollupDays = prefs.getInt(getString(R.string.rollup_days_key), 30);
+        int segmentDays = prefs.getInt(getString(R.string.segment_days_key), 180);
+        long maxBytes = prefs.getInt(getString(R.string.db_cap_key), 256) * 1024L * 1024L;
+        getRepository().runMaintenance(rollupDays, segmentDays, maxBytes, idle, onDone);
     }
 
     /**
@@ -85,6 +162,21 @@ public class BikeApp extends Application {
         }
     }
 
+    /**
+     * Set the OSMdroid paths and load its configuration from the shared preferences.
+     * Safe to call from any thread; only the first call does any work.
+     * WARNING: This method should not be called from the Main/UI thread
+     */
+    public synchronized void initializeOsmdroid() {
+        if (osmdroidInitialized) {
+            return;
+        }
+        setOsmdroidPath();
+        Configuration.getInstance().load(this, PreferenceManager.getDefaultSharedPreferences(this));
+        Configuration.getInstance().setUserAgentValue(BuildConfig.APPLICATION_ID);
+        osmdroidInitialized = true;
+    }
+
     /**
      * Configure OSMdroid to save tiles in internal storage.
      * Sets both the base and tile cache paths to the app's cache directory.
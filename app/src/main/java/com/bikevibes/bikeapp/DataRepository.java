@@ -1,20 +1,49 @@
 package com.bikevibes.bikeapp;
 
+import android.os.SystemClock;
+import android.util.Log;
+
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 
+import com.bikevibes.bikeapp.db.AccelBuffer;
 import com.bikevibes.bikeapp.db.AccelerometerData;
 import com.bikevibes.bikeapp.db.AppDatabase;
+import com.bikevibes.bikeapp.db.BackgroundMigrator;
+import com.bikevibes.bikeapp.db.BatchMigration;
+import com.bikevibes.bikeapp.db.EnergyReport;
+import com.bikevibes.bikeapp.db.GridCell;
+import com.bikevibes.bikeapp.db.GroupCommitWriter;
 import com.bikevibes.bikeapp.db.LocationData;
+import com.bikevibes.bikeapp.db.PartitionMigration;
+import com.bikevibes.bikeapp.db.PriorityExecutor;
+import com.bikevibes.bikeapp.db.RetentionPolicy;
+import com.bikevibes.bikeapp.db.SampleRate;
 import com.bikevibes.bikeapp.db.Segment;
+import com.bikevibes.bikeapp.db.SegmentTile;
+import com.bikevibes.bikeapp.db.SensorLog;
+import com.bikevibes.bikeapp.db.SensorStore;
 import com.bikevibes.bikeapp.db.TrackingDao;
+import com.bikevibes.bikeapp.db.Trip;
+import com.bikevibes.bikeapp.db.TripSnapshot;
 import com.bikevibes.bikeapp.db.TripSummary;
 import com.bikevibes.bikeapp.db.TripSurface;
-
+import com.bikevibes.core.Counter;
+import com.bikevibes.core.LatencyHistogram;
+import com.bikevibes.core.MetricRegistry;
+import com.bikevibes.core.RateSchedule;
+import com.bikevibes.core.SegmentAggregator;
+
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
 
 /**
  * Provides access to the database for app components.
@@ -22,25 +51,59 @@ import java.util.List;
  * some current data objects.
  */
 public class DataRepository {
+    private static final String TAG = "DataRepository";
+    private static final long COMMIT_INTERVAL_MS = 5000;
+    private static final int COMMIT_MAX_ROWS = 1000;
+    private static final int MIGRATION_BATCH_ROWS = 5000;
     private static volatile DataRepository instance;
 
+    private final AppDatabase database;
     private final TrackingDao myDao;
+    private final SensorStore store;
+    private final GroupCommitWriter writer;
+    private final BackgroundMigrator migrator;
+    private final File snapshotFile;
+    private final File logDir;
+    private final Executor fileExecutor;
+    private final LatencyHistogram finalizeTimes = MetricRegistry.getDefault().histogram("trip.finalize");
+    private final Counter transactions = MetricRegistry.getDefault().counter(EnergyReport.TRANSACTIONS);
+    private MetricRegistry.Snapshot energyStart;
+    private boolean tripLoaded = false;
+    private int activeTrip = -1;
+    private int lastTripID = -1;
+    private volatile boolean indexesReady = false;
     private final MutableLiveData<TripSummary> trip = new MutableLiveData<>();
+    private final MutableLiveData<List<GridCell>> heatmap = new MutableLiveData<>();
+    private final MutableLiveData<List<Segment>> visibleSegments = new MutableLiveData<>();
 
-    DataRepository(@NonNull final AppDatabase database) {
+    DataRepository(@NonNull final AppDatabase database, @NonNull SensorStore store, @NonNull File snapshotFile,
+                   @NonNull File logDir, @NonNull Executor fileExecutor) {
+        this.database = database;
         myDao = database.myDao();
+        this.store = store;
+        writer = new GroupCommitWriter(database, store, AppDatabase.getExecutor(), COMMIT_INTERVAL_MS, COMMIT_MAX_ROWS);
+        migrator = new BackgroundMigrator(database, AppDatabase.getExecutor(),
+                Collections.<BatchMigration>singletonList(new PartitionMigration(database, store)), MIGRATION_BATCH_ROWS);
+        this.snapshotFile = snapshotFile;
+        this.logDir = logDir;
+        this.fileExecutor = fileExecutor;
     }
 
     /**
      * Get the singleton repository instance or create it if needed.
      * @param database - the database that the repository accesses
+     * @param store - the store that holds the raw sensor readings
+     * @param snapshotFile - the file that stores the last displayed trip
+     * @param logDir - the directory that holds the sensor logs
+     * @param fileExecutor - the thread pool used for snapshot and sensor log I/O
      * @return instance - the repository instance
      */
-    public static DataRepository getInstance(final AppDatabase database) {
+    public static DataRepository getInstance(final AppDatabase database, final SensorStore store, final File snapshotFile,
+                                             final File logDir, final Executor fileExecutor) {
         if (instance == null) {
             synchronized (DataRepository.class) {
                 if (instance == null) {
-                    instance = new DataRepository(database);
+                    instance = new DataRepository(database, store, snapshotFile, logDir, fileExecutor);
                 }
             }
         }
@@ -48,19 +111,31 @@ public class DataRepository {
     }
 
     /**
-     * Insert a list of accelerometer readings into the database.
-     * @param accelList - the list of data instances to insert
+     * Insert a buffer of accelerometer readings into the database.
+     * The buffer must not be modified afterwards.
+     * The readings are committed with the next group commit.
+     * @param buffer - the readings to insert
      */
-    void insertAccelBatch(List<AccelerometerData> accelList) {
-        AppDatabase.getExecutor().execute(() -> myDao.insertAccelBatch(accelList));
+    void insertAccelBuffer(AccelBuffer buffer) {
+        writer.addAccel(buffer);
     }
 
     /**
      * Insert a list of GPS readings into the database.
+     * The readings are committed with the next group commit.
      * @param locList - the list of GPS data points to insert
      */
     void insertLocBatch(List<LocationData> locList) {
-        AppDatabase.getExecutor().execute(() -> myDao.insertLocBatch(locList));
+        writer.addLocations(locList);
+    }
+
+    /**
+     * Commit all pending writes now.
+     * Work queued on the database executor afterwards sees the committed rows.
+     */
+    void flushWrites() {
+        writer.flush();
+        writer.logMetrics();
     }
 
     /**
@@ -70,7 +145,19 @@ public class DataRepository {
      * @return - a list of AccelerometerData readings
      */
     List<AccelerometerData> getAccels(int maxTrip) {
-        return myDao.getAccList(maxTrip);
+        List<AccelerometerData> accels = store.getAccels(maxTrip);
+        for (int tripID : getFinishedLogs(maxTrip)) {
+            try (SensorLog.Reader reader = new SensorLog.Reader(SensorLog.getFile(logDir, tripID))) {
+                while (reader.next()) {
+                    if (reader.getType() == SensorLog.TYPE_ACCEL) {
+                        accels.add(new AccelerometerData(new Date(reader.getTimestamp()), reader.getX(), reader.getY(), reader.getZ(), tripID));
+                    }
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Could not read sensor log", e);
+            }
+        }
+        return accels;
     }
 
     /**
@@ -80,11 +167,175 @@ public class DataRepository {
      * @return - a list of LocationData instances
      */
     List<LocationData> getLocs(int maxTrip) {
-        return myDao.getLocList(maxTrip);
+        List<LocationData> locs = store.getLocs(maxTrip);
+        for (int tripID : getFinishedLogs(maxTrip)) {
+            locs.addAll(getLogLocs(SensorLog.getFile(logDir, tripID), tripID));
+        }
+        return locs;
     }
 
     List<TripSurface> getSurfaces(int maxTrip) {return myDao.getSurfaceList(maxTrip);}
 
+    // ************************* Sensor Logs ************************************
+
+    /**
+     * Open the sensor log of a trip for recording.
+     * The log is not read or deleted by the repository until the trip is finalized.
+     * @param tripID - the trip being recorded
+     * @return - the opened log, or null if it could not be opened
+     */
+    @Nullable
+    SensorLog openSensorLog(int tripID) {
+        if (!logDir.exists() && !logDir.mkdirs()) {
+            Log.w(TAG, "Could not create sensor log directory");
+            return null;
+        }
+        try {
+            return SensorLog.open(SensorLog.getFile(logDir, tripID), fileExecutor);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not open sensor log", e);
+            return null;
+        }
+    }
+
+    /**
+     * Close the sensor log being recorded, syncing it to disk.
+     * @param log - the log returned by openSensorLog
+     */
+    void closeSensorLog(@NonNull SensorLog log) {
+        try {
+            log.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not close sensor log", e);
+        }
+    }
+
+    /**
+     * Return the trips with a sensor log that is not being recorded.
+     * @param maxTrip - the maximum trip ID
+     * @return - the trip IDs
+     */
+    @NonNull
+    private synchronized List<Integer> getFinishedLogs(int maxTrip) {
+        List<Integer> tripIDs = new ArrayList<>();
+        for (int tripID : SensorLog.getTripIDs(logDir)) {
+            if (tripID <= maxTrip && tripID != activeTrip) {
+                tripIDs.add(tripID);
+            }
+        }
+        return tripIDs;
+    }
+
+    /**
+     * Finish the trips that were interrupted by a crash.
+     * Torn records at the end of each sensor log are removed, then every trip that is not finalized
+     * is finalized, resuming a log trim that did not complete. Called once when the app starts.
+     * Trips with a state row were filtered for privacy as they were recorded, so the blackout
+     * radius is only applied to logs recorded before that.
+     * @param blackoutRadius - the radius around the start and end points to remove from old logs
+     */
+    void recoverTrips(int blackoutRadius) {
+        AppDatabase.getExecutor().execute(PriorityExecutor.PRIORITY_BACKGROUND, () -> {
+            List<Integer> logs = getFinishedLogs(Integer.MAX_VALUE);
+            Integer last = myDao.getLastTripID();
+            synchronized (this) {
+                lastTripID = Math.max(lastTripID, last == null ? -1 : last);
+                for (int tripID : logs) {
+                    lastTripID = Math.max(lastTripID, tripID);
+                }
+            }
+            for (int tripID : logs) {
+                try {
+                    SensorLog.recover(SensorLog.getFile(logDir, tripID));
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not recover sensor log", e);
+                    continue;
+                }
+                // Logs recorded before trips had a state row
+                if (myDao.getTrip(tripID) == null && myDao.getTripStartSeg(tripID) == null) {
+                    finalizeTrip(tripID, blackoutRadius);
+                }
+            }
+            for (Trip unfinished : myDao.getUnfinishedTrips()) {
+                synchronized (this) {
+                    if (unfinished.getTripID() == activeTrip) {
+                        continue;
+                    }
+                }
+                finalizeTrip(unfinished.getTripID(), 0);
+            }
+        });
+    }
+
+    /**
+     * Read the GPS readings of a sensor log.
+     * @param log - the log file
+     * @param tripID - the trip ID of the log
+     * @return - the readings in the order they were recorded
+     */
+    @NonNull
+    private List<LocationData> getLogLocs(@NonNull File log, int tripID) {
+        List<LocationData> locs = new ArrayList<>();
+        try (SensorLog.Reader reader = new SensorLog.Reader(log)) {
+            while (reader.next()) {
+                if (reader.getType() == SensorLog.TYPE_LOCATION) {
+                    locs.add(new LocationData(new Date(reader.getTimestamp()), reader.getLatitude(), reader.getLongitude(), tripID));
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read sensor log", e);
+        }
+        return locs;
+    }
+
+    /**
+     * Get the segments of a trip from its sensor log.
+     * Accelerometer readings are added to the segment whose time range contains them,
+     * in a single pass over the log, weighted by the sampling period they were taken at.
+     * @param log - the log file
+     * @param tripID - the trip ID of the log
+     * @param rates - the sampling periods of the trip
+     * @return the list of segments in the trip
+     */
+    @NonNull
+    private List<Segment> getLogSegments(@NonNull File log, int tripID, @NonNull RateSchedule rates) {
+        List<LocationData> locs = getLogLocs(log, tripID);
+        if (locs.size() < 2) {
+            return new ArrayList<>();
+        }
+        long[] times = new long[locs.size()];
+        for (int i = 0; i < locs.size(); i++) {
+            times[i] = locs.get(i).getTimestamp().getTime();
+        }
+        SegmentAggregator aggregator = new SegmentAggregator(times);
+        try (SensorLog.Reader reader = new SensorLog.Reader(log)) {
+            while (reader.next()) {
+                if (reader.getType() == SensorLog.TYPE_ACCEL) {
+                    aggregator.add(reader.getTimestamp(), reader.getZ(), rates.getWeight(reader.getTimestamp()));
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read sensor log", e);
+        }
+
+        List<Segment> segments = new ArrayList<>();
+        for (int i = 0; i < aggregator.getSegmentCount(); i++) {
+            segments.add(new Segment(tripID, locs.get(i), locs.get(i + 1), aggregator.getRms(i), aggregator.getMax(i)));
+        }
+        return segments;
+    }
+
+    /**
+     * Delete the sensor logs of finished trips.
+     * @param maxTrip - the maximum trip ID to delete
+     */
+    private void deleteSensorLogs(int maxTrip) {
+        for (int tripID : getFinishedLogs(maxTrip)) {
+            //noinspection ResultOfMethodCallIgnored
+            SensorLog.getFile(logDir, tripID).delete();
+        }
+    }
+
 
     // ************************* LiveData Getter Methods ************************************
     LiveData<TripSummary> getTripSummary() {
@@ -95,25 +346,158 @@ public class DataRepository {
         return myDao.getTrips();
     }
 
+    LiveData<List<GridCell>> getHeatmap() {
+        return heatmap;
+    }
+
+    LiveData<List<Segment>> getVisibleSegments() {
+        return visibleSegments;
+    }
+
     /**
      * Update the LiveData objects with the trip summary information
      * corresponding to the given tripID.
      * @param tripID - the trip to get information about
      */
     void update(int tripID) {
-        AppDatabase.getExecutor().execute(() -> {
+        AppDatabase.getReadExecutor().execute(() -> {
             List<Segment> segs = myDao.getSegments(tripID);
             if (segs.size() > 0) {
-                Date start = myDao.getTripStartSeg(tripID);
-                Date end = myDao.getTripEndSeg(tripID);
-                double bumpiness = Math.sqrt(myDao.getAvgAccel(tripID));
-                TripSummary temp = new TripSummary(tripID, segs, start, end, bumpiness);
-                updateMap(temp, segs, tripID);
-                trip.postValue(temp);
+                Trip stored = myDao.getTrip(tripID);
+                TripSummary temp;
+                if (stored != null && stored.hasSummary()) {
+                    temp = new TripSummary(tripID, segs, stored.getTripStart(), stored.getTripEnd(), stored.getBumpiness());
+                    updateMap(temp, segs, stored.getMaxLat(), stored.getMinLat(), stored.getMaxLon(), stored.getMinLon());
+                } else {
+                    // Trips finalized before the summary was stored
+                    Date start = myDao.getTripStartSeg(tripID);
+                    Date end = myDao.getTripEndSeg(tripID);
+                    double bumpiness = Math.sqrt(myDao.getAvgAccel(tripID));
+                    temp = new TripSummary(tripID, segs, start, end, bumpiness);
+                    updateMap(temp, segs, tripID);
+                }
+                synchronized (trip) {
+                    tripLoaded = true;
+                    trip.postValue(temp);
+                }
+                fileExecutor.execute(() -> TripSnapshot.write(snapshotFile, temp));
+            }
+        });
+    }
+
+    /**
+     * Show the last displayed trip from the snapshot file.
+     * Does nothing if a trip has already been loaded from the database,
+     * since the database is always more up to date.
+     */
+    void loadSnapshot() {
+        fileExecutor.execute(() -> {
+            TripSummary snapshot = TripSnapshot.read(snapshotFile);
+            synchronized (trip) {
+                if (snapshot != null && !tripLoaded) {
+                    trip.postValue(snapshot);
+                }
             }
         });
     }
 
+    /**
+     * Remove the snapshot and clear the current trip.
+     * Called when the database turns out to have no trips to show.
+     */
+    void clearSnapshot() {
+        synchronized (trip) {
+            tripLoaded = true;
+            trip.postValue(null);
+        }
+        fileExecutor.execute(() -> {
+            //noinspection ResultOfMethodCallIgnored
+            snapshotFile.delete();
+        });
+    }
+
+    /**
+     * Update the heatmap LiveData with the grid cells inside the given tile range.
+     * The number of rows read is proportional to the number of visible cells.
+     * Existing segments are binned into the grid the first time it is loaded.
+     * @param zoom - the grid level to load
+     * @param minX - the westernmost tile index
+     * @param maxX - the easternmost tile index
+     * @param minY - the northernmost tile index
+     * @param maxY - the southernmost tile index
+     */
+    void loadHeatmap(int zoom, int minX, int maxX, int minY, int maxY) {
+        getIndexExecutor().execute(() -> {
+            buildIndexesIfEmpty();
+            heatmap.postValue(myDao.getGridCells(zoom, minX, maxX, minY, maxY));
+        });
+    }
+
+    /**
+     * Update the visible segments LiveData with the segments of a trip inside the given tile range.
+     * Uses the spatial index so only the segments on screen are read.
+     * @param tripID - the trip being displayed
+     * @param minX - the westernmost tile index at SegmentTile.ZOOM
+     * @param maxX - the easternmost tile index
+     * @param minY - the northernmost tile index
+     * @param maxY - the southernmost tile index
+     */
+    void loadVisibleSegments(int tripID, int minX, int maxX, int minY, int maxY) {
+        getIndexExecutor().execute(() -> {
+            buildIndexesIfEmpty();
+            visibleSegments.postValue(myDao.getTripSegmentsInArea(tripID, minX, maxX, minY, maxY));
+        });
+    }
+
+    /**
+     * Return the IDs of all trips with a segment inside the given tile range.
+     * WARNING: This method CANNOT be called from the Main/UI thread
+     * @param minX - the westernmost tile index at SegmentTile.ZOOM
+     * @param maxX - the easternmost tile index
+     * @param minY - the northernmost tile index
+     * @param maxY - the southernmost tile index
+     * @return - the trip IDs in ascending order
+     */
+    List<Integer> getTripsInArea(int minX, int maxX, int minY, int maxY) {
+        buildIndexesIfEmpty();
+        return myDao.getTripsInArea(minX, maxX, minY, maxY);
+    }
+
+    /**
+     * Return the executor for queries that use the heatmap grid or spatial index.
+     * Until the indexes are known to be built, the query runs on the writer so it can build them.
+     * @return - the reader pool, or the writer if the indexes may need to be built
+     */
+    @NonNull
+    private PriorityExecutor getIndexExecutor() {
+        return indexesReady ? AppDatabase.getReadExecutor() : AppDatabase.getExecutor();
+    }
+
+    /**
+     * Build the heatmap grid and spatial index from every stored segment if either is empty.
+     * Only does work once after upgrading from a database without them.
+     * WARNING: This method CANNOT be called from the Main/UI thread
+     */
+    private void buildIndexesIfEmpty() {
+        if (indexesReady) {
+            return;
+        }
+        boolean gridEmpty = myDao.countGridCells() == 0;
+        boolean tilesEmpty = myDao.countSegmentTiles() == 0;
+        if (!gridEmpty && !tilesEmpty) {
+            indexesReady = true;
+            return;
+        }
+        List<Segment> segs = myDao.getAllSegments();
+        if (gridEmpty) {
+            myDao.updateGrid(GridCell.fromSegments(segs, 1));
+        }
+        if (tilesEmpty) {
+            myDao.insertSegmentTiles(SegmentTile.fromSegments(segs));
+        }
+        indexesReady = true;
+    }
+
     /**
      * Update the center of the map, zoom level, and lines to draw from
      * the list of location instances recorded during a given trip.
@@ -135,7 +519,20 @@ public class DataRepository {
         double minLat = Math.min(myDao.getMinLat(tripID), firstLoc.getLatitude());
         double maxLon = Math.max(myDao.getMaxLon(tripID), firstLoc.getLongitude());
         double minLon = Math.min(myDao.getMinLon(tripID), firstLoc.getLongitude());
+        updateMap(trip, segs, maxLat, minLat, maxLon, minLon);
+    }
 
+    /**
+     * Update the center of the map, zoom level, and lines to draw from the bounds of a trip.
+     * @param trip - the TripSummary to be updated
+     * @param segs - the list of location instances from the trip
+     * @param maxLat - the northernmost latitude of the trip
+     * @param minLat - the southernmost latitude of the trip
+     * @param maxLon - the easternmost longitude of the trip
+     * @param minLon - the westernmost longitude of the trip
+     */
+    private void updateMap(@NonNull TripSummary trip, @NonNull List<Segment> segs,
+                           double maxLat, double minLat, double maxLon, double minLon) {
         //Log.d("MAP", String.format("%f, %f, %f, %f", maxLat, minLat, maxLon, minLon));
 
         // Calculate the map's zoom level
@@ -160,10 +557,11 @@ public class DataRepository {
     /**
      * Get the segments of the trip from the list of location instances
      * @param locs - the list of LocationData instances
+     * @param rates - the sampling periods of the trip
      * @return the list of segments in the trip
      */
     @NonNull
-    private List<Segment> getSegments(@NonNull List<LocationData> locs, int tripID) {
+    private List<Segment> getSegments(@NonNull List<LocationData> locs, int tripID, @NonNull RateSchedule rates) {
         if (locs.size() < 2) {
             return new ArrayList<>();
         }
@@ -172,27 +570,136 @@ public class DataRepository {
         LocationData current;
         for (int i = 1; i < locs.size(); i++) {
             current = locs.get(i);
-            double rmsZAccel = Math.sqrt(myDao.getRmsZAccel(prev.getTimestamp(), current.getTimestamp()));
-            double maxZAccel = myDao.getMaxZAccel(prev.getTimestamp(), current.getTimestamp());
-            segments.add(new Segment(tripID, prev, current, rmsZAccel, maxZAccel));
+            SensorStore.Stats stats = getAccelStats(tripID, prev.getTimestamp().getTime(),
+                    current.getTimestamp().getTime(), rates);
+            segments.add(new Segment(tripID, prev, current, stats.getRms(), stats.getMaxZAccel()));
             prev = current;
         }
         return segments;
     }
 
+    /**
+     * Get the accelerometer stats of a time range, split where the sampling rate changed so that
+     * each stretch is weighted by its sampling period.
+     * @param tripID - the trip ID
+     * @param start - the start of the range in ms
+     * @param end - the end of the range in ms
+     * @param rates - the sampling periods of the trip
+     * @return - the stats of the range
+     */
+    @NonNull
+    private SensorStore.Stats getAccelStats(int tripID, long start, long end, @NonNull RateSchedule rates) {
+        List<Long> changes = rates.getChanges(start, end);
+        if (changes.isEmpty()) {
+            return store.getAccelStats(tripID, new Date(start), new Date(end));
+        }
+        SensorStore.Stats stats = new SensorStore.Stats();
+        long from = start;
+        for (long change : changes) {
+            stats.add(store.getAccelStats(tripID, new Date(from), new Date(change - 1)), rates.getWeight(from));
+            from = change;
+        }
+        stats.add(store.getAccelStats(tripID, new Date(from), new Date(end)), rates.getWeight(from));
+        return stats;
+    }
+
     /**
      * Delete all records from the local database and clear the current trip.
+     * Queued at ingest priority, so it runs after the writes queued before it and before the ones
+     * queued after it, which a trip saved or finalized after the delete would otherwise lose.
      */
     public void deleteAll() {
-        AppDatabase.getExecutor().execute(() -> {
-            myDao.deleteAllAccel();
-            myDao.deleteAllLoc();
+        writer.flush();
+        AppDatabase.getExecutor().execute(PriorityExecutor.PRIORITY_INGEST, () -> {
+            store.deleteAll();
             myDao.deleteAllSegments();
             myDao.deleteAllSurfaces();
-            trip.postValue(null);
+            myDao.deleteAllGridCells();
+            myDao.deleteAllSegmentTiles();
+            myDao.deleteAllAccelRollups();
+            myDao.deleteAllSampleRates();
+            myDao.deleteAllTrips();
+            deleteSensorLogs(Integer.MAX_VALUE);
+            clearSnapshot();
+            heatmap.postValue(new ArrayList<>());
+            visibleSegments.postValue(new ArrayList<>());
+        });
+    }
+
+    /**
+     * Apply the retention policy: roll up and reduce old trips, enforce the size cap and
+     * return freed pages to the file system. Runs after any pending ingest writes.
+     * @param rollupDays - the age in days after which raw accelerometer readings are rolled up
+     * @param segmentDays - the age in days after which only segments are kept
+     * @param maxBytes - the size cap of the database
+     * @param idle - true if the device is idle and charging
+     * @param onDone - called on the database executor when finished, or null
+     */
+    void runMaintenance(int rollupDays, int segmentDays, long maxBytes, boolean idle, @Nullable Runnable onDone) {
+        writer.flush();
+        AppDatabase.getExecutor().execute(PriorityExecutor.PRIORITY_BACKGROUND, () -> {
+            RetentionPolicy.Report report = new RetentionPolicy(database, store, rollupDays, segmentDays, maxBytes)
+                    .run(System.currentTimeMillis(), idle);
+            Log.i(TAG, "Maintenance: " + report);
+            if (onDone != null) {
+                onDone.run();
+            }
         });
     }
 
+    /**
+     * Add synthetic trips ending now and finalize them like recorded trips. For debugging only.
+     * Runs behind any pending ingest and UI work.
+     * @param config - the size and shape of the dataset
+     * @param onDone - called on the database executor once the trips are finalized, or null
+     */
+    void generateDataset(@NonNull DatasetGenerator.Config config, @Nullable Runnable onDone) {
+        writer.flush();
+        AppDatabase.getExecutor().execute(PriorityExecutor.PRIORITY_BACKGROUND, () -> {
+            DatasetGenerator.Result result = new DatasetGenerator(database, store).generate(config, System.currentTimeMillis());
+            Log.i(TAG, "Generated " + result);
+        });
+        recoverTrips(0);
+        if (onDone != null) {
+            AppDatabase.getExecutor().execute(PriorityExecutor.PRIORITY_BACKGROUND, onDone);
+        }
+    }
+
+    /**
+     * Start or resume the batch migrations of existing data in the background.
+     */
+    void startMigrations() {
+        migrator.start();
+    }
+
+    /**
+     * Return the progress of the running batch migration.
+     * @return - the progress, updated after every batch
+     */
+    public LiveData<BackgroundMigrator.Progress> getMigrationProgress() {
+        return migrator.getProgress();
+    }
+
+    /**
+     * Reserve a trip ID for a new recording and mark the trip as recording.
+     * IDs used by a stored trip or a leftover sensor log are skipped,
+     * so a new trip never continues one that was interrupted.
+     * @param tripID - the next trip ID according to the caller
+     * @return - the trip ID to record with
+     */
+    synchronized int startTrip(int tripID) {
+        tripID = Math.max(tripID, lastTripID + 1);
+        while (SensorLog.getFile(logDir, tripID).exists()) {
+            tripID++;
+        }
+        activeTrip = tripID;
+        lastTripID = tripID;
+        energyStart = MetricRegistry.getDefault().snapshot();
+        final Trip trip = new Trip(tripID);
+        AppDatabase.getExecutor().execute(PriorityExecutor.PRIORITY_INGEST, () -> myDao.saveTrip(trip));
+        return tripID;
+    }
+
     /**
      * Generate the segments and insert them into the database.
      * Blackout the raw data values within the blackout radius.
@@ -200,34 +707,154 @@ public class DataRepository {
      * @param blackout_radius - the radius around the start and end points to remove
      */
     public void createSegments(int tripID, int blackout_radius) {
-        AppDatabase.getExecutor().execute(() -> {
-            List<LocationData> locs = myDao.getTripLocs(tripID);
-            List<Segment> tripSegs = getSegments(locs, tripID);
-            myDao.insertSegments(tripSegs);
-
-            if (blackout_radius > 0) {
-                blackoutData(blackout_radius, tripSegs, tripID);
+        synchronized (this) {
+            if (activeTrip == tripID) {
+                activeTrip = -1;
             }
-        });
+        }
+        AppDatabase.getExecutor().execute(PriorityExecutor.PRIORITY_INGEST, () -> finalizeTrip(tripID, blackout_radius));
     }
 
     /**
-     * Remove the raw data within the blackout radius around the start and end points of a trip.
-     * It removes all data until a timestamp with a location recorded outside of the radius.
-     * @param radius - the distance around the start/end points that will be removed
-     * @param tripSegs - the Segments that compose of the trip
-     * @param tripID - the trip ID
+     * Finalize a trip from its sensor log if it has one, or from the database.
+     * The segments, heatmap and spatial index updates, summary and state change are committed in
+     * one transaction, so a crash leaves the trip either untouched or built and calling this again
+     * is safe. The readings are in a sensor log or partition file, which are not part of the
+     * transaction, so the blackout window is stored with the trip in the TRIMMING state and the
+     * readings are trimmed after the commit; a trip left in the TRIMMING state only repeats the trim.
+     * WARNING: This method must be called from the database executor
+     * @param tripID - the trip ID to process
+     * @param blackout_radius - the radius around the start and end points to remove
      */
-    private void blackoutData(int radius, @NonNull List<Segment> tripSegs, int tripID) {
-        if (tripSegs.size() < 3) {
-            myDao.delAccGt(tripID, new Date(0));
-            myDao.delLocGt(tripID, new Date(0));
-            myDao.deleteTripSurface(tripID);
+    private void finalizeTrip(int tripID, int blackout_radius) {
+        long start = System.nanoTime();
+        File log = SensorLog.getFile(logDir, tripID);
+        EnergyReport energy = takeEnergyReport(tripID);
+        Tracer.begin(Tracer.SEGMENT_BUILD);
+        Trip trip;
+        try {
+            trip = database.runInTransaction(() -> buildTrip(tripID, log, blackout_radius, energy));
+            transactions.inc();
+        } finally {
+            Tracer.end();
+        }
+        if (trip == null) {
             return;
         }
-        Date minTS = getBlackoutStart(tripSegs, radius);
-        Date maxTS = getBlackoutEnd(tripSegs, radius);
-        deleteBlackoutData(tripID, minTS, maxTS);
+        if (trip.getState() == Trip.TRIMMING) {
+            trimReadings(trip, log);
+        }
+        finalizeTimes.recordSince(start);
+        Log.i(TAG, String.format(Locale.US, "Finalized trip %d in %d ms", tripID, trip.getFinalizeMillis()));
+        if (energy != null) {
+            Log.i(TAG, "Energy of trip " + tripID + ": " + energy);
+        }
+    }
+
+    /**
+     * Build the energy report of the trip being recorded since startTrip, once its readings are written.
+     * Trips recovered after a restart have no report.
+     * @param tripID - the trip ID being finalized
+     * @return - the report, or null if the trip was not recorded by this process
+     */
+    @Nullable
+    private synchronized EnergyReport takeEnergyReport(int tripID) {
+        if (tripID != lastTripID || energyStart == null) {
+            return null;
+        }
+        EnergyReport energy = EnergyReport.fromMetrics(energyStart, MetricRegistry.getDefault().snapshot());
+        energyStart = null;
+        return energy;
+    }
+
+    /**
+     * Build the segments and summary of a trip and store them with its new state.
+     * WARNING: This method must be called inside a transaction
+     * @param tripID - the trip ID to process
+     * @param log - the sensor log of the trip, which may not exist
+     * @param blackout_radius - the radius around the start and end points to remove
+     * @param energy - the energy report of the recording, or null to keep the stored one
+     * @return - the stored trip, or null if it was already finalized
+     */
+    @Nullable
+    private Trip buildTrip(int tripID, @NonNull File log, int blackout_radius, @Nullable EnergyReport energy) {
+        long start = SystemClock.elapsedRealtime();
+        Trip trip = myDao.getTrip(tripID);
+        if (trip == null) {
+            trip = new Trip(tripID);
+        }
+        if (trip.getState() == Trip.FINALIZED) {
+            return null;
+        } else if (trip.getState() == Trip.TRIMMING) {
+            return trip;
+        }
+
+        boolean fromLog = log.exists();
+        RateSchedule rates = SampleRate.toSchedule(myDao.getSampleRates(tripID));
+        List<Segment> tripSegs = fromLog ? getLogSegments(log, tripID, rates) : getSegments(store.getTripLocs(tripID), tripID, rates);
+        buildIndexesIfEmpty();
+        myDao.insertSegments(tripSegs);
+        myDao.updateGrid(GridCell.fromSegments(tripSegs, 1));
+        myDao.insertSegmentTiles(SegmentTile.fromSegments(tripSegs));
+        trip.setSummary(tripSegs);
+        trip.setState(Trip.FINALIZED);
+        if (energy != null) {
+            trip.setEnergy(energy);
+        }
+
+        if (blackout_radius > 0) {
+            if (tripSegs.size() >= 3) {
+                trip.setBlackoutStart(getBlackoutStart(tripSegs, blackout_radius));
+                trip.setBlackoutEnd(getBlackoutEnd(tripSegs, blackout_radius));
+            }
+            trip.setState(Trip.TRIMMING);
+        }
+        trip.setFinalizeMillis(trip.getFinalizeMillis() + SystemClock.elapsedRealtime() - start);
+        myDao.saveTrip(trip);
+        return trip;
+    }
+
+    /**
+     * Remove the readings outside the stored blackout window from the sensor log or the stored
+     * readings of a trip, then mark the trip finalized. Trimming again removes nothing more, so a
+     * trip left in the TRIMMING state by a crash is trimmed again on recovery. If nothing is left,
+     * or the log cannot be trimmed, the readings and surface are deleted.
+     * @param trip - the trip in the TRIMMING state
+     * @param log - the sensor log of the trip, which may not exist
+     */
+    private void trimReadings(@NonNull Trip trip, @NonNull File log) {
+        long start = SystemClock.elapsedRealtime();
+        int remaining = 0;
+        if (trip.getBlackoutStart() != null) {
+            long minTS = trip.getBlackoutStart().getTime();
+            long maxTS = trip.getBlackoutEnd().getTime();
+            if (minTS == maxTS) {
+                maxTS--;
+            }
+            if (log.exists()) {
+                try {
+                    remaining = SensorLog.trim(log, minTS, maxTS);
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not trim sensor log", e);
+                }
+            } else {
+                remaining = store.deleteOutside(trip.getTripID(), new Date(minTS), new Date(maxTS));
+            }
+        }
+        if (remaining == 0) {
+            //noinspection ResultOfMethodCallIgnored
+            log.delete();
+            store.deleteTrip(trip.getTripID());
+        }
+        final boolean empty = remaining == 0;
+        database.runInTransaction(() -> {
+            if (empty) {
+                myDao.deleteTripSurface(trip.getTripID());
+            }
+            trip.setState(Trip.FINALIZED);
+            trip.setFinalizeMillis(trip.getFinalizeMillis() + SystemClock.elapsedRealtime() - start);
+            myDao.saveTrip(trip);
+        });
     }
 
     /**
@@ -276,40 +903,52 @@ public class DataRepository {
         return maxTS;
     }
 
-    /**
-     * Delete the trip data before minTS and after maxTS.
-     * If they are equal, delete that point as well.
-     * @param tripID - the trip to delete from
-     * @param minTS - the Date before which to delete
-     * @param maxTS - the Date after which to delete
-     */
-    private void deleteBlackoutData(int tripID, Date minTS, Date maxTS) {
-        if (minTS == maxTS) {
-            maxTS = new Date(maxTS.getTime() - 1);
-        }
-        myDao.delAccLt(tripID, minTS);
-        myDao.delLocLt(tripID, minTS);
-        myDao.delAccGt(tripID, maxTS);
-        myDao.delLocGt(tripID, maxTS);
+    public void insertTrip(TripSurface trip) {
+        writer.insertSurface(trip);
+        writer.flush();
+    }
 
-        if (myDao.countLocs(tripID) == 0) {
-            myDao.deleteTripSurface(tripID);
-        }
+    public void updateTrip(TripSurface trip) {
+        writer.updateSurface(trip);
+        writer.flush();
     }
 
-    public void insertTrip(TripSurface trip) {
-        AppDatabase.getExecutor().execute(() -> myDao.insertSurface(trip));
+    /**
+     * Record a change of the accelerometer sampling period, which weights the readings of the trip
+     * from then on. Queued at ingest priority, so it is stored before the trip is finalized.
+     * @param tripID - the trip being recorded
+     * @param timestamp - the Unix time of the change in ms
+     * @param periodUs - the new sampling period in us
+     */
+    void recordSampleRate(int tripID, long timestamp, int periodUs) {
+        AppDatabase.getExecutor().execute(PriorityExecutor.PRIORITY_INGEST,
+                () -> myDao.insertSampleRate(new SampleRate(tripID, timestamp, periodUs)));
     }
 
-    public void updateTrip(TripSurface trip) {
-        AppDatabase.getExecutor().execute(() -> myDao.updateSurface(trip));
+    /**
+     * Store the cost of an upload in the energy report of the last trip it contained.
+     * @param tripID - the last trip ID uploaded
+     * @param cpuNanos - the CPU time spent building and sending the upload
+     * @param bytes - the size of the upload
+     */
+    public void recordUpload(int tripID, long cpuNanos, long bytes) {
+        AppDatabase.getExecutor().execute(PriorityExecutor.PRIORITY_BACKGROUND,
+                () -> myDao.setTripUpload(tripID, cpuNanos / 1000000, bytes));
     }
 
+    /**
+     * Delete the uploaded records of trips up to an ID.
+     * Queued at ingest priority, in order with the writes of the trips, like deleteAll.
+     * @param tripID - the last trip ID uploaded
+     */
     public void deleteUpload(int tripID) {
-        AppDatabase.getExecutor().execute(() -> {
-            myDao.deleteAccList(tripID);
-            myDao.deleteLocList(tripID);
+        writer.flush();
+        AppDatabase.getExecutor().execute(PriorityExecutor.PRIORITY_INGEST, () -> {
+            store.deleteUpTo(tripID);
+            myDao.deleteAccelRollups(tripID);
+            myDao.deleteSampleRates(tripID);
             myDao.deleteSurfaceList(tripID);
+            deleteSensorLogs(tripID);
         });
     }
 }
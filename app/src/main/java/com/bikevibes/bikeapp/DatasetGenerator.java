@@ -0,0 +1,309 @@
+package com.bikevibes.bikeapp;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import com.bikevibes.bikeapp.db.AccelBuffer;
+import com.bikevibes.bikeapp.db.AccelWriter;
+import com.bikevibes.bikeapp.db.AppDatabase;
+import com.bikevibes.bikeapp.db.LocationData;
+import com.bikevibes.bikeapp.db.SensorStore;
+import com.bikevibes.bikeapp.db.TrackingDao;
+import com.bikevibes.bikeapp.db.Trip;
+import com.bikevibes.bikeapp.db.TripSurface;
+import com.bikevibes.core.RideGenerator;
+import com.bikevibes.core.SensorProcessor;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Fills the database with synthetic daily commutes for database, map and UI scale testing.
+ *
+ * Each trip gets its accelerometer and GPS readings from a RideGenerator, a surface and a trip row
+ * in the RECORDING state, exactly as if it had just been recorded. Segments, the heatmap, the
+ * spatial index and the trip summaries are then built by the repository's normal finalization.
+ * Readings go to the per-trip partitions, or to the legacy tables in bike.db if requested, which
+ * PartitionMigration then moves. Accelerometer readings go through AccelWriter either way.
+ *
+ * Readings are written in large batches with prepared statements, so millions of rows take seconds.
+ */
+public class DatasetGenerator {
+    private static final int BUFFER_SIZE = 10000;
+    private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+    private static final long FIRST_TRIP_MS = 7 * 60 * 60 * 1000L;
+    private static final long TRIP_SPACING_MS = 12 * 60 * 60 * 1000L;
+    private static final long JITTER_MS = 20 * 60 * 1000L;
+    private static final double START_SPREAD_DEGREES = 0.01;
+
+    // Surface mix and bump profile, in the order of SurfaceDialogFragment.items
+    private static final double[] SURFACE_SHARE = {0.7, 0.1, 0.2};
+    private static final double[] ROUGHNESS = {0.5, 1.2, 2.0};
+    private static final double[] BUMPS_PER_KM = {2, 8, 15};
+
+    private final AppDatabase database;
+    private final TrackingDao myDao;
+    private final SensorStore store;
+
+    /**
+     * Initialize the generator.
+     * @param database - the database to add trips to
+     * @param store - the store that holds the raw sensor readings
+     */
+    public DatasetGenerator(@NonNull AppDatabase database, @NonNull SensorStore store) {
+        this.database = database;
+        this.myDao = database.myDao();
+        this.store = store;
+    }
+
+    /**
+     * Generate the trips of the configuration, with IDs after the last stored trip and the last
+     * trip ending before the given time. The trips are left for the repository to finalize.
+     * @param config - the size and shape of the dataset
+     * @param end - the Unix time in ms before which the trips end
+     * @return - what was generated
+     */
+    @NonNull
+    public Result generate(@NonNull Config config, long end) {
+        long start = SystemClock.elapsedRealtime();
+        Random random = new Random(config.seed);
+        RideGenerator rides = new RideGenerator(config.seed, config.sampleHz, config.fixMs);
+        rides.setShape(config.shape);
+        Writer writer = new Writer(config.legacy);
+
+        Integer last = myDao.getLastTripID();
+        int firstTrip = (last == null ? 0 : last) + 1;
+        int days = (config.trips + config.tripsPerDay - 1) / config.tripsPerDay;
+        long spacing = TRIP_SPACING_MS / config.tripsPerDay;
+        long duration = Math.min(config.durationSeconds * 1000L, spacing - 2 * JITTER_MS);
+        long firstDay = end - days * DAY_MS;
+
+        for (int i = 0; i < config.trips; i++) {
+            int tripID = firstTrip + i;
+            long tripStart = firstDay + (i / config.tripsPerDay) * DAY_MS + FIRST_TRIP_MS
+                    + (i % config.tripsPerDay) * spacing + (long) ((random.nextDouble() * 2 - 1) * JITTER_MS);
+            int surface = pickSurface(random);
+            rides.setSurface(ROUGHNESS[surface], BUMPS_PER_KM[surface]);
+
+            writer.tripID = tripID;
+            double lat = config.lat + (random.nextDouble() * 2 - 1) * START_SPREAD_DEGREES;
+            double lon = config.lon + (random.nextDouble() * 2 - 1) * START_SPREAD_DEGREES;
+            rides.generate(tripStart, duration, lat, lon, writer);
+            writer.flush();
+
+            myDao.insertSurface(new TripSurface(tripID, SurfaceDialogFragment.items[surface]));
+            myDao.saveTrip(new Trip(tripID));
+        }
+        return new Result(firstTrip, config.trips, writer.accelRows, writer.locRows,
+                SystemClock.elapsedRealtime() - start);
+    }
+
+    private static int pickSurface(@NonNull Random random) {
+        double value = random.nextDouble();
+        for (int i = 0; i < SURFACE_SHARE.length - 1; i++) {
+            if (value < SURFACE_SHARE[i]) {
+                return i;
+            }
+            value -= SURFACE_SHARE[i];
+        }
+        return SURFACE_SHARE.length - 1;
+    }
+
+    /**
+     * Collects the readings of the current trip and writes them in batches.
+     */
+    private class Writer implements SensorProcessor.Sink {
+        private final boolean legacy;
+        private final AccelBuffer accels = new AccelBuffer(BUFFER_SIZE);
+        private final List<LocationData> locs = new ArrayList<>();
+        private final AccelWriter legacyWriter = new AccelWriter(database.getOpenHelper().getWritableDatabase());
+        private int tripID;
+        private long accelRows = 0;
+        private long locRows = 0;
+
+        Writer(boolean legacy) {
+            this.legacy = legacy;
+        }
+
+        @Override
+        public void accel(long timestamp, float x, float y, float z) {
+            accels.add(timestamp, x, y, z, tripID);
+            if (accels.isFull()) {
+                flushAccels();
+            }
+        }
+
+        @Override
+        public void location(long timestamp, double lat, double lon) {
+            locs.add(new LocationData(new Date(timestamp), lat, lon, tripID));
+        }
+
+        /**
+         * Write the readings collected so far.
+         */
+        void flush() {
+            flushAccels();
+            if (locs.isEmpty()) {
+                return;
+            }
+            if (legacy) {
+                myDao.insertLocBatch(locs);
+            } else {
+                store.insertLocations(locs);
+            }
+            locRows += locs.size();
+            locs.clear();
+        }
+
+        private void flushAccels() {
+            if (accels.isEmpty()) {
+                return;
+            }
+            if (legacy) {
+                legacyWriter.insert(accels);
+            } else {
+                store.insertAccel(accels);
+            }
+            accelRows += accels.size();
+            accels.clear();
+        }
+    }
+
+    /**
+     * The size and shape of a generated dataset. The defaults are a year of two daily commutes.
+     */
+    public static class Config {
+        private int trips = 730;
+        private int tripsPerDay = 2;
+        private int durationSeconds = 30 * 60;
+        private int sampleHz = 5;
+        private long fixMs = 5000;
+        private int shape = RideGenerator.OUT_AND_BACK;
+        private double lat = 53.5232;
+        private double lon = -113.5263;
+        private long seed = 1;
+        private boolean legacy = false;
+
+        public Config setTrips(int trips) {
+            this.trips = trips;
+            return this;
+        }
+
+        public Config setTripsPerDay(int tripsPerDay) {
+            this.tripsPerDay = Math.max(tripsPerDay, 1);
+            return this;
+        }
+
+        public Config setDurationMinutes(int durationMinutes) {
+            this.durationSeconds = durationMinutes * 60;
+            return this;
+        }
+
+        public Config setDurationSeconds(int durationSeconds) {
+            this.durationSeconds = durationSeconds;
+            return this;
+        }
+
+        public Config setSampleHz(int sampleHz) {
+            this.sampleHz = sampleHz;
+            return this;
+        }
+
+        public Config setFixMs(long fixMs) {
+            this.fixMs = fixMs;
+            return this;
+        }
+
+        /**
+         * Set the route shape of every trip.
+         * @param shape - RideGenerator.STRAIGHT, OUT_AND_BACK or LOOP
+         * @return - this configuration
+         */
+        public Config setShape(int shape) {
+            this.shape = shape;
+            return this;
+        }
+
+        /**
+         * Set the point that trips start near.
+         * @param lat - the latitude
+         * @param lon - the longitude
+         * @return - this configuration
+         */
+        public Config setHome(double lat, double lon) {
+            this.lat = lat;
+            this.lon = lon;
+            return this;
+        }
+
+        public Config setSeed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        /**
+         * Write the readings to the legacy tables in bike.db instead of the partitions,
+         * as a database from before partitioning would have them.
+         * @param legacy - true to use the legacy tables
+         * @return - this configuration
+         */
+        public Config setLegacy(boolean legacy) {
+            this.legacy = legacy;
+            return this;
+        }
+
+        public int getTrips() {
+            return trips;
+        }
+    }
+
+    /**
+     * What a call to generate produced.
+     */
+    public static class Result {
+        private final int firstTrip;
+        private final int trips;
+        private final long accelRows;
+        private final long locRows;
+        private final long millis;
+
+        Result(int firstTrip, int trips, long accelRows, long locRows, long millis) {
+            this.firstTrip = firstTrip;
+            this.trips = trips;
+            this.accelRows = accelRows;
+            this.locRows = locRows;
+            this.millis = millis;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d trips from %d, %d accelerometer and %d GPS rows in %d ms",
+                    trips, firstTrip, accelRows, locRows, millis);
+        }
+
+        public int getFirstTrip() {
+            return firstTrip;
+        }
+
+        public int getTrips() {
+            return trips;
+        }
+
+        public long getAccelRows() {
+            return accelRows;
+        }
+
+        public long getLocRows() {
+            return locRows;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+    }
+}
@@ -6,9 +6,9 @@ import androidx.appcompat.widget.SwitchCompat;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 import androidx.fragment.app.DialogFragment;
+import androidx.lifecycle.Lifecycle;
 import androidx.lifecycle.ViewModelProvider;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
-import androidx.preference.PreferenceManager;
 
 import android.Manifest;
 import android.content.BroadcastReceiver;
@@ -23,20 +23,29 @@ import android.os.IBinder;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.widget.Button;
+import android.widget.FrameLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.bikevibes.bikeapp.db.GridCell;
+import com.bikevibes.bikeapp.db.Segment;
 import com.bikevibes.bikeapp.db.TripSummary;
 
 import org.osmdroid.config.Configuration;
-import org.osmdroid.library.BuildConfig;
+import org.osmdroid.events.DelayedMapListener;
+import org.osmdroid.events.MapListener;
+import org.osmdroid.events.ScrollEvent;
+import org.osmdroid.events.ZoomEvent;
+import org.osmdroid.tileprovider.MapTileProviderBase;
 import org.osmdroid.tileprovider.tilesource.ThunderforestTileSource;
 import org.osmdroid.util.GeoPoint;
 import org.osmdroid.views.MapView;
 import org.osmdroid.views.overlay.CopyrightOverlay;
 import org.osmdroid.views.overlay.Overlay;
+import org.osmdroid.views.overlay.Polygon;
 import org.osmdroid.views.overlay.Polyline;
 
+import java.io.File;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -55,6 +64,7 @@ public class MainActivity extends AppCompatActivity implements SurfaceDialogFrag
     private boolean isBound;
     private MapView map = null;
     private TrackingViewModel viewModel;
+    private boolean showHeatmap = false;
 
     // Receiver that listens for when the upload task is finished
     private final BroadcastReceiver bReceiver = new BroadcastReceiver() {
@@ -98,12 +108,17 @@ public class MainActivity extends AppCompatActivity implements SurfaceDialogFrag
         setContentView(R.layout.activity_main);
         setSupportActionBar(findViewById(R.id.main_toolbar));
 
-        initializeMap();
         collectDataViews();
         initializeViewModel();
-        requestPermissions();
+        initializeMap();
         initializeTrackingSwitch();
         initializeUploadButton();
+        if (savedInstanceState == null) {
+            startReplay();
+        }
+
+        // Ask for permissions once the first frame is drawn
+        getWindow().getDecorView().post(this::requestPermissions);
     }
 
     /**
@@ -113,7 +128,9 @@ public class MainActivity extends AppCompatActivity implements SurfaceDialogFrag
     @Override
     protected void onResume() {
         super.onResume();
-        map.onResume();
+        if (map != null) {
+            map.onResume();
+        }
 
         if (!isBound) {
             // Bind TrackingService
@@ -133,7 +150,9 @@ public class MainActivity extends AppCompatActivity implements SurfaceDialogFrag
     @Override
     protected void onPause() {
         super.onPause();
-        map.onPause();
+        if (map != null) {
+            map.onPause();
+        }
 
         if (isBound) {
             // Unbind TrackingService
@@ -152,6 +171,7 @@ public class MainActivity extends AppCompatActivity implements SurfaceDialogFrag
     @Override
     public boolean onCreateOptionsMenu(@NonNull Menu menu) {
         getMenuInflater().inflate(R.menu.main_menu, menu);
+        menu.findItem(R.id.action_generate).setVisible(BuildConfig.DEBUG);
         return true;
     }
 
@@ -175,6 +195,20 @@ public class MainActivity extends AppCompatActivity implements SurfaceDialogFrag
                 Toast.makeText(getApplicationContext(), getString(R.string.first_trip), Toast.LENGTH_SHORT).show();
             }
             return true;
+        } else if (item.getItemId() == R.id.action_heatmap) {
+            // Toggle between the current trip and the heatmap of all trips
+            showHeatmap = !item.isChecked();
+            item.setChecked(showHeatmap);
+            reloadMap();
+            return true;
+        } else if (item.getItemId() == R.id.action_generate) {
+            // Fill the database with synthetic trips to test how the app scales (debug builds only)
+            DatasetGenerator.Config config = new DatasetGenerator.Config();
+            final int trips = config.getTrips();
+            Toast.makeText(getApplicationContext(), getString(R.string.generate_started, trips), Toast.LENGTH_SHORT).show();
+            ((BikeApp) getApplication()).getRepository().generateDataset(config, () -> runOnUiThread(() ->
+                    Toast.makeText(getApplicationContext(), getString(R.string.generate_done, trips), Toast.LENGTH_SHORT).show()));
+            return true;
         } else if (item.getItemId() == R.id.action_settings) {
             // Open settings menu
             Intent intent = new Intent(MainActivity.this, SettingsActivity.class);
@@ -186,17 +220,40 @@ public class MainActivity extends AppCompatActivity implements SurfaceDialogFrag
     }
 
     /**
-     * Initialize the OSMdroid map when the activity is created.
-     * Set the tile source, add an overlay, and configure settings.
+     * Initialize the OSMdroid map without blocking the first frame.
+     * The configuration and tile provider are loaded on a background thread,
+     * then the map view is created and attached on the UI thread.
+     * Tiles are read from offline region packs and the disk cache before the network.
      */
     private void initializeMap() {
-        Context ctx = getApplicationContext();
-        Configuration.getInstance().load(ctx, PreferenceManager.getDefaultSharedPreferences(ctx));
+        BikeApp app = (BikeApp) getApplication();
+        app.getExecutors().execute(() -> {
+            app.initializeOsmdroid();
+            Context ctx = getApplicationContext();
+            ThunderforestTileSource tileSource = new ThunderforestTileSource(ctx, ThunderforestTileSource.NEIGHBOURHOOD);
+            File cacheDir = new File(Configuration.getInstance().getOsmdroidTileCache(), "lru");
+            MapTileProviderBase provider = TilePackModule.createProvider(ctx, tileSource, cacheDir);
+            runOnUiThread(() -> {
+                if (isDestroyed()) {
+                    provider.detach();
+                } else {
+                    attachMap(provider);
+                }
+            });
+        });
+    }
 
-        // Initialize map
-        Configuration.getInstance().setUserAgentValue(BuildConfig.APPLICATION_ID);
-        map = findViewById(R.id.mapView);
-        map.setTileSource(new ThunderforestTileSource(ctx, ThunderforestTileSource.NEIGHBOURHOOD));
+    /**
+     * Create the map view, add an overlay, and configure settings.
+     * Moves the map to the current trip if it was loaded first.
+     * @param provider - the tile provider for the map
+     */
+    private void attachMap(MapTileProviderBase provider) {
+        Context ctx = getApplicationContext();
+        map = new MapView(this, provider);
+        FrameLayout container = findViewById(R.id.map_container);
+        container.addView(map, new FrameLayout.LayoutParams(
+                FrameLayout.LayoutParams.MATCH_PARENT, FrameLayout.LayoutParams.MATCH_PARENT));
 
         // Setup map overlay
         CopyrightOverlay overlay = new CopyrightOverlay(ctx);
@@ -209,6 +266,44 @@ public class MainActivity extends AppCompatActivity implements SurfaceDialogFrag
         map.setTilesScaledToDpi(true);
         setMapZoom(10.0);
         setMapCenter(53.5351, -113.4938);
+
+        // Reload the visible segments or heatmap cells once the map stops moving
+        final long RELOAD_DELAY = 200;
+        map.addMapListener(new DelayedMapListener(new MapListener() {
+            @Override
+            public boolean onScroll(ScrollEvent event) {
+                reloadMap();
+                return true;
+            }
+
+            @Override
+            public boolean onZoom(ZoomEvent event) {
+                reloadMap();
+                return true;
+            }
+        }, RELOAD_DELAY));
+
+        if (getLifecycle().getCurrentState().isAtLeast(Lifecycle.State.RESUMED)) {
+            map.onResume();
+        }
+        TripSummary trip = viewModel.getTripSummary().getValue();
+        if (trip != null) {
+            moveMapToTrip(trip);
+        }
+    }
+
+    /**
+     * Load the trip segments or heatmap cells in the current map window.
+     */
+    private void reloadMap() {
+        if (map == null) {
+            return;
+        }
+        if (showHeatmap) {
+            viewModel.loadHeatmap(map.getBoundingBox(), map.getZoomLevelDouble());
+        } else {
+            viewModel.loadVisibleSegments(map.getBoundingBox());
+        }
     }
 
     /**
@@ -231,7 +326,14 @@ public class MainActivity extends AppCompatActivity implements SurfaceDialogFrag
         // Setup ViewModel and live data
         viewModel = new ViewModelProvider(this).get(TrackingViewModel.class);
         viewModel.getTripSummary().observe(this, this::updateTrip);
-        viewModel.getTrips().observe(this, viewModel::setTrips);
+        viewModel.getTrips().observe(this, trips -> {
+            viewModel.setTrips(trips);
+            if (trips.isEmpty()) {
+                reportFullyDrawn();
+            }
+        });
+        viewModel.getHeatmap().observe(this, this::updateHeatmap);
+        viewModel.getVisibleSegments().observe(this, this::updateSegments);
     }
 
     /**
@@ -271,6 +373,21 @@ public class MainActivity extends AppCompatActivity implements SurfaceDialogFrag
         });
     }
 
+    /**
+     * Start tracking a replayed ride if a debug build was launched with the replay extras of
+     * TrackingService, as the profiling script and macrobenchmark do.
+     */
+    private void startReplay() {
+        Intent launch = getIntent();
+        if (!BuildConfig.DEBUG || !(launch.hasExtra(TrackingService.EXTRA_TRACE_PATH)
+                || launch.hasExtra(TrackingService.EXTRA_SYNTHETIC_SECONDS))) {
+            return;
+        }
+        Intent intent = new Intent(getApplicationContext(), TrackingService.class);
+        intent.putExtras(launch);
+        getApplicationContext().startService(intent);
+    }
+
     /**
      * Create a change listener for tracking switch.
      * Start tracking when enabled and disable tracking when disabled.
@@ -281,7 +398,6 @@ public class MainActivity extends AppCompatActivity implements SurfaceDialogFrag
         mySwitch.setOnCheckedChangeListener((compoundButton, isActive) -> {
             if (isBound && isActive && !trackingService.getTracking()) {
                 // Start TrackingService
-                viewModel.insertSurface(trackingService.getTripID() + 1);
                 Intent intent = new Intent(getApplicationContext(), TrackingService.class);
                 getApplicationContext().startService(intent);
             } else if (isBound && !isActive && trackingService.getTracking()) {
@@ -297,27 +413,83 @@ public class MainActivity extends AppCompatActivity implements SurfaceDialogFrag
      * @param trip - the representation of the current trip
      */
     private void updateTrip(TripSummary trip) {
-        if (trip != null) {
-            BikeApp app = (BikeApp) getApplication();
+        Tracer.begin(Tracer.UPDATE_TRIP);
+        try {
+            if (trip != null) {
+                moveMapToTrip(trip);
+
+                // Update the text fields
+                setStartText(trip.getStart());
+                setEndText(trip.getEnd());
+                setDistText(trip.getDist());
+                setSpeedText(trip.getSpeed());
+                setBumpText(trip.getBumpScore());
+            } else {
+                resetTrip();
+            }
+        } finally {
+            Tracer.end();
+        }
+        reportFullyDrawn();
+    }
 
-            // Generate polylines and update the map
-            app.getExecutors().execute(() -> {
-                List<Polyline> lines = viewModel.getLines(trip.getSegments());
-                map.post(() -> {
+    /**
+     * Move the map to the trip and load the segments that are visible.
+     * A trip restored from the snapshot draws its simplified segments directly,
+     * since the database has not been queried yet.
+     * Does nothing if the map has not been attached yet or the heatmap is shown.
+     * @param trip - the representation of the current trip
+     */
+    private void moveMapToTrip(@NonNull TripSummary trip) {
+        if (map != null && !showHeatmap) {
+            setMapZoom(trip.getZoom());
+            setMapCenter(trip.getCenterLat(), trip.getCenterLon());
+            if (trip.isFromSnapshot()) {
+                setMapLines(viewModel.getLines(trip.getSegments()));
+            } else {
+                map.post(this::reloadMap);
+            }
+        }
+    }
+
+    /**
+     * Draw the segments of the current trip that are visible in the map window.
+     * Ignores results for a trip that is no longer shown.
+     * @param segments - the visible segments of the current trip
+     */
+    private void updateSegments(List<Segment> segments) {
+        if (showHeatmap || segments == null) {
+            return;
+        }
+        if (segments.size() > 0 && segments.get(0).getTripID() != viewModel.getTripID()) {
+            return;
+        }
+        BikeApp app = (BikeApp) getApplication();
+        app.getExecutors().execute(() -> {
+            List<Polyline> lines = viewModel.getLines(segments);
+            runOnUiThread(() -> {
+                if (!showHeatmap) {
                     setMapLines(lines);
-                    setMapZoom(trip.getZoom());
-                    setMapCenter(trip.getCenterLat(), trip.getCenterLon());
-                });
+                }
             });
+        });
+    }
 
-            // Update the text fields
-            setStartText(trip.getStart());
-            setEndText(trip.getEnd());
-            setDistText(trip.getDist());
-            setSpeedText(trip.getSpeed());
-            setBumpText(trip.getBumpScore());
-        } else {
-            resetTrip();
+    /**
+     * Draw the heatmap cells visible in the map window.
+     * @param cells - the grid cells to draw
+     */
+    private void updateHeatmap(List<GridCell> cells) {
+        if (showHeatmap && cells != null) {
+            BikeApp app = (BikeApp) getApplication();
+            app.getExecutors().execute(() -> {
+                List<Polygon> polygons = viewModel.getHeatmapPolygons(cells);
+                runOnUiThread(() -> {
+                    if (showHeatmap) {
+                        setMapLines(polygons);
+                    }
+                });
+            });
         }
     }
 
@@ -409,7 +581,9 @@ public class MainActivity extends AppCompatActivity implements SurfaceDialogFrag
      * @param zoom - the double valued zoom level to change to
      */
     private void setMapZoom(Double zoom) {
-        map.getController().setZoom(zoom);
+        if (map != null) {
+            map.getController().setZoom(zoom);
+        }
     }
 
     /**
@@ -418,20 +592,26 @@ public class MainActivity extends AppCompatActivity implements SurfaceDialogFrag
      * @param lon - the longitude that the map should be centered to
      */
     private void setMapCenter(double lat, double lon) {
-        map.getController().setCenter(new GeoPoint(lat, lon));
+        if (map != null) {
+            map.getController().setCenter(new GeoPoint(lat, lon));
+        }
     }
 
     /**
      * Clear the current lines from the map and draw new ones.
-     * @param lines - the new lines to be drawn to the map
+     * @param lines - the new lines or heatmap cells to be drawn to the map
      */
-    private void setMapLines(@NonNull List<Polyline> lines) {
+    private void setMapLines(@NonNull List<? extends Overlay> lines) {
+        if (map == null) {
+            return;
+        }
         Overlay copyright = map.getOverlays().get(0);
         map.getOverlays().clear();
         map.getOverlays().add(copyright);
         for (int i = 0; i < lines.size(); i++) {
             map.getOverlays().add(lines.get(i));
         }
+        map.invalidate();
     }
 
     @Override
@@ -0,0 +1,68 @@
+package com.bikevibes.bikeapp;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+
+/**
+ * Runs the database retention policy once a day while the device is idle and charging.
+ * On versions without JobScheduler, BikeApp runs it when the app starts instead, without the
+ * auto-vacuum conversion of old databases that only idle runs make.
+ */
+@RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+public class MaintenanceJobService extends JobService {
+    private static final int JOB_ID = 1;
+    private static final long PERIOD_MS = 24 * 60 * 60 * 1000L;
+
+    /**
+     * Schedule the maintenance job unless it is already scheduled.
+     * Rescheduling would restart its period, so an app opened daily would never run it.
+     * @param context - the context used to get the job scheduler
+     */
+    static void schedule(@NonNull Context context) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (scheduler == null) {
+            return;
+        }
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID) {
+                return;
+            }
+        }
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, MaintenanceJobService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPeriodic(PERIOD_MS)
+                .build();
+        scheduler.schedule(job);
+    }
+
+    /**
+     * Queue the maintenance on the database executor and finish the job when it is done.
+     * @param params - the job parameters
+     * @return - true, since the work continues on another thread
+     */
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        BikeApp app = (BikeApp) getApplication();
+        app.runMaintenance(true, () -> jobFinished(params, false));
+        return true;
+    }
+
+    /**
+     * Let a started run finish; each stage commits on its own, so stopping early loses nothing.
+     * @param params - the job parameters
+     * @return - false, since the job will run again in the next period
+     */
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        return false;
+    }
+}
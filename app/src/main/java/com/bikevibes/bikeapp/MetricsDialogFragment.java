@@ -0,0 +1,96 @@
+package com.bikevibes.bikeapp;
+
+import android.app.Activity;
+import android.app.AlertDialog;
+import android.app.Dialog;
+import android.content.Intent;
+import android.graphics.Typeface;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.widget.ScrollView;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.fragment.app.DialogFragment;
+
+import com.bikevibes.core.MetricRegistry;
+
+/**
+ * Hidden performance screen, opened from the settings once unlocked.
+ * Shows every pipeline metric, refreshed each second with counter rates over that second,
+ * and shares the rolling metrics log as text.
+ */
+public class MetricsDialogFragment extends DialogFragment {
+    private static final long REFRESH_MS = 1000;
+    // Keep the shared text well under the 1 MB limit of an intent
+    private static final int SHARE_MAX_CHARS = 200000;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable refresh = this::refresh;
+    private TextView text;
+    private MetricRegistry.Snapshot last;
+
+    @NonNull
+    @Override
+    public Dialog onCreateDialog(Bundle savedInstanceState) {
+        text = new TextView(getActivity());
+        text.setTypeface(Typeface.MONOSPACE);
+        text.setTextSize(11);
+        int padding = (int) (16 * getResources().getDisplayMetrics().density);
+        text.setPadding(padding, padding, padding, padding);
+        ScrollView scroll = new ScrollView(getActivity());
+        scroll.addView(text);
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
+        builder.setTitle(R.string.performance_title)
+                .setView(scroll)
+                .setPositiveButton(R.string.performance_close, null)
+                .setNeutralButton(R.string.performance_share, (dialog, which) -> shareLog());
+        return builder.create();
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        refresh();
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+        handler.removeCallbacks(refresh);
+    }
+
+    /**
+     * Show the current metrics and schedule the next refresh.
+     */
+    private void refresh() {
+        MetricRegistry.Snapshot snapshot = MetricRegistry.getDefault().snapshot();
+        text.setText(snapshot.format(last));
+        last = snapshot;
+        handler.postDelayed(refresh, REFRESH_MS);
+    }
+
+    /**
+     * Read the metrics log off the main thread and offer its newest entries to any app that accepts text.
+     */
+    private void shareLog() {
+        final Activity activity = getActivity();
+        if (activity == null) {
+            return;
+        }
+        final BikeApp app = (BikeApp) activity.getApplication();
+        app.getExecutors().execute(() -> {
+            String full = app.getMetricsLog().read();
+            final String log = full.substring(Math.max(full.length() - SHARE_MAX_CHARS, 0));
+            activity.runOnUiThread(() -> {
+                Intent intent = new Intent(Intent.ACTION_SEND);
+                intent.setType("text/plain");
+                intent.putExtra(Intent.EXTRA_SUBJECT, activity.getString(R.string.performance_title));
+                intent.putExtra(Intent.EXTRA_TEXT, log);
+                activity.startActivity(Intent.createChooser(intent, activity.getString(R.string.performance_share)));
+            });
+        });
+    }
+}
@@ -0,0 +1,142 @@
+package com.bikevibes.bikeapp;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.bikevibes.core.MetricRegistry;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends periodic snapshots of the pipeline metrics to a local log file, so that slowdowns on
+ * a rider's device can be looked at after the fact from the performance screen.
+ * The log rolls over to a single older file once it reaches its size limit, so it never takes
+ * more than twice that much storage. Snapshots are written on a background thread.
+ */
+public class MetricsLog {
+    private static final String TAG = "MetricsLog";
+    private static final String FILE = "metrics.log";
+    private static final String OLD_FILE = "metrics.1.log";
+
+    private final File dir;
+    private final MetricRegistry registry;
+    private final long intervalMs;
+    private final long maxBytes;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+    private ScheduledFuture<?> scheduled;
+    private MetricRegistry.Snapshot last;
+
+    /**
+     * Initialize the log.
+     * @param dir - the directory that holds the log files
+     * @param registry - the metrics to log
+     * @param intervalMs - the time between snapshots while started
+     * @param maxBytes - the size at which the log rolls over
+     */
+    public MetricsLog(@NonNull File dir, @NonNull MetricRegistry registry, long intervalMs, long maxBytes) {
+        this.dir = dir;
+        this.registry = registry;
+        this.intervalMs = intervalMs;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Start appending a snapshot every interval, if not already started.
+     */
+    public synchronized void start() {
+        if (scheduled == null) {
+            scheduled = timer.scheduleAtFixedRate(this::write, 0, intervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stop the periodic snapshots. One last snapshot is appended an interval later,
+     * so that work queued at the end, such as finalizing the trip, is included.
+     */
+    public synchronized void stop() {
+        if (scheduled != null) {
+            scheduled.cancel(false);
+            scheduled = null;
+            timer.schedule(this::write, intervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Append a snapshot now, on the background thread.
+     */
+    public void append() {
+        timer.execute(this::write);
+    }
+
+    /**
+     * Append a snapshot with counter rates since the previous one, rolling the log over if needed.
+     * WARNING: This method must be called from the timer thread
+     */
+    private void write() {
+        MetricRegistry.Snapshot snapshot = registry.snapshot();
+        String entry = "=== " + format.format(new Date(snapshot.getTime())) + " ===\n" + snapshot.format(last);
+        last = snapshot;
+        File file = new File(dir, FILE);
+        synchronized (this) {
+            if (!dir.exists() && !dir.mkdirs()) {
+                Log.e(TAG, "Could not create " + dir);
+                return;
+            }
+            if (file.length() > maxBytes && !file.renameTo(new File(dir, OLD_FILE))) {
+                Log.e(TAG, "Could not roll over " + file);
+            }
+            try (OutputStream out = new FileOutputStream(file, true)) {
+                out.write(entry.getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                Log.e(TAG, "Could not write " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Read the whole log, oldest entries first.
+     * WARNING: This method should not be called from the Main/UI thread
+     * @return - the contents of the log files
+     */
+    @NonNull
+    public synchronized String read() {
+        return read(new File(dir, OLD_FILE)) + read(new File(dir, FILE));
+    }
+
+    @NonNull
+    private static String read(@NonNull File file) {
+        if (!file.exists()) {
+            return "";
+        }
+        byte[] data = new byte[(int) file.length()];
+        try (InputStream in = new FileInputStream(file)) {
+            int read = 0;
+            while (read < data.length) {
+                int n = in.read(data, read, data.length - read);
+                if (n < 0) {
+                    break;
+                }
+                read += n;
+            }
+            return new String(data, 0, read, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not read " + file, e);
+            return "";
+        }
+    }
+}
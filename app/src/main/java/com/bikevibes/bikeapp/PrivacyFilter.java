@@ -0,0 +1,234 @@
+package com.bikevibes.bikeapp;
+
+import androidx.annotation.NonNull;
+
+import com.bikevibes.bikeapp.db.LocationData;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Removes private readings from a trip before they are stored.
+ *
+ * Readings inside a privacy zone are dropped. Zones are binned into a grid of CELL_DEGREES cells,
+ * so each GPS fix costs one map lookup and a distance check against the few zones in its cell.
+ *
+ * The start and end of the trip are removed the same way the repository used to delete them:
+ * everything before the first fix outside the blackout radius of the first fix, and everything
+ * after the last fix outside the radius of the final fix. The start is dropped as it arrives.
+ * For the end, readings are held in memory until two later fixes are at least twice the radius
+ * apart. One of them must then be outside the radius of wherever the trip ends, so the held
+ * readings are kept no matter where that is. The rest are released or dropped by finish.
+ *
+ * Not thread safe; readings must be added from a single thread in the order they arrive.
+ */
+public class PrivacyFilter {
+    private static final double CELL_DEGREES = 0.01;
+
+    /**
+     * Receives the readings that pass the filter.
+     */
+    public interface Sink {
+        void accel(long timestamp, float x, float y, float z);
+
+        void location(long timestamp, double lat, double lon);
+    }
+
+    private final Sink sink;
+    private final double radius;
+    private final Map<Long, List<PrivacyZone>> zoneGrid = new HashMap<>();
+
+    private final List<Reading> pending = new ArrayList<>();
+    private LocationData firstLoc = null;
+    private LocationData lastLoc = null;
+    private boolean started = false;
+    private long startTime = Long.MAX_VALUE;
+    private boolean inZone = false;
+    private long zoneExit = Long.MIN_VALUE;
+
+    /**
+     * Initialize the filter for a new trip.
+     * @param zones - the user's privacy zones
+     * @param radius - the blackout radius around the start and end points in m
+     * @param sink - the destination of the readings that are kept
+     */
+    public PrivacyFilter(@NonNull List<PrivacyZone> zones, double radius, @NonNull Sink sink) {
+        this.sink = sink;
+        this.radius = radius;
+        for (PrivacyZone zone : zones) {
+            int minX = cell(zone.getLongitude() - zone.getLonSpan());
+            int maxX = cell(zone.getLongitude() + zone.getLonSpan());
+            int minY = cell(zone.getLatitude() - zone.getLatSpan());
+            int maxY = cell(zone.getLatitude() + zone.getLatSpan());
+            for (int x = minX; x <= maxX; x++) {
+                for (int y = minY; y <= maxY; y++) {
+                    List<PrivacyZone> cellZones = zoneGrid.get(key(x, y));
+                    if (cellZones == null) {
+                        cellZones = new ArrayList<>();
+                        zoneGrid.put(key(x, y), cellZones);
+                    }
+                    cellZones.add(zone);
+                }
+            }
+        }
+    }
+
+    /**
+     * Add an accelerometer reading.
+     * Readings are dropped while the last fix is inside a zone, and until the first fix after
+     * leaving it, since sensor batching can deliver them after that fix.
+     * @param timestamp - the Unix timestamp in ms
+     * @param x - the x acceleration
+     * @param y - the y acceleration
+     * @param z - the z acceleration
+     */
+    public void addAccel(long timestamp, float x, float y, float z) {
+        if (!started || timestamp < startTime || inZone || timestamp < zoneExit) {
+            return;
+        }
+        pending.add(new Reading(timestamp, x, y, z));
+    }
+
+    /**
+     * Add a GPS fix.
+     * @param timestamp - the Unix timestamp in ms
+     * @param lat - the latitude
+     * @param lon - the longitude
+     */
+    public void addLocation(long timestamp, double lat, double lon) {
+        LocationData loc = new LocationData(new Date(timestamp), lat, lon, 0);
+        lastLoc = loc;
+        if (firstLoc == null) {
+            firstLoc = loc;
+        }
+        boolean wasInZone = inZone;
+        inZone = isInZone(lat, lon);
+        if (wasInZone && !inZone) {
+            zoneExit = timestamp;
+        }
+        if (!started) {
+            if (firstLoc.getDist(loc) * 1000 < radius) {
+                return;
+            }
+            started = true;
+            startTime = timestamp;
+        }
+        if (inZone) {
+            return;
+        }
+
+        // Release everything up to the latest held fix that is far enough from this one
+        for (int i = pending.size() - 1; i >= 0; i--) {
+            LocationData held = pending.get(i).loc;
+            if (held != null && held.getDist(loc) * 1000 >= 2 * radius) {
+                release(i + 1);
+                break;
+            }
+        }
+        pending.add(new Reading(loc));
+    }
+
+    /**
+     * Release the held readings that are outside the blackout radius of the final fix.
+     * Called when the trip ends. Anything held is dropped if the trip never left the radius.
+     */
+    public void finish() {
+        long endTime = Long.MIN_VALUE;
+        for (int i = pending.size() - 1; i >= 0; i--) {
+            LocationData held = pending.get(i).loc;
+            if (held != null && held.getDist(lastLoc) * 1000 >= radius) {
+                endTime = held.getTimestamp().getTime();
+                break;
+            }
+        }
+        for (Reading reading : pending) {
+            if (reading.timestamp <= endTime) {
+                emit(reading);
+            }
+        }
+        pending.clear();
+    }
+
+    /**
+     * Return whether a point is inside any privacy zone.
+     * @param lat - the latitude
+     * @param lon - the longitude
+     * @return - true if the point is in a zone, false otherwise
+     */
+    public boolean isInZone(double lat, double lon) {
+        List<PrivacyZone> cellZones = zoneGrid.get(key(cell(lon), cell(lat)));
+        if (cellZones == null) {
+            return false;
+        }
+        for (PrivacyZone zone : cellZones) {
+            if (zone.contains(lat, lon)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return the number of readings held in memory.
+     * @return - the number of held readings
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Pass the first count held readings to the sink and remove them.
+     */
+    private void release(int count) {
+        for (int i = 0; i < count; i++) {
+            emit(pending.get(i));
+        }
+        pending.subList(0, count).clear();
+    }
+
+    private void emit(@NonNull Reading reading) {
+        if (reading.loc != null) {
+            sink.location(reading.timestamp, reading.loc.getLatitude(), reading.loc.getLongitude());
+        } else {
+            sink.accel(reading.timestamp, reading.x, reading.y, reading.z);
+        }
+    }
+
+    private static int cell(double degrees) {
+        return (int) Math.floor(degrees / CELL_DEGREES);
+    }
+
+    private static long key(int x, int y) {
+        return ((long) x << 32) | (y & 0xffffffffL);
+    }
+
+    /**
+     * A held accelerometer reading or GPS fix.
+     */
+    private static class Reading {
+        private final long timestamp;
+        private final float x;
+        private final float y;
+        private final float z;
+        private final LocationData loc;
+
+        Reading(long timestamp, float x, float y, float z) {
+            this.timestamp = timestamp;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.loc = null;
+        }
+
+        Reading(@NonNull LocationData loc) {
+            this.timestamp = loc.getTimestamp().getTime();
+            this.x = 0;
+            this.y = 0;
+            this.z = 0;
+            this.loc = loc;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.bikevibes.bikeapp;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A circle defined by the user, such as their home or work, in which no data is recorded.
+ * Zones are stored in the preferences as a single string of "lat,lon,radius" entries separated by ";".
+ */
+public class PrivacyZone {
+    private static final String TAG = "PrivacyZone";
+    private static final double METERS_PER_DEGREE = 111320;
+
+    private final double latitude;
+    private final double longitude;
+    private final double radius;
+    private final double lonScale;
+
+    /**
+     * Initialize the zone.
+     * @param latitude - the latitude of the center
+     * @param longitude - the longitude of the center
+     * @param radius - the radius in m
+     */
+    public PrivacyZone(double latitude, double longitude, double radius) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.radius = radius;
+        this.lonScale = Math.cos(Math.toRadians(latitude));
+    }
+
+    /**
+     * Return whether a point is inside the zone.
+     * Uses an equirectangular approximation, which is accurate to well under a metre at zone sizes.
+     * @param lat - the latitude of the point
+     * @param lon - the longitude of the point
+     * @return - true if the point is within the radius of the center, false otherwise
+     */
+    public boolean contains(double lat, double lon) {
+        double dy = (lat - latitude) * METERS_PER_DEGREE;
+        double dx = (lon - longitude) * METERS_PER_DEGREE * lonScale;
+        return dx * dx + dy * dy <= radius * radius;
+    }
+
+    /**
+     * Return the half-height of the zone in degrees of latitude.
+     * @return - the radius in degrees
+     */
+    double getLatSpan() {
+        return radius / METERS_PER_DEGREE;
+    }
+
+    /**
+     * Return the half-width of the zone in degrees of longitude.
+     * @return - the radius in degrees
+     */
+    double getLonSpan() {
+        return radius / (METERS_PER_DEGREE * Math.max(lonScale, 0.01));
+    }
+
+    /**
+     * Parse the zones stored in the preferences. Malformed entries are skipped.
+     * @param value - the stored string, or null if no zones have been added
+     * @return - the list of zones
+     */
+    @NonNull
+    public static List<PrivacyZone> decode(@Nullable String value) {
+        List<PrivacyZone> zones = new ArrayList<>();
+        if (value == null || value.isEmpty()) {
+            return zones;
+        }
+        for (String entry : value.split(";")) {
+            String[] parts = entry.split(",");
+            if (parts.length != 3) {
+                continue;
+            }
+            try {
+                zones.add(new PrivacyZone(Double.parseDouble(parts[0]), Double.parseDouble(parts[1]), Double.parseDouble(parts[2])));
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "Skipping malformed privacy zone " + entry);
+            }
+        }
+        return zones;
+    }
+
+    /**
+     * Convert zones to the string stored in the preferences.
+     * @param zones - the zones to store
+     * @return - the encoded zones
+     */
+    @NonNull
+    public static String encode(@NonNull List<PrivacyZone> zones) {
+        StringBuilder builder = new StringBuilder();
+        for (PrivacyZone zone : zones) {
+            if (builder.length() > 0) {
+                builder.append(';');
+            }
+            builder.append(String.format(Locale.US, "%.6f,%.6f,%.0f", zone.latitude, zone.longitude, zone.radius));
+        }
+        return builder.toString();
+    }
+
+    // ***************************** Getters *******************************************
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    public double getRadius() {
+        return radius;
+    }
+}
@@ -1,18 +1,29 @@
 package com.bikevibes.bikeapp;
 
+import android.Manifest;
 import android.app.Activity;
 import android.content.ActivityNotFoundException;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.database.Cursor;
+import android.location.Location;
+import android.location.LocationManager;
 import android.net.Uri;
 import android.os.Bundle;
+import android.provider.OpenableColumns;
+import android.util.Log;
 import android.widget.Toast;
 
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
+
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.ActionBar;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
+import androidx.core.content.ContextCompat;
 import androidx.preference.EditTextPreference;
 import androidx.preference.Preference;
 import androidx.preference.PreferenceFragmentCompat;
@@ -22,8 +33,14 @@ import com.android.volley.Request;
 import com.android.volley.ServerError;
 import com.android.volley.toolbox.JsonObjectRequest;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.List;
 import java.util.UUID;
 
 /**
@@ -66,6 +83,9 @@ public class SettingsActivity extends AppCompatActivity {
     public static class SettingsFragment extends PreferenceFragmentCompat {
         private int delete_count = 0;
         private int delete_remote = 0;
+        private int version_count = 0;
+        private final ActivityResultLauncher<String[]> packLauncher =
+                registerForActivityResult(new ActivityResultContracts.OpenDocument(), this::importTilePack);
 
         /**
          * Set up the preferences. Create onClick listeners for interactive preferences.
@@ -81,6 +101,9 @@ public class SettingsActivity extends AppCompatActivity {
                 initializeEmail(app);
                 initializeDeleteLocal(app);
                 initializeDeleteRemote(app);
+                initializePrivacyZones(app);
+                initializeTilePack();
+                initializeVersion(app);
             }
             initializeLinks();
         }
@@ -240,6 +263,167 @@ public class SettingsActivity extends AppCompatActivity {
             }
         }
 
+        /**
+         * Initialize the privacy zone preferences.
+         * Add a zone around the last known location, or remove every zone.
+         * Zones take effect from the next trip.
+         * @param app - the application object
+         */
+        private void initializePrivacyZones(BikeApp app) {
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(app);
+            final String ZONES_KEY = getString(R.string.privacy_zones_key);
+            Preference clearPref = findPreference(getString(R.string.zone_clear_key));
+            if (clearPref != null) {
+                clearPref.setSummary(getString(R.string.zone_clear_template,
+                        PrivacyZone.decode(prefs.getString(ZONES_KEY, null)).size()));
+                clearPref.setOnPreferenceClickListener(preference -> {
+                    prefs.edit().remove(ZONES_KEY).apply();
+                    preference.setSummary(getString(R.string.zone_clear_template, 0));
+                    return true;
+                });
+            }
+
+            Preference addPref = findPreference(getString(R.string.zone_add_key));
+            if (addPref != null) {
+                addPref.setOnPreferenceClickListener(preference -> {
+                    Location loc = getLastLocation(app);
+                    if (loc == null) {
+                        Toast.makeText(app, getString(R.string.zone_no_location), Toast.LENGTH_SHORT).show();
+                        return true;
+                    }
+                    int radius = prefs.getInt(getString(R.string.zone_radius_key), 200);
+                    List<PrivacyZone> zones = PrivacyZone.decode(prefs.getString(ZONES_KEY, null));
+                    zones.add(new PrivacyZone(loc.getLatitude(), loc.getLongitude(), radius));
+                    prefs.edit().putString(ZONES_KEY, PrivacyZone.encode(zones)).apply();
+                    if (clearPref != null) {
+                        clearPref.setSummary(getString(R.string.zone_clear_template, zones.size()));
+                    }
+                    Toast.makeText(app, getString(R.string.zone_added), Toast.LENGTH_SHORT).show();
+                    return true;
+                });
+            }
+        }
+
+        /**
+         * Return the last location known to the GPS or network provider.
+         * @param app - the application object
+         * @return - the most recent location, or null if there is none or no permission
+         */
+        private Location getLastLocation(@NonNull BikeApp app) {
+            if (ContextCompat.checkSelfPermission(app, Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
+                return null;
+            }
+            LocationManager locationManager = (LocationManager) app.getSystemService(Context.LOCATION_SERVICE);
+            Location gps = locationManager.getLastKnownLocation(LocationManager.GPS_PROVIDER);
+            Location network = locationManager.getLastKnownLocation(LocationManager.NETWORK_PROVIDER);
+            if (gps == null || (network != null && network.getTime() > gps.getTime())) {
+                return network;
+            }
+            return gps;
+        }
+
+        /**
+         * Initialize the offline map preferences.
+         * Show the tile cache counters and let the user pick a tile archive to import.
+         */
+        private void initializeTilePack() {
+            Preference cachePref = findPreference(getString(R.string.tile_cache_key));
+            if (cachePref != null) {
+                cachePref.setSummary(getString(R.string.tile_cache_template, TilePackModule.getPackHits(),
+                        TilePackModule.getCacheHits(), TilePackModule.getMisses(), TilePackModule.getDownloads()));
+            }
+
+            Preference packPref = findPreference(getString(R.string.tile_pack_key));
+            if (packPref != null) {
+                packPref.setOnPreferenceClickListener(preference -> {
+                    packLauncher.launch(new String[]{"application/octet-stream", "application/x-sqlite3", "application/vnd.sqlite3"});
+                    return true;
+                });
+            }
+        }
+
+        /**
+         * Copy the selected tile archive into the tile pack directory.
+         * Runs the copy on the app's thread pool and shows a Toast when done.
+         * @param uri - the document chosen by the user, or null if cancelled
+         */
+        private void importTilePack(Uri uri) {
+            Activity activity = getActivity();
+            if (uri == null || activity == null) {
+                return;
+            }
+            BikeApp app = (BikeApp) activity.getApplication();
+            String name = getDisplayName(app, uri);
+            if (!name.endsWith(".mbtiles") && !name.endsWith(".sqlite")) {
+                name = name + ".mbtiles";
+            }
+            File dest = new File(TilePackModule.getPackDir(app), name);
+            app.getExecutors().execute(() -> {
+                boolean success = true;
+                try (InputStream in = app.getContentResolver().openInputStream(uri);
+                     OutputStream out = new FileOutputStream(dest)) {
+                    byte[] buffer = new byte[8192];
+                    int read;
+                    while (in != null && (read = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not import tile pack", e);
+                    success = false;
+                }
+                final int message = success ? R.string.tile_pack_success : R.string.tile_pack_error;
+                activity.runOnUiThread(() -> Toast.makeText(app, app.getString(message), Toast.LENGTH_SHORT).show());
+            });
+        }
+
+        /**
+         * Return the file name of a document chosen by the user.
+         * @param app - the application object
+         * @param uri - the document URI
+         * @return - the display name of the document, or a default name
+         */
+        @NonNull
+        private String getDisplayName(@NonNull BikeApp app, @NonNull Uri uri) {
+            String name = "region";
+            try (Cursor cursor = app.getContentResolver().query(uri, new String[]{OpenableColumns.DISPLAY_NAME}, null, null, null)) {
+                if (cursor != null && cursor.moveToFirst() && cursor.getString(0) != null) {
+                    name = new File(cursor.getString(0)).getName();
+                }
+            }
+            return name;
+        }
+
+        /**
+         * Initialize the version preference and the hidden performance screen.
+         * Clicking the version seven times unlocks the performance preference for good.
+         * @param app - the application object
+         */
+        private void initializeVersion(BikeApp app) {
+            final int UNLOCK_CLICKS = 7;
+            Preference versionPref = findPreference(getString(R.string.version_key));
+            Preference performancePref = findPreference(getString(R.string.performance_key));
+            if (versionPref == null || performancePref == null) {
+                return;
+            }
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(app);
+            final String unlockedKey = getString(R.string.performance_unlocked_key);
+            performancePref.setVisible(prefs.getBoolean(unlockedKey, false));
+            versionPref.setSummary(BuildConfig.VERSION_NAME);
+            versionPref.setOnPreferenceClickListener(preference -> {
+                version_count++;
+                if (version_count == UNLOCK_CLICKS && !performancePref.isVisible()) {
+                    prefs.edit().putBoolean(unlockedKey, true).apply();
+                    performancePref.setVisible(true);
+                    Toast.makeText(app, getString(R.string.performance_unlocked), Toast.LENGTH_SHORT).show();
+                }
+                return true;
+            });
+            performancePref.setOnPreferenceClickListener(preference -> {
+                new MetricsDialogFragment().show(getParentFragmentManager(), "metrics");
+                return true;
+            });
+        }
+
         /**
          * Initialize the link preferences.
          * Each URL will be opened in a browser upon clicking on the preference.
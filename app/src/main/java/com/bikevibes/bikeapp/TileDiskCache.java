@@ -0,0 +1,199 @@
+package com.bikevibes.bikeapp;
+
+import android.graphics.drawable.Drawable;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import org.osmdroid.tileprovider.modules.IFilesystemCache;
+import org.osmdroid.tileprovider.tilesource.ITileSource;
+import org.osmdroid.util.MapTileIndex;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded disk cache for downloaded map tiles.
+ * Tiles are stored as individual files and evicted in least recently used order
+ * once the total size exceeds the maximum.
+ */
+public class TileDiskCache implements IFilesystemCache {
+    private static final String TAG = "TileDiskCache";
+    private static final String EXTENSION = ".tile";
+
+    private static final AtomicLong saved = new AtomicLong();
+
+    private final File directory;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long totalBytes = 0;
+
+    /**
+     * Initialize the cache and index the tiles already on disk.
+     * Existing tiles are ordered by when they were last written or read.
+     * @param directory - the directory to store tiles in
+     * @param maxBytes - the maximum total size of the cache
+     */
+    public TileDiskCache(@NonNull File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        List<File> files = new ArrayList<>();
+        collectFiles(directory, files);
+        File[] sorted = files.toArray(new File[0]);
+        Arrays.sort(sorted, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : sorted) {
+            entries.put(file.getAbsolutePath(), file.length());
+            totalBytes += file.length();
+        }
+        trim();
+    }
+
+    private static void collectFiles(File dir, List<File> files) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                collectFiles(child, files);
+            } else if (child.getName().endsWith(EXTENSION)) {
+                files.add(child);
+            }
+        }
+    }
+
+    /**
+     * Return the file that stores a tile.
+     * @param source - the tile source
+     * @param index - the osmdroid map tile index
+     * @return - the tile file, which may not exist
+     */
+    @NonNull
+    private File getFile(@NonNull ITileSource source, long index) {
+        return new File(directory, source.name() + "/" + MapTileIndex.getZoom(index) + "/"
+                + MapTileIndex.getX(index) + "/" + MapTileIndex.getY(index) + EXTENSION);
+    }
+
+    /**
+     * Write a downloaded tile to disk and evict old tiles if needed.
+     * @param source - the tile source
+     * @param index - the osmdroid map tile index
+     * @param stream - the tile contents
+     * @param expirationTime - NOT USED; tiles are kept until evicted
+     * @return - true if the tile was written, false otherwise
+     */
+    @Override
+    public boolean saveFile(ITileSource source, long index, InputStream stream, Long expirationTime) {
+        File file = getFile(source, index);
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            return false;
+        }
+        long size = 0;
+        try (OutputStream out = new FileOutputStream(file)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                size += read;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not save tile", e);
+            return false;
+        }
+        synchronized (this) {
+            Long old = entries.put(file.getAbsolutePath(), size);
+            totalBytes += size - (old == null ? 0 : old);
+            trim();
+        }
+        saved.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Return the number of tiles written to any cache since the app started.
+     * Only the network downloader writes tiles, so this is the number of tiles downloaded.
+     * @return - the number of tiles saved
+     */
+    public static long getSavedTiles() {
+        return saved.get();
+    }
+
+    /**
+     * Delete the least recently used tiles until the cache fits within its maximum size.
+     * A tile whose file is already gone, e.g. after the cache directory was cleared, is dropped too;
+     * only a file that could not be deleted keeps its entry and its bytes.
+     */
+    private synchronized void trim() {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            File file = new File(eldest.getKey());
+            if (file.delete() || !file.exists()) {
+                totalBytes -= eldest.getValue();
+                it.remove();
+            }
+        }
+    }
+
+    @Override
+    public synchronized boolean exists(ITileSource source, long index) {
+        return entries.containsKey(getFile(source, index).getAbsolutePath());
+    }
+
+    @Override
+    public synchronized boolean remove(ITileSource source, long index) {
+        File file = getFile(source, index);
+        Long size = entries.remove(file.getAbsolutePath());
+        if (size != null) {
+            totalBytes -= size;
+        }
+        return file.delete();
+    }
+
+    @Override
+    public Long getExpirationTimestamp(ITileSource source, long index) {
+        return null;
+    }
+
+    /**
+     * Load a cached tile and mark it as recently used.
+     * @param source - the tile source used to decode the tile
+     * @param index - the osmdroid map tile index
+     * @return - the tile, or null if it is not cached
+     * @throws Exception - if the tile could not be decoded
+     */
+    @Override
+    public Drawable loadTile(ITileSource source, long index) throws Exception {
+        File file = getFile(source, index);
+        synchronized (this) {
+            if (entries.get(file.getAbsolutePath()) == null) {
+                return null;
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.setLastModified(System.currentTimeMillis());
+        try (InputStream in = new FileInputStream(file)) {
+            return source.getDrawable(in);
+        }
+    }
+
+    @Override
+    public void onDetach() {
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+}
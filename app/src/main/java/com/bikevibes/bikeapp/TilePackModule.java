@@ -0,0 +1,208 @@
+package com.bikevibes.bikeapp;
+
+import android.content.Context;
+import android.graphics.drawable.Drawable;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import org.osmdroid.tileprovider.MapTileProviderArray;
+import org.osmdroid.tileprovider.MapTileProviderBase;
+import org.osmdroid.tileprovider.modules.ArchiveFileFactory;
+import org.osmdroid.tileprovider.modules.IArchiveFile;
+import org.osmdroid.tileprovider.modules.MapTileDownloader;
+import org.osmdroid.tileprovider.modules.MapTileModuleProviderBase;
+import org.osmdroid.tileprovider.modules.NetworkAvailabliltyCheck;
+import org.osmdroid.tileprovider.tilesource.ITileSource;
+import org.osmdroid.tileprovider.util.SimpleRegisterReceiver;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tile provider module that serves tiles from offline region packs and the disk cache.
+ * Region packs are MBTiles or osmdroid SQLite archives stored in the pack directory.
+ * Tiles that are in neither are left for the network downloader that follows this module.
+ */
+public class TilePackModule extends MapTileModuleProviderBase {
+    private static final String TAG = "TilePackModule";
+    private static final String PACK_DIR = "tiles";
+    private static final long MAX_CACHE_BYTES = 100 * 1024 * 1024L;
+    private static final int THREADS = 4;
+    private static final int PENDING = 40;
+
+    private static final AtomicLong packHits = new AtomicLong();
+    private static final AtomicLong cacheHits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    private final List<IArchiveFile> archives = new ArrayList<>();
+    private final TileDiskCache cache;
+    private ITileSource tileSource;
+
+    /**
+     * Initialize the module and open the region packs.
+     * @param tileSource - the tile source used to decode tiles
+     * @param packs - the MBTiles or SQLite archive files to read from
+     * @param cache - the disk cache of downloaded tiles
+     */
+    public TilePackModule(ITileSource tileSource, @NonNull File[] packs, TileDiskCache cache) {
+        super(THREADS, PENDING);
+        this.tileSource = tileSource;
+        this.cache = cache;
+        for (File pack : packs) {
+            IArchiveFile archive = ArchiveFileFactory.getArchiveFile(pack);
+            if (archive != null) {
+                archive.setIgnoreTileSource(true);
+                archives.add(archive);
+            }
+        }
+    }
+
+    /**
+     * Create a tile provider that checks region packs and the disk cache before the network.
+     * @param context - the context used to find the pack and cache directories
+     * @param tileSource - the online tile source
+     * @param cacheDir - the directory used for the disk cache
+     * @return - the tile provider for the map
+     */
+    @NonNull
+    public static MapTileProviderBase createProvider(@NonNull Context context, @NonNull ITileSource tileSource, @NonNull File cacheDir) {
+        TileDiskCache cache = new TileDiskCache(cacheDir, MAX_CACHE_BYTES);
+        TilePackModule packModule = new TilePackModule(tileSource, getPacks(context), cache);
+        MapTileDownloader downloader = new MapTileDownloader(tileSource, cache, new NetworkAvailabliltyCheck(context));
+        return new MapTileProviderArray(tileSource, new SimpleRegisterReceiver(context),
+                new MapTileModuleProviderBase[]{packModule, downloader});
+    }
+
+    /**
+     * Return the directory that region packs are stored in, creating it if needed.
+     * @param context - the context used to find the app's files directory
+     * @return - the pack directory
+     */
+    @NonNull
+    public static File getPackDir(@NonNull Context context) {
+        File dir = new File(context.getFilesDir(), PACK_DIR);
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.w(TAG, "Could not create tile pack directory");
+        }
+        return dir;
+    }
+
+    @NonNull
+    private static File[] getPacks(@NonNull Context context) {
+        File[] packs = getPackDir(context).listFiles((dir, name) -> name.endsWith(".mbtiles") || name.endsWith(".sqlite"));
+        return packs == null ? new File[0] : packs;
+    }
+
+    @Override
+    protected String getName() {
+        return "Offline Tile Pack Provider";
+    }
+
+    @Override
+    protected String getThreadGroupName() {
+        return "tilepack";
+    }
+
+    @Override
+    public TileLoader getTileLoader() {
+        return new PackTileLoader();
+    }
+
+    @Override
+    public boolean getUsesDataConnection() {
+        return false;
+    }
+
+    @Override
+    public int getMinimumZoomLevel() {
+        return tileSource == null ? 0 : tileSource.getMinimumZoomLevel();
+    }
+
+    @Override
+    public int getMaximumZoomLevel() {
+        return tileSource == null ? 22 : tileSource.getMaximumZoomLevel();
+    }
+
+    @Override
+    public void setTileSource(ITileSource tileSource) {
+        this.tileSource = tileSource;
+    }
+
+    @Override
+    public void detach() {
+        for (IArchiveFile archive : archives) {
+            archive.close();
+        }
+        archives.clear();
+        super.detach();
+    }
+
+    // ************************* Cache Statistics ********************************************
+
+    public static long getPackHits() {
+        return packHits.get();
+    }
+
+    public static long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    /**
+     * Return the number of tiles found in neither a pack nor the cache, which were left for the
+     * network. Not every miss is downloaded, e.g. when offline.
+     * @return - the number of misses
+     */
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Return the number of tiles downloaded and saved to the disk cache.
+     * @return - the number of downloads
+     */
+    public static long getDownloads() {
+        return TileDiskCache.getSavedTiles();
+    }
+
+    /**
+     * Loads tiles from the region packs first, then the disk cache.
+     */
+    private class PackTileLoader extends TileLoader {
+        @Override
+        public Drawable loadTile(long index) {
+            ITileSource source = tileSource;
+            if (source == null) {
+                return null;
+            }
+            try {
+                for (IArchiveFile archive : archives) {
+                    InputStream in = archive.getInputStream(source, index);
+                    if (in != null) {
+                        try {
+                            Drawable tile = source.getDrawable(in);
+                            if (tile != null) {
+                                packHits.incrementAndGet();
+                                return tile;
+                            }
+                        } finally {
+                            in.close();
+                        }
+                    }
+                }
+                Drawable tile = cache.loadTile(source, index);
+                if (tile != null) {
+                    cacheHits.incrementAndGet();
+                    return tile;
+                }
+            } catch (Exception e) {
+                Log.w(TAG, "Could not load tile", e);
+            }
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.bikevibes.bikeapp;
+
+import android.os.Trace;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Named trace sections around the stages of the sensor-to-map pipeline, for capture with
+ * Perfetto or systrace. Sections are only emitted by builds made with -PtraceSections=true.
+ * Release builds always have BuildConfig.TRACE_SECTIONS set to false, so R8 removes the calls.
+ * Sections must be ended on the thread that began them, in reverse order.
+ */
+public final class Tracer {
+    public static final String SENSOR_CALLBACK = "BikeVibes:sensorCallback";
+    public static final String ROTATION = "BikeVibes:rotation";
+    public static final String CACHE_FLUSH = "BikeVibes:cacheFlush";
+    public static final String DB_INSERT = "BikeVibes:dbInsert";
+    public static final String SEGMENT_BUILD = "BikeVibes:segmentBuild";
+    public static final String JSON_BUILD = "BikeVibes:jsonBuild";
+    public static final String UPDATE_TRIP = "BikeVibes:updateTrip";
+    public static final String POLYLINES = "BikeVibes:polylines";
+
+    private Tracer() {
+    }
+
+    /**
+     * Begin a section on the current thread.
+     * @param name - one of the section names above
+     */
+    public static void begin(@NonNull String name) {
+        if (BuildConfig.TRACE_SECTIONS) {
+            Trace.beginSection(name);
+        }
+    }
+
+    /**
+     * End the last section begun on the current thread.
+     */
+    public static void end() {
+        if (BuildConfig.TRACE_SECTIONS) {
+            Trace.endSection();
+        }
+    }
+}
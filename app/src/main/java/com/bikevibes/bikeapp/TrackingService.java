@@ -3,21 +3,28 @@ package com.bikevibes.bikeapp;
 import android.Manifest;
 import android.app.Notification;
 import android.app.Service;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.hardware.TriggerEvent;
+import android.hardware.TriggerEventListener;
 import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
-import android.opengl.Matrix;
+import android.os.BatteryManager;
 import android.os.Binder;
 import android.os.Build;
+import android.os.Debug;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.PowerManager;
 import android.os.SystemClock;
 import android.util.Log;
@@ -27,11 +34,27 @@ import androidx.core.app.NotificationCompat;
 import androidx.core.content.ContextCompat;
 import androidx.preference.PreferenceManager;
 
-import com.bikevibes.bikeapp.db.AccelerometerData;
+import com.bikevibes.bikeapp.db.AccelBuffer;
+import com.bikevibes.bikeapp.db.EnergyReport;
 import com.bikevibes.bikeapp.db.LocationData;
-
+import com.bikevibes.bikeapp.db.SensorLog;
+import com.bikevibes.bikeapp.db.TripSurface;
+import com.bikevibes.core.Clock;
+import com.bikevibes.core.Counter;
+import com.bikevibes.core.MetricRegistry;
+import com.bikevibes.core.MotionGate;
+import com.bikevibes.core.ReadingBuffer;
+import com.bikevibes.core.RideGenerator;
+import com.bikevibes.core.SamplingController;
+import com.bikevibes.core.SensorProcessor;
+import com.bikevibes.core.SensorTrace;
+import com.bikevibes.core.TraceReplayer;
+import com.bikevibes.core.TripDetector;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
@@ -43,13 +66,63 @@ import java.util.List;
  */
 public class TrackingService extends Service {
     private static final String TAG = "TrackingService";
+    private static final float GRAVITY_TIME_CONSTANT = 1.8f;
+
+    // Debug builds replay the trace file at this path instead of listening to the sensors
+    public static final String EXTRA_TRACE_PATH = "com.bikevibes.bikeapp.TRACE_PATH";
+    // Multiple of real time to replay the trace at; 0 replays as fast as possible
+    public static final String EXTRA_REPLAY_SPEED = "com.bikevibes.bikeapp.REPLAY_SPEED";
+    // Debug builds replay a synthetic ride of this many seconds if no trace path is given
+    public static final String EXTRA_SYNTHETIC_SECONDS = "com.bikevibes.bikeapp.SYNTHETIC_SECONDS";
+    // Stop tracking and finalize the trip once the replay has finished
+    public static final String EXTRA_REPLAY_STOP = "com.bikevibes.bikeapp.REPLAY_STOP";
+    private static final long SYNTHETIC_SEED = 1;
+    private static final int SYNTHETIC_HZ = 5;
+    private static final long SYNTHETIC_FIX_MS = 5000;
+    private static final double SYNTHETIC_LAT = 53.5232;
+    private static final double SYNTHETIC_LON = -113.5263;
+    // Callbacks closer together than this are one batch delivered by a single wakeup
+    private static final long WAKEUP_GAP_MS = 50;
+    private static final long WAKELOCK_TIMEOUT = 10 * 60 * 60 * 1000L; // 10 hours
+    // Longer than the trip detector takes to start a trip or give up after the rider moves
+    private static final long PROBE_WAKELOCK_TIMEOUT = 4 * 60 * 1000L;
 
     private int tripID;
     private boolean isTracking = false;
+    private boolean isRecording = false;
     private SensorManager sensorManager;
     private final IBinder binder = new LocalBinder();
     private DataRepository repository;
     private PowerManager.WakeLock wakeLock;
+    private SensorLog sensorLog;
+    private PrivacyFilter privacyFilter;
+    private SensorProcessor processor;
+    private SamplingController sampling;
+    private MotionGate motionGate;
+    private TripDetector tripDetector;
+    private final ReadingBuffer pending = new ReadingBuffer();
+    private MotionTrigger motionTrigger;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private Thread replayThread;
+    private final Counter sensorCpu = MetricRegistry.getDefault().counter(EnergyReport.SENSOR_CPU);
+    private final Counter wakeups = MetricRegistry.getDefault().counter(EnergyReport.WAKEUPS);
+    private long lastCallback;
+
+    /**
+     * Pass the battery level and charging state to the sampling controller.
+     * Registered while listening; the sticky broadcast delivers the current state at once.
+     */
+    private final BroadcastReceiver batteryReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, 100);
+            int plugged = intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0);
+            if (sampling != null && level >= 0 && scale > 0) {
+                sampling.setBattery(level * 100 / scale, plugged != 0);
+            }
+        }
+    };
 
     private AccelTracker accelTracker;
     private LocationTracker locationTracker;
@@ -68,12 +141,70 @@ public class TrackingService extends Service {
         // Create wakelock
         PowerManager powerManager = (PowerManager) getSystemService(POWER_SERVICE);
         wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, getString(R.string.wakelock));
+        // Acquiring again only extends the timeout, so one release always lets the CPU sleep
+        wakeLock.setReferenceCounted(false);
 
         // Initialize tracker objects
+        processor = new SensorProcessor(GRAVITY_TIME_CONSTANT, new SensorProcessor.Sink() {
+            @Override
+            public void accel(long timestamp, float x, float y, float z) {
+                if (sampling != null) {
+                    sampling.onAccel(timestamp, z);
+                    motionGate.onAccel(timestamp, z);
+                    if (tripDetector != null) {
+                        tripDetector.onReading(timestamp, motionGate.isMoving());
+                        // Readings during stops are idle and not worth storing
+                        if (!motionGate.isMoving()) {
+                            return;
+                        }
+                        if (!isRecording) {
+                            bufferReading(timestamp, x, y, z);
+                            return;
+                        }
+                    }
+                }
+                if (privacyFilter != null) {
+                    privacyFilter.addAccel(timestamp, x, y, z);
+                }
+            }
+
+            @Override
+            public void location(long timestamp, double lat, double lon) {
+                if (sampling != null) {
+                    sampling.onLocation(timestamp, lat, lon);
+                }
+                if (tripDetector != null && !isRecording) {
+                    tripDetector.onLocation(timestamp, lat, lon);
+                    // The fix may have started the trip, which then gets it directly
+                    if (!isRecording) {
+                        long earliest = tripDetector.getEarliestStart();
+                        if (earliest >= 0) {
+                            pending.location(timestamp, lat, lon);
+                            pending.dropBefore(earliest);
+                        }
+                        return;
+                    }
+                }
+                if (privacyFilter != null) {
+                    privacyFilter.addLocation(timestamp, lat, lon);
+                }
+            }
+        }) {
+            @Override
+            public void onAccel(long timestamp, float[] raw) {
+                Tracer.begin(Tracer.ROTATION);
+                try {
+                    super.onAccel(timestamp, raw);
+                } finally {
+                    Tracer.end();
+                }
+            }
+        };
         sensorManager = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
         rotationTracker = new RotationTracker();
         accelTracker = new AccelTracker();
         locationTracker = new LocationTracker();
+        motionTrigger = new MotionTrigger();
 
         // Get tripID
         String PREFS = getString(R.string.preference_file_key);
@@ -114,12 +245,56 @@ public class TrackingService extends Service {
                 .setAutoCancel(true).build(); // clear notification after click
         startForeground(NOTIFICATION_ID, notification);
 
-        // Start tracking
-        final long WAKELOCK_TIMEOUT = 10 * 60 * 60 * 1000L; // 10 hours
-        tripID++;
+        // Start tracking, or watch for the rider to start cycling in automatic mode
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+        if (prefs.getBoolean(getString(R.string.auto_trips_key), false) && !isReplay(intent)) {
+            tripDetector = new TripDetector(new TripDetector.Listener() {
+                @Override
+                public void onTripStart(long timestamp) {
+                    Log.d(TAG, "Riding detected");
+                    beginTrip(timestamp);
+                    // The readings since the rider started moving belong to the trip
+                    pending.replay(timestamp, new SensorProcessor.Sink() {
+                        @Override
+                        public void accel(long timestamp, float x, float y, float z) {
+                            privacyFilter.addAccel(timestamp, x, y, z);
+                        }
+
+                        @Override
+                        public void location(long timestamp, double lat, double lon) {
+                            privacyFilter.addLocation(timestamp, lat, lon);
+                        }
+                    });
+                }
+
+                @Override
+                public void onTripEnd(long timestamp) {
+                    Log.d(TAG, "Stop detected");
+                    locationTracker.stop();
+                    endTrip();
+                    // Called from a sensor callback, which may still use the gate
+                    handler.post(TrackingService.this::sleepUntilMotion);
+                }
+
+                @Override
+                public void onIdle(long timestamp) {
+                    Log.d(TAG, "Not cycling");
+                    handler.post(TrackingService.this::sleepUntilMotion);
+                }
+            });
+        } else {
+            beginTrip(System.currentTimeMillis());
+        }
         isTracking = true;
-        startListening();
-        wakeLock.acquire(WAKELOCK_TIMEOUT);
+        if (!startReplay(intent)) {
+            startListening();
+        }
+        if (tripDetector != null) {
+            // Check at once whether the rider is already cycling
+            locationTracker.start();
+            wakeLock.acquire(PROBE_WAKELOCK_TIMEOUT);
+        }
+        ((BikeApp) getApplication()).getMetricsLog().start();
 
         return START_NOT_STICKY;
     }
@@ -161,29 +336,250 @@ public class TrackingService extends Service {
         super.onDestroy();
         Log.d(TAG, "Destroyed!");
         stopListening();
+        motionTrigger.cancel();
+        closeSensorLog();
+        repository.flushWrites();
         if (wakeLock.isHeld()) {
             wakeLock.release();
         }
     }
 
     /**
-     * Register listeners for accelerometer and location updates.
+     * Register listeners for accelerometer and location updates, with the accelerometer rate
+     * adapting to the motion of the rider and the battery from the normal rate on.
+     * The GPS is turned off while the accelerometer shows the rider standing still.
      */
     private void startListening() {
+        sampling = new SamplingController((timestamp, periodUs) -> {
+            accelTracker.setPeriod(periodUs);
+            if (isRecording) {
+                repository.recordSampleRate(tripID, timestamp, periodUs);
+            }
+        });
+        motionGate = new MotionGate((timestamp, moving) -> {
+            if (tripDetector != null) {
+                if (moving && !isRecording && !tripDetector.isAwake()) {
+                    // Only reached without a significant motion sensor, when the accelerometer stays on
+                    wakeForTrip();
+                }
+                tripDetector.onMotionChanged(timestamp, moving);
+            }
+            if (!isRecording) {
+                // The GPS stays off between automatic trips
+                return;
+            }
+            if (moving) {
+                sampling.onMoving(timestamp);
+                locationTracker.resume(timestamp);
+            } else {
+                locationTracker.pause();
+            }
+        });
+        if (isRecording) {
+            repository.recordSampleRate(tripID, new Date().getTime(), sampling.getPeriodUs());
+        }
+        registerReceiver(batteryReceiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
         rotationTracker.start();
+        accelTracker.setPeriod(sampling.getPeriodUs());
         accelTracker.start();
-        locationTracker.start();
+        if (isRecording) {
+            locationTracker.start();
+        }
     }
 
     /**
-     * Unregister listeners for accelerometer and location updates.
+     * Unregister listeners for accelerometer and location updates, and stop any replay.
      */
     private void stopListening() {
+        // The replay thread feeds the processor too, so it must finish before the trackers flush
+        // their caches and the gates are cleared
+        stopReplay();
+        if (sampling != null) {
+            unregisterReceiver(batteryReceiver);
+            sampling = null;
+            motionGate = null;
+        }
         rotationTracker.stop();
         accelTracker.stop();
         locationTracker.stop();
     }
 
+    /**
+     * Start watching for a trip once the rider moves: listen to the sensors again and turn the
+     * GPS on, so the trip detector can tell from their speed whether they are cycling.
+     * The CPU is kept awake while it does, up to a few minutes.
+     */
+    private void wakeForTrip() {
+        if (!isTracking || tripDetector == null) {
+            return;
+        }
+        Log.d(TAG, "Motion detected");
+        tripDetector.wake();
+        if (sampling == null) {
+            startListening();
+        }
+        locationTracker.start();
+        wakeLock.acquire(PROBE_WAKELOCK_TIMEOUT);
+    }
+
+    /**
+     * Turn the sensors off between automatic trips and let the CPU sleep until the significant
+     * motion sensor reports the rider moving. Without that sensor the accelerometer stays on,
+     * and its readings wake the trip detector when the rider moves.
+     */
+    private void sleepUntilMotion() {
+        if (!isTracking || isRecording || tripDetector == null || tripDetector.isAwake()) {
+            return;
+        }
+        Log.d(TAG, "Waiting for motion");
+        locationTracker.stop();
+        pending.clear();
+        if (motionTrigger.request()) {
+            stopListening();
+        }
+        if (wakeLock.isHeld()) {
+            wakeLock.release();
+        }
+    }
+
+    /**
+     * Keep a reading taken before the trip detector started a trip, in case the trip starts
+     * before it, dropping the ones too old for that.
+     * @param timestamp - the Unix time of the reading in ms
+     * @param x - the x acceleration
+     * @param y - the y acceleration
+     * @param z - the z acceleration
+     */
+    private void bufferReading(long timestamp, float x, float y, float z) {
+        long earliest = tripDetector.getEarliestStart();
+        if (earliest < 0) {
+            return;
+        }
+        pending.accel(timestamp, x, y, z);
+        pending.dropBefore(earliest);
+    }
+
+    /**
+     * Publish the rate requested from a sensor, to compare with the rate of its events counter.
+     * @param sensor - the metric prefix of the sensor
+     * @param hz - the requested rate, or 0 when not listening
+     */
+    private static void setRequestedRate(@NonNull String sensor, double hz) {
+        MetricRegistry.getDefault().gauge(sensor + ".requested_hz", () -> hz);
+    }
+
+    /**
+     * Start accounting for a sensor or GPS callback: count the event, and a wakeup if it is not
+     * part of the batch delivered with the previous callback, and begin its trace section.
+     * WARNING: This method must be called from the Main/UI thread
+     * @param events - the events counter of the sensor
+     * @return - the thread CPU time at the start, to pass to endCallback
+     */
+    private long beginCallback(@NonNull Counter events) {
+        long cpu = Debug.threadCpuTimeNanos();
+        Tracer.begin(Tracer.SENSOR_CALLBACK);
+        events.inc();
+        long now = SystemClock.elapsedRealtime();
+        if (now - lastCallback > WAKEUP_GAP_MS) {
+            wakeups.inc();
+        }
+        lastCallback = now;
+        return cpu;
+    }
+
+    /**
+     * End the trace section of a callback and add the CPU time it used to the sensor stage.
+     * @param cpu - the thread CPU time returned by beginCallback
+     */
+    private void endCallback(long cpu) {
+        Tracer.end();
+        sensorCpu.add(Debug.threadCpuTimeNanos() - cpu);
+    }
+
+    /**
+     * Return whether the start intent asks a debug build to replay a trace.
+     * @param intent - the message that started the service
+     * @return - true if a replay is requested
+     */
+    private static boolean isReplay(Intent intent) {
+        return BuildConfig.DEBUG && intent != null
+                && (intent.hasExtra(EXTRA_TRACE_PATH) || intent.hasExtra(EXTRA_SYNTHETIC_SECONDS));
+    }
+
+    /**
+     * Replay a recorded or synthetic trace through the processing pipeline instead of listening
+     * to the sensors, if requested by the start intent of a debug build.
+     * Readings are timestamped as if the trip started now, at any speed.
+     * @param intent - the message that started the service
+     * @return - true if a replay was started
+     */
+    private boolean startReplay(Intent intent) {
+        if (!isReplay(intent)) {
+            return false;
+        }
+        final String path = intent.getStringExtra(EXTRA_TRACE_PATH);
+        final int seconds = intent.getIntExtra(EXTRA_SYNTHETIC_SECONDS, 0);
+        final float speed = intent.getFloatExtra(EXTRA_REPLAY_SPEED, 1);
+        final boolean stopAfter = intent.getBooleanExtra(EXTRA_REPLAY_STOP, false);
+        replayThread = new Thread(() -> {
+            try {
+                SensorTrace trace = loadTrace(path, seconds);
+                long start = SystemClock.elapsedRealtime();
+                long cpu = Debug.threadCpuTimeNanos();
+                int count = new TraceReplayer(trace, processor, Clock.SYSTEM, speed).run();
+                sensorCpu.add(Debug.threadCpuTimeNanos() - cpu);
+                Log.i(TAG, "Replayed " + count + " readings in " + (SystemClock.elapsedRealtime() - start) + " ms");
+                if (stopAfter) {
+                    handler.post(() -> {
+                        if (isTracking) {
+                            disableTracking();
+                        }
+                    });
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Could not read trace " + path, e);
+            } catch (InterruptedException e) {
+                Log.d(TAG, "Replay stopped");
+            }
+        }, "trace-replay");
+        replayThread.start();
+        return true;
+    }
+
+    /**
+     * Read the trace file, or generate a synthetic ride if there is no path.
+     * @param path - the path of the trace file, or null
+     * @param seconds - the length of the synthetic ride
+     * @return - the trace to replay
+     * @throws IOException - if the file cannot be read or is malformed
+     */
+    @NonNull
+    private static SensorTrace loadTrace(String path, int seconds) throws IOException {
+        if (path == null) {
+            return new RideGenerator(SYNTHETIC_SEED, SYNTHETIC_HZ, SYNTHETIC_FIX_MS)
+                    .generateTrace(System.currentTimeMillis(), seconds * 1000L, SYNTHETIC_LAT, SYNTHETIC_LON);
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+            return SensorTrace.read(reader);
+        }
+    }
+
+    /**
+     * Stop the replay and wait for it, so that no readings arrive after tracking stops.
+     */
+    private void stopReplay() {
+        if (replayThread == null) {
+            return;
+        }
+        replayThread.interrupt();
+        try {
+            replayThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        replayThread = null;
+    }
+
     /**
      * Stop storing data, release WakeLock, and remove the service from the foreground.
      */
@@ -192,11 +588,13 @@ public class TrackingService extends Service {
         isTracking = false;
 
         stopListening();
-
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
-        int blackoutRadius = prefs.getInt("privacy_radius", 50);
-        repository.createSegments(tripID, blackoutRadius);
-        writePrefs();
+        if (isRecording) {
+            endTrip();
+        }
+        tripDetector = null;
+        motionTrigger.cancel();
+        pending.clear();
+        ((BikeApp) getApplication()).getMetricsLog().stop();
 
         if (wakeLock.isHeld()) {
             wakeLock.release();
@@ -207,6 +605,96 @@ public class TrackingService extends Service {
         }
     }
 
+    /**
+     * Start recording a new trip: reserve its ID, give it a surface row for the rider to fill in
+     * when it ends, open its sensor log and privacy filter, and keep the CPU awake while it is recorded.
+     * @param start - the Unix time in ms of the first reading of the trip
+     */
+    private void beginTrip(long start) {
+        tripID = repository.startTrip(tripID + 1);
+        repository.insertTrip(new TripSurface(tripID, null));
+        openSensorLog();
+        createPrivacyFilter();
+        isRecording = true;
+        if (sampling != null) {
+            repository.recordSampleRate(tripID, start, sampling.getPeriodUs());
+        }
+        wakeLock.acquire(WAKELOCK_TIMEOUT);
+    }
+
+    /**
+     * Stop recording the trip: store the readings still held, finalize it, and let the CPU sleep.
+     */
+    private void endTrip() {
+        isRecording = false;
+        finishPrivacyFilter();
+        closeSensorLog();
+        repository.flushWrites();
+
+        // The blackout radius was already applied by the privacy filter
+        repository.createSegments(tripID, 0);
+        writePrefs();
+        if (wakeLock.isHeld()) {
+            wakeLock.release();
+        }
+    }
+
+    /**
+     * Open the sensor log for the new trip if crash-safe recording is enabled.
+     * Readings go to the database if the log cannot be opened.
+     */
+    private void openSensorLog() {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+        if (!prefs.getBoolean(getString(R.string.sensor_log_key), false)) {
+            return;
+        }
+        sensorLog = repository.openSensorLog(tripID);
+    }
+
+    /**
+     * Create the filter that drops readings in privacy zones and near the start and end of the trip.
+     */
+    private void createPrivacyFilter() {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+        int blackoutRadius = prefs.getInt(getString(R.string.radius_pref_key), 50);
+        List<PrivacyZone> zones = PrivacyZone.decode(prefs.getString(getString(R.string.privacy_zones_key), null));
+        privacyFilter = new PrivacyFilter(zones, blackoutRadius, new PrivacyFilter.Sink() {
+            @Override
+            public void accel(long timestamp, float x, float y, float z) {
+                accelTracker.store(timestamp, x, y, z);
+            }
+
+            @Override
+            public void location(long timestamp, double lat, double lon) {
+                locationTracker.store(timestamp, lat, lon);
+            }
+        });
+    }
+
+    /**
+     * Release the readings held by the privacy filter that are outside the end radius,
+     * then flush the tracker caches.
+     * If the service is destroyed without this, the held readings are never stored.
+     */
+    private void finishPrivacyFilter() {
+        if (privacyFilter != null) {
+            privacyFilter.finish();
+            privacyFilter = null;
+        }
+        accelTracker.flush();
+        locationTracker.flush();
+    }
+
+    /**
+     * Sync and close the sensor log of the current trip, if any.
+     */
+    private void closeSensorLog() {
+        if (sensorLog != null) {
+            repository.closeSensorLog(sensorLog);
+            sensorLog = null;
+        }
+    }
+
     /**
      * Update the tripID stored in the SharedPreferences file.
      */
@@ -242,15 +730,16 @@ public class TrackingService extends Service {
      * Track the device accelerometer and upload data to the repository.
      */
     class AccelTracker implements SensorEventListener {
-        private static final int SENSOR_DELAY = 200000;
         private static final int CACHE_SIZE = 250;
-        private static final float TIME_CONSTANT = 1.8f;
         private static final int MAX_LATENCY = 1000000;
 
-        private List<AccelerometerData> accelCache = new ArrayList<>();
-        private final float[] gravity = new float[3];
+        private static final String METRIC = "sensor.accel";
+
+        private AccelBuffer accelCache = new AccelBuffer(CACHE_SIZE);
+        private int periodUs = SamplingController.PERIOD_NORMAL_US;
+        private boolean isListening = false;
+        private final Counter events = MetricRegistry.getDefault().counter(METRIC + ".events");
         private final long diff;
-        private Date previous = null;
         private final Sensor accelerometer;
 
         /**
@@ -259,7 +748,6 @@ public class TrackingService extends Service {
         public AccelTracker() {
             accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
             diff = new Date().getTime() - SystemClock.elapsedRealtime();
-            gravity[2] = 9.81f;
         }
 
         /**
@@ -267,7 +755,9 @@ public class TrackingService extends Service {
          */
         public void start() {
             if (accelerometer != null) {
-                sensorManager.registerListener(this, accelerometer, SENSOR_DELAY, MAX_LATENCY);
+                sensorManager.registerListener(this, accelerometer, periodUs, MAX_LATENCY);
+                setRequestedRate(METRIC, 1e6 / periodUs);
+                isListening = true;
             }
         }
 
@@ -276,112 +766,85 @@ public class TrackingService extends Service {
          */
         public void stop() {
             sensorManager.unregisterListener(this);
+            setRequestedRate(METRIC, 0);
+            isListening = false;
             flush();
         }
 
         /**
-         * Insert all records in the cache into the database and clear the cache.
+         * Change the sampling period, registering again with it if listening.
+         * @param periodUs - the sampling period in us
          */
-        private void flush() {
-            repository.insertAccelBatch(accelCache);
-            accelCache = new ArrayList<>();
+        public void setPeriod(int periodUs) {
+            if (periodUs == this.periodUs) {
+                return;
+            }
+            this.periodUs = periodUs;
+            if (isListening) {
+                sensorManager.unregisterListener(this);
+                start();
+            }
         }
 
         /**
-         * Produce an accelerometer record from a sensor reading.
-         * @param event - the accelerometer reading
-         * @return - the AccelerometerData record
+         * Insert all records in the cache into the database and clear the cache.
          */
-        @NonNull
-        private AccelerometerData getAccel(SensorEvent event) {
-            Date timestamp = getTimestamp(event);
-
-            // Update rotation from accelerometer reading if no gyroscope
-            if (!rotationTracker.isActive()) {
-                updateRotation(event.values, timestamp);
+        private void flush() {
+            if (accelCache.isEmpty()) {
+                return;
+            }
+            Tracer.begin(Tracer.CACHE_FLUSH);
+            try {
+                repository.insertAccelBuffer(accelCache);
+                accelCache = new AccelBuffer(CACHE_SIZE);
+            } finally {
+                Tracer.end();
             }
-
-            // Get accelerometer values rotated relative to Earth
-            // See https://developer.android.com/guide/topics/sensors/sensors_motion#sensors-motion-rotate
-            float[] accel = getRotatedAccel(event.values);
-            return new AccelerometerData(timestamp, accel, tripID);
         }
 
         /**
          * Return the Unix timestamp at which the event occurred, in ms.
          * @param event - the accelerometer reading
-         * @return - the Unix timestamp in ms as a Date object
-         */
-        @NonNull
-        private Date getTimestamp(@NonNull SensorEvent event) {
-            return new Date(event.timestamp / 1000000 + diff);
-        }
-
-        /**
-         * Update the rotation applied to the accelerometer reading based
-         * on the gravity vector isolated using a low-pass filter.
-         * @param rawAccel - the raw sensor values relative to the device
-         * @param timestamp - the time at which the event occurred
-         */
-        private void updateRotation(float[] rawAccel, Date timestamp) {
-            // Calculate the alpha value used in the low-pass filter from the time delta
-            float dt = 0.2f;
-            if (previous != null) {
-                dt = (timestamp.getTime() - previous.getTime()) / 1000.0f;
-            }
-            previous = timestamp;
-            final float alpha = TIME_CONSTANT / (TIME_CONSTANT + dt);
-
-            // Isolate the force of gravity with the low-pass filter.
-            // Uses an exponentially weighted average.
-            // See https://developer.android.com/guide/topics/sensors/sensors_motion#sensors-motion-accel
-            // Or https://en.wikipedia.org/wiki/Low-pass_filter#Simple_infinite_impulse_response_filter
-            // NOTE: For Wikipedia, replace alpha with 1 - alpha
-            gravity[0] = alpha * gravity[0] + (1 - alpha) * rawAccel[0];
-            gravity[1] = alpha * gravity[1] + (1 - alpha) * rawAccel[1];
-            gravity[2] = alpha * gravity[2] + (1 - alpha) * rawAccel[2];
-
-            // Update the rotation matrix
-            rotationTracker.setRotationMatrix(gravity);
-        }
-
-        /**
-         * Determine the acceleration relative to the Earth-based coordinate system.
-         * See https://developer.android.com/guide/topics/sensors/sensors_motion#sensors-motion-rotate
-         * @param rawAccel - the raw accelerometer readings, using device-based coordinates
-         * @return - the rotated acceleration vector
+         * @return - the Unix timestamp in ms
          */
-        @NonNull
-        private float[] getRotatedAccel(@NonNull float[] rawAccel) {
-            // Copy raw values into 4D vector
-            float[] temp = new float[4];
-            temp[0] = rawAccel[0];
-            temp[1] = rawAccel[1];
-            temp[2] = rawAccel[2];
-            temp[3] = 0;
-
-            // Apply rotation and subtract gravity
-            float[] accel = new float[4];
-            Matrix.multiplyMV(accel, 0, rotationTracker.getRotationMatrix(), 0, temp, 0);
-            accel[2] -= 9.81f;
-            return accel;
+        private long getTimestamp(@NonNull SensorEvent event) {
+            return event.timestamp / 1000000 + diff;
         }
 
         /**
-         * Create an accelerometer record and flush the cache once it reaches a given size.
+         * Pass the reading to the processor, which rotates it relative to the Earth.
          * Called when the accelerometer delivers its readings.
          * @param event - the accelerometer reading
          */
         @Override
         public void onSensorChanged(@NonNull SensorEvent event) {
             if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER) {
-                accelCache.add(getAccel(event));
-                if (accelCache.size() == CACHE_SIZE) {
-                    flush();
+                long cpu = beginCallback(events);
+                try {
+                    processor.onAccel(getTimestamp(event), event.values);
+                } finally {
+                    endCallback(cpu);
                 }
             }
         }
 
+        /**
+         * Store a reading that passed the privacy filter in the sensor log or the cache.
+         * @param timestamp - the Unix timestamp in ms
+         * @param x - the x acceleration
+         * @param y - the y acceleration
+         * @param z - the z acceleration
+         */
+        private void store(long timestamp, float x, float y, float z) {
+            if (sensorLog != null && sensorLog.appendAccel(timestamp, x, y, z)) {
+                return;
+            }
+            accelCache.add(timestamp, x, y, z, tripID);
+            if (accelCache.isFull()) {
+                flush();
+            }
+        }
+
         /**
          * NOT USED
          * Called when the accelerometer's accuracy changes.
@@ -401,9 +864,15 @@ public class TrackingService extends Service {
         private static final int CACHE_SIZE = 10;
         private static final int MIN_DELAY = 5 * 1000;
         private static final int MIN_DIST = 10;
+        private static final String METRIC = "sensor.location";
 
         private List<LocationData> locCache = new ArrayList<>();
         private final LocationManager locationManager;
+        private final Counter events = MetricRegistry.getDefault().counter(METRIC + ".events");
+        private final Counter offTime = MetricRegistry.getDefault().counter(EnergyReport.GPS_OFF);
+        private boolean isPaused = false;
+        private long pausedSince;
+        private Location lastFix;
 
         /**
          * Initialize the LocationTracker object
@@ -419,6 +888,7 @@ public class TrackingService extends Service {
         public void start() {
             if (locationManager.isProviderEnabled(LocationManager.GPS_PROVIDER) && ContextCompat.checkSelfPermission(TrackingService.this, Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED) {
                 locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, MIN_DELAY, MIN_DIST, this);
+                setRequestedRate(METRIC, 1000.0 / MIN_DELAY);
             }
         }
 
@@ -427,15 +897,63 @@ public class TrackingService extends Service {
          */
         public void stop() {
             locationManager.removeUpdates(this);
+            setRequestedRate(METRIC, 0);
+            if (isPaused) {
+                offTime.add(SystemClock.elapsedRealtime() - pausedSince);
+                isPaused = false;
+            }
+            lastFix = null;
             flush();
         }
 
+        /**
+         * Turn the GPS off during a stop. Nothing is flushed, since the trip goes on.
+         */
+        public void pause() {
+            if (isPaused) {
+                return;
+            }
+            locationManager.removeUpdates(this);
+            setRequestedRate(METRIC, 0);
+            isPaused = true;
+            pausedSince = SystemClock.elapsedRealtime();
+            Log.d(TAG, "GPS paused");
+        }
+
+        /**
+         * Turn the GPS back on when the rider moves again. The last fix is repeated at the time
+         * of the move, so the stop becomes a segment of its own and the first new fix continues
+         * the trip from where it stopped.
+         * @param timestamp - the Unix time at which the rider started moving in ms
+         */
+        public void resume(long timestamp) {
+            if (!isPaused) {
+                return;
+            }
+            isPaused = false;
+            long off = SystemClock.elapsedRealtime() - pausedSince;
+            offTime.add(off);
+            Log.d(TAG, "GPS resumed after " + off + " ms");
+            if (lastFix != null) {
+                processor.onLocation(timestamp, lastFix.getLatitude(), lastFix.getLongitude());
+            }
+            start();
+        }
+
         /**
          * Insert cached records into the database and clear the cache.
          */
         private void flush() {
-            repository.insertLocBatch(locCache);
-            locCache = new ArrayList<>();
+            if (locCache.isEmpty()) {
+                return;
+            }
+            Tracer.begin(Tracer.CACHE_FLUSH);
+            try {
+                repository.insertLocBatch(locCache);
+                locCache = new ArrayList<>();
+            } finally {
+                Tracer.end();
+            }
         }
 
         /**
@@ -446,9 +964,26 @@ public class TrackingService extends Service {
          */
         @Override
         public void onLocationChanged(@NonNull Location loc) {
-            Date timestamp = new Date();
-            LocationData locData = new LocationData(timestamp, loc.getLatitude(), loc.getLongitude(), tripID);
-            locCache.add(locData);
+            lastFix = loc;
+            long cpu = beginCallback(events);
+            try {
+                processor.onLocation(new Date().getTime(), loc.getLatitude(), loc.getLongitude());
+            } finally {
+                endCallback(cpu);
+            }
+        }
+
+        /**
+         * Store a fix that passed the privacy filter in the sensor log or the cache.
+         * @param timestamp - the Unix timestamp in ms
+         * @param lat - the latitude
+         * @param lon - the longitude
+         */
+        private void store(long timestamp, double lat, double lon) {
+            if (sensorLog != null && sensorLog.appendLocation(timestamp, lat, lon)) {
+                return;
+            }
+            locCache.add(new LocationData(new Date(timestamp), lat, lon, tripID));
             if (locCache.size() == CACHE_SIZE) {
                 flush();
             }
@@ -456,177 +991,110 @@ public class TrackingService extends Service {
     }
 
     /**
-     * Track the device's rotation using the gyroscope if available.
-     * Holds the matrix applied to the raw accelerometer readings to rotate them.
+     * Wake the trip detector when the significant motion sensor reports the rider moving.
+     * The sensor is a one-shot trigger that runs without the CPU, so nothing else needs to listen
+     * between automatic trips.
      */
-    class RotationTracker implements SensorEventListener {
-        private static final int SENSOR_DELAY = 200000;
-        private static final int MAX_LATENCY = 1000000;
-
-        private final boolean isActive;
-        private final float[] rotationMatrix = new float[16];
-        private final Sensor rotationSensor;
+    class MotionTrigger extends TriggerEventListener {
+        private final Sensor sensor;
+        private boolean isRequested = false;
 
         /**
-         * Initialize the RotationTracker
+         * Initialize the MotionTrigger
          */
-        public RotationTracker() {
-            rotationSensor = sensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR);
-            isActive = rotationSensor != null;
-
-            // Default: identity matrix (no rotation)
-            addIdentity();
+        public MotionTrigger() {
+            sensor = sensorManager.getDefaultSensor(Sensor.TYPE_SIGNIFICANT_MOTION);
         }
 
         /**
-         * Listen for gyroscope updates if the device has one.
-         * Called when the tracking switch is activated.
+         * Ask to be notified of the next significant motion.
+         * @return - false if the device has no significant motion sensor
          */
-        public void start() {
-            if (isActive) {
-                sensorManager.registerListener(this, rotationSensor, SENSOR_DELAY, MAX_LATENCY);
+        public boolean request() {
+            if (sensor == null) {
+                return false;
             }
+            isRequested = sensorManager.requestTriggerSensor(this, sensor);
+            return isRequested;
         }
 
         /**
-         * Stop listening for gyroscope updates.
+         * Stop waiting for significant motion.
          */
-        public void stop() {
-            sensorManager.unregisterListener(this);
-        }
-
-        /**
-         * Update the rotation matrix using the gravity isolated from the raw
-         * accelerometer readings using a low-pass filter.
-         * See https://math.stackexchange.com/questions/180418/calculate-rotation-matrix-to-align-vector-a-to-vector-b-in-3d
-         * @param gravity - the gravity vector isolated from low-pass filter
-         */
-        public void setRotationMatrix(float[] gravity) {
-            // Rotate the normalized gravity vector g = (g1, g2, g3) = gravity / || gravity ||
-            // onto the normal z vector z = (0, 0, 1)
-            // Uses the formula R = I + vx + (1 / (1 + c)) vx^2
-            // v = (v1, v2, 0) = g x z = (g2, -g1, 0)
-            // c = cos theta = g * z = g3
-
-            // Ignore if zero vector
-            float MAGNITUDE = norm(gravity);
-            if (MAGNITUDE == 0) {
-                return;
-            }
-
-            float v1 = gravity[1] / MAGNITUDE;
-            float v2 = - gravity[0] / MAGNITUDE;
-            float c = gravity[2] / MAGNITUDE;
-
-            // Set to reflection
-            if (c == -1) {
-                setReflection();
-                return;
+        public void cancel() {
+            if (isRequested) {
+                sensorManager.cancelTriggerSensor(this, sensor);
+                isRequested = false;
             }
-
-            // Get vx and vx^2
-            float[] vx = getVX(v1, v2);
-            float[] vx2 = new float[16];
-            Matrix.multiplyMM(vx2, 0, vx, 0, vx, 0);
-
-            // Scale and add
-            scale(vx2, 1f / (1 + c));
-            add(rotationMatrix, vx2, vx);
-            addIdentity();
         }
 
         /**
-         * Add the identity matrix to the current rotation matrix
+         * Called once when the rider moves, after which the trigger must be requested again.
+         * @param event - the significant motion event
          */
-        private void addIdentity() {
-            rotationMatrix[0] += 1;
-            rotationMatrix[5] += 1;
-            rotationMatrix[10] += 1;
-            rotationMatrix[15] += 1;
+        @Override
+        public void onTrigger(TriggerEvent event) {
+            isRequested = false;
+            wakeForTrip();
         }
+    }
 
-        /**
-         * Set the rotation matrix to flip the accelerometer reading
-         */
-        private void setReflection() {
-            Arrays.fill(rotationMatrix, 0);
-            rotationMatrix[0] = -1;
-            rotationMatrix[5] = -1;
-            rotationMatrix[10] = -1;
-            rotationMatrix[15] = 1;
-        }
+    /**
+     * Track the device's rotation using the gyroscope if available.
+     * The processor uses it to rotate the raw accelerometer readings.
+     */
+    class RotationTracker implements SensorEventListener {
+        private static final int SENSOR_DELAY = 200000;
+        private static final int MAX_LATENCY = 1000000;
 
-        /**
-         * Add vectors/matrices v1 and v2, and store the result in result.
-         * @param result - the array to store the result in
-         * @param v1 - the first vector
-         * @param v2 - the second vector
-         * @throws IllegalArgumentException - arrays of different lengths
-         */
-        private void add(@NonNull float[] result, @NonNull float[] v1, @NonNull float[] v2) {
-            if (v2.length != v1.length || result.length != v1.length) {
-                throw new IllegalArgumentException("Arrays must be of the same length.");
-            }
-            for (int i = 0; i < v1.length; i++) {
-                result[i] = v1[i] + v2[i];
-            }
-        }
+        private static final String METRIC = "sensor.rotation";
+
+        private final boolean isActive;
+        private final Sensor rotationSensor;
+        private final Counter events = MetricRegistry.getDefault().counter(METRIC + ".events");
 
         /**
-         * Return the vx matrix from values v1 and v2.
-         * See https://math.stackexchange.com/questions/180418/calculate-rotation-matrix-to-align-vector-a-to-vector-b-in-3d
-         * NOTE: OpenGL implements multiplication using column-major order
-         * @param v1 - the first coordinate of g x z
-         * @param v2 - the second coordinate of g x z
-         * @return - the 4x4 vx matrix
+         * Initialize the RotationTracker
          */
-        @NonNull
-        private float[] getVX(float v1, float v2) {
-            float[] vx = new float[16];
-            vx[2] = -v2;
-            vx[6] = v1;
-            vx[8] = v2;
-            vx[9] = -v1;
-            return vx;
+        public RotationTracker() {
+            rotationSensor = sensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR);
+            isActive = rotationSensor != null;
         }
 
         /**
-         * Scale a vector in place by factor c.
-         * @param vector - the vector to be scaled
-         * @param c - the scaling constant
+         * Listen for gyroscope updates if the device has one.
+         * Called when the tracking switch is activated.
          */
-        private void scale(@NonNull float[] vector, float c) {
-            for (int i = 0; i < vector.length; i++) {
-                vector[i] = c * vector[i];
+        public void start() {
+            if (isActive) {
+                sensorManager.registerListener(this, rotationSensor, SENSOR_DELAY, MAX_LATENCY);
+                setRequestedRate(METRIC, 1e6 / SENSOR_DELAY);
             }
         }
 
         /**
-         * Return the length of the given vector
-         * @param vector - the vector to measure
-         * @return - the Euclidean norm of the vector
+         * Stop listening for gyroscope updates.
          */
-        private float norm(@NonNull float[] vector) {
-            float sum = 0;
-            for (float v : vector) {
-                sum += v * v;
-            }
-            return (float) Math.sqrt(sum);
+        public void stop() {
+            sensorManager.unregisterListener(this);
+            setRequestedRate(METRIC, 0);
         }
 
         /**
          * Update the rotation matrix given the rotation of the device.
          * Rotation matrix is the transformation to map device-relative acceleration onto the
          * Earth-based coordinate system.
-         * NOTE: The rotation matrix is in column-major order
          * @param event - the rotation vector reading; last 3 components of unit quaternion
          */
         @Override
         public void onSensorChanged(SensorEvent event) {
             if (event.sensor.getType() == Sensor.TYPE_ROTATION_VECTOR) {
-                float[] rotation = new float[16];
-                SensorManager.getRotationMatrixFromVector(rotation, event.values);
-                Matrix.transposeM(rotationMatrix, 0, rotation, 0);
+                long cpu = beginCallback(events);
+                try {
+                    processor.onRotationVector(event.values);
+                } finally {
+                    endCallback(cpu);
+                }
             }
         }
 
@@ -640,15 +1108,5 @@ public class TrackingService extends Service {
         public void onAccuracyChanged(Sensor sensor, int i) {
 
         }
-
-        // ************************* Getter methods *******************************************
-
-        public boolean isActive() {
-            return isActive;
-        }
-
-        public float[] getRotationMatrix() {
-            return rotationMatrix;
-        }
     }
 }
@@ -7,10 +7,15 @@ import androidx.annotation.NonNull;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 
+import com.bikevibes.bikeapp.db.GridCell;
 import com.bikevibes.bikeapp.db.Segment;
+import com.bikevibes.bikeapp.db.SegmentTile;
 import com.bikevibes.bikeapp.db.TripSummary;
 import com.bikevibes.bikeapp.db.TripSurface;
 
+import org.osmdroid.util.BoundingBox;
+import org.osmdroid.util.GeoPoint;
+import org.osmdroid.views.overlay.Polygon;
 import org.osmdroid.views.overlay.Polyline;
 
 import java.util.ArrayList;
@@ -30,6 +35,7 @@ public class TrackingViewModel extends AndroidViewModel {
         super(application);
         BikeApp app = (BikeApp) application;
         repository = app.getRepository();
+        repository.loadSnapshot();
     }
 
     // ************************** LiveData Getter Methods ***********************************
@@ -39,6 +45,51 @@ public class TrackingViewModel extends AndroidViewModel {
 
     LiveData<List<Integer>> getTrips() {return repository.getTrips();}
 
+    LiveData<List<GridCell>> getHeatmap() {
+        return repository.getHeatmap();
+    }
+
+    LiveData<List<Segment>> getVisibleSegments() {
+        return repository.getVisibleSegments();
+    }
+
+    /**
+     * Load the segments of the current trip that are visible in the map window.
+     * @param box - the bounding box of the visible map area
+     */
+    void loadVisibleSegments(@NonNull BoundingBox box) {
+        int tripID = getTripID();
+        if (tripID > -1) {
+            final int zoom = SegmentTile.ZOOM;
+            repository.loadVisibleSegments(tripID,
+                    GridCell.getTileX(box.getLonWest(), zoom), GridCell.getTileX(box.getLonEast(), zoom),
+                    GridCell.getTileY(box.getLatNorth(), zoom), GridCell.getTileY(box.getLatSouth(), zoom));
+        }
+    }
+
+    /**
+     * Return the ID of the trip shown in the interface.
+     * @return - the trip ID, or -1 if there are no trips
+     */
+    int getTripID() {
+        if (trips != null && trips.size() > 0 && tripIndex > -1) {
+            return trips.get(tripIndex);
+        }
+        return -1;
+    }
+
+    /**
+     * Load the heatmap cells that are visible in the map window.
+     * @param box - the bounding box of the visible map area
+     * @param mapZoom - the zoom level of the map
+     */
+    void loadHeatmap(@NonNull BoundingBox box, double mapZoom) {
+        int zoom = GridCell.getLevel(mapZoom);
+        repository.loadHeatmap(zoom,
+                GridCell.getTileX(box.getLonWest(), zoom), GridCell.getTileX(box.getLonEast(), zoom),
+                GridCell.getTileY(box.getLatNorth(), zoom), GridCell.getTileY(box.getLatSouth(), zoom));
+    }
+
     /**
      * Update the trip summary shown in the interface
      */
@@ -89,16 +140,48 @@ public class TrackingViewModel extends AndroidViewModel {
 
         // Convert the segments into Polylines
         List<Polyline> lines = new ArrayList<>();
-        for (int i = 0; i < segments.size(); i++) {
-            Segment segment = segments.get(i);
-            Polyline line = segment.toPolyline();
-            line.setWidth(10f);
-            line.setColor(getColor(segment.getRmsZAccel(), max));
-            lines.add(line);
+        Tracer.begin(Tracer.POLYLINES);
+        try {
+            for (int i = 0; i < segments.size(); i++) {
+                Segment segment = segments.get(i);
+                Polyline line = segment.toPolyline();
+                line.setWidth(10f);
+                line.setColor(getColor(segment.getRmsZAccel(), max));
+                lines.add(line);
+            }
+        } finally {
+            Tracer.end();
         }
         return lines;
     }
 
+    /**
+     * Produce a list of translucent Polygons from the heatmap grid cells.
+     * @param cells - the grid cells visible on the map
+     * @return - the polygons to draw to the map
+     */
+    public List<Polygon> getHeatmapPolygons(@NonNull List<GridCell> cells) {
+        final double max = 3.5;
+        final int alpha = 160;
+
+        List<Polygon> polygons = new ArrayList<>();
+        for (GridCell cell : cells) {
+            List<GeoPoint> points = new ArrayList<>();
+            points.add(new GeoPoint(cell.getNorth(), cell.getWest()));
+            points.add(new GeoPoint(cell.getNorth(), cell.getEast()));
+            points.add(new GeoPoint(cell.getSouth(), cell.getEast()));
+            points.add(new GeoPoint(cell.getSouth(), cell.getWest()));
+
+            int color = getColor(cell.getRms(), max);
+            Polygon polygon = new Polygon();
+            polygon.setPoints(points);
+            polygon.setFillColor(Color.argb(alpha, Color.red(color), Color.green(color), Color.blue(color)));
+            polygon.setStrokeWidth(0f);
+            polygons.add(polygon);
+        }
+        return polygons;
+    }
+
     /**
      * Return the integer color value that a segment should be colored.
      * Uses a linear gradient with green as 0 and red as the maximum value.
@@ -129,14 +212,13 @@ public class TrackingViewModel extends AndroidViewModel {
         this.trips = trips;
         if (tripIndex == -1) {
             tripIndex = trips.size() - 1;
+            if (tripIndex == -1) {
+                repository.clearSnapshot();
+            }
             update();
         }
     }
 
-    void insertSurface(int tripID) {
-        repository.insertTrip(new TripSurface(tripID, null));
-    }
-
     void updateSurface(int tripID, String surface) {
         repository.updateTrip(new TripSurface(tripID, surface));
     }
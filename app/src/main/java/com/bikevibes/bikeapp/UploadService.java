@@ -5,6 +5,7 @@ import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.os.Debug;
 import android.os.IBinder;
 import android.util.Log;
 
@@ -15,12 +16,17 @@ import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 import com.android.volley.DefaultRetryPolicy;
 import com.android.volley.Request;
 import com.android.volley.RequestQueue;
+import com.android.volley.Response;
 import com.android.volley.TimeoutError;
 import com.android.volley.toolbox.JsonObjectRequest;
 import com.bikevibes.bikeapp.db.AccelerometerData;
 import com.bikevibes.bikeapp.db.DataInstance;
+import com.bikevibes.bikeapp.db.EnergyReport;
 import com.bikevibes.bikeapp.db.LocationData;
 import com.bikevibes.bikeapp.db.TripSurface;
+import com.bikevibes.core.Counter;
+import com.bikevibes.core.LatencyHistogram;
+import com.bikevibes.core.MetricRegistry;
 
 import org.jetbrains.annotations.Contract;
 import org.json.JSONArray;
@@ -40,6 +46,16 @@ public class UploadService extends Service {
     private static final String TAG = "UploadService";
     private static final String ACTION_UPLOAD = "com.bikevibes.bikeapp.UPLOAD";
 
+    // Metrics
+    private static final Counter uploadedBytes = MetricRegistry.getDefault().counter("upload.bytes");
+    private static final LatencyHistogram requestTimes = MetricRegistry.getDefault().histogram("upload.request");
+    private static final Counter uploadCpu = MetricRegistry.getDefault().counter(EnergyReport.UPLOAD_CPU);
+    private static volatile double lastBytesPerSecond = 0;
+
+    static {
+        MetricRegistry.getDefault().gauge("upload.bytes_per_second", () -> lastBytesPerSecond);
+    }
+
     private DataRepository repository;
     private RequestQueue queue;
     private boolean isUploading = false;
@@ -60,7 +76,7 @@ public class UploadService extends Service {
 
     /**
      * Initialize the service when it is first created.
-     * Get the thread pool, request queue, and repository.
+     * Get the thread pool and repository. The request queue is created on the upload thread.
      */
     @Override
     public void onCreate() {
@@ -69,7 +85,6 @@ public class UploadService extends Service {
         BikeApp app = (BikeApp) getApplication();
         repository = app.getRepository();
         uploadExecutor = app.getExecutors();
-        queue = app.getQueue();
         getPrefs();
     }
 
@@ -127,6 +142,12 @@ public class UploadService extends Service {
      * Query data from the local database and upload it to the server.
      */
     private void uploadData() {
+        BikeApp app = (BikeApp) getApplication();
+        queue = app.getQueue();
+        final long cpu = Debug.threadCpuTimeNanos();
+        final long cpuBefore = uploadCpu.getCount();
+        final long bytesBefore = uploadedBytes.getCount();
+
         // Query data
         List<LocationData> locations = repository.getLocs(tripID);
         List<AccelerometerData> accel_readings = repository.getAccels(tripID);
@@ -153,7 +174,9 @@ public class UploadService extends Service {
         // Create the Volley request to send to the server
         final String url = "http://162.246.157.171:8080/upload";
         JSONObject data = getJSON(locations, accel_readings, surfaces);
-        JsonObjectRequest jORequest = new JsonObjectRequest(Request.Method.POST, url, data, response -> {
+        JsonObjectRequest jORequest = new MeteredRequest(url, data, response -> {
+            // Uploads run one at a time, so the counters only moved for this one
+            repository.recordUpload(tripID, uploadCpu.getCount() - cpuBefore, uploadedBytes.getCount() - bytesBefore);
             repository.deleteUpload(tripID);
             uploadCompleted(getString(R.string.upload_success));
         }, error -> {
@@ -170,9 +193,42 @@ public class UploadService extends Service {
         jORequest.setRetryPolicy(new DefaultRetryPolicy(INITIAL_TIMEOUT, MAX_RETRIES, DefaultRetryPolicy.DEFAULT_BACKOFF_MULT));
         jORequest.setTag(TAG);
 
+        uploadCpu.add(Debug.threadCpuTimeNanos() - cpu);
         queue.add(jORequest);
     }
 
+    /**
+     * A JSON POST request that records its size and duration once it succeeds.
+     * The size is taken when Volley serializes the body, so it is not serialized twice to be measured.
+     */
+    private static class MeteredRequest extends JsonObjectRequest {
+        private final long created = System.nanoTime();
+        private volatile int bodyLength = 0;
+
+        MeteredRequest(String url, JSONObject data, Response.Listener<JSONObject> listener,
+                       Response.ErrorListener errorListener) {
+            super(Request.Method.POST, url, data, listener, errorListener);
+        }
+
+        @Override
+        public byte[] getBody() {
+            long cpu = Debug.threadCpuTimeNanos();
+            byte[] body = super.getBody();
+            uploadCpu.add(Debug.threadCpuTimeNanos() - cpu);
+            bodyLength = body == null ? 0 : body.length;
+            return body;
+        }
+
+        @Override
+        protected void deliverResponse(JSONObject response) {
+            long elapsed = System.nanoTime() - created;
+            requestTimes.record(elapsed);
+            uploadedBytes.add(bodyLength);
+            lastBytesPerSecond = elapsed == 0 ? 0 : bodyLength * 1e9 / elapsed;
+            super.deliverResponse(response);
+        }
+    }
+
     /**
      * Create the JSON object to include in the POST request.
      * Contains the user ID and arrays of each data object to upload
@@ -184,6 +240,7 @@ public class UploadService extends Service {
     @NonNull
     private JSONObject getJSON(List<LocationData> locations, List<AccelerometerData> accels, List<TripSurface> surfaces) {
         JSONObject data = new JSONObject();
+        Tracer.begin(Tracer.JSON_BUILD);
         try {
             data.put("user_id", userID);
             data.put("accelerometer", getJsonArray(accels));
@@ -191,6 +248,8 @@ public class UploadService extends Service {
             data.put("surfaces", getJsonArray(surfaces));
         } catch (JSONException e) {
             e.printStackTrace();
+        } finally {
+            Tracer.end();
         }
         return data;
     }
@@ -220,6 +279,7 @@ public class UploadService extends Service {
         Intent intent = new Intent(ACTION_UPLOAD);
         intent.putExtra(getString(R.string.message_key), message);
         LocalBroadcastManager.getInstance(getApplicationContext()).sendBroadcast(intent);
+        ((BikeApp) getApplication()).getMetricsLog().append();
 
         // Destroy UploadService
         isUploading = false;
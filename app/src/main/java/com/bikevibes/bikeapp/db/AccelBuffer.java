@@ -0,0 +1,87 @@
+package com.bikevibes.bikeapp.db;
+
+/**
+ * Fixed-capacity buffer of accelerometer readings stored in primitive arrays.
+ * Lets the sensor callback record readings without creating objects for each one.
+ */
+public class AccelBuffer {
+    private final long[] timestamps;
+    private final float[] x;
+    private final float[] y;
+    private final float[] z;
+    private final int[] tripIDs;
+    private int size = 0;
+
+    /**
+     * Initialize an empty buffer.
+     * @param capacity - the maximum number of readings
+     */
+    public AccelBuffer(int capacity) {
+        timestamps = new long[capacity];
+        x = new float[capacity];
+        y = new float[capacity];
+        z = new float[capacity];
+        tripIDs = new int[capacity];
+    }
+
+    /**
+     * Add a reading to the end of the buffer.
+     * @param timestamp - the Unix time of the reading in ms
+     * @param x - the x-coordinate of acceleration
+     * @param y - the y-coordinate of acceleration
+     * @param z - the z-coordinate (vertical) acceleration
+     * @param tripID - the trip ID of the reading
+     * @throws IllegalStateException - if the buffer is full
+     */
+    public void add(long timestamp, float x, float y, float z, int tripID) {
+        if (isFull()) {
+            throw new IllegalStateException("AccelBuffer is full");
+        }
+        this.timestamps[size] = timestamp;
+        this.x[size] = x;
+        this.y[size] = y;
+        this.z[size] = z;
+        this.tripIDs[size] = tripID;
+        size++;
+    }
+
+    /**
+     * Remove all readings so the buffer can be reused.
+     * Only safe once the previous readings have been written.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    public boolean isFull() {
+        return size == timestamps.length;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getTimestamp(int i) {
+        return timestamps[i];
+    }
+
+    public float getX(int i) {
+        return x[i];
+    }
+
+    public float getY(int i) {
+        return y[i];
+    }
+
+    public float getZ(int i) {
+        return z[i];
+    }
+
+    public int getTripID(int i) {
+        return tripIDs[i];
+    }
+}
@@ -0,0 +1,110 @@
+package com.bikevibes.bikeapp.db;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Entity class for downsampled accelerometer readings.
+ * Each row summarizes the vertical acceleration of a trip within one second.
+ * Raw readings of old trips are replaced by rollups by the retention policy.
+ */
+@Entity(primaryKeys = {"tripID", "second"})
+public class AccelRollup {
+    private int tripID;
+    @NonNull
+    private Date second;
+    private double rmsZAccel;
+    private double maxZAccel;
+    private int count;
+
+    public AccelRollup(int tripID, @NonNull Date second, double rmsZAccel, double maxZAccel, int count) {
+        this.tripID = tripID;
+        this.second = second;
+        this.rmsZAccel = rmsZAccel;
+        this.maxZAccel = maxZAccel;
+        this.count = count;
+    }
+
+    /**
+     * Summarize accelerometer readings into one rollup per trip and second.
+     * @param readings - the readings in any order
+     * @return - the rollups in order of trip and time
+     */
+    @NonNull
+    public static List<AccelRollup> fromReadings(@NonNull List<AccelerometerData> readings) {
+        // Sum of squares, max and count for each trip and second
+        Map<Long, double[]> sums = new TreeMap<>();
+        for (AccelerometerData acc : readings) {
+            long second = acc.getTimestamp().getTime() / 1000;
+            long key = ((long) acc.getTripID() << 40) | second;
+            double[] sum = sums.get(key);
+            if (sum == null) {
+                sum = new double[3];
+                sums.put(key, sum);
+            }
+            double z = acc.getZ();
+            sum[0] += z * z;
+            sum[1] = Math.max(sum[1], Math.abs(z));
+            sum[2]++;
+        }
+
+        List<AccelRollup> rollups = new ArrayList<>(sums.size());
+        for (Map.Entry<Long, double[]> entry : sums.entrySet()) {
+            double[] sum = entry.getValue();
+            int tripID = (int) (entry.getKey() >> 40);
+            long second = entry.getKey() & ((1L << 40) - 1);
+            rollups.add(new AccelRollup(tripID, new Date(second * 1000),
+                    Math.sqrt(sum[0] / sum[2]), sum[1], (int) sum[2]));
+        }
+        return rollups;
+    }
+
+    // ***************************** Getters and Setters *******************************************
+
+    public int getTripID() {
+        return tripID;
+    }
+
+    @NonNull
+    public Date getSecond() {
+        return second;
+    }
+
+    public double getRmsZAccel() {
+        return rmsZAccel;
+    }
+
+    public double getMaxZAccel() {
+        return maxZAccel;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public void setTripID(int tripID) {
+        this.tripID = tripID;
+    }
+
+    public void setSecond(@NonNull Date second) {
+        this.second = second;
+    }
+
+    public void setRmsZAccel(double rmsZAccel) {
+        this.rmsZAccel = rmsZAccel;
+    }
+
+    public void setMaxZAccel(double maxZAccel) {
+        this.maxZAccel = maxZAccel;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+}
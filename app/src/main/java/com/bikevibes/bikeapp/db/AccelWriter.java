@@ -0,0 +1,78 @@
+package com.bikevibes.bikeapp.db;
+
+import androidx.annotation.NonNull;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteStatement;
+
+/**
+ * Inserts buffered accelerometer readings into an AccelerometerData table with a single compiled
+ * statement. Binds the primitive values directly, skipping the entity objects and type converters
+ * used by TrackingDao.insertAccelBatch.
+ * The statement is compiled once on the database the writer was created for and reused, so each
+ * SensorStore partition keeps its own writer.
+ * WARNING: Only use a writer from the thread that writes to its database
+ */
+public class AccelWriter {
+    private static final String INSERT = "INSERT OR REPLACE INTO `AccelerometerData` "
+            + "(`timestamp`,`x`,`y`,`z`,`tripID`) VALUES (?,?,?,?,?)";
+
+    private final SupportSQLiteDatabase db;
+    private SupportSQLiteStatement statement;
+
+    /**
+     * Initialize the writer.
+     * @param db - the database with the AccelerometerData table to insert into
+     */
+    public AccelWriter(@NonNull SupportSQLiteDatabase db) {
+        this.db = db;
+    }
+
+    /**
+     * Insert every reading in the buffer in one transaction.
+     * Readings with the same timestamp as a stored reading replace it, like insertAccelBatch.
+     * @param buffer - the readings to insert
+     */
+    public void insert(@NonNull AccelBuffer buffer) {
+        if (buffer.isEmpty()) {
+            return;
+        }
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < buffer.size(); i++) {
+                insert(buffer, i);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Insert the readings of one trip in the buffer, in the caller's transaction.
+     * @param buffer - the readings, of any number of trips
+     * @param tripID - the trip whose readings to insert
+     * @return - the number of readings inserted
+     */
+    public int insertTrip(@NonNull AccelBuffer buffer, int tripID) {
+        int count = 0;
+        for (int i = 0; i < buffer.size(); i++) {
+            if (buffer.getTripID(i) == tripID) {
+                insert(buffer, i);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void insert(@NonNull AccelBuffer buffer, int i) {
+        if (statement == null) {
+            statement = db.compileStatement(INSERT);
+        }
+        statement.bindLong(1, buffer.getTimestamp(i));
+        statement.bindDouble(2, buffer.getX(i));
+        statement.bindDouble(3, buffer.getY(i));
+        statement.bindDouble(4, buffer.getZ(i));
+        statement.bindLong(5, buffer.getTripID(i));
+        statement.executeInsert();
+    }
+}
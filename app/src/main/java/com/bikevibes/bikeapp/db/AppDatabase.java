@@ -1,24 +1,33 @@
 package com.bikevibes.bikeapp.db;
 
 import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
 
+import androidx.annotation.NonNull;
 import androidx.room.AutoMigration;
 import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
 import androidx.room.TypeConverters;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+import java.io.File;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * The database class for the Room database.
- * Builds the database and offers access to its thread pool and Data Access Object.
+ * Builds the database and offers access to its thread pools and Data Access Object.
  * The database instance follows a singleton pattern.
+ *
+ * The database uses a write-ahead log, so reads on the reader pool run concurrently with the
+ * single writer thread instead of queueing behind ingest writes.
  */
 @Database(
-        entities = {AccelerometerData.class, LocationData.class, Segment.class, TripSurface.class},
-        version = 3,
+        entities = {AccelerometerData.class, LocationData.class, Segment.class, TripSurface.class, GridCell.class,
+                SegmentTile.class, Trip.class, AccelRollup.class, MigrationState.class,
+                SampleRate.class},
+        version = 11,
         autoMigrations = {
                 @AutoMigration(from = 1, to = 2),
                 @AutoMigration(from = 2, to = 3)
@@ -30,27 +39,194 @@ public abstract class AppDatabase extends RoomDatabase {
     public abstract TrackingDao myDao();
 
     private static volatile AppDatabase instance;
-    private static final String DB_NAME = "bike.db";
-    private static final int NUMBER_OF_THREADS = 1;
-    private static final ExecutorService databaseExecutor = Executors.newFixedThreadPool(NUMBER_OF_THREADS);
+    public static final String DB_NAME = "bike.db";
+    private static final int READER_THREADS = 2;
+    private static final PriorityExecutor writeExecutor = new PriorityExecutor(1, "db-write");
+    private static final PriorityExecutor readExecutor = new PriorityExecutor(READER_THREADS, "db-read");
+
+    /**
+     * Add the bumpiness grid table.
+     * Existing segments are binned by the repository the first time the grid is loaded.
+     */
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `GridCell` (`zoom` INTEGER NOT NULL, `tileX` INTEGER NOT NULL, "
+                    + "`tileY` INTEGER NOT NULL, `sumSquares` REAL NOT NULL, `maxZAccel` REAL NOT NULL, "
+                    + "`count` INTEGER NOT NULL, PRIMARY KEY(`zoom`, `tileX`, `tileY`))");
+        }
+    };
+
+    /**
+     * Add the spatial index over segments.
+     * Existing segments are indexed by the repository before the next trip is stored.
+     */
+    static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `SegmentTile` (`tileX` INTEGER NOT NULL, `tileY` INTEGER NOT NULL, "
+                    + "`tripID` INTEGER NOT NULL, `ts1` INTEGER NOT NULL, PRIMARY KEY(`tileX`, `tileY`, `tripID`, `ts1`))");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_SegmentTile_tripID` ON `SegmentTile` (`tripID`)");
+        }
+    };
+
+    /**
+     * Add the trip state table.
+     * Trips stored before it have no row and are treated as finalized.
+     */
+    static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `Trip` (`tripID` INTEGER NOT NULL, `state` INTEGER NOT NULL, "
+                    + "`tripStart` INTEGER, `tripEnd` INTEGER, `dist` REAL NOT NULL, `bumpiness` REAL NOT NULL, "
+                    + "`minLat` REAL NOT NULL, `maxLat` REAL NOT NULL, `minLon` REAL NOT NULL, `maxLon` REAL NOT NULL, "
+                    + "`blackoutStart` INTEGER, `blackoutEnd` INTEGER, `finalizeMillis` INTEGER NOT NULL, "
+                    + "PRIMARY KEY(`tripID`))");
+        }
+    };
+
+    /**
+     * Add the per-second accelerometer rollup table.
+     * Databases created before this version have no incremental auto-vacuum; the retention policy
+     * converts them when the device is idle, since it needs a VACUUM that cannot run inside the
+     * migration's transaction.
+     */
+    static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `AccelRollup` (`tripID` INTEGER NOT NULL, `second` INTEGER NOT NULL, "
+                    + "`rmsZAccel` REAL NOT NULL, `maxZAccel` REAL NOT NULL, `count` INTEGER NOT NULL, "
+                    + "PRIMARY KEY(`tripID`, `second`))");
+        }
+    };
+
+    /**
+     * Add the checkpoint table of background data migrations.
+     * Migrations that move or rewrite rows run in batches after the database is open,
+     * so a schema version change never copies a large table on startup.
+     */
+    static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `MigrationState` (`name` TEXT NOT NULL, `lastKey` INTEGER NOT NULL, "
+                    + "`done` INTEGER NOT NULL, `total` INTEGER NOT NULL, `finished` INTEGER NOT NULL, PRIMARY KEY(`name`))");
+        }
+    };
+
+    /**
+     * Add the energy report columns of trips. Trips recorded before have a report of zeros.
+     */
+    static final Migration MIGRATION_8_9 = new Migration(8, 9) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            String[] columns = {"recordingMillis", "sensorCpuMillis", "writerCpuMillis", "uploadCpuMillis",
+                    "wakeups", "gpsFixes", "sensorEvents", "transactions", "uploadBytes"};
+            for (String column : columns) {
+                database.execSQL("ALTER TABLE `Trip` ADD COLUMN `energy_" + column + "` INTEGER NOT NULL DEFAULT 0");
+            }
+        }
+    };
 
     /**
-     * Get the database instance or construct it if needed.
+     * Add the table of accelerometer sampling rate changes.
+     */
+    static final Migration MIGRATION_9_10 = new Migration(9, 10) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `SampleRate` (`tripID` INTEGER NOT NULL, "
+                    + "`timestamp` INTEGER NOT NULL, `periodUs` INTEGER NOT NULL, PRIMARY KEY(`tripID`, `timestamp`))");
+        }
+    };
+
+    /**
+     * Add the GPS time saved by motion gating to the energy report of trips.
+     */
+    static final Migration MIGRATION_10_11 = new Migration(10, 11) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `Trip` ADD COLUMN `energy_gpsOffMillis` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    /**
+     * Get the database instance or construct it from the given file if needed.
+     * The name only applies to the first call, so a process uses a single database file.
      * @param context - the context used to create the database
+     * @param name - the name of the database file
      * @return - the singleton database instance
      */
-    public static AppDatabase getDatabase(final Context context) {
+    public static AppDatabase getDatabase(final Context context, @NonNull String name) {
         if (instance == null) {
             synchronized (AppDatabase.class) {
                 if (instance == null) {
-                    instance = Room.databaseBuilder(context.getApplicationContext(), AppDatabase.class, DB_NAME).build();
+                    createFile(context.getApplicationContext().getDatabasePath(name));
+                    instance = configure(Room.databaseBuilder(context.getApplicationContext(), AppDatabase.class, name))
+                            .build();
                 }
             }
         }
         return instance;
     }
 
-    public static ExecutorService getExecutor() {
-        return databaseExecutor;
+    /**
+     * Create a database file with incremental auto-vacuum if it does not exist yet.
+     * The mode can only be set before the first table is created, and Android creates its locale
+     * table as it opens a database, so the file is created here with the locale table added by hand
+     * after the mode is set. Room then creates its tables in the empty database as usual.
+     * Also used by tests that build their own database file.
+     * @param file - the database file
+     */
+    public static void createFile(@NonNull File file) {
+        if (file.exists()) {
+            return;
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.getParentFile().mkdirs();
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(file.getPath(), null,
+                SQLiteDatabase.CREATE_IF_NECESSARY | SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+        try {
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("CREATE TABLE IF NOT EXISTS android_metadata (locale TEXT)");
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Apply the migrations, journal mode and executors to a database builder.
+     * Also used by tests that build their own database file.
+     * @param builder - the database builder
+     * @return - the same builder
+     */
+    @NonNull
+    public static RoomDatabase.Builder<AppDatabase> configure(@NonNull RoomDatabase.Builder<AppDatabase> builder) {
+        return builder.addMigrations(MIGRATION_3_4, MIGRATION_4_5, MIGRATION_5_6, MIGRATION_6_7,
+                        MIGRATION_7_8, MIGRATION_8_9, MIGRATION_9_10, MIGRATION_10_11)
+                .setJournalMode(JournalMode.WRITE_AHEAD_LOGGING)
+                .setQueryExecutor(readExecutor)
+                .addCallback(new Callback() {
+                    @Override
+                    public void onOpen(@NonNull SupportSQLiteDatabase db) {
+                        // A commit is durable once the log is written; the log is synced at checkpoints
+                        db.query("PRAGMA synchronous = NORMAL").close();
+                    }
+                });
+    }
+
+    /**
+     * Return the single thread that runs every database write.
+     * @return - the writer executor
+     */
+    public static PriorityExecutor getExecutor() {
+        return writeExecutor;
+    }
+
+    /**
+     * Return the pool that runs read-only queries.
+     * WARNING: Tasks on this pool must not write to the database
+     * @return - the reader executor
+     */
+    public static PriorityExecutor getReadExecutor() {
+        return readExecutor;
     }
 }
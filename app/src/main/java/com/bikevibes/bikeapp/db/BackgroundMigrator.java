@@ -0,0 +1,195 @@
+package com.bikevibes.bikeapp.db;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Runs batch migrations one batch at a time on the database executor at background priority.
+ * Each batch and its checkpoint commit together, and the next batch is queued behind any ingest
+ * and UI work that arrived meanwhile, so the app stays usable during a long migration and an
+ * interrupted one resumes after its last committed batch. Migrations run in the order given.
+ */
+public class BackgroundMigrator {
+    private static final String TAG = "BackgroundMigrator";
+
+    private final AppDatabase database;
+    private final TrackingDao myDao;
+    private final PriorityExecutor dbExecutor;
+    private final List<BatchMigration> migrations;
+    private final int batchSize;
+    private final MutableLiveData<Progress> progress = new MutableLiveData<>();
+
+    private volatile boolean running = false;
+    private int index = 0;
+    private MigrationState state;
+    private long batchMillis = 0;
+
+    /**
+     * Initialize the migrator.
+     * @param database - the database that holds the checkpoints
+     * @param dbExecutor - the executor that runs every database write
+     * @param migrations - the migrations to run, in order
+     * @param batchSize - the maximum number of rows migrated per transaction
+     */
+    public BackgroundMigrator(@NonNull AppDatabase database, @NonNull PriorityExecutor dbExecutor,
+                              @NonNull List<BatchMigration> migrations, int batchSize) {
+        this.database = database;
+        this.myDao = database.myDao();
+        this.dbExecutor = dbExecutor;
+        this.migrations = migrations;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Start migrating in the background unless already running.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        dbExecutor.execute(PriorityExecutor.PRIORITY_BACKGROUND, this::step);
+    }
+
+    /**
+     * Stop after the current batch. Calling start again resumes from the checkpoint.
+     */
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Return the progress of the running migration, updated after every batch.
+     * @return - the progress
+     */
+    public LiveData<Progress> getProgress() {
+        return progress;
+    }
+
+    /**
+     * Run one batch and queue the next one while there is work left.
+     */
+    private void step() {
+        if (!running) {
+            return;
+        }
+        try {
+            if (runBatch()) {
+                dbExecutor.execute(PriorityExecutor.PRIORITY_BACKGROUND, this::step);
+                return;
+            }
+        } catch (RuntimeException e) {
+            // The failed batch rolled back; it is retried from its checkpoint the next time the app starts
+            Log.e(TAG, "Migration failed", e);
+        }
+        running = false;
+    }
+
+    /**
+     * Run the next batch of the first unfinished migration in one transaction with its checkpoint.
+     * WARNING: This method must be called from the database executor
+     * @return - true if there is work left, false if every migration is complete
+     */
+    public boolean runBatch() {
+        while (index < migrations.size()) {
+            BatchMigration migration = migrations.get(index);
+            if (state == null) {
+                state = loadState(migration);
+            }
+            if (state.isFinished()) {
+                index++;
+                state = null;
+                continue;
+            }
+
+            final MigrationState current = state;
+            long start = SystemClock.elapsedRealtime();
+            try {
+                database.runInTransaction(() -> {
+                    int count = migration.migrateBatch(current, batchSize);
+                    current.setDone(current.getDone() + count);
+                    current.setFinished(count == 0);
+                    myDao.saveMigrationState(current);
+                });
+            } catch (RuntimeException e) {
+                // The checkpoint in memory may be ahead of the one that rolled back
+                state = null;
+                throw e;
+            }
+            batchMillis += SystemClock.elapsedRealtime() - start;
+            progress.postValue(new Progress(current));
+            if (current.isFinished()) {
+                Log.i(TAG, String.format(Locale.US, "%s: %d rows migrated, %d ms in batches",
+                        current.getName(), current.getDone(), batchMillis));
+                batchMillis = 0;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Load the checkpoint of a migration, or create it when the migration first starts.
+     */
+    @NonNull
+    private MigrationState loadState(@NonNull BatchMigration migration) {
+        MigrationState stored = myDao.getMigrationState(migration.getName());
+        if (stored != null) {
+            return stored;
+        }
+        MigrationState created = new MigrationState(migration.getName());
+        created.setTotal(migration.countRows());
+        created.setFinished(created.getTotal() == 0);
+        myDao.saveMigrationState(created);
+        return created;
+    }
+
+    /**
+     * The progress of a migration after its latest batch.
+     */
+    public static class Progress {
+        private final String name;
+        private final long done;
+        private final long total;
+        private final boolean finished;
+
+        Progress(@NonNull MigrationState state) {
+            this.name = state.getName();
+            this.done = state.getDone();
+            this.total = Math.max(state.getTotal(), state.getDone());
+            this.finished = state.isFinished();
+        }
+
+        /**
+         * Return the fraction of rows migrated.
+         * @return - a value from 0 to 1
+         */
+        public double getFraction() {
+            return finished || total == 0 ? 1 : (double) done / total;
+        }
+
+        @NonNull
+        public String getName() {
+            return name;
+        }
+
+        public long getDone() {
+            return done;
+        }
+
+        public long getTotal() {
+            return total;
+        }
+
+        public boolean isFinished() {
+            return finished;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.bikevibes.bikeapp.db;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A data migration that moves or rewrites rows in bounded batches after the database is open.
+ * Schema migrations only create the new tables; the rows are copied by a BatchMigration run by
+ * BackgroundMigrator, so upgrading a large database never blocks startup.
+ */
+public interface BatchMigration {
+
+    /**
+     * Return the name the checkpoint is saved under. Must not change between releases.
+     * @return - the unique name of the migration
+     */
+    @NonNull
+    String getName();
+
+    /**
+     * Count the rows to migrate. Called once, when the migration first starts.
+     * @return - the number of rows, used to report progress
+     */
+    long countRows();
+
+    /**
+     * Migrate the next batch after the checkpoint and advance its last key.
+     * Runs in a transaction together with saving the checkpoint. Work outside the database,
+     * or a batch interrupted before the transaction commits, may be repeated from the same
+     * checkpoint, so a batch must be safe to run twice.
+     * @param state - the checkpoint of the migration
+     * @param limit - the maximum number of rows to migrate
+     * @return - the number of rows migrated, or 0 if the migration is complete
+     */
+    int migrateBatch(@NonNull MigrationState state, int limit);
+}
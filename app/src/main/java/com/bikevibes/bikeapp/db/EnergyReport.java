@@ -0,0 +1,179 @@
+package com.bikevibes.bikeapp.db;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+
+import com.bikevibes.core.MetricRegistry;
+
+import java.util.Locale;
+
+/**
+ * What recording a trip cost: CPU time on the sensor, writer and upload threads, wakeups,
+ * GPS fixes, sensor events, database transactions and bytes uploaded, and the GPS time saved by
+ * turning it off during stops.
+ * Taken from the difference between the pipeline metrics at the start and end of the recording,
+ * so changes to sampling rates or batching can be compared across rides. Embedded in its Trip.
+ * The upload fields are filled in when the trip is uploaded.
+ */
+public class EnergyReport {
+    // The metrics counted by the pipeline
+    public static final String SENSOR_CPU = "cpu.sensor.ns";
+    public static final String WRITER_CPU = "executor.db-write.cpu_ns";
+    public static final String UPLOAD_CPU = "cpu.upload.ns";
+    public static final String WAKEUPS = "power.wakeups";
+    public static final String TRANSACTIONS = "db.transactions";
+    public static final String ACCEL_EVENTS = "sensor.accel.events";
+    public static final String ROTATION_EVENTS = "sensor.rotation.events";
+    public static final String GPS_FIXES = "sensor.location.events";
+    public static final String GPS_OFF = "sensor.location.off_ms";
+
+    @ColumnInfo(defaultValue = "0")
+    private long recordingMillis;
+    @ColumnInfo(defaultValue = "0")
+    private long sensorCpuMillis;
+    @ColumnInfo(defaultValue = "0")
+    private long writerCpuMillis;
+    @ColumnInfo(defaultValue = "0")
+    private long uploadCpuMillis;
+    @ColumnInfo(defaultValue = "0")
+    private long wakeups;
+    @ColumnInfo(defaultValue = "0")
+    private long gpsFixes;
+    @ColumnInfo(defaultValue = "0")
+    private long gpsOffMillis;
+    @ColumnInfo(defaultValue = "0")
+    private long sensorEvents;
+    @ColumnInfo(defaultValue = "0")
+    private long transactions;
+    @ColumnInfo(defaultValue = "0")
+    private long uploadBytes;
+
+    /**
+     * Build the report of a recording from the metrics at its start and end.
+     * @param start - the metrics when recording started
+     * @param end - the metrics once its last readings were written
+     * @return - the report, without upload figures
+     */
+    @NonNull
+    public static EnergyReport fromMetrics(@NonNull MetricRegistry.Snapshot start, @NonNull MetricRegistry.Snapshot end) {
+        EnergyReport report = new EnergyReport();
+        report.recordingMillis = end.getTime() - start.getTime();
+        report.sensorCpuMillis = (end.getCount(SENSOR_CPU) - start.getCount(SENSOR_CPU)) / 1000000;
+        report.writerCpuMillis = (end.getCount(WRITER_CPU) - start.getCount(WRITER_CPU)) / 1000000;
+        report.wakeups = end.getCount(WAKEUPS) - start.getCount(WAKEUPS);
+        report.gpsFixes = end.getCount(GPS_FIXES) - start.getCount(GPS_FIXES);
+        report.gpsOffMillis = end.getCount(GPS_OFF) - start.getCount(GPS_OFF);
+        report.sensorEvents = end.getCount(ACCEL_EVENTS) - start.getCount(ACCEL_EVENTS)
+                + end.getCount(ROTATION_EVENTS) - start.getCount(ROTATION_EVENTS);
+        report.transactions = end.getCount(TRANSACTIONS) - start.getCount(TRANSACTIONS);
+        return report;
+    }
+
+    /**
+     * Return the CPU time spent per hour of recording, excluding the upload.
+     * @return - the CPU ms per hour, or 0 if the recording had no length
+     */
+    public double getCpuMillisPerHour() {
+        return recordingMillis <= 0 ? 0 : (sensorCpuMillis + writerCpuMillis) * 3600000.0 / recordingMillis;
+    }
+
+    /**
+     * Return the wakeups per minute of recording.
+     * @return - the wakeup rate, or 0 if the recording had no length
+     */
+    public double getWakeupsPerMinute() {
+        return recordingMillis <= 0 ? 0 : wakeups * 60000.0 / recordingMillis;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%d s recorded, CPU sensor %d ms, writer %d ms, upload %d ms (%.0f ms/h), "
+                        + "%d wakeups (%.1f/min), %d GPS fixes, GPS off %d s, %d sensor events, %d transactions, "
+                        + "%d bytes uploaded",
+                recordingMillis / 1000, sensorCpuMillis, writerCpuMillis, uploadCpuMillis, getCpuMillisPerHour(),
+                wakeups, getWakeupsPerMinute(), gpsFixes, gpsOffMillis / 1000, sensorEvents, transactions, uploadBytes);
+    }
+
+    // ***************************** Getters and Setters *******************************************
+
+    public long getRecordingMillis() {
+        return recordingMillis;
+    }
+
+    public long getSensorCpuMillis() {
+        return sensorCpuMillis;
+    }
+
+    public long getWriterCpuMillis() {
+        return writerCpuMillis;
+    }
+
+    public long getUploadCpuMillis() {
+        return uploadCpuMillis;
+    }
+
+    public long getWakeups() {
+        return wakeups;
+    }
+
+    public long getGpsFixes() {
+        return gpsFixes;
+    }
+
+    public long getGpsOffMillis() {
+        return gpsOffMillis;
+    }
+
+    public long getSensorEvents() {
+        return sensorEvents;
+    }
+
+    public long getTransactions() {
+        return transactions;
+    }
+
+    public long getUploadBytes() {
+        return uploadBytes;
+    }
+
+    public void setRecordingMillis(long recordingMillis) {
+        this.recordingMillis = recordingMillis;
+    }
+
+    public void setSensorCpuMillis(long sensorCpuMillis) {
+        this.sensorCpuMillis = sensorCpuMillis;
+    }
+
+    public void setWriterCpuMillis(long writerCpuMillis) {
+        this.writerCpuMillis = writerCpuMillis;
+    }
+
+    public void setUploadCpuMillis(long uploadCpuMillis) {
+        this.uploadCpuMillis = uploadCpuMillis;
+    }
+
+    public void setWakeups(long wakeups) {
+        this.wakeups = wakeups;
+    }
+
+    public void setGpsFixes(long gpsFixes) {
+        this.gpsFixes = gpsFixes;
+    }
+
+    public void setGpsOffMillis(long gpsOffMillis) {
+        this.gpsOffMillis = gpsOffMillis;
+    }
+
+    public void setSensorEvents(long sensorEvents) {
+        this.sensorEvents = sensorEvents;
+    }
+
+    public void setTransactions(long transactions) {
+        this.transactions = transactions;
+    }
+
+    public void setUploadBytes(long uploadBytes) {
+        this.uploadBytes = uploadBytes;
+    }
+}
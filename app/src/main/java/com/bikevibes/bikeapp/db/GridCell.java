@@ -0,0 +1,236 @@
+package com.bikevibes.bikeapp.db;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Entity class for the cross-trip bumpiness grid.
+ * Each cell is a slippy map tile at one of several zoom levels and holds running
+ * aggregates of the segments whose midpoints fall inside it.
+ * See https://wiki.openstreetmap.org/wiki/Slippy_map_tilenames
+ */
+@Entity(primaryKeys = {"zoom", "tileX", "tileY"})
+public class GridCell {
+    public static final int[] LEVELS = {12, 14, 16};
+
+    private int zoom;
+    private int tileX;
+    private int tileY;
+    private double sumSquares;
+    private double maxZAccel;
+    private int count;
+
+    public GridCell(int zoom, int tileX, int tileY, double sumSquares, double maxZAccel, int count) {
+        this.zoom = zoom;
+        this.tileX = tileX;
+        this.tileY = tileY;
+        this.sumSquares = sumSquares;
+        this.maxZAccel = maxZAccel;
+        this.count = count;
+    }
+
+    /**
+     * Aggregate a list of segments into grid cells at every level.
+     * A negative sign produces cells that remove the segments when merged.
+     * @param segments - the segments to bin
+     * @param sign - 1 to add the segments, -1 to remove them
+     * @return - one cell per (zoom, tileX, tileY) touched by the segments
+     */
+    @NonNull
+    public static List<GridCell> fromSegments(@NonNull List<Segment> segments, int sign) {
+        Map<Long, GridCell> cells = new HashMap<>();
+        for (Segment seg : segments) {
+            if (seg.getRmsZAccel() == null) {
+                continue;
+            }
+            double lat = (seg.getLat1() + seg.getLat2()) / 2;
+            double lon = (seg.getLon1() + seg.getLon2()) / 2;
+            double rms = seg.getRmsZAccel();
+            double max = seg.getMaxZAccel() == null ? 0 : seg.getMaxZAccel();
+            for (int zoom : LEVELS) {
+                int x = getTileX(lon, zoom);
+                int y = getTileY(lat, zoom);
+                long key = ((long) zoom << 56) | ((long) x << 28) | y;
+                GridCell cell = cells.get(key);
+                if (cell == null) {
+                    cells.put(key, new GridCell(zoom, x, y, sign * rms * rms, max, sign));
+                } else {
+                    cell.merge(sign * rms * rms, max, sign);
+                }
+            }
+        }
+        return new ArrayList<>(cells.values());
+    }
+
+    /**
+     * Add another cell's aggregates to this one.
+     * The maximum cannot be decremented, so it is only reset once the cell is empty.
+     * @param delta - the cell holding the changes to apply
+     */
+    public void merge(@NonNull GridCell delta) {
+        merge(delta.sumSquares, delta.maxZAccel, delta.count);
+    }
+
+    private void merge(double sumSquares, double max, int count) {
+        this.sumSquares += sumSquares;
+        this.count += count;
+        if (count > 0) {
+            this.maxZAccel = Math.max(this.maxZAccel, max);
+        } else if (this.count <= 0) {
+            this.sumSquares = 0;
+            this.maxZAccel = 0;
+        }
+    }
+
+    /**
+     * Return the grid level to display for a map zoom level.
+     * Uses the finest level that keeps the number of visible cells bounded.
+     * @param mapZoom - the current zoom level of the map
+     * @return - the zoom level of the cells to load
+     */
+    public static int getLevel(double mapZoom) {
+        int level = LEVELS[0];
+        for (int zoom : LEVELS) {
+            if (zoom <= mapZoom + 2) {
+                level = zoom;
+            }
+        }
+        return level;
+    }
+
+    /**
+     * Return the x index of the tile containing a longitude.
+     * @param lon - the longitude in degrees
+     * @param zoom - the zoom level of the tile
+     * @return - the x index of the tile
+     */
+    public static int getTileX(double lon, int zoom) {
+        int n = 1 << zoom;
+        int x = (int) Math.floor(getTilePositionX(lon, zoom));
+        return Math.min(Math.max(x, 0), n - 1);
+    }
+
+    /**
+     * Return the y index of the tile containing a latitude.
+     * @param lat - the latitude in degrees
+     * @param zoom - the zoom level of the tile
+     * @return - the y index of the tile
+     */
+    public static int getTileY(double lat, int zoom) {
+        int n = 1 << zoom;
+        int y = (int) Math.floor(getTilePositionY(lat, zoom));
+        return Math.min(Math.max(y, 0), n - 1);
+    }
+
+    /**
+     * Return the position of a longitude in tile units, before rounding down to a tile index.
+     * @param lon - the longitude in degrees
+     * @param zoom - the zoom level of the tiles
+     * @return - the x position, where tile x spans [x, x + 1)
+     */
+    static double getTilePositionX(double lon, int zoom) {
+        return (lon + 180) / 360 * (1 << zoom);
+    }
+
+    /**
+     * Return the position of a latitude in tile units, before rounding down to a tile index.
+     * @param lat - the latitude in degrees
+     * @param zoom - the zoom level of the tiles
+     * @return - the y position, where tile y spans [y, y + 1)
+     */
+    static double getTilePositionY(double lat, int zoom) {
+        double latRad = Math.toRadians(lat);
+        return (1 - Math.log(Math.tan(latRad) + 1 / Math.cos(latRad)) / Math.PI) / 2 * (1 << zoom);
+    }
+
+    private static double tileToLon(int x, int zoom) {
+        return (double) x / (1 << zoom) * 360 - 180;
+    }
+
+    private static double tileToLat(int y, int zoom) {
+        double n = Math.PI - 2 * Math.PI * y / (1 << zoom);
+        return Math.toDegrees(Math.atan(Math.sinh(n)));
+    }
+
+    /**
+     * Return the RMS of vertical acceleration over all segments in the cell.
+     * @return - the RMS value, or zero if the cell is empty
+     */
+    public double getRms() {
+        if (count <= 0) {
+            return 0;
+        }
+        return Math.sqrt(sumSquares / count);
+    }
+
+    // ***************************** Getters and Setters *******************************************
+
+    public double getNorth() {
+        return tileToLat(tileY, zoom);
+    }
+
+    public double getSouth() {
+        return tileToLat(tileY + 1, zoom);
+    }
+
+    public double getWest() {
+        return tileToLon(tileX, zoom);
+    }
+
+    public double getEast() {
+        return tileToLon(tileX + 1, zoom);
+    }
+
+    public int getZoom() {
+        return zoom;
+    }
+
+    public int getTileX() {
+        return tileX;
+    }
+
+    public int getTileY() {
+        return tileY;
+    }
+
+    public double getSumSquares() {
+        return sumSquares;
+    }
+
+    public double getMaxZAccel() {
+        return maxZAccel;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public void setZoom(int zoom) {
+        this.zoom = zoom;
+    }
+
+    public void setTileX(int tileX) {
+        this.tileX = tileX;
+    }
+
+    public void setTileY(int tileY) {
+        this.tileY = tileY;
+    }
+
+    public void setSumSquares(double sumSquares) {
+        this.sumSquares = sumSquares;
+    }
+
+    public void setMaxZAccel(double maxZAccel) {
+        this.maxZAccel = maxZAccel;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+}
@@ -0,0 +1,238 @@
+package com.bikevibes.bikeapp.db;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.bikevibes.bikeapp.Tracer;
+import com.bikevibes.core.Counter;
+import com.bikevibes.core.LatencyHistogram;
+import com.bikevibes.core.MetricRegistry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects accelerometer, location and surface writes and commits them together.
+ * Everything pending is written once the commit interval has passed since the first pending write,
+ * or as soon as the number of pending rows reaches the threshold. Sensor readings are committed
+ * to their trip partitions with one transaction per partition, and surfaces in one Room transaction.
+ * The transaction metrics count each of these, so a commit to one partition with surfaces counts two.
+ * Commits run on the database executor at ingest priority, so work queued there after a flush
+ * sees the rows.
+ */
+public class GroupCommitWriter {
+    private static final String TAG = "GroupCommitWriter";
+
+    private final AppDatabase database;
+    private final TrackingDao myDao;
+    private final SensorStore store;
+    private final PriorityExecutor dbExecutor;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final long intervalMs;
+    private final int maxRows;
+
+    private List<AccelBuffer> accels = new ArrayList<>();
+    private List<LocationData> locs = new ArrayList<>();
+    private List<TripSurface> surfaceInserts = new ArrayList<>();
+    private List<TripSurface> surfaceUpdates = new ArrayList<>();
+    private int pendingRows = 0;
+    private ScheduledFuture<?> scheduled;
+
+    // Metrics, only updated on the database executor
+    private final long created = SystemClock.elapsedRealtime();
+    private volatile long commits = 0;
+    private volatile long transactions = 0;
+    private volatile long rows = 0;
+    private volatile long totalCommitNanos = 0;
+    private volatile long maxCommitNanos = 0;
+    private final LatencyHistogram commitTimes = MetricRegistry.getDefault().histogram("db.commit");
+    private final LatencyHistogram flushDelays = MetricRegistry.getDefault().histogram("db.flush.delay");
+    private final Counter transactionCount = MetricRegistry.getDefault().counter(EnergyReport.TRANSACTIONS);
+    private final Counter wakeups = MetricRegistry.getDefault().counter(EnergyReport.WAKEUPS);
+
+    /**
+     * Initialize the writer.
+     * @param database - the database to write surfaces to
+     * @param store - the store to write sensor readings to
+     * @param dbExecutor - the executor that runs every database write
+     * @param intervalMs - the longest time a write waits before it is committed
+     * @param maxRows - the number of pending rows that triggers an immediate commit
+     */
+    public GroupCommitWriter(@NonNull AppDatabase database, @NonNull SensorStore store,
+                             @NonNull PriorityExecutor dbExecutor, long intervalMs, int maxRows) {
+        this.database = database;
+        this.myDao = database.myDao();
+        this.store = store;
+        this.dbExecutor = dbExecutor;
+        this.intervalMs = intervalMs;
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * Queue a buffer of accelerometer readings. The buffer must not be modified afterwards.
+     * @param buffer - the readings to insert
+     */
+    public synchronized void addAccel(@NonNull AccelBuffer buffer) {
+        accels.add(buffer);
+        added(buffer.size());
+    }
+
+    /**
+     * Queue a batch of GPS readings.
+     * @param locList - the readings to insert
+     */
+    public synchronized void addLocations(@NonNull List<LocationData> locList) {
+        locs.addAll(locList);
+        added(locList.size());
+    }
+
+    /**
+     * Queue the insertion of a trip surface.
+     * @param surface - the surface to insert or replace
+     */
+    public synchronized void insertSurface(@NonNull TripSurface surface) {
+        surfaceInserts.add(surface);
+        added(1);
+    }
+
+    /**
+     * Queue an update of a trip surface. Applied after any queued insertions.
+     * @param surface - the surface to update
+     */
+    public synchronized void updateSurface(@NonNull TripSurface surface) {
+        surfaceUpdates.add(surface);
+        added(1);
+    }
+
+    /**
+     * Commit now if the threshold is reached, or start the interval timer for the first pending write.
+     * @param count - the number of rows just added
+     */
+    private void added(int count) {
+        pendingRows += count;
+        if (pendingRows >= maxRows) {
+            flush();
+        } else if (scheduled == null) {
+            scheduled = timer.schedule(this::timedFlush, intervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Flush when the interval timer fires, which wakes the timer thread.
+     */
+    private void timedFlush() {
+        wakeups.inc();
+        flush();
+    }
+
+    /**
+     * Queue a commit of everything pending on the database executor.
+     * Work queued on the database executor after this call sees the committed rows.
+     */
+    public synchronized void flush() {
+        if (scheduled != null) {
+            scheduled.cancel(false);
+            scheduled = null;
+        }
+        if (pendingRows == 0) {
+            return;
+        }
+        final List<AccelBuffer> accelBatch = accels;
+        final List<LocationData> locBatch = locs;
+        final List<TripSurface> insertBatch = surfaceInserts;
+        final List<TripSurface> updateBatch = surfaceUpdates;
+        final int rowCount = pendingRows;
+        final long flushed = System.nanoTime();
+        accels = new ArrayList<>();
+        locs = new ArrayList<>();
+        surfaceInserts = new ArrayList<>();
+        surfaceUpdates = new ArrayList<>();
+        pendingRows = 0;
+        dbExecutor.execute(PriorityExecutor.PRIORITY_INGEST, () -> {
+            flushDelays.recordSince(flushed);
+            commit(accelBatch, locBatch, insertBatch, updateBatch, rowCount);
+        });
+    }
+
+    /**
+     * Write a batch and record its metrics.
+     * WARNING: This method must be called from the database executor
+     */
+    private void commit(List<AccelBuffer> accelBatch, List<LocationData> locBatch,
+                        List<TripSurface> insertBatch, List<TripSurface> updateBatch, int rowCount) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        int committed = 0;
+        Tracer.begin(Tracer.DB_INSERT);
+        try {
+            committed = store.insert(accelBatch, locBatch);
+            if (!insertBatch.isEmpty() || !updateBatch.isEmpty()) {
+                database.runInTransaction(() -> {
+                    for (TripSurface surface : insertBatch) {
+                        myDao.insertSurface(surface);
+                    }
+                    for (TripSurface surface : updateBatch) {
+                        myDao.updateSurface(surface);
+                    }
+                });
+                committed++;
+            }
+        } finally {
+            Tracer.end();
+        }
+        long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+        commits++;
+        transactions += committed;
+        transactionCount.add(committed);
+        rows += rowCount;
+        totalCommitNanos += elapsed;
+        maxCommitNanos = Math.max(maxCommitNanos, elapsed);
+        commitTimes.record(elapsed);
+    }
+
+    // ************************* Metrics ************************************
+
+    /**
+     * Return the average number of transactions per minute since the writer was created.
+     * @return - the transactions per minute
+     */
+    public double getTransactionsPerMinute() {
+        long elapsedMs = SystemClock.elapsedRealtime() - created;
+        return elapsedMs == 0 ? 0 : transactions * 60000.0 / elapsedMs;
+    }
+
+    public double getRowsPerTransaction() {
+        return transactions == 0 ? 0 : (double) rows / transactions;
+    }
+
+    public double getMeanCommitMillis() {
+        return commits == 0 ? 0 : totalCommitNanos / 1e6 / commits;
+    }
+
+    public double getMaxCommitMillis() {
+        return maxCommitNanos / 1e6;
+    }
+
+    public long getCommits() {
+        return commits;
+    }
+
+    public long getTransactions() {
+        return transactions;
+    }
+
+    /**
+     * Log a summary of the commit metrics.
+     */
+    public void logMetrics() {
+        Log.i(TAG, String.format(Locale.US, "%d commits, %d transactions, %.1f/min, %.1f rows each, "
+                        + "%.1f ms mean, %.1f ms max", getCommits(), getTransactions(), getTransactionsPerMinute(),
+                getRowsPerTransaction(), getMeanCommitMillis(), getMaxCommitMillis()));
+    }
+}
@@ -4,6 +4,8 @@ import androidx.annotation.NonNull;
 import androidx.room.Entity;
 import androidx.room.PrimaryKey;
 
+import com.bikevibes.core.Geo;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -16,8 +18,6 @@ import java.util.Locale;
  */
 @Entity
 public class LocationData extends DataInstance {
-    private static final int RADIUS = 6371;
-
     @PrimaryKey
     @NonNull
     private Date timestamp;
@@ -66,13 +66,7 @@ public class LocationData extends DataInstance {
      * @return the distance between them in km
      */
     public double getDist(@NonNull LocationData loc) {
-        double dLat = Math.toRadians(this.getLatitude() - loc.getLatitude());
-        double dLon = Math.toRadians(this.getLongitude() - loc.getLongitude());
-        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
-                + Math.sin(dLon / 2) * Math.sin(dLon / 2)
-                * Math.cos(Math.toRadians(this.getLatitude())) * Math.cos(Math.toRadians(loc.getLatitude()));
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1-a));
-        return RADIUS * c;
+        return Geo.distance(getLatitude(), getLongitude(), loc.getLatitude(), loc.getLongitude());
     }
 
     @Override
@@ -0,0 +1,69 @@
+package com.bikevibes.bikeapp.db;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * Entity class for the checkpoint of a background data migration.
+ * Saved in the same transaction as each batch, so an interrupted migration resumes after the
+ * last committed batch instead of starting over.
+ */
+@Entity
+public class MigrationState {
+    @PrimaryKey
+    @NonNull
+    private String name;
+    private long lastKey;
+    private long done;
+    private long total;
+    private boolean finished;
+
+    public MigrationState(@NonNull String name) {
+        this.name = name;
+        this.lastKey = Long.MIN_VALUE;
+    }
+
+    // ***************************** Getters and Setters *******************************************
+
+    @NonNull
+    public String getName() {
+        return name;
+    }
+
+    public long getLastKey() {
+        return lastKey;
+    }
+
+    public long getDone() {
+        return done;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    public void setName(@NonNull String name) {
+        this.name = name;
+    }
+
+    public void setLastKey(long lastKey) {
+        this.lastKey = lastKey;
+    }
+
+    public void setDone(long done) {
+        this.done = done;
+    }
+
+    public void setTotal(long total) {
+        this.total = total;
+    }
+
+    public void setFinished(boolean finished) {
+        this.finished = finished;
+    }
+}
@@ -0,0 +1,41 @@
+package com.bikevibes.bikeapp.db;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Moves the accelerometer and GPS readings stored in bike.db before partitioning into the
+ * per-trip partition files, oldest first. Moved rows are deleted, so the checkpoint only
+ * records progress; the next batch always starts at the oldest row left.
+ */
+public class PartitionMigration implements BatchMigration {
+    public static final String NAME = "partition_readings";
+
+    private final TrackingDao myDao;
+    private final SensorStore store;
+
+    /**
+     * Initialize the migration.
+     * @param database - the database that holds the legacy readings
+     * @param store - the store to move them to
+     */
+    public PartitionMigration(@NonNull AppDatabase database, @NonNull SensorStore store) {
+        this.myDao = database.myDao();
+        this.store = store;
+    }
+
+    @NonNull
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public long countRows() {
+        return myDao.countAllAccel() + myDao.countAllLocs();
+    }
+
+    @Override
+    public int migrateBatch(@NonNull MigrationState state, int limit) {
+        return store.moveLegacyReadings(limit);
+    }
+}
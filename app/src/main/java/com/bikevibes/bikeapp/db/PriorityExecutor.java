@@ -0,0 +1,110 @@
+package com.bikevibes.bikeapp.db;
+
+import android.os.Debug;
+
+import androidx.annotation.NonNull;
+
+import com.bikevibes.core.Counter;
+import com.bikevibes.core.LatencyHistogram;
+import com.bikevibes.core.MetricRegistry;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-size thread pool that runs queued tasks in priority order.
+ * Lower values run first; tasks of equal priority run in the order they were queued.
+ * Tasks queued with execute(Runnable) use PRIORITY_UI.
+ * The queue length, the time tasks wait and run, and the CPU time they use are published as
+ * executor.NAME metrics.
+ */
+public class PriorityExecutor implements Executor {
+    public static final int PRIORITY_INGEST = 0;
+    public static final int PRIORITY_UI = 1;
+    public static final int PRIORITY_BACKGROUND = 2;
+
+    private final ThreadPoolExecutor pool;
+    private final AtomicLong sequence = new AtomicLong();
+    private final LatencyHistogram waitTimes;
+    private final LatencyHistogram runTimes;
+    private final Counter cpuTime;
+
+    /**
+     * Initialize the pool.
+     * @param threads - the number of worker threads
+     * @param name - the prefix of the thread names
+     */
+    public PriorityExecutor(int threads, @NonNull String name) {
+        AtomicInteger count = new AtomicInteger();
+        pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(),
+                runnable -> new Thread(runnable, name + "-" + count.incrementAndGet()));
+        MetricRegistry metrics = MetricRegistry.getDefault();
+        metrics.gauge("executor." + name + ".queue", this::getQueueSize);
+        waitTimes = metrics.histogram("executor." + name + ".wait");
+        runTimes = metrics.histogram("executor." + name + ".run");
+        cpuTime = metrics.counter("executor." + name + ".cpu_ns");
+    }
+
+    @Override
+    public void execute(@NonNull Runnable task) {
+        execute(PRIORITY_UI, task);
+    }
+
+    /**
+     * Queue a task with the given priority.
+     * @param priority - one of the PRIORITY constants
+     * @param task - the task to run
+     */
+    public void execute(int priority, @NonNull Runnable task) {
+        pool.execute(new Task(priority, sequence.getAndIncrement(), task));
+    }
+
+    /**
+     * Return the number of tasks waiting to run.
+     * @return - the queue length
+     */
+    public int getQueueSize() {
+        return pool.getQueue().size();
+    }
+
+    /**
+     * A queued task ordered by priority and then by the order it was queued.
+     */
+    private class Task implements Runnable, Comparable<Task> {
+        private final int priority;
+        private final long sequence;
+        private final Runnable task;
+        private final long queued = System.nanoTime();
+
+        Task(int priority, long sequence, Runnable task) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            long cpu = Debug.threadCpuTimeNanos();
+            waitTimes.record(start - queued);
+            try {
+                task.run();
+            } finally {
+                runTimes.recordSince(start);
+                cpuTime.add(Debug.threadCpuTimeNanos() - cpu);
+            }
+        }
+
+        @Override
+        public int compareTo(@NonNull Task other) {
+            if (priority != other.priority) {
+                return Integer.compare(priority, other.priority);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.bikevibes.bikeapp.db;
+
+import android.database.Cursor;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+import java.io.File;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Shrinks old trips in stages and keeps the database under a size cap.
+ * After rollupDays, the raw accelerometer readings of a trip are replaced by per-second rollups.
+ * After segmentDays, only its segments and summary are kept. If the database is still larger
+ * than maxBytes, the oldest trips are reduced to segments and then deleted, oldest first.
+ * Freed pages are returned to the file system with incremental auto-vacuum, a bounded number
+ * per run. Trip partitions are deleted as whole files. A limit of 0 disables that stage.
+ * Databases are created with incremental auto-vacuum; older ones are only converted by runs made
+ * while the device is idle and charging, since that rebuilds the whole file.
+ */
+public class RetentionPolicy {
+    private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+    private static final int MAX_VACUUM_PAGES = 2048;
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    private final AppDatabase database;
+    private final TrackingDao myDao;
+    private final SensorStore store;
+    private final int rollupDays;
+    private final int segmentDays;
+    private final long maxBytes;
+
+    /**
+     * Initialize the policy.
+     * @param database - the database to maintain
+     * @param store - the store holding the trip partitions
+     * @param rollupDays - the age in days after which raw accelerometer readings are rolled up
+     * @param segmentDays - the age in days after which only segments are kept
+     * @param maxBytes - the largest size of the database's used pages and the partitions
+     */
+    public RetentionPolicy(@NonNull AppDatabase database, @NonNull SensorStore store, int rollupDays,
+                           int segmentDays, long maxBytes) {
+        this.database = database;
+        this.myDao = database.myDao();
+        this.store = store;
+        this.rollupDays = rollupDays;
+        this.segmentDays = segmentDays;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Apply the policy once, without converting the auto-vacuum mode of the database.
+     * WARNING: This method must be called from the database executor
+     * @param now - the current Unix time in ms
+     * @return - what was done and how much space was returned
+     */
+    @NonNull
+    public Report run(long now) {
+        return run(now, false);
+    }
+
+    /**
+     * Apply the policy once.
+     * WARNING: This method must be called from the database executor
+     * @param now - the current Unix time in ms
+     * @param idle - true if the device is idle and charging, so an old database may be converted
+     *             to incremental auto-vacuum
+     * @return - what was done and how much space was returned
+     */
+    @NonNull
+    public Report run(long now, boolean idle) {
+        long start = SystemClock.elapsedRealtime();
+        Report report = new Report();
+        SupportSQLiteDatabase db = database.getOpenHelper().getWritableDatabase();
+        long pageSize = pragma(db, "page_size");
+        long pagesBefore = pragma(db, "page_count");
+        long partitionsBefore = store.getBytes();
+        if (idle) {
+            enableAutoVacuum(db);
+        }
+
+        if (segmentDays > 0) {
+            Date cutoff = new Date(now - segmentDays * DAY_MS);
+            for (int tripID : union(myDao.getTripsToCollapse(cutoff), getPartitionTrips(cutoff, false))) {
+                collapse(tripID);
+                report.collapsed++;
+            }
+        }
+        if (rollupDays > 0) {
+            Date cutoff = new Date(now - rollupDays * DAY_MS);
+            for (int tripID : union(myDao.getTripsToRollup(cutoff), getPartitionTrips(cutoff, true))) {
+                myDao.rollupTrip(tripID, store.getPartitionAccels(tripID));
+                store.deletePartitionAccels(tripID);
+                report.rolledUp++;
+            }
+        }
+        if (maxBytes > 0) {
+            enforceCap(db, pageSize, report);
+        }
+
+        try (Cursor cursor = db.query("PRAGMA incremental_vacuum(" + MAX_VACUUM_PAGES + ")")) {
+            // The pages are freed as the statement is stepped
+            //noinspection StatementWithEmptyBody
+            while (cursor.moveToNext()) {
+            }
+        }
+        report.bytesReclaimed = (pagesBefore - pragma(db, "page_count")) * pageSize
+                + partitionsBefore - store.getBytes();
+        report.bytesUsed = getUsedBytes(db, pageSize);
+        report.millis = SystemClock.elapsedRealtime() - start;
+        return report;
+    }
+
+    /**
+     * Reduce the oldest trips to segments, then delete the oldest trips, until the used pages
+     * fit under the cap. Trips that are still being recorded have no segments and are never touched.
+     */
+    private void enforceCap(@NonNull SupportSQLiteDatabase db, long pageSize, @NonNull Report report) {
+        Date end = new Date(Long.MAX_VALUE);
+        while (getUsedBytes(db, pageSize) > maxBytes) {
+            Set<Integer> detailed = union(myDao.getTripsToCollapse(end), getPartitionTrips(end, false));
+            if (!detailed.isEmpty()) {
+                collapse(detailed.iterator().next());
+                report.collapsed++;
+                continue;
+            }
+            Integer oldest = myDao.getOldestTrip();
+            if (oldest == null) {
+                return;
+            }
+            myDao.evictTrip(oldest);
+            store.deleteTrip(oldest);
+            report.evicted++;
+        }
+    }
+
+    /**
+     * Delete everything stored for a trip except its segments and summary.
+     */
+    private void collapse(int tripID) {
+        myDao.collapseTrip(tripID);
+        store.deleteTrip(tripID);
+    }
+
+    /**
+     * Return the finalized trips that ended before the cutoff and still have a partition.
+     * @param cutoff - the time trips must have ended by
+     * @param needAccels - whether the partition must still hold accelerometer readings
+     * @return - the trip IDs
+     */
+    @NonNull
+    private List<Integer> getPartitionTrips(@NonNull Date cutoff, boolean needAccels) {
+        Set<Integer> ended = new HashSet<>(myDao.getTripsEndedBefore(cutoff));
+        List<Integer> tripIDs = store.getTripIDs();
+        for (int i = tripIDs.size() - 1; i >= 0; i--) {
+            int tripID = tripIDs.get(i);
+            if (!ended.contains(tripID) || (needAccels && !store.hasPartitionAccels(tripID))) {
+                tripIDs.remove(i);
+            }
+        }
+        return tripIDs;
+    }
+
+    @NonNull
+    private static Set<Integer> union(@NonNull List<Integer> a, @NonNull List<Integer> b) {
+        Set<Integer> tripIDs = new TreeSet<>(a);
+        tripIDs.addAll(b);
+        return tripIDs;
+    }
+
+    /**
+     * Switch the database to incremental auto-vacuum if it is not already.
+     * The switch rebuilds the file with a full VACUUM, which needs room for a copy of the file and
+     * its log, so it is skipped until there is free space for twice its size.
+     */
+    private void enableAutoVacuum(@NonNull SupportSQLiteDatabase db) {
+        if (pragma(db, "auto_vacuum") == AUTO_VACUUM_INCREMENTAL || db.getPath() == null) {
+            return;
+        }
+        File file = new File(db.getPath());
+        File dir = file.getParentFile();
+        if (dir == null || dir.getUsableSpace() < 2 * file.length()) {
+            return;
+        }
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        db.execSQL("VACUUM");
+    }
+
+    private long getUsedBytes(@NonNull SupportSQLiteDatabase db, long pageSize) {
+        return (pragma(db, "page_count") - pragma(db, "freelist_count")) * pageSize + store.getBytes();
+    }
+
+    private static long pragma(@NonNull SupportSQLiteDatabase db, @NonNull String name) {
+        try (Cursor cursor = db.query("PRAGMA " + name)) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+    }
+
+    /**
+     * The outcome of a run.
+     */
+    public static class Report {
+        private int rolledUp = 0;
+        private int collapsed = 0;
+        private int evicted = 0;
+        private long bytesReclaimed = 0;
+        private long bytesUsed = 0;
+        private long millis = 0;
+
+        public int getRolledUp() {
+            return rolledUp;
+        }
+
+        public int getCollapsed() {
+            return collapsed;
+        }
+
+        public int getEvicted() {
+            return evicted;
+        }
+
+        public long getBytesReclaimed() {
+            return bytesReclaimed;
+        }
+
+        public long getBytesUsed() {
+            return bytesUsed;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d trips rolled up, %d reduced to segments, %d deleted, "
+                    + "%d bytes reclaimed, %d bytes used, %d ms", rolledUp, collapsed, evicted, bytesReclaimed, bytesUsed, millis);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.bikevibes.bikeapp.db;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+
+import com.bikevibes.core.RateSchedule;
+
+import java.util.List;
+
+/**
+ * Entity class for a change of the accelerometer sampling period during a trip.
+ * The segments of the trip weight its readings by the period they were taken at.
+ */
+@Entity(primaryKeys = {"tripID", "timestamp"})
+public class SampleRate {
+    private int tripID;
+    private long timestamp;
+    private int periodUs;
+
+    public SampleRate(int tripID, long timestamp, int periodUs) {
+        this.tripID = tripID;
+        this.timestamp = timestamp;
+        this.periodUs = periodUs;
+    }
+
+    /**
+     * Build the schedule of a trip's sampling periods.
+     * @param rates - the changes of the trip in order of time
+     * @return - the schedule, which weighs every reading the same if there are no changes
+     */
+    @NonNull
+    public static RateSchedule toSchedule(@NonNull List<SampleRate> rates) {
+        long[] times = new long[rates.size()];
+        int[] periods = new int[rates.size()];
+        for (int i = 0; i < rates.size(); i++) {
+            times[i] = rates.get(i).getTimestamp();
+            periods[i] = rates.get(i).getPeriodUs();
+        }
+        return new RateSchedule(times, periods);
+    }
+
+    // ***************************** Getters and Setters *******************************************
+
+    public int getTripID() {
+        return tripID;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getPeriodUs() {
+        return periodUs;
+    }
+
+    public void setTripID(int tripID) {
+        this.tripID = tripID;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public void setPeriodUs(int periodUs) {
+        this.periodUs = periodUs;
+    }
+}
@@ -0,0 +1,122 @@
+package com.bikevibes.bikeapp.db;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.Index;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Entity class for the spatial index over segments.
+ * Each row maps one map tile at ZOOM to a segment that crosses it, so that
+ * viewport and area queries only read the rows for the tiles they cover.
+ */
+@Entity(primaryKeys = {"tileX", "tileY", "tripID", "ts1"},
+        indices = {@Index(value = {"tripID"})})
+public class SegmentTile {
+    public static final int ZOOM = 16;
+
+    private int tileX;
+    private int tileY;
+    private int tripID;
+    @NonNull
+    private Date ts1;
+
+    public SegmentTile(int tileX, int tileY, int tripID, @NonNull Date ts1) {
+        this.tileX = tileX;
+        this.tileY = tileY;
+        this.tripID = tripID;
+        this.ts1 = ts1;
+    }
+
+    /**
+     * Produce the index rows for a list of segments.
+     * A segment is added to every tile its line passes through, as drawn on the map, so a long
+     * diagonal segment across a GPS gap adds one row per tile crossed rather than one per tile
+     * of its bounding box.
+     * @param segments - the segments to index
+     * @return - the index rows for the segments
+     */
+    @NonNull
+    public static List<SegmentTile> fromSegments(@NonNull List<Segment> segments) {
+        List<SegmentTile> tiles = new ArrayList<>();
+        for (Segment seg : segments) {
+            addTilesAlong(seg, tiles);
+        }
+        return tiles;
+    }
+
+    /**
+     * Walk the tiles crossed by the line of a segment in order, stepping into the next column or
+     * row at whichever tile boundary the line reaches first.
+     * @param seg - the segment to index
+     * @param tiles - the list the rows are added to
+     */
+    private static void addTilesAlong(@NonNull Segment seg, @NonNull List<SegmentTile> tiles) {
+        double fromX = GridCell.getTilePositionX(seg.getLon1(), ZOOM);
+        double fromY = GridCell.getTilePositionY(seg.getLat1(), ZOOM);
+        double dx = GridCell.getTilePositionX(seg.getLon2(), ZOOM) - fromX;
+        double dy = GridCell.getTilePositionY(seg.getLat2(), ZOOM) - fromY;
+        int x = GridCell.getTileX(seg.getLon1(), ZOOM);
+        int y = GridCell.getTileY(seg.getLat1(), ZOOM);
+        int endX = GridCell.getTileX(seg.getLon2(), ZOOM);
+        int endY = GridCell.getTileY(seg.getLat2(), ZOOM);
+        int stepX = Integer.signum(endX - x);
+        int stepY = Integer.signum(endY - y);
+
+        // The fraction of the line at which it crosses the next column and row boundary
+        double nextX = stepX == 0 ? Double.POSITIVE_INFINITY : ((stepX > 0 ? x + 1 : x) - fromX) / dx;
+        double nextY = stepY == 0 ? Double.POSITIVE_INFINITY : ((stepY > 0 ? y + 1 : y) - fromY) / dy;
+        double deltaX = stepX == 0 ? 0 : Math.abs(1 / dx);
+        double deltaY = stepY == 0 ? 0 : Math.abs(1 / dy);
+
+        tiles.add(new SegmentTile(x, y, seg.getTripID(), seg.getTs1()));
+        while (x != endX || y != endY) {
+            if (y == endY || (x != endX && nextX < nextY)) {
+                x += stepX;
+                nextX += deltaX;
+            } else {
+                y += stepY;
+                nextY += deltaY;
+            }
+            tiles.add(new SegmentTile(x, y, seg.getTripID(), seg.getTs1()));
+        }
+    }
+
+    // ***************************** Getters and Setters *******************************************
+
+    public int getTileX() {
+        return tileX;
+    }
+
+    public int getTileY() {
+        return tileY;
+    }
+
+    public int getTripID() {
+        return tripID;
+    }
+
+    @NonNull
+    public Date getTs1() {
+        return ts1;
+    }
+
+    public void setTileX(int tileX) {
+        this.tileX = tileX;
+    }
+
+    public void setTileY(int tileY) {
+        this.tileY = tileY;
+    }
+
+    public void setTripID(int tripID) {
+        this.tripID = tripID;
+    }
+
+    public void setTs1(@NonNull Date ts1) {
+        this.ts1 = ts1;
+    }
+}
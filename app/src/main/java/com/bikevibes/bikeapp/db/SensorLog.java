@@ -0,0 +1,352 @@
+package com.bikevibes.bikeapp.db;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of raw sensor readings for a single trip.
+ * Readings are written as fixed-width records into a memory-mapped file, so a reading is
+ * safe as soon as it is appended, even if the process is killed. The file is synced to disk
+ * at most every SYNC_INTERVAL_MS to protect against power loss.
+ *
+ * Each record is RECORD_BYTES long: the timestamp, the record type, the payload and a CRC32
+ * of the preceding bytes. Opening or recovering a log scans it and truncates the file after the
+ * last record with a valid checksum, which removes a torn tail left by a crash.
+ */
+public class SensorLog implements Closeable {
+    private static final String TAG = "SensorLog";
+    private static final String PREFIX = "trip_";
+    private static final String EXTENSION = ".log";
+    private static final int MAGIC = 0x42564C47;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int RECORD_BYTES = 32;
+    private static final int CRC_OFFSET = 28;
+    private static final long REGION_BYTES = 1024 * 1024;
+    private static final long SYNC_INTERVAL_MS = 5000;
+
+    public static final int TYPE_ACCEL = 1;
+    public static final int TYPE_LOCATION = 2;
+
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final Executor syncExecutor;
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+    private final CRC32 crc = new CRC32();
+    private MappedByteBuffer buffer;
+    private long mappedBytes;
+    private long end;
+    private long lastSync;
+
+    private SensorLog(@NonNull File file, long end, @NonNull Executor syncExecutor) throws IOException {
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+        this.syncExecutor = syncExecutor;
+        this.end = end;
+        this.lastSync = System.currentTimeMillis();
+        map(end + REGION_BYTES);
+    }
+
+    /**
+     * Open a log for appending, creating it if needed.
+     * Any torn records at the end of an existing log are removed first.
+     * @param file - the log file
+     * @param syncExecutor - the thread pool used for periodic syncs to disk
+     * @return - the opened log
+     * @throws IOException - if the file could not be created, read or mapped
+     */
+    @NonNull
+    public static SensorLog open(@NonNull File file, @NonNull Executor syncExecutor) throws IOException {
+        return new SensorLog(file, recover(file), syncExecutor);
+    }
+
+    /**
+     * Validate a log and truncate it after its last complete record.
+     * Writes a new header if the file does not exist yet.
+     * @param file - the log file
+     * @return - the length of the valid part of the log in bytes
+     * @throws IOException - if the file could not be read or is not a sensor log
+     */
+    public static long recover(@NonNull File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() < HEADER_BYTES) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                header.putInt(MAGIC).putInt(VERSION).putInt(RECORD_BYTES).putInt(0).flip();
+                channel.truncate(0);
+                channel.write(header, 0);
+                channel.force(true);
+                return HEADER_BYTES;
+            }
+
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION || map.getInt(8) != RECORD_BYTES) {
+                throw new IOException("Not a sensor log: " + file.getName());
+            }
+            CRC32 crc = new CRC32();
+            long end = HEADER_BYTES;
+            while (end + RECORD_BYTES <= channel.size() && isValid(map, (int) end, crc)) {
+                end += RECORD_BYTES;
+            }
+            if (end < channel.size()) {
+                Log.i(TAG, "Truncated " + (channel.size() - end) + " bytes from " + file.getName());
+                channel.truncate(end);
+            }
+            return end;
+        }
+    }
+
+    private static boolean isValid(@NonNull ByteBuffer map, int offset, @NonNull CRC32 crc) {
+        int type = map.getInt(offset + 8);
+        if (type != TYPE_ACCEL && type != TYPE_LOCATION) {
+            return false;
+        }
+        crc.reset();
+        for (int i = 0; i < CRC_OFFSET; i++) {
+            crc.update(map.get(offset + i));
+        }
+        return (int) crc.getValue() == map.getInt(offset + CRC_OFFSET);
+    }
+
+    /**
+     * Map the file up to the given size, extending the file if needed.
+     * @param size - the number of bytes to map
+     * @throws IOException - if the file could not be mapped
+     */
+    private void map(long size) throws IOException {
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        mappedBytes = size;
+    }
+
+    /**
+     * Append an accelerometer reading.
+     * @param timestamp - the Unix time of the reading in ms
+     * @param x - the x-coordinate of acceleration
+     * @param y - the y-coordinate of acceleration
+     * @param z - the z-coordinate (vertical) acceleration
+     * @return - true if the reading was written, false otherwise
+     */
+    public synchronized boolean appendAccel(long timestamp, float x, float y, float z) {
+        record.clear();
+        record.putLong(timestamp).putInt(TYPE_ACCEL).putFloat(x).putFloat(y).putFloat(z).putInt(0);
+        return append();
+    }
+
+    /**
+     * Append a GPS reading.
+     * @param timestamp - the Unix time of the reading in ms
+     * @param latitude - the latitude of the reading
+     * @param longitude - the longitude of the reading
+     * @return - true if the reading was written, false otherwise
+     */
+    public synchronized boolean appendLocation(long timestamp, double latitude, double longitude) {
+        record.clear();
+        record.putLong(timestamp).putInt(TYPE_LOCATION).putDouble(latitude).putDouble(longitude);
+        return append();
+    }
+
+    /**
+     * Add the checksum to the pending record, copy it into the mapped file and sync if due.
+     * @return - true if the record was written, false otherwise
+     */
+    private boolean append() {
+        crc.reset();
+        crc.update(record.array(), 0, CRC_OFFSET);
+        record.putInt(CRC_OFFSET, (int) crc.getValue());
+        try {
+            if (end + RECORD_BYTES > mappedBytes) {
+                map(mappedBytes + REGION_BYTES);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not grow sensor log", e);
+            return false;
+        }
+        buffer.position((int) end);
+        buffer.put(record.array());
+        end += RECORD_BYTES;
+
+        long now = System.currentTimeMillis();
+        if (now - lastSync >= SYNC_INTERVAL_MS) {
+            lastSync = now;
+            final MappedByteBuffer toSync = buffer;
+            syncExecutor.execute(toSync::force);
+        }
+        return true;
+    }
+
+    /**
+     * Sync the log to disk, trim the unused mapped space and close the file.
+     * @throws IOException - if the file could not be truncated or closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        channel.truncate(end);
+        raf.close();
+    }
+
+    // ***************************** Files *******************************************
+
+    /**
+     * Return the log file of a trip.
+     * @param dir - the directory holding the logs
+     * @param tripID - the trip ID
+     * @return - the log file, which may not exist
+     */
+    @NonNull
+    public static File getFile(@NonNull File dir, int tripID) {
+        return new File(dir, PREFIX + tripID + EXTENSION);
+    }
+
+    /**
+     * Return the trip IDs of all logs in a directory.
+     * @param dir - the directory holding the logs
+     * @return - the trip IDs, in no particular order
+     */
+    @NonNull
+    public static List<Integer> getTripIDs(@NonNull File dir) {
+        List<Integer> tripIDs = new ArrayList<>();
+        String[] names = dir.list();
+        if (names == null) {
+            return tripIDs;
+        }
+        for (String name : names) {
+            if (name.startsWith(PREFIX) && name.endsWith(EXTENSION)) {
+                try {
+                    tripIDs.add(Integer.parseInt(name.substring(PREFIX.length(), name.length() - EXTENSION.length())));
+                } catch (NumberFormatException e) {
+                    Log.w(TAG, "Unexpected file in log directory: " + name);
+                }
+            }
+        }
+        return tripIDs;
+    }
+
+    /**
+     * Rewrite a log, keeping only the records between two timestamps.
+     * Used to remove the readings within the privacy radius once a trip is finished.
+     * @param file - the log file
+     * @param minTS - the Unix time in ms before which to remove records
+     * @param maxTS - the Unix time in ms after which to remove records
+     * @return - the number of GPS readings kept
+     * @throws IOException - if the log could not be read or rewritten
+     */
+    public static int trim(@NonNull File file, long minTS, long maxTS) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        //noinspection ResultOfMethodCallIgnored
+        temp.delete();
+        int locations = 0;
+        try (Reader reader = new Reader(file); SensorLog out = open(temp, Runnable::run)) {
+            while (reader.next()) {
+                long timestamp = reader.getTimestamp();
+                if (timestamp < minTS || timestamp > maxTS) {
+                    continue;
+                }
+                if (reader.getType() == TYPE_ACCEL) {
+                    out.appendAccel(timestamp, reader.getX(), reader.getY(), reader.getZ());
+                } else {
+                    out.appendLocation(timestamp, reader.getLatitude(), reader.getLongitude());
+                    locations++;
+                }
+            }
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Could not replace " + file.getName());
+        }
+        return locations;
+    }
+
+    /**
+     * Reads the records of a log in order, directly from the mapped file.
+     * Each call to next() moves to the following record; the getters read its fields in place
+     * without creating an object per record. Reading stops at the first invalid record.
+     */
+    public static class Reader implements Closeable {
+        private final RandomAccessFile raf;
+        @Nullable
+        private final MappedByteBuffer map;
+        private final long size;
+        private final CRC32 crc = new CRC32();
+        private int offset = HEADER_BYTES - RECORD_BYTES;
+        private boolean done = false;
+
+        /**
+         * Map a log for reading. Records appended after this point are not seen.
+         * @param file - the log file
+         * @throws IOException - if the file could not be opened or is not a sensor log
+         */
+        public Reader(@NonNull File file) throws IOException {
+            raf = new RandomAccessFile(file, "r");
+            size = raf.length();
+            if (size < HEADER_BYTES) {
+                map = null;
+                return;
+            }
+            map = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION) {
+                raf.close();
+                throw new IOException("Not a sensor log: " + file.getName());
+            }
+        }
+
+        /**
+         * Move to the next record.
+         * @return - true if there is a valid record, false at the end of the log
+         */
+        public boolean next() {
+            if (done || map == null || offset + 2L * RECORD_BYTES > size) {
+                return false;
+            }
+            offset += RECORD_BYTES;
+            done = !isValid(map, offset, crc);
+            return !done;
+        }
+
+        public long getTimestamp() {
+            return map.getLong(offset);
+        }
+
+        public int getType() {
+            return map.getInt(offset + 8);
+        }
+
+        public float getX() {
+            return map.getFloat(offset + 12);
+        }
+
+        public float getY() {
+            return map.getFloat(offset + 16);
+        }
+
+        public float getZ() {
+            return map.getFloat(offset + 20);
+        }
+
+        public double getLatitude() {
+            return map.getDouble(offset + 12);
+        }
+
+        public double getLongitude() {
+            return map.getDouble(offset + 20);
+        }
+
+        @Override
+        public void close() throws IOException {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,601 @@
+package com.bikevibes.bikeapp.db;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import androidx.sqlite.db.SupportSQLiteStatement;
+import androidx.sqlite.db.framework.FrameworkSQLiteOpenHelperFactory;
+
+import com.bikevibes.core.Counter;
+import com.bikevibes.core.LatencyHistogram;
+import com.bikevibes.core.MetricRegistry;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stores raw accelerometer and GPS readings in a separate SQLite file for each trip.
+ * Deleting a trip's readings, after an upload, by the retention policy or from the settings,
+ * deletes its file instead of rewriting pages of bike.db on the database executor.
+ * Readings stored in the AccelerometerData and LocationData tables of bike.db before
+ * partitioning are still read and deleted through the same methods until PartitionMigration
+ * has moved them into partitions.
+ *
+ * Partition files are opened on demand and the least recently used ones are closed once more
+ * than MAX_OPEN are open. They are separate connections rather than ATTACHed to bike.db,
+ * since Android turns off write-ahead logging on a connection with attached databases.
+ * All methods are synchronized, so a partition is never closed while it is in use.
+ * WARNING: This class CANNOT be used from the Main/UI thread
+ */
+public class SensorStore {
+    private static final String TAG = "SensorStore";
+    private static final String PREFIX = "trip_";
+    private static final String SUFFIX = ".db";
+    private static final int VERSION = 1;
+    private static final int MAX_OPEN = 4;
+
+    private final Context context;
+    private final TrackingDao myDao;
+    private final File dir;
+    private final LinkedHashMap<Integer, Partition> open = new LinkedHashMap<>(MAX_OPEN, 0.75f, true);
+
+    // Metrics
+    private final LatencyHistogram inserts = MetricRegistry.getDefault().histogram("db.insert");
+    private final Counter accelRows = MetricRegistry.getDefault().counter("db.insert.accel.rows");
+    private final Counter locRows = MetricRegistry.getDefault().counter("db.insert.locations.rows");
+
+    /**
+     * Initialize the store.
+     * @param context - the context used to open the partition files
+     * @param database - the database holding readings stored before partitioning
+     * @param dir - the directory that holds the partition files
+     */
+    public SensorStore(@NonNull Context context, @NonNull AppDatabase database, @NonNull File dir) {
+        this.context = context.getApplicationContext();
+        this.myDao = database.myDao();
+        this.dir = dir;
+    }
+
+    // ************************* Writes ************************************
+
+    /**
+     * Insert buffered accelerometer readings into the partitions of their trips.
+     * @param buffer - the readings to insert
+     */
+    public void insertAccel(@NonNull AccelBuffer buffer) {
+        insert(Collections.singletonList(buffer), Collections.emptyList());
+    }
+
+    /**
+     * Insert GPS readings into the partitions of their trips.
+     * @param locs - the readings to insert
+     */
+    public void insertLocations(@NonNull List<LocationData> locs) {
+        insert(Collections.emptyList(), locs);
+    }
+
+    /**
+     * Insert accelerometer and GPS readings into the partitions of their trips, with a single
+     * transaction for each partition however many buffers hold its readings.
+     * @param accels - the buffered accelerometer readings
+     * @param locs - the GPS readings
+     * @return - the number of transactions committed
+     */
+    public synchronized int insert(@NonNull List<AccelBuffer> accels, @NonNull List<LocationData> locs) {
+        long startNanos = System.nanoTime();
+        Set<Integer> tripIDs = new LinkedHashSet<>();
+        int accelCount = 0;
+        for (AccelBuffer buffer : accels) {
+            int last = -1;
+            for (int i = 0; i < buffer.size(); i++) {
+                if (buffer.getTripID(i) != last) {
+                    last = buffer.getTripID(i);
+                    tripIDs.add(last);
+                }
+            }
+            accelCount += buffer.size();
+        }
+        for (LocationData loc : locs) {
+            tripIDs.add(loc.getTripID());
+        }
+
+        int transactions = 0;
+        for (int tripID : tripIDs) {
+            Partition partition = getPartition(tripID, true);
+            if (partition != null) {
+                partition.insert(tripID, accels, locs);
+                transactions++;
+            }
+        }
+        inserts.recordSince(startNanos);
+        accelRows.add(accelCount);
+        locRows.add(locs.size());
+        return transactions;
+    }
+
+    // ************************* Reads ************************************
+
+    /**
+     * Return the GPS readings of a trip.
+     * @param tripID - the trip ID
+     * @return - the readings in timestamp order
+     */
+    @NonNull
+    public synchronized List<LocationData> getTripLocs(int tripID) {
+        List<LocationData> legacy = myDao.getTripLocs(tripID);
+        Partition partition = getPartition(tripID, false);
+        if (partition == null) {
+            return legacy;
+        }
+        // Legacy rows are moved oldest first, so any left are newer than those in the partition
+        List<LocationData> locs = partition.getLocs();
+        locs.addAll(legacy);
+        return locs;
+    }
+
+    /**
+     * Return the accelerometer readings in the partition of a trip.
+     * Readings stored in bike.db before partitioning are not included.
+     * @param tripID - the trip ID
+     * @return - the readings in timestamp order
+     */
+    @NonNull
+    public synchronized List<AccelerometerData> getPartitionAccels(int tripID) {
+        Partition partition = getPartition(tripID, false);
+        return partition == null ? new ArrayList<AccelerometerData>() : partition.getAccels();
+    }
+
+    /**
+     * Aggregate the vertical acceleration of a trip within a time range.
+     * @param tripID - the trip ID
+     * @param start - the start of the range, inclusive
+     * @param end - the end of the range, inclusive
+     * @return - the RMS, maximum and count of vertical acceleration
+     */
+    @NonNull
+    public synchronized Stats getAccelStats(int tripID, @NonNull Date start, @NonNull Date end) {
+        Stats stats = new Stats();
+        Partition partition = getPartition(tripID, false);
+        if (partition != null) {
+            partition.addStats(stats, start.getTime(), end.getTime());
+        }
+        // Readings stored before partitioning are matched on time only, as they always were
+        int count = myDao.countAccel(start, end);
+        if (count > 0) {
+            stats.add(myDao.getRmsZAccel(start, end) * count, myDao.getMaxZAccel(start, end), count);
+        }
+        return stats;
+    }
+
+    /**
+     * Return the accelerometer readings of every trip up to maxTrip.
+     * @param maxTrip - the maximum trip ID
+     * @return - the readings
+     */
+    @NonNull
+    public synchronized List<AccelerometerData> getAccels(int maxTrip) {
+        List<AccelerometerData> accels = myDao.getAccList(maxTrip);
+        for (int tripID : getTripIDs()) {
+            Partition partition = tripID <= maxTrip ? getPartition(tripID, false) : null;
+            if (partition != null) {
+                accels.addAll(partition.getAccels());
+            }
+        }
+        return accels;
+    }
+
+    /**
+     * Return the GPS readings of every trip up to maxTrip.
+     * @param maxTrip - the maximum trip ID
+     * @return - the readings
+     */
+    @NonNull
+    public synchronized List<LocationData> getLocs(int maxTrip) {
+        List<LocationData> locs = myDao.getLocList(maxTrip);
+        for (int tripID : getTripIDs()) {
+            Partition partition = tripID <= maxTrip ? getPartition(tripID, false) : null;
+            if (partition != null) {
+                locs.addAll(partition.getLocs());
+            }
+        }
+        return locs;
+    }
+
+    /**
+     * Return whether the partition of a trip still holds accelerometer readings.
+     * @param tripID - the trip ID
+     * @return - true if there are readings to roll up, false otherwise
+     */
+    public synchronized boolean hasPartitionAccels(int tripID) {
+        Partition partition = getPartition(tripID, false);
+        return partition != null && partition.countAccels() > 0;
+    }
+
+    /**
+     * Return the trips that have a partition file.
+     * @return - the trip IDs in ascending order
+     */
+    @NonNull
+    public synchronized List<Integer> getTripIDs() {
+        List<Integer> tripIDs = new ArrayList<>();
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return tripIDs;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(PREFIX) && name.endsWith(SUFFIX)) {
+                try {
+                    tripIDs.add(Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    Log.w(TAG, "Ignoring unexpected file " + name);
+                }
+            }
+        }
+        Collections.sort(tripIDs);
+        return tripIDs;
+    }
+
+    /**
+     * Return the space used by every partition, including their write-ahead logs.
+     * @return - the size in bytes
+     */
+    public synchronized long getBytes() {
+        long bytes = 0;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().startsWith(PREFIX)) {
+                    bytes += file.length();
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Move the oldest readings stored in bike.db before partitioning into their trip partitions.
+     * Accelerometer readings are moved first, then GPS readings. Holding the store's lock keeps
+     * readers from seeing a reading in both places or in neither.
+     * Moving the same readings twice is harmless, since partitions replace rows with equal timestamps.
+     * @param limit - the maximum number of readings to move
+     * @return - the number of readings moved, or 0 if there are none left
+     */
+    public synchronized int moveLegacyReadings(int limit) {
+        List<AccelerometerData> accels = myDao.getOldestAccels(limit);
+        if (!accels.isEmpty()) {
+            AccelBuffer buffer = new AccelBuffer(accels.size());
+            for (AccelerometerData acc : accels) {
+                buffer.add(acc.getTimestamp().getTime(), orZero(acc.getX()), orZero(acc.getY()), orZero(acc.getZ()),
+                        acc.getTripID());
+            }
+            insertAccel(buffer);
+            myDao.deleteAccelsUpTo(accels.get(accels.size() - 1).getTimestamp());
+            return accels.size();
+        }
+        List<LocationData> locs = myDao.getOldestLocs(limit);
+        if (!locs.isEmpty()) {
+            insertLocations(locs);
+            myDao.deleteLocsUpTo(locs.get(locs.size() - 1).getTimestamp());
+        }
+        return locs.size();
+    }
+
+    // ************************* Deletes ************************************
+
+    /**
+     * Delete the readings of a trip outside a time range, as the blackout radius requires.
+     * @param tripID - the trip ID
+     * @param minTS - the time before which readings are deleted
+     * @param maxTS - the time after which readings are deleted
+     * @return - the number of GPS readings left
+     */
+    public synchronized int deleteOutside(int tripID, @NonNull Date minTS, @NonNull Date maxTS) {
+        myDao.delAccLt(tripID, minTS);
+        myDao.delLocLt(tripID, minTS);
+        myDao.delAccGt(tripID, maxTS);
+        myDao.delLocGt(tripID, maxTS);
+        int left = myDao.countLocs(tripID);
+        Partition partition = getPartition(tripID, false);
+        if (partition != null) {
+            left += partition.deleteOutside(minTS.getTime(), maxTS.getTime());
+        }
+        return left;
+    }
+
+    /**
+     * Delete every reading of a trip.
+     * @param tripID - the trip ID
+     */
+    public synchronized void deleteTrip(int tripID) {
+        myDao.deleteTripAccels(tripID);
+        myDao.deleteTripLocs(tripID);
+        deletePartition(tripID);
+    }
+
+    /**
+     * Delete the accelerometer readings in the partition of a trip, keeping its GPS readings.
+     * The partition is small, so it is vacuumed straight away.
+     * @param tripID - the trip ID
+     */
+    public synchronized void deletePartitionAccels(int tripID) {
+        Partition partition = getPartition(tripID, false);
+        if (partition != null) {
+            partition.deleteAccels();
+        }
+    }
+
+    /**
+     * Delete the readings of every trip up to maxTrip.
+     * @param maxTrip - the maximum trip ID
+     */
+    public synchronized void deleteUpTo(int maxTrip) {
+        myDao.deleteAccList(maxTrip);
+        myDao.deleteLocList(maxTrip);
+        for (int tripID : getTripIDs()) {
+            if (tripID <= maxTrip) {
+                deletePartition(tripID);
+            }
+        }
+    }
+
+    /**
+     * Delete every reading.
+     */
+    public synchronized void deleteAll() {
+        myDao.deleteAllAccel();
+        myDao.deleteAllLoc();
+        for (int tripID : getTripIDs()) {
+            deletePartition(tripID);
+        }
+    }
+
+    /**
+     * Close the partition of a trip and delete its files.
+     */
+    private void deletePartition(int tripID) {
+        Partition partition = open.remove(tripID);
+        if (partition != null) {
+            partition.close();
+        }
+        File file = getFile(tripID);
+        for (String suffix : new String[]{"", "-wal", "-shm", "-journal"}) {
+            //noinspection ResultOfMethodCallIgnored
+            new File(file.getPath() + suffix).delete();
+        }
+    }
+
+    /**
+     * Return the open partition of a trip, opening it if needed.
+     * Closes the least recently used partition if too many are open.
+     * @param tripID - the trip ID
+     * @param create - whether to create the partition if it does not exist
+     * @return - the partition, or null if it does not exist and create is false
+     */
+    @Nullable
+    private Partition getPartition(int tripID, boolean create) {
+        Partition partition = open.get(tripID);
+        if (partition != null) {
+            return partition;
+        }
+        File file = getFile(tripID);
+        if (!file.exists()) {
+            if (!create) {
+                return null;
+            }
+            if (!dir.exists() && !dir.mkdirs()) {
+                Log.w(TAG, "Could not create partition directory");
+                return null;
+            }
+        }
+        partition = new Partition(file);
+        open.put(tripID, partition);
+        if (open.size() > MAX_OPEN) {
+            Iterator<Map.Entry<Integer, Partition>> eldest = open.entrySet().iterator();
+            eldest.next().getValue().close();
+            eldest.remove();
+        }
+        return partition;
+    }
+
+    private static float orZero(@Nullable Float value) {
+        return value == null ? 0 : value;
+    }
+
+    @NonNull
+    private File getFile(int tripID) {
+        return new File(dir, PREFIX + tripID + SUFFIX);
+    }
+
+    /**
+     * Aggregates of vertical acceleration over a time range.
+     */
+    public static class Stats {
+        private double sumSquares = 0;
+        private double maxZAccel = 0;
+        private int count = 0;
+        private double weight = 0;
+
+        void add(double sumSquares, double maxZAccel, int count) {
+            this.sumSquares += sumSquares;
+            this.maxZAccel = Math.max(this.maxZAccel, maxZAccel);
+            this.count += count;
+            this.weight += count;
+        }
+
+        /**
+         * Add the readings of another range, each weighted, e.g. by the sampling period of the range.
+         * @param other - the stats of the range, unweighted
+         * @param weight - the weight of each of its readings
+         */
+        public void add(@NonNull Stats other, double weight) {
+            this.sumSquares += other.sumSquares * weight;
+            this.maxZAccel = Math.max(this.maxZAccel, other.maxZAccel);
+            this.count += other.count;
+            this.weight += other.count * weight;
+        }
+
+        /**
+         * Return the RMS of vertical acceleration, weighted if the readings were.
+         * @return - the RMS, or 0 if there are no readings
+         */
+        public double getRms() {
+            return weight == 0 ? 0 : Math.sqrt(sumSquares / weight);
+        }
+
+        public double getMaxZAccel() {
+            return maxZAccel;
+        }
+
+        public int getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * The readings of one trip, stored in tables with the same layout as those in bike.db.
+     */
+    private class Partition {
+        private final SupportSQLiteOpenHelper helper;
+        private AccelWriter accelWriter;
+        private SupportSQLiteStatement locStatement;
+
+        Partition(@NonNull File file) {
+            SupportSQLiteOpenHelper.Configuration config = SupportSQLiteOpenHelper.Configuration.builder(context)
+                    .name(file.getAbsolutePath())
+                    .callback(new SupportSQLiteOpenHelper.Callback(VERSION) {
+                        @Override
+                        public void onCreate(@NonNull SupportSQLiteDatabase db) {
+                            db.execSQL("CREATE TABLE IF NOT EXISTS `AccelerometerData` (`timestamp` INTEGER NOT NULL, "
+                                    + "`x` REAL, `y` REAL, `z` REAL, `tripID` INTEGER NOT NULL, PRIMARY KEY(`timestamp`))");
+                            db.execSQL("CREATE TABLE IF NOT EXISTS `LocationData` (`timestamp` INTEGER NOT NULL, "
+                                    + "`latitude` REAL, `longitude` REAL, `tripID` INTEGER NOT NULL, PRIMARY KEY(`timestamp`))");
+                        }
+
+                        @Override
+                        public void onOpen(@NonNull SupportSQLiteDatabase db) {
+                            db.query("PRAGMA synchronous = NORMAL").close();
+                        }
+
+                        @Override
+                        public void onUpgrade(@NonNull SupportSQLiteDatabase db, int oldVersion, int newVersion) {
+                        }
+                    })
+                    .build();
+            helper = new FrameworkSQLiteOpenHelperFactory().create(config);
+            helper.setWriteAheadLoggingEnabled(true);
+        }
+
+        private SupportSQLiteDatabase db() {
+            return helper.getWritableDatabase();
+        }
+
+        /**
+         * Insert the readings of this partition's trip from a batch in one transaction.
+         */
+        void insert(int tripID, @NonNull List<AccelBuffer> accels, @NonNull List<LocationData> locs) {
+            SupportSQLiteDatabase db = db();
+            if (accelWriter == null) {
+                accelWriter = new AccelWriter(db);
+            }
+            db.beginTransaction();
+            try {
+                for (AccelBuffer buffer : accels) {
+                    accelWriter.insertTrip(buffer, tripID);
+                }
+                for (LocationData loc : locs) {
+                    if (loc.getTripID() == tripID) {
+                        insertLocation(db, loc);
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+
+        private void insertLocation(@NonNull SupportSQLiteDatabase db, @NonNull LocationData loc) {
+            if (locStatement == null) {
+                locStatement = db.compileStatement("INSERT OR REPLACE INTO `LocationData` "
+                        + "(`timestamp`,`latitude`,`longitude`,`tripID`) VALUES (?,?,?,?)");
+            }
+            locStatement.bindLong(1, loc.getTimestamp().getTime());
+            locStatement.bindDouble(2, loc.getLatitude());
+            locStatement.bindDouble(3, loc.getLongitude());
+            locStatement.bindLong(4, loc.getTripID());
+            locStatement.executeInsert();
+        }
+
+        @NonNull
+        List<AccelerometerData> getAccels() {
+            List<AccelerometerData> accels = new ArrayList<>();
+            try (Cursor cursor = db().query("SELECT `timestamp`, `x`, `y`, `z`, `tripID` FROM `AccelerometerData` ORDER BY `timestamp`")) {
+                while (cursor.moveToNext()) {
+                    accels.add(new AccelerometerData(new Date(cursor.getLong(0)), cursor.getFloat(1),
+                            cursor.getFloat(2), cursor.getFloat(3), cursor.getInt(4)));
+                }
+            }
+            return accels;
+        }
+
+        @NonNull
+        List<LocationData> getLocs() {
+            List<LocationData> locs = new ArrayList<>();
+            try (Cursor cursor = db().query("SELECT `timestamp`, `latitude`, `longitude`, `tripID` FROM `LocationData` ORDER BY `timestamp`")) {
+                while (cursor.moveToNext()) {
+                    locs.add(new LocationData(new Date(cursor.getLong(0)), cursor.getDouble(1),
+                            cursor.getDouble(2), cursor.getInt(3)));
+                }
+            }
+            return locs;
+        }
+
+        void addStats(@NonNull Stats stats, long start, long end) {
+            try (Cursor cursor = db().query("SELECT SUM(z * z), MAX(ABS(z)), COUNT(*) FROM `AccelerometerData` "
+                    + "WHERE `timestamp` >= ? AND `timestamp` <= ?", new Object[]{start, end})) {
+                if (cursor.moveToFirst()) {
+                    stats.add(cursor.getDouble(0), cursor.getDouble(1), cursor.getInt(2));
+                }
+            }
+        }
+
+        long countAccels() {
+            try (Cursor cursor = db().query("SELECT COUNT(*) FROM `AccelerometerData`")) {
+                return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+            }
+        }
+
+        int deleteOutside(long minTS, long maxTS) {
+            SupportSQLiteDatabase db = db();
+            Object[] range = new Object[]{minTS, maxTS};
+            db.execSQL("DELETE FROM `AccelerometerData` WHERE `timestamp` < ? OR `timestamp` > ?", range);
+            db.execSQL("DELETE FROM `LocationData` WHERE `timestamp` < ? OR `timestamp` > ?", range);
+            try (Cursor cursor = db.query("SELECT COUNT(*) FROM `LocationData`")) {
+                return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+            }
+        }
+
+        void deleteAccels() {
+            SupportSQLiteDatabase db = db();
+            db.execSQL("DELETE FROM `AccelerometerData`");
+            db.execSQL("VACUUM");
+        }
+
+        void close() {
+            helper.close();
+        }
+    }
+}
@@ -6,8 +6,10 @@ import androidx.room.Delete;
 import androidx.room.Insert;
 import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
+import androidx.room.Transaction;
 import androidx.room.Update;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
@@ -69,6 +71,9 @@ public interface TrackingDao {
     @Query("SELECT MAX(ABS(z)) FROM AccelerometerData WHERE timestamp >= :start AND timestamp <= :end")
     double getMaxZAccel(Date start, Date end);
 
+    @Query("SELECT COUNT(*) FROM AccelerometerData WHERE timestamp >= :start AND timestamp <= :end")
+    int countAccel(Date start, Date end);
+
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     void insertSegments(List<Segment> segments);
 
@@ -131,4 +136,209 @@ public interface TrackingDao {
 
     @Query("DELETE FROM tripsurface WHERE tripID <= :maxTrip")
     void deleteSurfaceList(int maxTrip);
+
+    @Query("SELECT * FROM segment")
+    List<Segment> getAllSegments();
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertSegmentTiles(List<SegmentTile> tiles);
+
+    @Query("SELECT COUNT(*) FROM segmenttile")
+    int countSegmentTiles();
+
+    @Query("DELETE FROM segmenttile")
+    void deleteAllSegmentTiles();
+
+    @Query("SELECT DISTINCT segment.* FROM segmenttile INNER JOIN segment "
+            + "ON segment.tripID = segmenttile.tripID AND segment.ts1 = segmenttile.ts1 "
+            + "WHERE tileX BETWEEN :minX AND :maxX AND tileY BETWEEN :minY AND :maxY")
+    List<Segment> getSegmentsInArea(int minX, int maxX, int minY, int maxY);
+
+    @Query("SELECT DISTINCT segment.* FROM segmenttile INNER JOIN segment "
+            + "ON segment.tripID = segmenttile.tripID AND segment.ts1 = segmenttile.ts1 "
+            + "WHERE segmenttile.tripID = :tripID AND tileX BETWEEN :minX AND :maxX AND tileY BETWEEN :minY AND :maxY")
+    List<Segment> getTripSegmentsInArea(int tripID, int minX, int maxX, int minY, int maxY);
+
+    @Query("SELECT DISTINCT tripID FROM segmenttile "
+            + "WHERE tileX BETWEEN :minX AND :maxX AND tileY BETWEEN :minY AND :maxY ORDER BY tripID ASC")
+    List<Integer> getTripsInArea(int minX, int maxX, int minY, int maxY);
+
+    @Query("SELECT * FROM gridcell WHERE zoom = :zoom AND tileX BETWEEN :minX AND :maxX AND tileY BETWEEN :minY AND :maxY")
+    List<GridCell> getGridCells(int zoom, int minX, int maxX, int minY, int maxY);
+
+    @Query("SELECT * FROM gridcell WHERE zoom = :zoom AND tileX = :tileX AND tileY = :tileY")
+    GridCell getGridCell(int zoom, int tileX, int tileY);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertGridCell(GridCell cell);
+
+    @Delete
+    void deleteGridCell(GridCell cell);
+
+    @Query("SELECT COUNT(*) FROM gridcell")
+    int countGridCells();
+
+    @Query("DELETE FROM gridcell")
+    void deleteAllGridCells();
+
+    /**
+     * Merge the given cell aggregates into the stored grid in a single transaction.
+     * Cells whose segment count drops to zero are removed.
+     * @param deltas - the cells produced by GridCell.fromSegments
+     */
+    @Transaction
+    default void updateGrid(List<GridCell> deltas) {
+        for (GridCell delta : deltas) {
+            GridCell cell = getGridCell(delta.getZoom(), delta.getTileX(), delta.getTileY());
+            if (cell == null) {
+                cell = new GridCell(delta.getZoom(), delta.getTileX(), delta.getTileY(), 0, 0, 0);
+            }
+            cell.merge(delta);
+            if (cell.getCount() > 0) {
+                insertGridCell(cell);
+            } else {
+                deleteGridCell(cell);
+            }
+        }
+    }
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void saveTrip(Trip trip);
+
+    @Query("SELECT * FROM trip WHERE tripID = :tripID")
+    Trip getTrip(int tripID);
+
+    @Query("SELECT * FROM trip WHERE state != " + Trip.FINALIZED + " ORDER BY tripID ASC")
+    List<Trip> getUnfinishedTrips();
+
+    @Query("SELECT MAX(tripID) FROM trip")
+    Integer getLastTripID();
+
+    @Query("DELETE FROM trip")
+    void deleteAllTrips();
+
+    @Query("UPDATE trip SET energy_uploadCpuMillis = :cpuMillis, energy_uploadBytes = :bytes WHERE tripID = :tripID")
+    void setTripUpload(int tripID, long cpuMillis, long bytes);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertAccelRollups(List<AccelRollup> rollups);
+
+    @Query("SELECT * FROM accelrollup WHERE tripID = :tripID ORDER BY second ASC")
+    List<AccelRollup> getAccelRollups(int tripID);
+
+    @Query("DELETE FROM accelrollup WHERE tripID <= :maxTrip")
+    void deleteAccelRollups(int maxTrip);
+
+    @Query("DELETE FROM accelrollup")
+    void deleteAllAccelRollups();
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertSampleRate(SampleRate rate);
+
+    @Query("SELECT * FROM samplerate WHERE tripID = :tripID ORDER BY timestamp ASC")
+    List<SampleRate> getSampleRates(int tripID);
+
+    @Query("DELETE FROM samplerate WHERE tripID <= :maxTrip")
+    void deleteSampleRates(int maxTrip);
+
+    @Query("DELETE FROM samplerate")
+    void deleteAllSampleRates();
+
+    @Query("SELECT * FROM accelerometerdata WHERE tripID = :tripID")
+    List<AccelerometerData> getTripAccels(int tripID);
+
+    @Query("SELECT tripID FROM segment GROUP BY tripID HAVING MAX(ts2) < :cutoff "
+            + "AND tripID IN (SELECT tripID FROM accelerometerdata) ORDER BY tripID ASC")
+    List<Integer> getTripsToRollup(Date cutoff);
+
+    @Query("SELECT tripID FROM segment GROUP BY tripID HAVING MAX(ts2) < :cutoff "
+            + "AND (tripID IN (SELECT tripID FROM accelerometerdata) OR tripID IN (SELECT tripID FROM accelrollup) "
+            + "OR tripID IN (SELECT tripID FROM locationdata)) "
+            + "ORDER BY tripID ASC")
+    List<Integer> getTripsToCollapse(Date cutoff);
+
+    @Query("SELECT tripID FROM segment GROUP BY tripID HAVING MAX(ts2) < :cutoff ORDER BY tripID ASC")
+    List<Integer> getTripsEndedBefore(Date cutoff);
+
+    @Query("SELECT MIN(tripID) FROM segment")
+    Integer getOldestTrip();
+
+    @Query("DELETE FROM accelerometerdata WHERE tripID = :tripID")
+    void deleteTripAccels(int tripID);
+
+    @Query("DELETE FROM accelrollup WHERE tripID = :tripID")
+    void deleteTripAccelRollups(int tripID);
+
+    @Query("DELETE FROM locationdata WHERE tripID = :tripID")
+    void deleteTripLocs(int tripID);
+
+    @Query("DELETE FROM segment WHERE tripID = :tripID")
+    void deleteTripSegments(int tripID);
+
+    @Query("DELETE FROM segmenttile WHERE tripID = :tripID")
+    void deleteTripSegmentTiles(int tripID);
+
+    @Query("DELETE FROM trip WHERE tripID = :tripID")
+    void deleteTrip(int tripID);
+
+    @Query("SELECT * FROM migrationstate WHERE name = :name")
+    MigrationState getMigrationState(String name);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void saveMigrationState(MigrationState state);
+
+    @Query("SELECT COUNT(*) FROM accelerometerdata")
+    long countAllAccel();
+
+    @Query("SELECT COUNT(*) FROM locationdata")
+    long countAllLocs();
+
+    @Query("SELECT * FROM accelerometerdata ORDER BY timestamp ASC LIMIT :limit")
+    List<AccelerometerData> getOldestAccels(int limit);
+
+    @Query("SELECT * FROM locationdata ORDER BY timestamp ASC LIMIT :limit")
+    List<LocationData> getOldestLocs(int limit);
+
+    @Query("DELETE FROM accelerometerdata WHERE timestamp <= :timestamp")
+    void deleteAccelsUpTo(Date timestamp);
+
+    @Query("DELETE FROM locationdata WHERE timestamp <= :timestamp")
+    void deleteLocsUpTo(Date timestamp);
+
+    /**
+     * Replace the raw accelerometer readings of a trip with per-second rollups.
+     * @param tripID - the trip to downsample
+     * @param readings - the trip's readings stored outside this database
+     */
+    @Transaction
+    default void rollupTrip(int tripID, List<AccelerometerData> readings) {
+        readings.addAll(getTripAccels(tripID));
+        insertAccelRollups(AccelRollup.fromReadings(readings));
+        deleteTripAccels(tripID);
+    }
+
+    /**
+     * Delete everything stored for a trip except its segments and summary.
+     * @param tripID - the trip to reduce
+     */
+    @Transaction
+    default void collapseTrip(int tripID) {
+        deleteTripAccels(tripID);
+        deleteTripAccelRollups(tripID);
+        deleteTripLocs(tripID);
+    }
+
+    /**
+     * Delete a trip entirely and remove its segments from the heatmap grid.
+     * @param tripID - the trip to delete
+     */
+    @Transaction
+    default void evictTrip(int tripID) {
+        collapseTrip(tripID);
+        updateGrid(GridCell.fromSegments(getSegments(tripID), -1));
+        deleteTripSegments(tripID);
+        deleteTripSegmentTiles(tripID);
+        deleteTripSurface(tripID);
+        deleteTrip(tripID);
+    }
 }
@@ -0,0 +1,206 @@
+package com.bikevibes.bikeapp.db;
+
+import androidx.annotation.NonNull;
+import androidx.room.Embedded;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Entity class for the state and materialized summary of a trip.
+ * A trip is RECORDING while the tracking service collects data. Finalization builds the segments
+ * and fills in the summary in a single transaction, then marks it FINALIZED. Trips with a privacy
+ * radius pass through TRIMMING while their sensor log or partition file is trimmed to the stored
+ * blackout window, since neither file is part of the transaction.
+ * The energy report of the recording is stored in the energy_ columns.
+ */
+@Entity
+public class Trip {
+    public static final int RECORDING = 0;
+    public static final int TRIMMING = 1;
+    public static final int FINALIZED = 2;
+
+    @PrimaryKey
+    private int tripID;
+    private int state;
+    private Date tripStart;
+    private Date tripEnd;
+    private double dist;
+    private double bumpiness;
+    private double minLat;
+    private double maxLat;
+    private double minLon;
+    private double maxLon;
+    private Date blackoutStart;
+    private Date blackoutEnd;
+    private long finalizeMillis;
+    @NonNull
+    @Embedded(prefix = "energy_")
+    private EnergyReport energy = new EnergyReport();
+
+    public Trip(int tripID) {
+        this.tripID = tripID;
+        this.state = RECORDING;
+    }
+
+    /**
+     * Calculate the summary of the trip from its segments.
+     * Uses the same definitions as TripSummary and the queries it replaces.
+     * @param segs - the segments of the trip in order
+     */
+    public void setSummary(@NonNull List<Segment> segs) {
+        if (segs.isEmpty()) {
+            return;
+        }
+        tripStart = segs.get(0).getTs1();
+        tripEnd = segs.get(0).getTs2();
+        LocationData first = segs.get(0).getLoc1();
+        minLat = maxLat = first.getLatitude();
+        minLon = maxLon = first.getLongitude();
+        dist = 0;
+        double sumRms = 0;
+        LocationData prev = first;
+        for (Segment seg : segs) {
+            if (seg.getTs1().before(tripStart)) {
+                tripStart = seg.getTs1();
+            }
+            if (seg.getTs2().after(tripEnd)) {
+                tripEnd = seg.getTs2();
+            }
+            LocationData current = seg.getLoc2();
+            dist += current.getDist(prev);
+            prev = current;
+            minLat = Math.min(minLat, seg.getLat2());
+            maxLat = Math.max(maxLat, seg.getLat2());
+            minLon = Math.min(minLon, seg.getLon2());
+            maxLon = Math.max(maxLon, seg.getLon2());
+            sumRms += seg.getRmsZAccel();
+        }
+        bumpiness = Math.sqrt(sumRms / segs.size());
+    }
+
+    /**
+     * Return whether the summary has been calculated.
+     * @return - true if the trip has a start time, false otherwise
+     */
+    public boolean hasSummary() {
+        return tripStart != null;
+    }
+
+    // ***************************** Getters and Setters *******************************************
+
+    public int getTripID() {
+        return tripID;
+    }
+
+    public int getState() {
+        return state;
+    }
+
+    public Date getTripStart() {
+        return tripStart;
+    }
+
+    public Date getTripEnd() {
+        return tripEnd;
+    }
+
+    public double getDist() {
+        return dist;
+    }
+
+    public double getBumpiness() {
+        return bumpiness;
+    }
+
+    public double getMinLat() {
+        return minLat;
+    }
+
+    public double getMaxLat() {
+        return maxLat;
+    }
+
+    public double getMinLon() {
+        return minLon;
+    }
+
+    public double getMaxLon() {
+        return maxLon;
+    }
+
+    public Date getBlackoutStart() {
+        return blackoutStart;
+    }
+
+    public Date getBlackoutEnd() {
+        return blackoutEnd;
+    }
+
+    public long getFinalizeMillis() {
+        return finalizeMillis;
+    }
+
+    @NonNull
+    public EnergyReport getEnergy() {
+        return energy;
+    }
+
+    public void setTripID(int tripID) {
+        this.tripID = tripID;
+    }
+
+    public void setState(int state) {
+        this.state = state;
+    }
+
+    public void setTripStart(Date tripStart) {
+        this.tripStart = tripStart;
+    }
+
+    public void setTripEnd(Date tripEnd) {
+        this.tripEnd = tripEnd;
+    }
+
+    public void setDist(double dist) {
+        this.dist = dist;
+    }
+
+    public void setBumpiness(double bumpiness) {
+        this.bumpiness = bumpiness;
+    }
+
+    public void setMinLat(double minLat) {
+        this.minLat = minLat;
+    }
+
+    public void setMaxLat(double maxLat) {
+        this.maxLat = maxLat;
+    }
+
+    public void setMinLon(double minLon) {
+        this.minLon = minLon;
+    }
+
+    public void setMaxLon(double maxLon) {
+        this.maxLon = maxLon;
+    }
+
+    public void setBlackoutStart(Date blackoutStart) {
+        this.blackoutStart = blackoutStart;
+    }
+
+    public void setBlackoutEnd(Date blackoutEnd) {
+        this.blackoutEnd = blackoutEnd;
+    }
+
+    public void setFinalizeMillis(long finalizeMillis) {
+        this.finalizeMillis = finalizeMillis;
+    }
+
+    public void setEnergy(@NonNull EnergyReport energy) {
+        this.energy = energy;
+    }
+}
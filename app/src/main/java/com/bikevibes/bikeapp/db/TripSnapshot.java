@@ -0,0 +1,145 @@
+package com.bikevibes.bikeapp.db;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Compact on-disk copy of the most recently displayed trip.
+ * Lets the UI show the last trip on launch before the database has been queried.
+ * The geometry is simplified to at most MAX_SEGMENTS segments to keep the file small.
+ */
+public class TripSnapshot {
+    private static final String TAG = "TripSnapshot";
+    private static final int VERSION = 1;
+    private static final int MAX_SEGMENTS = 500;
+
+    /**
+     * Write the trip summary to the snapshot file.
+     * Writes to a temporary file first so a crash never leaves a partial snapshot.
+     * @param file - the snapshot file
+     * @param trip - the trip summary to save
+     */
+    public static void write(@NonNull File file, @NonNull TripSummary trip) {
+        List<Segment> segs = simplify(trip.getSegments());
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(VERSION);
+            out.writeInt(trip.getTripID());
+            out.writeLong(trip.getStart().getTime());
+            out.writeLong(trip.getEnd().getTime());
+            out.writeDouble(trip.getDist());
+            out.writeDouble(trip.getSpeed());
+            out.writeDouble(trip.getBumpiness());
+            out.writeDouble(trip.getZoom());
+            out.writeDouble(trip.getCenterLat());
+            out.writeDouble(trip.getCenterLon());
+            out.writeInt(segs.size());
+            for (Segment seg : segs) {
+                out.writeLong(seg.getTs1().getTime());
+                out.writeLong(seg.getTs2().getTime());
+                out.writeDouble(seg.getLat1());
+                out.writeDouble(seg.getLon1());
+                out.writeDouble(seg.getLat2());
+                out.writeDouble(seg.getLon2());
+                out.writeFloat(seg.getRmsZAccel().floatValue());
+                out.writeFloat(seg.getMaxZAccel().floatValue());
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write snapshot", e);
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            Log.w(TAG, "Could not replace snapshot");
+        }
+    }
+
+    /**
+     * Read the trip summary from the snapshot file.
+     * @param file - the snapshot file
+     * @return - the saved trip summary, or null if there is no valid snapshot
+     */
+    @Nullable
+    public static TripSummary read(@NonNull File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != VERSION) {
+                return null;
+            }
+            int tripID = in.readInt();
+            Date start = new Date(in.readLong());
+            Date end = new Date(in.readLong());
+            double dist = in.readDouble();
+            double speed = in.readDouble();
+            double bumpiness = in.readDouble();
+            double zoom = in.readDouble();
+            double centerLat = in.readDouble();
+            double centerLon = in.readDouble();
+            int count = in.readInt();
+            List<Segment> segs = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Date ts1 = new Date(in.readLong());
+                Date ts2 = new Date(in.readLong());
+                double lat1 = in.readDouble();
+                double lon1 = in.readDouble();
+                double lat2 = in.readDouble();
+                double lon2 = in.readDouble();
+                double rms = in.readFloat();
+                double max = in.readFloat();
+                segs.add(new Segment(tripID, ts1, lat1, lon1, ts2, lat2, lon2, rms, max));
+            }
+            TripSummary trip = new TripSummary(tripID, start, end, dist, speed, bumpiness);
+            trip.setMap(segs, centerLat, centerLon, zoom);
+            return trip;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read snapshot", e);
+            return null;
+        }
+    }
+
+    /**
+     * Reduce a trip to at most MAX_SEGMENTS segments by merging consecutive runs.
+     * Merged segments keep the RMS and maximum of the segments they replace.
+     * @param segs - the segments of the trip in order
+     * @return - the simplified segments
+     */
+    @NonNull
+    static List<Segment> simplify(@NonNull List<Segment> segs) {
+        if (segs.size() <= MAX_SEGMENTS) {
+            return segs;
+        }
+        int run = (segs.size() + MAX_SEGMENTS - 1) / MAX_SEGMENTS;
+        List<Segment> simplified = new ArrayList<>();
+        for (int i = 0; i < segs.size(); i += run) {
+            Segment first = segs.get(i);
+            Segment last = segs.get(Math.min(i + run, segs.size()) - 1);
+            double sumSquares = 0;
+            double max = 0;
+            int n = 0;
+            for (int j = i; j < i + run && j < segs.size(); j++) {
+                Segment seg = segs.get(j);
+                sumSquares += seg.getRmsZAccel() * seg.getRmsZAccel();
+                max = Math.max(max, seg.getMaxZAccel());
+                n++;
+            }
+            simplified.add(new Segment(first.getTripID(), first.getTs1(), first.getLat1(), first.getLon1(),
+                    last.getTs2(), last.getLat2(), last.getLon2(), Math.sqrt(sumSquares / n), max));
+        }
+        return simplified;
+    }
+}
@@ -17,6 +17,7 @@ public class TripSummary {
     private double centerLat;
     private double centerLon;
     private List<Segment> segments;
+    private boolean fromSnapshot = false;
 
     public TripSummary(int tripID, List<Segment> segs, Date start, Date end, double bumpiness) {
         this.tripID = tripID;
@@ -31,6 +32,30 @@ public class TripSummary {
         this.segments = new ArrayList<>();
     }
 
+    /**
+     * Restore a trip summary whose statistics were already calculated.
+     * Used when loading the summary from a TripSnapshot.
+     * @param tripID - the trip ID
+     * @param start - the start time of the trip
+     * @param end - the end time of the trip
+     * @param dist - the distance travelled in km
+     * @param speed - the average speed in km/h
+     * @param bumpiness - the average RMS of vertical acceleration
+     */
+    public TripSummary(int tripID, Date start, Date end, double dist, double speed, double bumpiness) {
+        this.tripID = tripID;
+        this.start = start;
+        this.end = end;
+        this.dist = dist;
+        this.speed = speed;
+        this.bumpiness = bumpiness;
+        this.zoom = 10;
+        this.centerLat = 53.5351;
+        this.centerLon = -113.4938;
+        this.segments = new ArrayList<>();
+        this.fromSnapshot = true;
+    }
+
     /**
      * Return the average speed over the trip in km/h.
      * @param start - the UNIX start time in milliseconds
@@ -149,4 +174,8 @@ public class TripSummary {
     public double getCenterLon() {
         return centerLon;
     }
+
+    public boolean isFromSnapshot() {
+        return fromSnapshot;
+    }
 }
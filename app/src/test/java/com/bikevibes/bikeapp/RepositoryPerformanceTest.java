@@ -0,0 +1,224 @@
+package com.bikevibes.bikeapp;
+
+import android.app.Application;
+import android.content.Context;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.LiveData;
+import androidx.room.Room;
+import androidx.test.core.app.ApplicationProvider;
+
+import com.bikevibes.bikeapp.db.AppDatabase;
+import com.bikevibes.bikeapp.db.PriorityExecutor;
+import com.bikevibes.bikeapp.db.SensorStore;
+import com.bikevibes.bikeapp.db.TripSurface;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Runs the key repository operations against synthetic databases of 10k, 1M and 10M accelerometer
+ * samples and fails when any of them exceeds its latency budget, so that schema and query changes
+ * cannot silently slow them down.
+ *
+ * The sizes run are set by the perf.sizes system property and the budgets are multiplied by
+ * perf.budgetScale; see app/build.gradle. Plain test runs only use 10k samples, and
+ * scripts/perf_test.sh runs all three sizes. Generating and finalizing the dataset is not timed.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+@Config(application = Application.class)
+public class RepositoryPerformanceTest {
+    private static final String DB_NAME = "perf_test.db";
+    private static final int SAMPLES_PER_TRIP = 10000;
+    private static final int SAMPLE_HZ = 5;
+    private static final long END = 1640995200000L;
+    private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+    private static final int BLACKOUT_RADIUS = 200;
+
+    // Latency budgets in ms for 10k, 1M and 10M samples
+    private static final int[] SIZES = {10000, 1000000, 10000000};
+    private static final String GET_TRIPS = "getTrips";
+    private static final String UPDATE = "update";
+    private static final String CREATE_SEGMENTS = "createSegments";
+    private static final String BLACKOUT = "blackout";
+    private static final String DELETE_UPLOAD = "deleteUpload";
+    private static final String[] OPERATIONS = {GET_TRIPS, UPDATE, CREATE_SEGMENTS, BLACKOUT, DELETE_UPLOAD};
+    private static final long[][] BUDGETS = {
+            {200, 500, 2000},
+            {200, 200, 500},
+            {1000, 1000, 2000},
+            {1000, 1000, 2000},
+            {500, 5000, 30000},
+    };
+
+    private final int samples;
+    private final List<String> failures = new ArrayList<>();
+    private Context context;
+    private AppDatabase db;
+    private SensorStore store;
+    private DataRepository repository;
+
+    public RepositoryPerformanceTest(int samples) {
+        this.samples = samples;
+    }
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "{0} samples")
+    public static List<Object[]> getSizes() {
+        List<Object[]> sizes = new ArrayList<>();
+        for (String size : System.getProperty("perf.sizes", "10000").split(",")) {
+            sizes.add(new Object[]{Integer.parseInt(size.trim())});
+        }
+        return sizes;
+    }
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        db = AppDatabase.configure(Room.databaseBuilder(context, AppDatabase.class, DB_NAME)).build();
+        store = new SensorStore(context, db, new File(context.getCacheDir(), "perf_partitions"));
+        repository = new DataRepository(db, store, new File(context.getCacheDir(), "perf_snapshot"),
+                new File(context.getCacheDir(), "perf_logs"), Runnable::run);
+    }
+
+    @After
+    public void tearDown() {
+        store.deleteAll();
+        db.close();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void repositoryOperations_stayWithinBudgets() throws Exception {
+        int trips = Math.max(samples / SAMPLES_PER_TRIP, 1);
+        DatasetGenerator.Result dataset = new DatasetGenerator(db, store).generate(tripConfig(trips, 1), END);
+        repository.recoverTrips(0);
+        awaitWriter();
+        System.out.println(String.format(Locale.US, "%d samples: %s", samples, dataset));
+
+        measure(GET_TRIPS, () -> assertEquals(trips, awaitValue(repository.getTrips()).size()));
+
+        measure(UPDATE, () -> {
+            repository.updateTrip(new TripSurface(dataset.getFirstTrip(), "Gravel"));
+            awaitWriter();
+        });
+
+        final int newTrip = addTrip(2);
+        measure(CREATE_SEGMENTS, () -> {
+            repository.createSegments(newTrip, 0);
+            awaitWriter();
+        });
+        assertEquals(SAMPLES_PER_TRIP / SAMPLE_HZ / 5 - 1, db.myDao().getSegments(newTrip).size());
+
+        // The trips come back to where they started, so both ends are inside the radius
+        final int blackoutTrip = addTrip(3);
+        measure(BLACKOUT, () -> {
+            repository.createSegments(blackoutTrip, BLACKOUT_RADIUS);
+            awaitWriter();
+        });
+        assertTrue(store.getTripLocs(blackoutTrip).size() < SAMPLES_PER_TRIP / SAMPLE_HZ / 5);
+
+        // Uploading deletes the readings of every trip up to the last one uploaded
+        final int uploadedTrips = (trips + 1) / 2;
+        measure(DELETE_UPLOAD, () -> {
+            repository.deleteUpload(dataset.getFirstTrip() + uploadedTrips - 1);
+            awaitWriter();
+        });
+        assertEquals(trips - uploadedTrips + 2, store.getTripIDs().size());
+
+        assertTrue(String.join("\n", failures), failures.isEmpty());
+    }
+
+    /**
+     * Add one recording trip after the dataset.
+     * @param seed - the seed of the trip, different for every call
+     * @return - the trip ID
+     */
+    private int addTrip(int seed) {
+        return new DatasetGenerator(db, store).generate(tripConfig(1, seed), END + seed * DAY_MS).getFirstTrip();
+    }
+
+    @NonNull
+    private static DatasetGenerator.Config tripConfig(int trips, long seed) {
+        return new DatasetGenerator.Config()
+                .setTrips(trips)
+                .setSampleHz(SAMPLE_HZ)
+                .setDurationSeconds(SAMPLES_PER_TRIP / SAMPLE_HZ)
+                .setSeed(seed);
+    }
+
+    /**
+     * Time an operation and record a failure if it exceeds its budget for this dataset size.
+     */
+    private void measure(@NonNull String operation, @NonNull Operation body) throws Exception {
+        long start = System.nanoTime();
+        body.run();
+        long millis = (System.nanoTime() - start) / 1000000;
+        long budget = getBudget(operation);
+        System.out.println(String.format(Locale.US, "%d samples: %s took %d ms (budget %d ms)",
+                samples, operation, millis, budget));
+        if (millis > budget) {
+            failures.add(String.format(Locale.US, "%s took %d ms with %d samples, over its %d ms budget",
+                    operation, millis, samples, budget));
+        }
+    }
+
+    /**
+     * Return the budget of an operation, using the budget of the next larger size for sizes in between.
+     */
+    private long getBudget(@NonNull String operation) {
+        int row = 0;
+        while (!OPERATIONS[row].equals(operation)) {
+            row++;
+        }
+        int col = 0;
+        while (col < SIZES.length - 1 && SIZES[col] < samples) {
+            col++;
+        }
+        double scale = Double.parseDouble(System.getProperty("perf.budgetScale", "1"));
+        return (long) (BUDGETS[row][col] * scale);
+    }
+
+    /**
+     * Observe a LiveData and run the main looper until it has a value.
+     */
+    @NonNull
+    private static <T> T awaitValue(@NonNull LiveData<T> data) throws InterruptedException {
+        data.observeForever(value -> { });
+        long deadline = System.currentTimeMillis() + 60000;
+        while (data.getValue() == null) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            shadowOf(Looper.getMainLooper()).idle();
+            Thread.sleep(1);
+        }
+        return data.getValue();
+    }
+
+    /**
+     * Wait until the work queued on the writer so far has run.
+     */
+    private static void awaitWriter() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        AppDatabase.getExecutor().execute(PriorityExecutor.PRIORITY_BACKGROUND, done::countDown);
+        assertTrue(done.await(10, TimeUnit.MINUTES));
+    }
+
+    private interface Operation {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,49 @@
+package com.bikevibes.bikeapp;
+
+import com.bikevibes.bikeapp.db.GridCell;
+import com.bikevibes.bikeapp.db.Segment;
+import com.bikevibes.bikeapp.db.SegmentTile;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class SegmentTileTest {
+    private static final int ZOOM = SegmentTile.ZOOM;
+
+    @Test
+    public void fromSegments_shortSegmentHasOneTile() {
+        List<SegmentTile> tiles = index(49.26060, -123.24600, 49.26065, -123.24605);
+        assertEquals(1, tiles.size());
+    }
+
+    @Test
+    public void fromSegments_longSegmentOnlyIndexesTilesAlongItsLine() {
+        // A diagonal gap of about 18 km, which crosses 38 columns and 28 rows of tiles
+        double lat1 = 49.20, lon1 = -123.30, lat2 = 49.30, lon2 = -123.10;
+        List<SegmentTile> tiles = index(lat1, lon1, lat2, lon2);
+        int columns = Math.abs(GridCell.getTileX(lon2, ZOOM) - GridCell.getTileX(lon1, ZOOM)) + 1;
+        int rows = Math.abs(GridCell.getTileY(lat2, ZOOM) - GridCell.getTileY(lat1, ZOOM)) + 1;
+        assertEquals(columns + rows - 1, tiles.size());
+
+        // The walk starts and ends in the tiles of the ends, and each tile touches the one before it
+        assertEquals(GridCell.getTileX(lon1, ZOOM), tiles.get(0).getTileX());
+        assertEquals(GridCell.getTileY(lat1, ZOOM), tiles.get(0).getTileY());
+        assertEquals(GridCell.getTileX(lon2, ZOOM), tiles.get(tiles.size() - 1).getTileX());
+        assertEquals(GridCell.getTileY(lat2, ZOOM), tiles.get(tiles.size() - 1).getTileY());
+        for (int i = 1; i < tiles.size(); i++) {
+            int step = Math.abs(tiles.get(i).getTileX() - tiles.get(i - 1).getTileX())
+                    + Math.abs(tiles.get(i).getTileY() - tiles.get(i - 1).getTileY());
+            assertEquals(1, step);
+        }
+    }
+
+    private static List<SegmentTile> index(double lat1, double lon1, double lat2, double lon2) {
+        Segment seg = new Segment(1, new Date(0), lat1, lon1, new Date(5000), lat2, lon2, 1.0, 2.0);
+        return SegmentTile.fromSegments(Collections.singletonList(seg));
+    }
+}
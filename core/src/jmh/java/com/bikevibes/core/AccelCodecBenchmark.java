@@ -0,0 +1,54 @@
+package com.bikevibes.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Measures packing and unpacking one minute of accelerometer readings at 5 Hz,
+ * the size of a stored chunk.
+ */
+@State(Scope.Thread)
+public class AccelCodecBenchmark {
+    private static final int READINGS = 300;
+
+    private final long[] times = new long[READINGS];
+    private final int[] x = new int[READINGS];
+    private final int[] y = new int[READINGS];
+    private final int[] z = new int[READINGS];
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        for (int i = 0; i < READINGS; i++) {
+            times[i] = i * 200L + random.nextInt(3);
+            x[i] = AccelCodec.quantize((float) random.nextGaussian());
+            y[i] = AccelCodec.quantize((float) random.nextGaussian());
+            z[i] = AccelCodec.quantize((float) random.nextGaussian());
+        }
+        encoded = encode();
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        AccelCodec.Encoder encoder = new AccelCodec.Encoder(0, READINGS);
+        for (int i = 0; i < READINGS; i++) {
+            encoder.add(times[i], x[i], y[i], z[i]);
+        }
+        return encoder.toByteArray();
+    }
+
+    @Benchmark
+    public double decode() {
+        AccelCodec.Decoder decoder = new AccelCodec.Decoder(encoded, 0);
+        double sum = 0;
+        while (decoder.next()) {
+            sum += decoder.getZ();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,21 @@
+package com.bikevibes.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures one haversine distance between nearby fixes.
+ */
+@State(Scope.Thread)
+public class DistanceBenchmark {
+    private double lat1 = 53.5461;
+    private double lon1 = -113.4938;
+    private double lat2 = 53.5468;
+    private double lon2 = -113.4921;
+
+    @Benchmark
+    public double distance() {
+        return Geo.distance(lat1, lon1, lat2, lon2);
+    }
+}
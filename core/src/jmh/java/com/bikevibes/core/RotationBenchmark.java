@@ -0,0 +1,58 @@
+package com.bikevibes.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+
+/**
+ * Measures the per-sample cost of rotating accelerometer readings onto the Earth's axes.
+ */
+@State(Scope.Thread)
+public class RotationBenchmark {
+    private static final int SAMPLES = 1024;
+
+    private final float[][] raw = new float[SAMPLES][3];
+    private final float[] out = new float[3];
+    private GravityFilter filter;
+    private Rotation rotation;
+    private int next = 0;
+    private long time = 0;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        for (float[] sample : raw) {
+            sample[0] = (float) random.nextGaussian();
+            sample[1] = (float) random.nextGaussian() + 3;
+            sample[2] = (float) random.nextGaussian() + 9;
+        }
+        filter = new GravityFilter(1.8f);
+        rotation = new Rotation();
+    }
+
+    /**
+     * A sample on a device without a rotation sensor: filter gravity, rebuild the matrix, rotate.
+     */
+    @Benchmark
+    public void filterAndRotate(Blackhole blackhole) {
+        float[] sample = raw[next++ & (SAMPLES - 1)];
+        time += 20;
+        filter.update(sample, time);
+        rotation.setFromGravity(filter.getGravity());
+        rotation.rotate(sample, out);
+        blackhole.consume(out[2]);
+    }
+
+    /**
+     * A sample on a device with a rotation sensor, which only applies the matrix.
+     */
+    @Benchmark
+    public void rotate(Blackhole blackhole) {
+        rotation.rotate(raw[next++ & (SAMPLES - 1)], out);
+        blackhole.consume(out[2]);
+    }
+}
@@ -0,0 +1,43 @@
+package com.bikevibes.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Measures building the segments of a one hour trip with a fix every 5 s and
+ * accelerometer readings at 5 Hz.
+ */
+@State(Scope.Thread)
+public class SegmentBenchmark {
+    private static final int FIXES = 720;
+    private static final int READINGS = FIXES * 25;
+
+    private final long[] fixTimes = new long[FIXES];
+    private final long[] times = new long[READINGS];
+    private final float[] z = new float[READINGS];
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        for (int i = 0; i < FIXES; i++) {
+            fixTimes[i] = i * 5000L;
+        }
+        for (int i = 0; i < READINGS; i++) {
+            times[i] = i * 200L;
+            z[i] = (float) random.nextGaussian();
+        }
+    }
+
+    @Benchmark
+    public SegmentAggregator aggregate() {
+        SegmentAggregator aggregator = new SegmentAggregator(fixTimes);
+        for (int i = 0; i < READINGS; i++) {
+            aggregator.add(times[i], z[i]);
+        }
+        return aggregator;
+    }
+}
@@ -0,0 +1,152 @@
+package com.bikevibes.core;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Packs accelerometer readings into a compact binary form.
+ * Timestamps are stored as deltas and each axis is quantized to 1/SCALE m/s^2 and stored as
+ * the difference from the previous reading, all as variable length integers.
+ */
+public final class AccelCodec {
+    public static final float SCALE = 1000f;
+
+    private AccelCodec() {
+    }
+
+    /**
+     * Quantize an acceleration to the stored resolution.
+     * @param value - the acceleration in m/s^2
+     * @return - the quantized value
+     */
+    public static int quantize(float value) {
+        return Math.round(value * SCALE);
+    }
+
+    /**
+     * Encodes readings in timestamp order.
+     */
+    public static class Encoder {
+        private final ByteArrayOutputStream out;
+        private long prevTime;
+        private int prevX = 0;
+        private int prevY = 0;
+        private int prevZ = 0;
+
+        /**
+         * Initialize the encoder.
+         * @param start - the time the first delta is taken from, at or before the first reading
+         * @param expected - the expected number of readings, used to size the buffer
+         */
+        public Encoder(long start, int expected) {
+            out = new ByteArrayOutputStream(expected * 6);
+            prevTime = start;
+        }
+
+        /**
+         * Append a reading.
+         * @param timestamp - the time of the reading, not before the previous one
+         * @param x - the quantized x acceleration
+         * @param y - the quantized y acceleration
+         * @param z - the quantized z acceleration
+         */
+        public void add(long timestamp, int x, int y, int z) {
+            writeVarLong(out, timestamp - prevTime);
+            writeVarLong(out, zigZag(x - prevX));
+            writeVarLong(out, zigZag(y - prevY));
+            writeVarLong(out, zigZag(z - prevZ));
+            prevTime = timestamp;
+            prevX = x;
+            prevY = y;
+            prevZ = z;
+        }
+
+        public long getLastTimestamp() {
+            return prevTime;
+        }
+
+        public byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Decodes readings written by an Encoder, one at a time.
+     */
+    public static class Decoder {
+        private final byte[] data;
+        private int pos = 0;
+        private long time;
+        private int x = 0;
+        private int y = 0;
+        private int z = 0;
+
+        /**
+         * Initialize the decoder.
+         * @param data - the encoded readings
+         * @param start - the start time given to the encoder
+         */
+        public Decoder(byte[] data, long start) {
+            this.data = data;
+            this.time = start;
+        }
+
+        /**
+         * Advance to the next reading.
+         * @return - true if there was another reading, false at the end of the data
+         */
+        public boolean next() {
+            if (pos >= data.length) {
+                return false;
+            }
+            time += readVarLong();
+            x += unZigZag(readVarLong());
+            y += unZigZag(readVarLong());
+            z += unZigZag(readVarLong());
+            return true;
+        }
+
+        public long getTimestamp() {
+            return time;
+        }
+
+        public float getX() {
+            return x / SCALE;
+        }
+
+        public float getY() {
+            return y / SCALE;
+        }
+
+        public float getZ() {
+            return z / SCALE;
+        }
+
+        private long readVarLong() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[pos++];
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static int unZigZag(long value) {
+        return (int) ((value >>> 1) ^ -(value & 1));
+    }
+}
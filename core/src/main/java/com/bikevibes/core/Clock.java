@@ -0,0 +1,35 @@
+package com.bikevibes.core;
+
+/**
+ * A source of time that can be replaced in tests, so that time-dependent code runs
+ * deterministically and without waiting.
+ */
+public interface Clock {
+    /**
+     * The wall clock of the device.
+     */
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long millis() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public void sleep(long ms) throws InterruptedException {
+            Thread.sleep(ms);
+        }
+    };
+
+    /**
+     * Return the current time.
+     * @return - the Unix time in ms
+     */
+    long millis();
+
+    /**
+     * Wait for the given amount of time to pass on this clock.
+     * @param ms - the time to wait in ms
+     * @throws InterruptedException - if the thread is interrupted while waiting
+     */
+    void sleep(long ms) throws InterruptedException;
+}
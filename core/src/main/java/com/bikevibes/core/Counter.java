@@ -0,0 +1,26 @@
+package com.bikevibes.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A count of events that only goes up, safe to increment from any thread.
+ */
+public class Counter {
+    private final AtomicLong count = new AtomicLong();
+
+    public void inc() {
+        count.incrementAndGet();
+    }
+
+    /**
+     * Add a number of events at once.
+     * @param n - the number of events
+     */
+    public void add(long n) {
+        count.addAndGet(n);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+}
@@ -0,0 +1,13 @@
+package com.bikevibes.core;
+
+/**
+ * A value that is read when a snapshot is taken, such as a queue length.
+ * Must be safe to call from any thread.
+ */
+public interface Gauge {
+    /**
+     * Return the current value.
+     * @return - the value
+     */
+    double getValue();
+}
@@ -0,0 +1,29 @@
+package com.bikevibes.core;
+
+/**
+ * Distance calculations on the Earth's surface.
+ */
+public final class Geo {
+    public static final int RADIUS = 6371;
+
+    private Geo() {
+    }
+
+    /**
+     * Return the great-circle distance between two points using the haversine formula.
+     * @param lat1 - the latitude of the first point in degrees
+     * @param lon1 - the longitude of the first point in degrees
+     * @param lat2 - the latitude of the second point in degrees
+     * @param lon2 - the longitude of the second point in degrees
+     * @return - the distance in km
+     */
+    public static double distance(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat1 - lat2);
+        double dLon = Math.toRadians(lon1 - lon2);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.sin(dLon / 2) * Math.sin(dLon / 2)
+                * Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2));
+        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+        return RADIUS * c;
+    }
+}
@@ -0,0 +1,53 @@
+package com.bikevibes.core;
+
+/**
+ * Isolates the force of gravity from raw accelerometer readings with a low-pass filter.
+ * Uses an exponentially weighted average whose weight depends on the time between readings.
+ * See https://developer.android.com/guide/topics/sensors/sensors_motion#sensors-motion-accel
+ * Or https://en.wikipedia.org/wiki/Low-pass_filter#Simple_infinite_impulse_response_filter
+ * NOTE: For Wikipedia, replace alpha with 1 - alpha
+ */
+public class GravityFilter {
+    public static final float GRAVITY = 9.81f;
+    private static final float DEFAULT_DT = 0.2f;
+
+    private final float timeConstant;
+    private final float[] gravity = new float[3];
+    private long previous = -1;
+
+    /**
+     * Initialize the filter with gravity pointing along the device's z axis.
+     * @param timeConstant - the time constant of the filter in s
+     */
+    public GravityFilter(float timeConstant) {
+        this.timeConstant = timeConstant;
+        gravity[2] = GRAVITY;
+    }
+
+    /**
+     * Add a raw reading to the filter.
+     * @param raw - the raw sensor values relative to the device
+     * @param timestamp - the Unix time at which the reading occurred in ms
+     */
+    public void update(float[] raw, long timestamp) {
+        // Calculate the alpha value used in the low-pass filter from the time delta
+        float dt = DEFAULT_DT;
+        if (previous != -1) {
+            dt = (timestamp - previous) / 1000.0f;
+        }
+        previous = timestamp;
+        final float alpha = timeConstant / (timeConstant + dt);
+
+        gravity[0] = alpha * gravity[0] + (1 - alpha) * raw[0];
+        gravity[1] = alpha * gravity[1] + (1 - alpha) * raw[1];
+        gravity[2] = alpha * gravity[2] + (1 - alpha) * raw[2];
+    }
+
+    /**
+     * Return the current estimate of gravity. The array is updated in place by later readings.
+     * @return - the gravity vector relative to the device
+     */
+    public float[] getGravity() {
+        return gravity;
+    }
+}
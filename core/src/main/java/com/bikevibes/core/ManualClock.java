@@ -0,0 +1,34 @@
+package com.bikevibes.core;
+
+/**
+ * A clock that only moves when told to. Sleeping advances it immediately instead of waiting.
+ */
+public class ManualClock implements Clock {
+    private long now;
+
+    /**
+     * Initialize the clock.
+     * @param start - the initial Unix time in ms
+     */
+    public ManualClock(long start) {
+        this.now = start;
+    }
+
+    @Override
+    public synchronized long millis() {
+        return now;
+    }
+
+    @Override
+    public synchronized void sleep(long ms) {
+        advance(ms);
+    }
+
+    /**
+     * Move the clock forward.
+     * @param ms - the time to add in ms
+     */
+    public synchronized void advance(long ms) {
+        now += ms;
+    }
+}
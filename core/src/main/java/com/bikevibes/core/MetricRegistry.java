@@ -0,0 +1,170 @@
+package com.bikevibes.core;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Named counters, gauges and latency histograms for the data pipeline.
+ *
+ * Metrics are created on first use and live as long as the registry, so callers look them up once
+ * and keep the reference. Recording never locks; only creating a metric or taking a snapshot does.
+ * Rates are computed between two snapshots, so whoever displays them decides the time window.
+ */
+public class MetricRegistry {
+    private static final MetricRegistry DEFAULT = new MetricRegistry(Clock.SYSTEM);
+
+    private final Clock clock;
+    private final Map<String, Counter> counters = new TreeMap<>();
+    private final Map<String, Gauge> gauges = new TreeMap<>();
+    private final Map<String, LatencyHistogram> histograms = new TreeMap<>();
+
+    /**
+     * Initialize an empty registry.
+     * @param clock - the clock that timestamps snapshots
+     */
+    public MetricRegistry(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Return the registry shared by the whole process.
+     * @return - the default registry
+     */
+    public static MetricRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Return the counter with the given name, creating it if needed.
+     * @param name - the dotted name, such as "sensor.accel.events"
+     * @return - the counter
+     */
+    public synchronized Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            counter = new Counter();
+            counters.put(name, counter);
+        }
+        return counter;
+    }
+
+    /**
+     * Return the histogram with the given name, creating it if needed.
+     * @param name - the dotted name, such as "db.commit"
+     * @return - the histogram
+     */
+    public synchronized LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            histograms.put(name, histogram);
+        }
+        return histogram;
+    }
+
+    /**
+     * Register a gauge, replacing any gauge with the same name.
+     * @param name - the dotted name, such as "executor.db-write.queue"
+     * @param gauge - the gauge
+     */
+    public synchronized void gauge(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * Read every metric.
+     * @return - the current values
+     */
+    public synchronized Snapshot snapshot() {
+        Snapshot snapshot = new Snapshot(clock.millis());
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            snapshot.counts.put(entry.getKey(), entry.getValue().getCount());
+        }
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            snapshot.gauges.put(entry.getKey(), entry.getValue().getValue());
+        }
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            snapshot.latencies.put(entry.getKey(), new double[]{histogram.getCount(), histogram.getMeanMillis(),
+                    histogram.getPercentileMillis(0.5), histogram.getPercentileMillis(0.95),
+                    histogram.getPercentileMillis(0.99), histogram.getMaxMillis()});
+        }
+        return snapshot;
+    }
+
+    /**
+     * The values of every metric at one point in time.
+     */
+    public static class Snapshot {
+        private final long time;
+        private final Map<String, Long> counts = new TreeMap<>();
+        private final Map<String, Double> gauges = new TreeMap<>();
+        private final Map<String, double[]> latencies = new TreeMap<>();
+
+        Snapshot(long time) {
+            this.time = time;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * Return the value of a counter, or 0 if it did not exist yet.
+         * @param name - the name of the counter
+         * @return - the count
+         */
+        public long getCount(String name) {
+            Long count = counts.get(name);
+            return count == null ? 0 : count;
+        }
+
+        /**
+         * Return the rate of a counter since an earlier snapshot.
+         * @param name - the name of the counter
+         * @param previous - the earlier snapshot
+         * @return - the events per second, or 0 if no time has passed
+         */
+        public double getRate(String name, Snapshot previous) {
+            long elapsed = time - previous.time;
+            return elapsed <= 0 ? 0 : (getCount(name) - previous.getCount(name)) * 1000.0 / elapsed;
+        }
+
+        /**
+         * Return the value of a gauge, or NaN if it is not registered.
+         * @param name - the name of the gauge
+         * @return - the value
+         */
+        public double getGauge(String name) {
+            Double value = gauges.get(name);
+            return value == null ? Double.NaN : value;
+        }
+
+        /**
+         * Format every metric as one line each, with counter rates since an earlier snapshot.
+         * @param previous - the earlier snapshot, or null to leave out rates
+         * @return - the report
+         */
+        public String format(Snapshot previous) {
+            StringBuilder report = new StringBuilder();
+            for (Map.Entry<String, Long> entry : counts.entrySet()) {
+                report.append(String.format(Locale.US, "%s %d", entry.getKey(), entry.getValue()));
+                if (previous != null) {
+                    report.append(String.format(Locale.US, " (%.1f/s)", getRate(entry.getKey(), previous)));
+                }
+                report.append('\n');
+            }
+            for (Map.Entry<String, Double> entry : gauges.entrySet()) {
+                report.append(String.format(Locale.US, "%s %.1f\n", entry.getKey(), entry.getValue()));
+            }
+            for (Map.Entry<String, double[]> entry : latencies.entrySet()) {
+                double[] stats = entry.getValue();
+                report.append(String.format(Locale.US,
+                        "%s n=%d mean=%.1fms p50=%.1fms p95=%.1fms p99=%.1fms max=%.1fms\n",
+                        entry.getKey(), (long) stats[0], stats[1], stats[2], stats[3], stats[4], stats[5]));
+            }
+            return report.toString();
+        }
+    }
+}
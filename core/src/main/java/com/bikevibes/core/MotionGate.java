@@ -0,0 +1,90 @@
+package com.bikevibes.core;
+
+/**
+ * Decides from the accelerometer alone whether the rider is moving, so that the GPS can be turned
+ * off during stops without waiting for fixes to show it. Any vibration above a small threshold
+ * counts as movement at once; the rider is still once the readings have stayed below it for a while.
+ * Keeps count of the time spent still, which is the GPS time saved.
+ *
+ * Not thread safe; readings must be added from a single thread in the order they arrive.
+ */
+public class MotionGate {
+    // Standard deviation of vertical acceleration in m/s^2 above which the device is moving
+    private static final double MOVING_STD = 0.3;
+    private static final double TIME_CONSTANT_MS = 1000;
+    private static final long STILL_MS = 30000;
+
+    /**
+     * Notified when the rider starts or stops moving.
+     */
+    public interface Listener {
+        /**
+         * @param timestamp - the Unix time of the reading that caused the change in ms
+         * @param moving - true if the rider started moving, false if they stopped
+         */
+        void onMotionChanged(long timestamp, boolean moving);
+    }
+
+    private final Listener listener;
+    private boolean moving = true;
+    private long lastMotion = -1;
+    private long stillSince = -1;
+    private long stillMillis = 0;
+
+    private long lastTime = -1;
+    private double mean = 0;
+    private double variance = 0;
+
+    /**
+     * Initialize the gate. The rider is taken to be moving until the readings show otherwise.
+     * @param listener - notified of every change
+     */
+    public MotionGate(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Add a vertical acceleration reading.
+     * @param timestamp - the Unix time of the reading in ms
+     * @param z - the vertical acceleration in m/s^2
+     */
+    public void onAccel(long timestamp, float z) {
+        if (lastTime < 0) {
+            mean = z;
+            lastMotion = timestamp;
+        } else {
+            double dt = Math.max(timestamp - lastTime, 0);
+            double alpha = dt / (TIME_CONSTANT_MS + dt);
+            double diff = z - mean;
+            mean += alpha * diff;
+            variance = (1 - alpha) * (variance + alpha * diff * diff);
+        }
+        lastTime = timestamp;
+
+        if (variance >= MOVING_STD * MOVING_STD) {
+            lastMotion = timestamp;
+            if (!moving) {
+                moving = true;
+                stillMillis += timestamp - stillSince;
+                listener.onMotionChanged(timestamp, true);
+            }
+        } else if (moving && timestamp - lastMotion >= STILL_MS) {
+            moving = false;
+            stillSince = timestamp;
+            listener.onMotionChanged(timestamp, false);
+        }
+    }
+
+    public boolean isMoving() {
+        return moving;
+    }
+
+    /**
+     * Return the total time the rider has been still.
+     * @param now - the Unix time in ms, to include a stop that has not ended
+     * @return - the time in ms
+     */
+    public long getStillMillis(long now) {
+        return moving ? stillMillis : stillMillis + Math.max(now - stillSince, 0);
+    }
+}
@@ -0,0 +1,79 @@
+package com.bikevibes.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The sampling periods of a trip's accelerometer readings over time, from the recorded rate changes.
+ * Each reading stands for the time until the next one, so when the rate changes within a segment,
+ * readings are weighted by the period they were taken at; otherwise a stretch sampled quickly
+ * would count for more of the segment's RMS than an equally long stretch sampled slowly.
+ * A trip without rate changes weighs every reading the same.
+ */
+public class RateSchedule {
+    private final long[] times;
+    private final int[] periods;
+
+    /**
+     * Initialize the schedule.
+     * @param times - the Unix times of the changes in ms, in ascending order
+     * @param periods - the sampling period from each change on, in us
+     */
+    public RateSchedule(long[] times, int[] periods) {
+        if (times.length != periods.length) {
+            throw new IllegalArgumentException("Expected one period per change");
+        }
+        this.times = times;
+        this.periods = periods;
+    }
+
+    /**
+     * Return the weight of a reading: the sampling period in effect when it was taken, in ms.
+     * Readings before the first change use its period.
+     * @param timestamp - the Unix time of the reading in ms
+     * @return - the weight, or 1 if there are no changes
+     */
+    public double getWeight(long timestamp) {
+        if (times.length == 0) {
+            return 1;
+        }
+        return periods[indexAt(timestamp)] / 1000.0;
+    }
+
+    /**
+     * Return the changes strictly inside a time range, which split it into stretches of a single rate.
+     * @param start - the start of the range in ms
+     * @param end - the end of the range in ms
+     * @return - the times of the changes with start < time <= end, in ascending order
+     */
+    public List<Long> getChanges(long start, long end) {
+        List<Long> changes = new ArrayList<>();
+        for (long time : times) {
+            if (time > start && time <= end) {
+                changes.add(time);
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Return the index of the last change at or before a time, or 0 if there is none.
+     */
+    private int indexAt(long timestamp) {
+        int lo = 0;
+        int hi = times.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (times[mid] <= timestamp) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    public int size() {
+        return times.length;
+    }
+}
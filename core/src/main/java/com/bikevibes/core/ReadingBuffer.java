@@ -0,0 +1,60 @@
+package com.bikevibes.core;
+
+import java.util.ArrayDeque;
+
+/**
+ * Holds processed readings until it is known whether they are needed, such as the readings of a
+ * ride before it was recognized as one. Readings older than a cutoff can be dropped as they arrive,
+ * so the buffer only spans as far back as they could still be needed.
+ *
+ * Not thread safe; readings must be added from a single thread in the order they arrive.
+ */
+public class ReadingBuffer implements SensorProcessor.Sink {
+    private final ArrayDeque<SensorTrace.Event> events = new ArrayDeque<>();
+
+    @Override
+    public void accel(long timestamp, float x, float y, float z) {
+        events.addLast(new SensorTrace.Event(SensorTrace.Event.ACCEL, timestamp, new double[]{x, y, z}));
+    }
+
+    @Override
+    public void location(long timestamp, double lat, double lon) {
+        events.addLast(new SensorTrace.Event(SensorTrace.Event.LOCATION, timestamp, new double[]{lat, lon}));
+    }
+
+    /**
+     * Drop the readings taken before a time.
+     * @param timestamp - the Unix time in ms of the oldest reading to keep
+     */
+    public void dropBefore(long timestamp) {
+        while (!events.isEmpty() && events.peekFirst().getTimestamp() < timestamp) {
+            events.removeFirst();
+        }
+    }
+
+    /**
+     * Pass the readings taken from a time on to a sink in the order they arrived, then empty the buffer.
+     * @param timestamp - the Unix time in ms of the oldest reading to pass on
+     * @param sink - the destination of the readings
+     */
+    public void replay(long timestamp, SensorProcessor.Sink sink) {
+        dropBefore(timestamp);
+        for (SensorTrace.Event event : events) {
+            double[] values = event.getValues();
+            if (event.getType() == SensorTrace.Event.ACCEL) {
+                sink.accel(event.getTimestamp(), (float) values[0], (float) values[1], (float) values[2]);
+            } else {
+                sink.location(event.getTimestamp(), values[0], values[1]);
+            }
+        }
+        clear();
+    }
+
+    public void clear() {
+        events.clear();
+    }
+
+    public int size() {
+        return events.size();
+    }
+}
@@ -0,0 +1,185 @@
+package com.bikevibes.core;
+
+import java.util.Random;
+
+/**
+ * Generates synthetic rides with realistic vertical acceleration for scale and replay testing.
+ *
+ * The rider cruises at a speed that varies slowly around a per-ride average and stops now and
+ * then, as at intersections. Vertical acceleration is Gaussian road noise scaled by the surface
+ * roughness, plus discrete bumps arriving as a Poisson process per km travelled. Each bump is a
+ * damped oscillation with a log-normal peak, so most bumps are small and a few are large.
+ * GPS fixes follow the route shape with a few metres of noise.
+ *
+ * Rides are deterministic for a given seed and sequence of calls.
+ */
+public class RideGenerator {
+    public static final int STRAIGHT = 0;
+    public static final int OUT_AND_BACK = 1;
+    public static final int LOOP = 2;
+
+    private static final double METRES_PER_DEGREE = 111195;
+    private static final double MIN_SPEED = 4;
+    private static final double MAX_SPEED = 7;
+    private static final double STOP_EVERY_M = 800;
+    private static final long MIN_STOP_MS = 10000;
+    private static final long MAX_STOP_MS = 40000;
+    private static final double BUMP_DECAY_S = 0.08;
+    private static final double BUMP_HZ = 8;
+    private static final double BUMP_LENGTH_S = 0.4;
+    private static final double BUMP_SIGMA = 0.5;
+    private static final double GPS_NOISE_M = 3;
+    private static final double STOPPED_NOISE = 0.05;
+    private static final double WOBBLE_S = 30;
+
+    private final Random random;
+    private final int sampleHz;
+    private final long fixMs;
+    private int shape = STRAIGHT;
+    private double roughness = 0.5;
+    private double bumpsPerKm = 2;
+
+    /**
+     * Initialize the generator.
+     * @param seed - the seed of the random number generator
+     * @param sampleHz - the accelerometer sample rate
+     * @param fixMs - the time between GPS fixes in ms
+     */
+    public RideGenerator(long seed, int sampleHz, long fixMs) {
+        this.random = new Random(seed);
+        this.sampleHz = sampleHz;
+        this.fixMs = fixMs;
+    }
+
+    /**
+     * Set the shape of the following rides.
+     * @param shape - STRAIGHT, OUT_AND_BACK or LOOP
+     */
+    public void setShape(int shape) {
+        this.shape = shape;
+    }
+
+    /**
+     * Set the surface of the following rides.
+     * @param roughness - the RMS of the vertical road noise while moving, in m/s^2
+     * @param bumpsPerKm - the average number of discrete bumps per km
+     */
+    public void setSurface(double roughness, double bumpsPerKm) {
+        this.roughness = roughness;
+        this.bumpsPerKm = bumpsPerKm;
+    }
+
+    /**
+     * Generate a ride as processed readings: Earth-relative acceleration without gravity, and fixes.
+     * @param start - the Unix time of the first reading in ms
+     * @param duration - the length of the ride in ms
+     * @param lat - the starting latitude
+     * @param lon - the starting longitude
+     * @param sink - the destination of the readings, in time order
+     */
+    public void generate(long start, long duration, double lat, double lon, SensorProcessor.Sink sink) {
+        final double dt = 1.0 / sampleHz;
+        final long sampleMs = Math.max(1000 / sampleHz, 1);
+        double heading = random.nextDouble() * 2 * Math.PI;
+        double wobble = 0;
+        double cruise = MIN_SPEED + random.nextDouble() * (MAX_SPEED - MIN_SPEED);
+        double speed = cruise;
+        double nextStop = STOP_EVERY_M * (0.5 + random.nextDouble());
+        double travelled = 0;
+        long stoppedUntil = -1;
+        long nextFix = 0;
+
+        // The current bump, if any
+        double bumpPeak = 0;
+        double bumpAge = BUMP_LENGTH_S;
+
+        for (long t = 0; t < duration; t += sampleMs) {
+            boolean stopped = t < stoppedUntil;
+            if (!stopped && travelled >= nextStop) {
+                stoppedUntil = t + MIN_STOP_MS + (long) (random.nextDouble() * (MAX_STOP_MS - MIN_STOP_MS));
+                nextStop = travelled + STOP_EVERY_M * (0.5 + random.nextDouble());
+                stopped = true;
+            }
+
+            // Speed drifts around the cruising speed, and picks up again after a stop
+            speed = stopped ? 0 : speed + (cruise - speed) * dt / 5 + random.nextGaussian() * 0.05;
+            speed = Math.max(speed, stopped ? 0 : 0.5);
+            double step = speed * dt;
+            travelled += step;
+            // The route wobbles around the heading of its shape, without drifting away from it
+            heading += getTurn(t, duration, dt);
+            wobble += -wobble * dt / WOBBLE_S + random.nextGaussian() * 0.05 * Math.sqrt(dt);
+            lat += step * Math.cos(heading + wobble) / METRES_PER_DEGREE;
+            lon += step * Math.sin(heading + wobble) / (METRES_PER_DEGREE * Math.cos(Math.toRadians(lat)));
+
+            if (t >= nextFix) {
+                sink.location(start + t, lat + gpsNoise(), lon + gpsNoise() / Math.cos(Math.toRadians(lat)));
+                nextFix += fixMs;
+            }
+
+            double z;
+            if (stopped) {
+                z = STOPPED_NOISE * random.nextGaussian();
+                bumpAge = BUMP_LENGTH_S;
+            } else {
+                if (random.nextDouble() < bumpsPerKm * step / 1000) {
+                    bumpPeak = Math.exp(Math.log(4 * roughness) + BUMP_SIGMA * random.nextGaussian());
+                    bumpPeak = random.nextBoolean() ? bumpPeak : -bumpPeak;
+                    bumpAge = 0;
+                }
+                z = roughness * random.nextGaussian() * Math.min(speed / cruise, 1.5);
+                if (bumpAge < BUMP_LENGTH_S) {
+                    z += bumpPeak * Math.exp(-bumpAge / BUMP_DECAY_S) * Math.cos(2 * Math.PI * BUMP_HZ * bumpAge);
+                    bumpAge += dt;
+                }
+            }
+            float horizontal = (float) (stopped ? STOPPED_NOISE : roughness * 0.3);
+            sink.accel(start + t, horizontal * (float) random.nextGaussian(),
+                    horizontal * (float) random.nextGaussian(), (float) z);
+        }
+    }
+
+    /**
+     * Generate a ride as the raw readings of a phone lying flat, for replay through a SensorProcessor.
+     * @param start - the Unix time of the first reading in ms
+     * @param duration - the length of the ride in ms
+     * @param lat - the starting latitude
+     * @param lon - the starting longitude
+     * @return - the trace of the ride
+     */
+    public SensorTrace generateTrace(long start, long duration, double lat, double lon) {
+        final SensorTrace trace = new SensorTrace();
+        generate(start, duration, lat, lon, new SensorProcessor.Sink() {
+            @Override
+            public void accel(long timestamp, float x, float y, float z) {
+                trace.addAccel(timestamp, x, y, z + GravityFilter.GRAVITY);
+            }
+
+            @Override
+            public void location(long timestamp, double lat, double lon) {
+                trace.addLocation(timestamp, lat, lon);
+            }
+        });
+        return trace;
+    }
+
+    /**
+     * Return the change in heading over one sample for the route shape.
+     */
+    private double getTurn(long t, long duration, double dt) {
+        switch (shape) {
+            case OUT_AND_BACK:
+                // Turn around over 10 s at the halfway point
+                long half = duration / 2;
+                return t >= half && t < half + 10000 ? Math.PI * dt / 10 : 0;
+            case LOOP:
+                return 2 * Math.PI * dt * 1000 / duration;
+            default:
+                return 0;
+        }
+    }
+
+    private double gpsNoise() {
+        return random.nextGaussian() * GPS_NOISE_M / METRES_PER_DEGREE;
+    }
+}
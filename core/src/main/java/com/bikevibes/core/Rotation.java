@@ -0,0 +1,191 @@
+package com.bikevibes.core;
+
+import java.util.Arrays;
+
+/**
+ * Holds the matrix that rotates device-relative acceleration onto the Earth-based coordinate
+ * system and applies it to readings without allocating.
+ * The matrix is 4x4 in column-major order, as used by OpenGL and android.opengl.Matrix.
+ */
+public class Rotation {
+    private final float[] matrix = new float[16];
+    private final float[] vx = new float[16];
+    private final float[] vx2 = new float[16];
+
+    /**
+     * Initialize the rotation to the identity matrix (no rotation).
+     */
+    public Rotation() {
+        addIdentity();
+    }
+
+    /**
+     * Update the rotation matrix from a gravity vector, so that gravity maps onto the z axis.
+     * See https://math.stackexchange.com/questions/180418/calculate-rotation-matrix-to-align-vector-a-to-vector-b-in-3d
+     * @param gravity - the gravity vector relative to the device
+     */
+    public void setFromGravity(float[] gravity) {
+        // Rotate the normalized gravity vector g = (g1, g2, g3) = gravity / || gravity ||
+        // onto the normal z vector z = (0, 0, 1)
+        // Uses the formula R = I + vx + (1 / (1 + c)) vx^2
+        // v = (v1, v2, 0) = g x z = (g2, -g1, 0)
+        // c = cos theta = g * z = g3
+
+        // Ignore if zero vector
+        float magnitude = norm(gravity);
+        if (magnitude == 0) {
+            return;
+        }
+
+        float v1 = gravity[1] / magnitude;
+        float v2 = - gravity[0] / magnitude;
+        float c = gravity[2] / magnitude;
+
+        // Set to reflection
+        if (c == -1) {
+            setReflection();
+            return;
+        }
+
+        // Get vx and vx^2
+        // NOTE: OpenGL implements multiplication using column-major order
+        Arrays.fill(vx, 0);
+        vx[2] = -v2;
+        vx[6] = v1;
+        vx[8] = v2;
+        vx[9] = -v1;
+        multiply(vx2, vx, vx);
+
+        // Scale and add
+        float scale = 1f / (1 + c);
+        for (int i = 0; i < matrix.length; i++) {
+            matrix[i] = vx2[i] * scale + vx[i];
+        }
+        addIdentity();
+    }
+
+    /**
+     * Set the rotation from a device rotation matrix in row-major order, such as the one
+     * produced by SensorManager.getRotationMatrixFromVector.
+     * @param rowMajor - the 4x4 rotation matrix in row-major order
+     */
+    public void setFromRowMajor(float[] rowMajor) {
+        for (int row = 0; row < 4; row++) {
+            for (int col = 0; col < 4; col++) {
+                matrix[col * 4 + row] = rowMajor[row * 4 + col];
+            }
+        }
+    }
+
+    /**
+     * Set the rotation from a rotation vector reading, as SensorManager.getRotationMatrixFromVector
+     * would, so that readings can be replayed without the Android framework.
+     * @param values - the rotation vector; the last 3 or 4 components of a unit quaternion
+     */
+    public void setFromRotationVector(float[] values) {
+        float q1 = values[0];
+        float q2 = values[1];
+        float q3 = values[2];
+        float q0;
+        if (values.length >= 4) {
+            q0 = values[3];
+        } else {
+            q0 = 1 - q1 * q1 - q2 * q2 - q3 * q3;
+            q0 = q0 > 0 ? (float) Math.sqrt(q0) : 0;
+        }
+
+        float sqQ1 = 2 * q1 * q1;
+        float sqQ2 = 2 * q2 * q2;
+        float sqQ3 = 2 * q3 * q3;
+        float q1q2 = 2 * q1 * q2;
+        float q3q0 = 2 * q3 * q0;
+        float q1q3 = 2 * q1 * q3;
+        float q2q0 = 2 * q2 * q0;
+        float q2q3 = 2 * q2 * q3;
+        float q1q0 = 2 * q1 * q0;
+
+        // Each column of the column-major matrix is a row of the framework's matrix
+        Arrays.fill(matrix, 0);
+        matrix[0] = 1 - sqQ2 - sqQ3;
+        matrix[4] = q1q2 - q3q0;
+        matrix[8] = q1q3 + q2q0;
+        matrix[1] = q1q2 + q3q0;
+        matrix[5] = 1 - sqQ1 - sqQ3;
+        matrix[9] = q2q3 - q1q0;
+        matrix[2] = q1q3 - q2q0;
+        matrix[6] = q2q3 + q1q0;
+        matrix[10] = 1 - sqQ1 - sqQ2;
+        matrix[15] = 1;
+    }
+
+    /**
+     * Determine the acceleration relative to the Earth-based coordinate system, without gravity.
+     * See https://developer.android.com/guide/topics/sensors/sensors_motion#sensors-motion-rotate
+     * @param raw - the raw accelerometer readings, using device-based coordinates
+     * @param out - the array of at least 3 values that receives the rotated acceleration
+     */
+    public void rotate(float[] raw, float[] out) {
+        float x = raw[0];
+        float y = raw[1];
+        float z = raw[2];
+        out[0] = matrix[0] * x + matrix[4] * y + matrix[8] * z;
+        out[1] = matrix[1] * x + matrix[5] * y + matrix[9] * z;
+        out[2] = matrix[2] * x + matrix[6] * y + matrix[10] * z - GravityFilter.GRAVITY;
+    }
+
+    public float[] getMatrix() {
+        return matrix;
+    }
+
+    /**
+     * Add the identity matrix to the current rotation matrix
+     */
+    private void addIdentity() {
+        matrix[0] += 1;
+        matrix[5] += 1;
+        matrix[10] += 1;
+        matrix[15] += 1;
+    }
+
+    /**
+     * Set the rotation matrix to flip the accelerometer reading
+     */
+    private void setReflection() {
+        Arrays.fill(matrix, 0);
+        matrix[0] = -1;
+        matrix[5] = -1;
+        matrix[10] = -1;
+        matrix[15] = 1;
+    }
+
+    /**
+     * Multiply two 4x4 column-major matrices.
+     * @param result - the array to store a * b in; must not be a or b
+     * @param a - the left matrix
+     * @param b - the right matrix
+     */
+    private static void multiply(float[] result, float[] a, float[] b) {
+        for (int col = 0; col < 4; col++) {
+            for (int row = 0; row < 4; row++) {
+                float sum = 0;
+                for (int k = 0; k < 4; k++) {
+                    sum += a[k * 4 + row] * b[col * 4 + k];
+                }
+                result[col * 4 + row] = sum;
+            }
+        }
+    }
+
+    /**
+     * Return the length of the given vector
+     * @param vector - the vector to measure
+     * @return - the Euclidean norm of the vector
+     */
+    private static float norm(float[] vector) {
+        float sum = 0;
+        for (float v : vector) {
+            sum += v * v;
+        }
+        return (float) Math.sqrt(sum);
+    }
+}
@@ -0,0 +1,180 @@
+package com.bikevibes.core;
+
+/**
+ * Chooses the accelerometer sampling period from the motion of the rider and the battery.
+ * Samples slowly while stationary, at the normal rate while riding, and quickly on rough surfaces
+ * or at speed, unless the battery is low and not charging.
+ *
+ * The rider is stationary once no fix has shown movement for a while and the readings are smooth;
+ * GPS fixes stop arriving when standing still, so the time since the last moving fix is checked on
+ * every accelerometer reading. Roughness is the standard deviation of vertical acceleration over
+ * the last few seconds. Faster rates are applied at once; slower rates only once they have been
+ * wanted for a while, so that the sensor is not re-registered on every bump.
+ *
+ * Not thread safe; readings must be added from a single thread in the order they arrive.
+ */
+public class SamplingController {
+    public static final int PERIOD_STATIONARY_US = 1000000;
+    public static final int PERIOD_NORMAL_US = 200000;
+    public static final int PERIOD_FAST_US = 50000;
+
+    // Movement
+    private static final double MOVING_SPEED = 1.0;
+    private static final double FAST_SPEED = 8.0;
+    private static final long STATIONARY_MS = 20000;
+    // Standard deviation of vertical acceleration in m/s^2 above which the surface is rough
+    private static final double ROUGH_STD = 2.0;
+    private static final double ROUGHNESS_TIME_CONSTANT_MS = 2000;
+    // Time a slower rate must be wanted before it is applied
+    private static final long SLOWDOWN_MS = 10000;
+    // Battery percentage below which fast sampling is not allowed unless charging
+    private static final int LOW_BATTERY = 30;
+
+    /**
+     * Notified when the sampling period changes.
+     */
+    public interface Listener {
+        /**
+         * @param timestamp - the Unix time of the reading that caused the change in ms
+         * @param periodUs - the new sampling period in us
+         */
+        void onPeriodChanged(long timestamp, int periodUs);
+    }
+
+    private final Listener listener;
+    private int periodUs = PERIOD_NORMAL_US;
+    private boolean lowBattery = false;
+
+    private long lastFixTime = -1;
+    private double lastLat;
+    private double lastLon;
+    private double speed = 0;
+    private long lastMovingTime = -1;
+
+    private long lastAccelTime = -1;
+    private double meanZ = 0;
+    private double varianceZ = 0;
+
+    private long slowdownSince = -1;
+
+    /**
+     * Initialize the controller at the normal period.
+     * @param listener - notified of every change of period
+     */
+    public SamplingController(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Update the battery state. The new budget applies from the next reading.
+     * @param percent - the battery level from 0 to 100
+     * @param charging - true if the device is charging
+     */
+    public void setBattery(int percent, boolean charging) {
+        lowBattery = !charging && percent < LOW_BATTERY;
+    }
+
+    /**
+     * Add a GPS fix and update the speed.
+     * @param timestamp - the Unix time of the fix in ms
+     * @param lat - the latitude
+     * @param lon - the longitude
+     */
+    public void onLocation(long timestamp, double lat, double lon) {
+        if (lastFixTime >= 0 && timestamp > lastFixTime) {
+            speed = Geo.distance(lastLat, lastLon, lat, lon) * 1000 / ((timestamp - lastFixTime) / 1000.0);
+        }
+        if (lastFixTime < 0 || speed >= MOVING_SPEED) {
+            lastMovingTime = timestamp;
+        }
+        lastFixTime = timestamp;
+        lastLat = lat;
+        lastLon = lon;
+        update(timestamp);
+    }
+
+    /**
+     * Mark the rider as moving without waiting for a fix, e.g. when the GPS was off during a stop.
+     * @param timestamp - the Unix time at which movement was detected in ms
+     */
+    public void onMoving(long timestamp) {
+        lastMovingTime = timestamp;
+        update(timestamp);
+    }
+
+    /**
+     * Add a vertical acceleration reading and update the roughness.
+     * @param timestamp - the Unix time of the reading in ms
+     * @param z - the vertical acceleration in m/s^2
+     */
+    public void onAccel(long timestamp, float z) {
+        if (lastAccelTime < 0) {
+            meanZ = z;
+            varianceZ = 0;
+            if (lastMovingTime < 0) {
+                lastMovingTime = timestamp;
+            }
+        } else {
+            double dt = Math.max(timestamp - lastAccelTime, 0);
+            double alpha = dt / (ROUGHNESS_TIME_CONSTANT_MS + dt);
+            double diff = z - meanZ;
+            meanZ += alpha * diff;
+            varianceZ = (1 - alpha) * (varianceZ + alpha * diff * diff);
+        }
+        lastAccelTime = timestamp;
+        update(timestamp);
+    }
+
+    /**
+     * Apply the period wanted for the current state: at once if faster, after a delay if slower.
+     */
+    private void update(long timestamp) {
+        int wanted = getWantedPeriod(timestamp);
+        if (wanted == periodUs) {
+            slowdownSince = -1;
+            return;
+        }
+        if (wanted > periodUs) {
+            if (slowdownSince < 0) {
+                slowdownSince = timestamp;
+            }
+            if (timestamp - slowdownSince < SLOWDOWN_MS) {
+                return;
+            }
+        }
+        slowdownSince = -1;
+        periodUs = wanted;
+        listener.onPeriodChanged(timestamp, periodUs);
+    }
+
+    private int getWantedPeriod(long timestamp) {
+        boolean rough = getRoughness() >= ROUGH_STD;
+        if (!rough && timestamp - lastMovingTime >= STATIONARY_MS) {
+            return PERIOD_STATIONARY_US;
+        }
+        if ((rough || speed >= FAST_SPEED) && !lowBattery) {
+            return PERIOD_FAST_US;
+        }
+        return PERIOD_NORMAL_US;
+    }
+
+    /**
+     * Return the recent standard deviation of vertical acceleration.
+     * @return - the roughness in m/s^2
+     */
+    public double getRoughness() {
+        return Math.sqrt(varianceZ);
+    }
+
+    /**
+     * Return the speed between the last two fixes.
+     * @return - the speed in m/s
+     */
+    public double getSpeed() {
+        return speed;
+    }
+
+    public int getPeriodUs() {
+        return periodUs;
+    }
+}
@@ -0,0 +1,77 @@
+package com.bikevibes.core;
+
+import java.util.Arrays;
+
+/**
+ * Aggregates vertical acceleration into the segments between consecutive GPS fixes in one pass.
+ * A reading belongs to the segment that starts at the last fix at or before it; a reading at the
+ * time of the last fix belongs to the last segment. Readings outside the fixes are ignored.
+ * Readings may be weighted, e.g. by their sampling period, in which case the RMS is the weighted one.
+ */
+public class SegmentAggregator {
+    private final long[] fixTimes;
+    private final double[] sumSquares;
+    private final double[] weights;
+    private final double[] max;
+    private final int[] counts;
+
+    /**
+     * Initialize the aggregator.
+     * @param fixTimes - the timestamps of the fixes in ascending order
+     */
+    public SegmentAggregator(long[] fixTimes) {
+        this.fixTimes = fixTimes;
+        int segments = Math.max(fixTimes.length - 1, 0);
+        sumSquares = new double[segments];
+        weights = new double[segments];
+        max = new double[segments];
+        counts = new int[segments];
+    }
+
+    /**
+     * Add a reading to the segment its timestamp falls into.
+     * @param timestamp - the time of the reading in ms
+     * @param z - the vertical acceleration
+     */
+    public void add(long timestamp, double z) {
+        add(timestamp, z, 1);
+    }
+
+    /**
+     * Add a weighted reading to the segment its timestamp falls into.
+     * @param timestamp - the time of the reading in ms
+     * @param z - the vertical acceleration
+     * @param weight - the weight of the reading in the RMS
+     */
+    public void add(long timestamp, double z, double weight) {
+        int i = Arrays.binarySearch(fixTimes, timestamp);
+        i = i >= 0 ? Math.min(i, counts.length - 1) : -i - 2;
+        if (i >= 0 && i < counts.length) {
+            sumSquares[i] += weight * z * z;
+            weights[i] += weight;
+            max[i] = Math.max(max[i], Math.abs(z));
+            counts[i]++;
+        }
+    }
+
+    public int getSegmentCount() {
+        return counts.length;
+    }
+
+    /**
+     * Return the RMS of vertical acceleration within a segment.
+     * @param i - the index of the segment
+     * @return - the RMS, or 0 if the segment has no readings
+     */
+    public double getRms(int i) {
+        return weights[i] == 0 ? 0 : Math.sqrt(sumSquares[i] / weights[i]);
+    }
+
+    public double getMax(int i) {
+        return max[i];
+    }
+
+    public int getCount(int i) {
+        return counts[i];
+    }
+}
@@ -0,0 +1,76 @@
+package com.bikevibes.core;
+
+/**
+ * Turns raw sensor readings into the Earth-relative acceleration and GPS fixes that are stored.
+ * The same processor handles live sensor events in the tracking service and replayed traces,
+ * so both go through identical processing.
+ *
+ * Until the first rotation vector reading arrives, the rotation is estimated from gravity
+ * isolated by a low-pass filter. Devices without a rotation vector sensor never leave that mode.
+ *
+ * Not thread safe; readings must be added from a single thread in the order they arrive.
+ */
+public class SensorProcessor {
+
+    /**
+     * Receives the processed readings.
+     */
+    public interface Sink {
+        void accel(long timestamp, float x, float y, float z);
+
+        void location(long timestamp, double lat, double lon);
+    }
+
+    private final Sink sink;
+    private final GravityFilter gravityFilter;
+    private final Rotation rotation = new Rotation();
+    private final float[] accel = new float[3];
+    private boolean hasRotationVector = false;
+
+    /**
+     * Initialize the processor.
+     * @param timeConstant - the time constant of the gravity filter in s
+     * @param sink - the destination of the processed readings
+     */
+    public SensorProcessor(float timeConstant, Sink sink) {
+        this.gravityFilter = new GravityFilter(timeConstant);
+        this.sink = sink;
+    }
+
+    /**
+     * Rotate an accelerometer reading relative to the Earth, remove gravity and pass it on.
+     * @param timestamp - the Unix time of the reading in ms
+     * @param raw - the raw accelerometer values relative to the device
+     */
+    public void onAccel(long timestamp, float[] raw) {
+        if (!hasRotationVector) {
+            gravityFilter.update(raw, timestamp);
+            rotation.setFromGravity(gravityFilter.getGravity());
+        }
+        rotation.rotate(raw, accel);
+        sink.accel(timestamp, accel[0], accel[1], accel[2]);
+    }
+
+    /**
+     * Update the rotation from a rotation vector reading.
+     * @param values - the rotation vector; the last 3 or 4 components of a unit quaternion
+     */
+    public void onRotationVector(float[] values) {
+        hasRotationVector = true;
+        rotation.setFromRotationVector(values);
+    }
+
+    /**
+     * Pass on a GPS fix.
+     * @param timestamp - the Unix time of the fix in ms
+     * @param lat - the latitude
+     * @param lon - the longitude
+     */
+    public void onLocation(long timestamp, double lat, double lon) {
+        sink.location(timestamp, lat, lon);
+    }
+
+    public Rotation getRotation() {
+        return rotation;
+    }
+}
@@ -0,0 +1,199 @@
+package com.bikevibes.core;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A recorded or synthetic sequence of raw accelerometer, rotation vector and GPS readings.
+ *
+ * Traces are stored as text with one reading per line, ordered by time:
+ * "a,timestamp,x,y,z" for the accelerometer, "r,timestamp,x,y,z[,w]" for the rotation vector
+ * and "l,timestamp,lat,lon" for GPS fixes. Timestamps are Unix times in ms. Blank lines and
+ * lines starting with '#' are ignored.
+ */
+public class SensorTrace {
+    private final List<Event> events = new ArrayList<>();
+    private boolean sorted = true;
+
+    public void addAccel(long timestamp, float x, float y, float z) {
+        add(new Event(Event.ACCEL, timestamp, new double[]{x, y, z}));
+    }
+
+    public void addRotationVector(long timestamp, float[] values) {
+        double[] copy = new double[Math.min(values.length, 4)];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = values[i];
+        }
+        add(new Event(Event.ROTATION_VECTOR, timestamp, copy));
+    }
+
+    public void addLocation(long timestamp, double lat, double lon) {
+        add(new Event(Event.LOCATION, timestamp, new double[]{lat, lon}));
+    }
+
+    /**
+     * Return the readings ordered by time. Readings with equal timestamps keep the order they were added in.
+     * @return - the readings
+     */
+    public List<Event> getEvents() {
+        if (!sorted) {
+            Collections.sort(events, new Comparator<Event>() {
+                @Override
+                public int compare(Event a, Event b) {
+                    return Long.compare(a.timestamp, b.timestamp);
+                }
+            });
+            sorted = true;
+        }
+        return Collections.unmodifiableList(events);
+    }
+
+    public int size() {
+        return events.size();
+    }
+
+    /**
+     * Return the time of the first reading.
+     * @return - the Unix time in ms, or 0 if the trace is empty
+     */
+    public long getStart() {
+        return events.isEmpty() ? 0 : getEvents().get(0).timestamp;
+    }
+
+    /**
+     * Return the time of the last reading.
+     * @return - the Unix time in ms, or 0 if the trace is empty
+     */
+    public long getEnd() {
+        return events.isEmpty() ? 0 : getEvents().get(events.size() - 1).timestamp;
+    }
+
+    /**
+     * Write the trace as text.
+     * @param writer - the destination; not closed
+     * @throws IOException - if writing fails
+     */
+    public void write(Writer writer) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (Event event : getEvents()) {
+            line.setLength(0);
+            line.append(event.getCode()).append(',').append(event.timestamp);
+            for (double value : event.values) {
+                line.append(',').append(event.type == Event.LOCATION ? value : (float) value);
+            }
+            line.append('\n');
+            writer.write(line.toString());
+        }
+    }
+
+    /**
+     * Read a trace written as text.
+     * @param reader - the source; not closed
+     * @return - the trace
+     * @throws IOException - if reading fails or a line is malformed
+     */
+    public static SensorTrace read(BufferedReader reader) throws IOException {
+        SensorTrace trace = new SensorTrace();
+        String line;
+        int number = 0;
+        while ((line = reader.readLine()) != null) {
+            number++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                trace.add(parse(line));
+            } catch (IllegalArgumentException e) {
+                throw new IOException(String.format(Locale.US, "Malformed trace line %d: %s", number, line), e);
+            }
+        }
+        return trace;
+    }
+
+    /**
+     * Parse one line of a trace.
+     * @throws IllegalArgumentException - if the line is malformed
+     */
+    private static Event parse(String line) {
+        String[] fields = line.split(",");
+        if (fields.length < 2) {
+            throw new IllegalArgumentException("Missing timestamp");
+        }
+        int type = Event.getType(fields[0]);
+        long timestamp = Long.parseLong(fields[1]);
+        double[] values = new double[fields.length - 2];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Double.parseDouble(fields[i + 2]);
+        }
+        int required = type == Event.LOCATION ? 2 : 3;
+        int allowed = type == Event.ROTATION_VECTOR ? 4 : required;
+        if (values.length < required || values.length > allowed) {
+            throw new IllegalArgumentException("Wrong number of values");
+        }
+        return new Event(type, timestamp, values);
+    }
+
+    private void add(Event event) {
+        if (!events.isEmpty() && event.timestamp < events.get(events.size() - 1).timestamp) {
+            sorted = false;
+        }
+        events.add(event);
+    }
+
+    /**
+     * A single reading in a trace.
+     */
+    public static class Event {
+        public static final int ACCEL = 0;
+        public static final int ROTATION_VECTOR = 1;
+        public static final int LOCATION = 2;
+        private static final String[] CODES = {"a", "r", "l"};
+
+        private final int type;
+        private final long timestamp;
+        private final double[] values;
+
+        Event(int type, long timestamp, double[] values) {
+            this.type = type;
+            this.timestamp = timestamp;
+            this.values = values;
+        }
+
+        private static int getType(String code) {
+            for (int i = 0; i < CODES.length; i++) {
+                if (CODES[i].equals(code)) {
+                    return i;
+                }
+            }
+            throw new IllegalArgumentException("Unknown reading type " + code);
+        }
+
+        private String getCode() {
+            return CODES[type];
+        }
+
+        public int getType() {
+            return type;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Return the values of the reading: x, y, z for the accelerometer, the quaternion
+         * components for the rotation vector, or latitude and longitude for a fix.
+         * @return - the values; must not be modified
+         */
+        public double[] getValues() {
+            return values;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.bikevibes.core;
+
+import java.util.List;
+
+/**
+ * Feeds a sensor trace through a SensorProcessor, either paced by a clock or as fast as possible.
+ *
+ * Timestamps are shifted so that the trace starts at the clock's time when the replay starts,
+ * while the spacing between readings is kept at every speed. The output for a trace is
+ * therefore the same at any speed, and only depends on the clock's start time.
+ */
+public class TraceReplayer {
+    public static final float MAX_SPEED = 0;
+
+    private final SensorTrace trace;
+    private final SensorProcessor processor;
+    private final Clock clock;
+    private final float speed;
+    private final float[] accel = new float[3];
+    private final float[] rotationVector = new float[4];
+    private final float[] shortRotationVector = new float[3];
+
+    /**
+     * Initialize the replayer.
+     * @param trace - the readings to replay
+     * @param processor - the pipeline that receives the readings
+     * @param clock - the clock that paces the replay and sets its start time
+     * @param speed - the multiple of real time to replay at, or MAX_SPEED to not wait at all
+     */
+    public TraceReplayer(SensorTrace trace, SensorProcessor processor, Clock clock, float speed) {
+        this.trace = trace;
+        this.processor = processor;
+        this.clock = clock;
+        this.speed = speed;
+    }
+
+    /**
+     * Replay the whole trace on the calling thread.
+     * @return - the number of readings replayed
+     * @throws InterruptedException - if the thread is interrupted, after which no more readings are replayed
+     */
+    public int run() throws InterruptedException {
+        List<SensorTrace.Event> events = trace.getEvents();
+        long traceStart = trace.getStart();
+        long replayStart = clock.millis();
+
+        int count = 0;
+        for (SensorTrace.Event event : events) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException();
+            }
+            long offset = event.getTimestamp() - traceStart;
+            if (speed > 0) {
+                long wait = replayStart + (long) (offset / speed) - clock.millis();
+                if (wait > 0) {
+                    clock.sleep(wait);
+                }
+            }
+            dispatch(event, replayStart + offset);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Pass a reading to the matching method of the processor.
+     */
+    private void dispatch(SensorTrace.Event event, long timestamp) {
+        double[] values = event.getValues();
+        switch (event.getType()) {
+            case SensorTrace.Event.ACCEL:
+                copy(values, accel);
+                processor.onAccel(timestamp, accel);
+                break;
+            case SensorTrace.Event.ROTATION_VECTOR:
+                float[] rotation = values.length == 4 ? rotationVector : shortRotationVector;
+                copy(values, rotation);
+                processor.onRotationVector(rotation);
+                break;
+            case SensorTrace.Event.LOCATION:
+                processor.onLocation(timestamp, values[0], values[1]);
+                break;
+        }
+    }
+
+    private static void copy(double[] from, float[] to) {
+        for (int i = 0; i < to.length; i++) {
+            to[i] = (float) from[i];
+        }
+    }
+}
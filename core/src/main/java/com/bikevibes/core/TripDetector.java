@@ -0,0 +1,234 @@
+package com.bikevibes.core;
+
+import java.util.ArrayDeque;
+
+/**
+ * Starts and ends trips on its own from the motion reported by a MotionGate and the speed of GPS
+ * fixes, for riders who leave tracking on. Walking, driving and riding a bus move the phone too,
+ * so a trip only starts once the rider has kept moving for a minute and the fixes of the last
+ * minute show a cycling speed: an average between MIN_SPEED and MAX_SPEED, with no step between
+ * fixes faster than MAX_SPEED. The trip starts when the movement did, or at the first of those
+ * fixes if older ones were too slow or too fast; getEarliestStart tells how far back readings
+ * must be kept to record it from there.
+ *
+ * It ends once the rider has been still for five minutes, at the time the gate found them still.
+ * Shorter stops stay part of the trip. A rider who stops before a trip starts, or moves for
+ * PROBE_MS without a cycling speed, makes the detector idle. After a trip ends or the detector
+ * idles it ignores everything until wake is called, so the sensors can sleep in between.
+ *
+ * Not thread safe; changes and readings must be added from a single thread in the order they arrive.
+ */
+public class TripDetector {
+    private static final long START_MS = 60000;
+    private static final long END_MS = 5 * 60000;
+    private static final long PROBE_MS = 3 * 60000;
+    private static final int MIN_FIXES = 3;
+    private static final long MIN_SPAN_MS = 20000;
+    // Cycling speeds in m/s, about 9 to 45 km/h
+    private static final double MIN_SPEED = 2.5;
+    private static final double MAX_SPEED = 12.5;
+
+    /**
+     * Notified when a trip starts or ends, or the detector idles.
+     */
+    public interface Listener {
+        /**
+         * @param timestamp - the Unix time the trip started in ms
+         */
+        void onTripStart(long timestamp);
+
+        /**
+         * @param timestamp - the Unix time the rider was found to be still in ms
+         */
+        void onTripEnd(long timestamp);
+
+        /**
+         * Called when no trip is in progress or about to start, since the rider stopped or has
+         * not been cycling.
+         * @param timestamp - the Unix time of the reading that made the detector idle in ms
+         */
+        void onIdle(long timestamp);
+    }
+
+    private final Listener listener;
+    private final ArrayDeque<Fix> fixes = new ArrayDeque<>();
+    private boolean awake = true;
+    private boolean recording = false;
+    private long movingSince = -1;
+    private long stillSince = -1;
+    private long windowStart = -1;
+
+    /**
+     * Initialize the detector awake, with no trip in progress.
+     * @param listener - notified of trips starting and ending
+     */
+    public TripDetector(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Start watching for a trip again after one ended or the detector idled.
+     */
+    public void wake() {
+        awake = true;
+    }
+
+    /**
+     * Add a change reported by the motion gate.
+     * @param timestamp - the Unix time of the change in ms
+     * @param moving - true if the rider started moving
+     */
+    public void onMotionChanged(long timestamp, boolean moving) {
+        if (!awake) {
+            return;
+        }
+        if (moving) {
+            startMoving(timestamp);
+            stillSince = -1;
+        } else if (recording) {
+            movingSince = -1;
+            stillSince = timestamp;
+        } else {
+            idle(timestamp);
+            return;
+        }
+        update(timestamp);
+    }
+
+    /**
+     * Check whether a trip starts or ends at the time of a reading.
+     * @param timestamp - the Unix time of the reading in ms
+     * @param moving - whether the motion gate shows the rider moving
+     */
+    public void onReading(long timestamp, boolean moving) {
+        if (!awake) {
+            return;
+        }
+        if (moving && movingSince < 0 && stillSince < 0) {
+            startMoving(timestamp);
+        }
+        update(timestamp);
+    }
+
+    /**
+     * Add a GPS fix, which is only needed until a trip starts.
+     * Fixes older than a minute are dropped, and the trip can then start no earlier than the
+     * oldest fix left.
+     * @param timestamp - the Unix time of the fix in ms
+     * @param lat - the latitude in degrees
+     * @param lon - the longitude in degrees
+     */
+    public void onLocation(long timestamp, double lat, double lon) {
+        if (!awake || recording || movingSince < 0) {
+            return;
+        }
+        fixes.addLast(new Fix(timestamp, lat, lon));
+        boolean dropped = false;
+        while (fixes.peekFirst().timestamp < timestamp - START_MS) {
+            fixes.removeFirst();
+            dropped = true;
+        }
+        if (dropped) {
+            windowStart = Math.max(windowStart, fixes.peekFirst().timestamp);
+        }
+        update(timestamp);
+    }
+
+    private void startMoving(long timestamp) {
+        movingSince = timestamp;
+        if (!recording && windowStart < 0) {
+            windowStart = timestamp;
+        }
+    }
+
+    private void update(long timestamp) {
+        if (recording) {
+            if (stillSince >= 0 && timestamp - stillSince >= END_MS) {
+                long end = stillSince;
+                reset();
+                awake = false;
+                listener.onTripEnd(end);
+            }
+        } else if (movingSince >= 0 && timestamp - movingSince >= START_MS && isCycling()) {
+            long start = windowStart;
+            fixes.clear();
+            recording = true;
+            listener.onTripStart(start);
+        } else if (movingSince >= 0 && timestamp - movingSince >= PROBE_MS) {
+            idle(timestamp);
+        }
+    }
+
+    /**
+     * Return whether the fixes of the last minute show a cycling speed.
+     */
+    private boolean isCycling() {
+        if (fixes.size() < MIN_FIXES) {
+            return false;
+        }
+        long span = fixes.peekLast().timestamp - fixes.peekFirst().timestamp;
+        if (span < MIN_SPAN_MS) {
+            return false;
+        }
+        Fix prev = null;
+        double metres = 0;
+        for (Fix fix : fixes) {
+            if (prev != null) {
+                double step = Geo.distance(prev.lat, prev.lon, fix.lat, fix.lon) * 1000;
+                if (fix.timestamp > prev.timestamp && step * 1000 / (fix.timestamp - prev.timestamp) > MAX_SPEED) {
+                    return false;
+                }
+                metres += step;
+            }
+            prev = fix;
+        }
+        double speed = metres * 1000 / span;
+        return speed >= MIN_SPEED && speed <= MAX_SPEED;
+    }
+
+    private void idle(long timestamp) {
+        reset();
+        awake = false;
+        listener.onIdle(timestamp);
+    }
+
+    private void reset() {
+        recording = false;
+        movingSince = -1;
+        stillSince = -1;
+        windowStart = -1;
+        fixes.clear();
+    }
+
+    /**
+     * Return the earliest time a trip starting now would start at, so that readings before it
+     * need not be kept.
+     * @return - the Unix time in ms, or -1 if no trip can start now
+     */
+    public long getEarliestStart() {
+        return awake && !recording ? windowStart : -1;
+    }
+
+    public boolean isRecording() {
+        return recording;
+    }
+
+    public boolean isAwake() {
+        return awake;
+    }
+
+    /**
+     * A GPS fix kept to measure the speed of the rider.
+     */
+    private static class Fix {
+        private final long timestamp;
+        private final double lat;
+        private final double lon;
+
+        Fix(long timestamp, double lat, double lon) {
+            this.timestamp = timestamp;
+            this.lat = lat;
+            this.lon = lon;
+        }
+    }
+}
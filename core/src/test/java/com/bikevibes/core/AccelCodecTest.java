@@ -0,0 +1,33 @@
+package com.bikevibes.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AccelCodecTest {
+
+    @Test
+    public void roundTrip_keepsQuantizedValues() {
+        AccelCodec.Encoder encoder = new AccelCodec.Encoder(1000, 3);
+        encoder.add(1000, AccelCodec.quantize(0.1234f), AccelCodec.quantize(-5f), AccelCodec.quantize(9.81f));
+        encoder.add(1200, AccelCodec.quantize(-0.0006f), AccelCodec.quantize(0), AccelCodec.quantize(-20f));
+        encoder.add(100000, 0, 0, 0);
+        assertEquals(100000, encoder.getLastTimestamp());
+
+        AccelCodec.Decoder decoder = new AccelCodec.Decoder(encoder.toByteArray(), 1000);
+        assertTrue(decoder.next());
+        assertEquals(1000, decoder.getTimestamp());
+        assertEquals(0.123f, decoder.getX(), 1e-6);
+        assertEquals(-5f, decoder.getY(), 1e-6);
+        assertEquals(9.81f, decoder.getZ(), 1e-6);
+        assertTrue(decoder.next());
+        assertEquals(1200, decoder.getTimestamp());
+        assertEquals(-0.001f, decoder.getX(), 1e-6);
+        assertEquals(-20f, decoder.getZ(), 1e-6);
+        assertTrue(decoder.next());
+        assertEquals(100000, decoder.getTimestamp());
+        assertFalse(decoder.next());
+    }
+}
@@ -0,0 +1,56 @@
+package com.bikevibes.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MetricRegistryTest {
+
+    @Test
+    public void snapshot_computesRatesBetweenSnapshots() {
+        ManualClock clock = new ManualClock(0);
+        MetricRegistry registry = new MetricRegistry(clock);
+        Counter events = registry.counter("sensor.accel.events");
+        assertSame(events, registry.counter("sensor.accel.events"));
+        registry.gauge("sensor.accel.requested_hz", () -> 5);
+
+        events.add(10);
+        MetricRegistry.Snapshot first = registry.snapshot();
+        clock.advance(2000);
+        events.add(8);
+        MetricRegistry.Snapshot second = registry.snapshot();
+
+        assertEquals(18, second.getCount("sensor.accel.events"));
+        assertEquals(4.0, second.getRate("sensor.accel.events", first), 1e-9);
+        assertEquals(0.0, second.getRate("missing", first), 1e-9);
+        assertEquals(5.0, second.getGauge("sensor.accel.requested_hz"), 1e-9);
+        assertTrue(Double.isNaN(second.getGauge("missing")));
+        String report = second.format(first);
+        assertTrue(report, report.contains("sensor.accel.events 18 (4.0/s)"));
+        assertTrue(report, report.contains("sensor.accel.requested_hz 5.0"));
+    }
+
+    @Test
+    public void histogram_boundsPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0.0, histogram.getPercentileMillis(0.99), 1e-9);
+        // 98 fast commits of 1.5 ms and two slow ones of 40 ms
+        for (int i = 0; i < 98; i++) {
+            histogram.record(1500000);
+        }
+        histogram.record(40000000);
+        histogram.record(40000000);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals((98 * 1.5 + 2 * 40) / 100, histogram.getMeanMillis(), 1e-9);
+        assertEquals(40.0, histogram.getMaxMillis(), 1e-9);
+        // Percentiles are within a factor of two above the true value
+        double p50 = histogram.getPercentileMillis(0.5);
+        assertTrue("p50 " + p50, p50 >= 1.5 && p50 <= 3);
+        double p99 = histogram.getPercentileMillis(0.99);
+        assertEquals(40.0, p99, 1e-9);
+        assertTrue(histogram.getPercentileMillis(0.98) < 3);
+    }
+}
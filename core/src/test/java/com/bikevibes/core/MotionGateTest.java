@@ -0,0 +1,49 @@
+package com.bikevibes.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MotionGateTest {
+    private final List<Long> changes = new ArrayList<>();
+    private final MotionGate gate = new MotionGate((timestamp, moving) -> changes.add(moving ? timestamp : -timestamp));
+
+    @Test
+    public void stop_pausesAfterDelayAndResumesAtOnce() {
+        feed(0, 10000, 200, 1f);
+        assertTrue(gate.isMoving());
+
+        // Standing still: stopped 30 s after the vibration dies down
+        feed(10000, 60000, 1000, 0.01f);
+        assertFalse(gate.isMoving());
+        assertEquals(1, changes.size());
+
+        // The first bump resumes
+        gate.onAccel(60000, 3f);
+        assertTrue(gate.isMoving());
+        assertEquals(Long.valueOf(60000), changes.get(1));
+        assertEquals(60000 + changes.get(0), gate.getStillMillis(60000));
+    }
+
+    @Test
+    public void getStillMillis_includesCurrentStop() {
+        feed(0, 40000, 1000, 0.01f);
+        assertFalse(gate.isMoving());
+        long stoppedAt = -changes.get(0);
+        assertEquals(5000, gate.getStillMillis(stoppedAt + 5000));
+    }
+
+    /**
+     * Feed readings of alternating sign at a fixed period.
+     */
+    private void feed(long start, long end, long period, float amplitude) {
+        for (long t = start; t < end; t += period) {
+            gate.onAccel(t, (t / period) % 2 == 0 ? amplitude : -amplitude);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.bikevibes.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ReadingBufferTest {
+    private final List<String> replayed = new ArrayList<>();
+    private final SensorProcessor.Sink sink = new SensorProcessor.Sink() {
+        @Override
+        public void accel(long timestamp, float x, float y, float z) {
+            replayed.add("a " + timestamp + " " + z);
+        }
+
+        @Override
+        public void location(long timestamp, double lat, double lon) {
+            replayed.add("l " + timestamp + " " + lat);
+        }
+    };
+
+    @Test
+    public void replay_passesReadingsFromTimeInOrder() {
+        ReadingBuffer buffer = new ReadingBuffer();
+        buffer.accel(1000, 0f, 0f, 1f);
+        buffer.location(2000, 53.5, -113.5);
+        buffer.accel(3000, 0f, 0f, 2f);
+        buffer.dropBefore(1500);
+        assertEquals(2, buffer.size());
+
+        buffer.replay(2000, sink);
+        assertEquals(2, replayed.size());
+        assertEquals("l 2000 53.5", replayed.get(0));
+        assertEquals("a 3000 2.0", replayed.get(1));
+        assertEquals(0, buffer.size());
+    }
+}
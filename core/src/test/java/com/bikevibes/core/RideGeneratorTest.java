@@ -0,0 +1,123 @@
+package com.bikevibes.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RideGeneratorTest {
+    private static final long START = 1600000000000L;
+    private static final long DURATION = 30 * 60 * 1000L;
+    private static final double LAT = 53.5232;
+    private static final double LON = -113.5263;
+
+    @Test
+    public void generate_isDeterministic() {
+        Collector a = new Collector();
+        Collector b = new Collector();
+        new RideGenerator(7, 5, 5000).generate(START, DURATION, LAT, LON, a);
+        new RideGenerator(7, 5, 5000).generate(START, DURATION, LAT, LON, b);
+        assertEquals(DURATION / 200, a.times.size());
+        assertEquals(DURATION / 5000, a.lats.size());
+        assertEquals(a.z, b.z);
+        assertEquals(a.lats, b.lats);
+    }
+
+    @Test
+    public void generate_rougherSurfaceIsBumpier() {
+        RideGenerator generator = new RideGenerator(1, 50, 5000);
+        Collector pavement = new Collector();
+        generator.setSurface(0.5, 2);
+        generator.generate(START, DURATION, LAT, LON, pavement);
+        Collector gravel = new Collector();
+        generator.setSurface(2, 15);
+        generator.generate(START, DURATION, LAT, LON, gravel);
+
+        double smooth = pavement.rms();
+        double rough = gravel.rms();
+        assertTrue("Pavement RMS " + smooth, smooth > 0.3 && smooth < 0.8);
+        assertTrue("Gravel RMS " + rough, rough > 3 * smooth);
+
+        // Bumps give the distribution a heavier tail than the Gaussian road noise alone
+        assertTrue(gravel.max() > 5 * rough);
+    }
+
+    @Test
+    public void generate_followsRouteShape() {
+        RideGenerator generator = new RideGenerator(3, 5, 5000);
+        Collector straight = new Collector();
+        generator.generate(START, DURATION, LAT, LON, straight);
+        generator.setShape(RideGenerator.OUT_AND_BACK);
+        Collector outAndBack = new Collector();
+        generator.generate(START, DURATION, LAT, LON, outAndBack);
+        generator.setShape(RideGenerator.LOOP);
+        Collector loop = new Collector();
+        generator.generate(START, DURATION, LAT, LON, loop);
+
+        // 30 minutes at 4 to 7 m/s, less the stops
+        double length = straight.endDistance();
+        assertTrue("Straight ride ends " + length + " km away", length > 3 && length < 13);
+        assertTrue(outAndBack.endDistance() < length / 3);
+        assertTrue(loop.endDistance() < length / 3);
+    }
+
+    @Test
+    public void generateTrace_replaysToSameAcceleration() throws InterruptedException {
+        RideGenerator generator = new RideGenerator(5, 50, 5000);
+        generator.setSurface(1.2, 8);
+        SensorTrace trace = generator.generateTrace(START, 10 * 60 * 1000L, LAT, LON);
+
+        Collector replayed = new Collector();
+        new TraceReplayer(trace, new SensorProcessor(1.8f, replayed), new ManualClock(START),
+                TraceReplayer.MAX_SPEED).run();
+        Collector direct = new Collector();
+        RideGenerator same = new RideGenerator(5, 50, 5000);
+        same.setSurface(1.2, 8);
+        same.generate(START, 10 * 60 * 1000L, LAT, LON, direct);
+        assertEquals(direct.times, replayed.times);
+        assertEquals(direct.rms(), replayed.rms(), 0.1);
+    }
+
+    private static class Collector implements SensorProcessor.Sink {
+        private final List<Long> times = new ArrayList<>();
+        private final List<Float> z = new ArrayList<>();
+        private final List<Double> lats = new ArrayList<>();
+        private final List<Double> lons = new ArrayList<>();
+
+        @Override
+        public void accel(long timestamp, float x, float y, float z) {
+            times.add(timestamp);
+            this.z.add(z);
+        }
+
+        @Override
+        public void location(long timestamp, double lat, double lon) {
+            lats.add(lat);
+            lons.add(lon);
+        }
+
+        double rms() {
+            double sum = 0;
+            for (float value : z) {
+                sum += value * value;
+            }
+            return Math.sqrt(sum / z.size());
+        }
+
+        double max() {
+            double max = 0;
+            for (float value : z) {
+                max = Math.max(max, Math.abs(value));
+            }
+            return max;
+        }
+
+        double endDistance() {
+            int last = lats.size() - 1;
+            return Geo.distance(lats.get(0), lons.get(0), lats.get(last), lons.get(last));
+        }
+    }
+}
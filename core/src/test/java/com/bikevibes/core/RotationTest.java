@@ -0,0 +1,82 @@
+package com.bikevibes.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class RotationTest {
+    private static final float DELTA = 1e-4f;
+
+    @Test
+    public void identity_onlyRemovesGravity() {
+        float[] out = new float[3];
+        new Rotation().rotate(new float[]{1, 2, 9.81f + 3}, out);
+        assertArrayEquals(new float[]{1, 2, 3}, out, DELTA);
+    }
+
+    @Test
+    public void setFromGravity_mapsGravityOntoZ() {
+        float[] gravity = {0, 9.81f * 0.6f, 9.81f * 0.8f};
+        Rotation rotation = new Rotation();
+        rotation.setFromGravity(gravity);
+
+        float[] out = new float[3];
+        rotation.rotate(gravity, out);
+        assertArrayEquals(new float[]{0, 0, 0}, out, DELTA);
+    }
+
+    @Test
+    public void setFromGravity_flipsUpsideDownDevice() {
+        Rotation rotation = new Rotation();
+        rotation.setFromGravity(new float[]{0, 0, -9.81f});
+
+        float[] out = new float[3];
+        rotation.rotate(new float[]{1, 0, -9.81f}, out);
+        assertArrayEquals(new float[]{-1, 0, 0}, out, DELTA);
+    }
+
+    @Test
+    public void setFromRowMajor_transposes() {
+        float[] rowMajor = new float[16];
+        rowMajor[1] = 1;
+        Rotation rotation = new Rotation();
+        rotation.setFromRowMajor(rowMajor);
+        assertEquals(1, rotation.getMatrix()[4], 0);
+        assertEquals(0, rotation.getMatrix()[1], 0);
+    }
+
+    @Test
+    public void setFromRotationVector_turnsAboutZ() {
+        // A quarter turn about z maps the device's x axis onto north
+        float half = (float) Math.sqrt(0.5);
+        Rotation rotation = new Rotation();
+        rotation.setFromRotationVector(new float[]{0, 0, half, half});
+
+        float[] out = new float[3];
+        rotation.rotate(new float[]{1, 0, 9.81f}, out);
+        assertArrayEquals(new float[]{0, 1, 0}, out, DELTA);
+
+        // The scalar component is derived when only 3 values are given
+        rotation.setFromRotationVector(new float[]{0, 0, half});
+        rotation.rotate(new float[]{1, 0, 9.81f}, out);
+        assertArrayEquals(new float[]{0, 1, 0}, out, DELTA);
+    }
+
+    @Test
+    public void gravityFilter_convergesToSteadyReading() {
+        GravityFilter filter = new GravityFilter(1.8f);
+        float[] raw = {0, 9.81f, 0};
+        for (int i = 0; i < 500; i++) {
+            filter.update(raw, i * 200L);
+        }
+        assertArrayEquals(raw, filter.getGravity(), 1e-3f);
+    }
+
+    @Test
+    public void distance_matchesKnownValue() {
+        // One degree of latitude is about 111.2 km
+        assertEquals(111.19, Geo.distance(53, -113, 54, -113), 0.01);
+        assertEquals(0, Geo.distance(53.5, -113.5, 53.5, -113.5), 0);
+    }
+}
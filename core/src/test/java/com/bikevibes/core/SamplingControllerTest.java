@@ -0,0 +1,73 @@
+package com.bikevibes.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class SamplingControllerTest {
+    private static final double LAT = 53.5;
+    private static final double LON = -113.5;
+    // Degrees of latitude per metre
+    private static final double DEG_PER_M = 1 / 111195.0;
+
+    private final List<Integer> changes = new ArrayList<>();
+    private final SamplingController controller = new SamplingController((timestamp, periodUs) -> changes.add(periodUs));
+
+    @Test
+    public void stationary_slowsDownAfterDelay() {
+        ride(0, 35000, 0, 0.1f);
+        assertEquals(SamplingController.PERIOD_STATIONARY_US, controller.getPeriodUs());
+        assertEquals(1, changes.size());
+    }
+
+    @Test
+    public void onMoving_leavesStationaryAtOnce() {
+        ride(0, 35000, 0, 0.1f);
+        controller.onMoving(35000);
+        assertEquals(SamplingController.PERIOD_NORMAL_US, controller.getPeriodUs());
+    }
+
+    @Test
+    public void rough_speedsUpAtOnce() {
+        ride(0, 10000, 5, 0.1f);
+        assertEquals(SamplingController.PERIOD_NORMAL_US, controller.getPeriodUs());
+        ride(10000, 11000, 5, 6f);
+        assertEquals(SamplingController.PERIOD_FAST_US, controller.getPeriodUs());
+
+        // Back on a smooth surface it only slows down once the roughness has settled for a while
+        ride(11000, 15000, 5, 0.1f);
+        assertEquals(SamplingController.PERIOD_FAST_US, controller.getPeriodUs());
+        ride(15000, 40000, 5, 0.1f);
+        assertEquals(SamplingController.PERIOD_NORMAL_US, controller.getPeriodUs());
+    }
+
+    @Test
+    public void lowBattery_capsRate() {
+        controller.setBattery(20, false);
+        ride(0, 10000, 12, 0.1f);
+        assertEquals(SamplingController.PERIOD_NORMAL_US, controller.getPeriodUs());
+
+        controller.setBattery(20, true);
+        ride(10000, 11000, 12, 0.1f);
+        assertEquals(SamplingController.PERIOD_FAST_US, controller.getPeriodUs());
+    }
+
+    /**
+     * Feed readings at 5 Hz and fixes every second over a stretch of riding at a constant speed.
+     * @param start - the start time in ms
+     * @param end - the end time in ms
+     * @param speed - the speed in m/s; 0 sends no fixes, as when standing still
+     * @param amplitude - the vertical acceleration, alternating in sign
+     */
+    private void ride(long start, long end, double speed, float amplitude) {
+        for (long t = start; t < end; t += 200) {
+            controller.onAccel(t, (t / 200) % 2 == 0 ? amplitude : -amplitude);
+            if (speed > 0 && t % 1000 == 0) {
+                controller.onLocation(t, LAT + speed * t / 1000 * DEG_PER_M, LON);
+            }
+        }
+    }
+}
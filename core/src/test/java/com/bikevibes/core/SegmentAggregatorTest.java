@@ -0,0 +1,43 @@
+package com.bikevibes.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SegmentAggregatorTest {
+
+    @Test
+    public void add_assignsReadingsToSegments() {
+        SegmentAggregator aggregator = new SegmentAggregator(new long[]{1000, 2000, 3000});
+        aggregator.add(500, 10);
+        aggregator.add(1000, 3);
+        aggregator.add(1999, -4);
+        aggregator.add(2000, 1);
+        aggregator.add(3000, 2);
+        aggregator.add(3001, 10);
+
+        assertEquals(2, aggregator.getSegmentCount());
+        assertEquals(2, aggregator.getCount(0));
+        assertEquals(Math.sqrt(12.5), aggregator.getRms(0), 1e-9);
+        assertEquals(4, aggregator.getMax(0), 0);
+        assertEquals(2, aggregator.getCount(1));
+        assertEquals(2, aggregator.getMax(1), 0);
+    }
+
+    @Test
+    public void add_weightsReadingsBySamplingPeriod() {
+        // 1 s at 20 Hz of 1s, then 1 s at 1 Hz of a 4
+        RateSchedule rates = new RateSchedule(new long[]{0, 1000}, new int[]{50000, 1000000});
+        SegmentAggregator aggregator = new SegmentAggregator(new long[]{0, 2000});
+        for (long t = 0; t < 1000; t += 50) {
+            aggregator.add(t, 1, rates.getWeight(t));
+        }
+        aggregator.add(1000, 4, rates.getWeight(1000));
+
+        // Each second counts equally, as if both were sampled at the same rate
+        assertEquals(21, aggregator.getCount(0));
+        assertEquals(Math.sqrt((1 + 16) / 2.0), aggregator.getRms(0), 1e-9);
+        assertEquals(1, new RateSchedule(new long[0], new int[0]).getWeight(500), 0);
+        assertEquals(1, rates.getChanges(0, 2000).size());
+    }
+}
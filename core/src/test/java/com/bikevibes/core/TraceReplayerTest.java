@@ -0,0 +1,190 @@
+package com.bikevibes.core;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TraceReplayerTest {
+    private static final long TRACE_START = 1600000000000L;
+    private static final long REPLAY_START = 1700000000000L;
+    private static final int ACCEL_MS = 20;
+    private static final int FIX_MS = 5000;
+    private static final float TIME_CONSTANT = 1.8f;
+
+    @Test
+    public void run_maxSpeed_reportsBumpinessOfWholeRide() throws InterruptedException {
+        // One hour at 50 Hz: smooth for the first half, bumpy for the second
+        long duration = 60 * 60 * 1000L;
+        SensorTrace trace = ride(duration, true);
+        Collector collector = new Collector();
+        ManualClock clock = new ManualClock(REPLAY_START);
+
+        long start = System.nanoTime();
+        int count = new TraceReplayer(trace, new SensorProcessor(TIME_CONSTANT, collector), clock,
+                TraceReplayer.MAX_SPEED).run();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format(Locale.US, "Replayed %d readings in %.3f s (%.0f readings/s)",
+                count, seconds, count / seconds));
+
+        assertEquals(trace.size(), count);
+        assertEquals(REPLAY_START, clock.millis());
+        assertEquals(duration / ACCEL_MS, collector.accelTimes.size());
+        assertEquals(duration / FIX_MS, collector.fixTimes.size());
+        assertEquals(REPLAY_START, collector.fixTimes.get(0).longValue());
+
+        SegmentAggregator segments = collector.aggregate();
+        int half = segments.getSegmentCount() / 2;
+        for (int i = 0; i < segments.getSegmentCount(); i++) {
+            if (i < half) {
+                assertTrue("Segment " + i + " is smooth", segments.getRms(i) < 0.5);
+            } else if (i > half) {
+                assertTrue("Segment " + i + " is bumpy", segments.getRms(i) > 1.5);
+            }
+        }
+        assertTrue(count / seconds > 100000);
+    }
+
+    @Test
+    public void run_gravityFilterMatchesRotationVector() throws InterruptedException {
+        long duration = 10 * 60 * 1000L;
+        Collector withRotation = new Collector();
+        Collector withoutRotation = new Collector();
+        new TraceReplayer(ride(duration, true), new SensorProcessor(TIME_CONSTANT, withRotation),
+                new ManualClock(REPLAY_START), TraceReplayer.MAX_SPEED).run();
+        new TraceReplayer(ride(duration, false), new SensorProcessor(TIME_CONSTANT, withoutRotation),
+                new ManualClock(REPLAY_START), TraceReplayer.MAX_SPEED).run();
+
+        SegmentAggregator a = withRotation.aggregate();
+        SegmentAggregator b = withoutRotation.aggregate();
+        for (int i = 0; i < a.getSegmentCount(); i++) {
+            assertEquals(a.getRms(i), b.getRms(i), 0.1);
+        }
+    }
+
+    @Test
+    public void run_pacedByClock() throws InterruptedException {
+        long duration = 60 * 1000L;
+        SensorTrace trace = ride(duration, true);
+        long last = trace.getEnd() - trace.getStart();
+
+        ManualClock realTime = new ManualClock(REPLAY_START);
+        Collector collector = new Collector();
+        new TraceReplayer(trace, new SensorProcessor(TIME_CONSTANT, collector), realTime, 1).run();
+        assertEquals(REPLAY_START + last, realTime.millis());
+
+        // The clock moves faster, but the readings keep their original spacing
+        ManualClock fast = new ManualClock(REPLAY_START);
+        Collector fastCollector = new Collector();
+        new TraceReplayer(trace, new SensorProcessor(TIME_CONSTANT, fastCollector), fast, 4).run();
+        assertEquals(REPLAY_START + last / 4, fast.millis());
+        assertEquals(collector.accelTimes, fastCollector.accelTimes);
+        assertEquals(REPLAY_START + last, fastCollector.accelTimes.get(fastCollector.accelTimes.size() - 1).longValue());
+    }
+
+    @Test
+    public void run_stopsWhenInterrupted() {
+        Collector collector = new Collector();
+        Thread.currentThread().interrupt();
+        try {
+            new TraceReplayer(ride(1000, true), new SensorProcessor(TIME_CONSTANT, collector),
+                    new ManualClock(REPLAY_START), TraceReplayer.MAX_SPEED).run();
+            fail();
+        } catch (InterruptedException expected) {
+            assertTrue(collector.accelTimes.isEmpty());
+        }
+    }
+
+    @Test
+    public void write_readsBack() throws IOException {
+        SensorTrace trace = new SensorTrace();
+        trace.addLocation(TRACE_START + 40, 53.52345678, -113.5);
+        trace.addAccel(TRACE_START, 0.5f, -1.25f, 9.81f);
+        trace.addRotationVector(TRACE_START + 20, new float[]{0, 0, 0.5f, 0.75f, 0});
+        StringWriter writer = new StringWriter();
+        trace.write(writer);
+
+        SensorTrace read = SensorTrace.read(new BufferedReader(new StringReader("# header\n\n" + writer)));
+        assertEquals(3, read.size());
+        assertEquals(TRACE_START, read.getStart());
+        assertEquals(TRACE_START + 40, read.getEnd());
+        for (int i = 0; i < 3; i++) {
+            SensorTrace.Event expected = trace.getEvents().get(i);
+            SensorTrace.Event actual = read.getEvents().get(i);
+            assertEquals(expected.getType(), actual.getType());
+            assertEquals(expected.getTimestamp(), actual.getTimestamp());
+            assertEquals(expected.getValues().length, actual.getValues().length);
+            for (int j = 0; j < expected.getValues().length; j++) {
+                assertEquals(expected.getValues()[j], actual.getValues()[j], 1e-9);
+            }
+        }
+
+        try {
+            SensorTrace.read(new BufferedReader(new StringReader("a,1,2\n")));
+            fail();
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("line 1"));
+        }
+    }
+
+    /**
+     * Build a ride on a flat device heading north, smooth for the first half and bumpy for the second.
+     * @param duration - the length of the ride in ms
+     * @param rotationVector - whether to include rotation vector readings
+     */
+    private static SensorTrace ride(long duration, boolean rotationVector) {
+        Random random = new Random(42);
+        SensorTrace trace = new SensorTrace();
+        for (long t = 0; t < duration; t += ACCEL_MS) {
+            float amplitude = t < duration / 2 ? 0.2f : 3f;
+            float z = amplitude * (float) random.nextGaussian();
+            trace.addAccel(TRACE_START + t, 0, 0, GravityFilter.GRAVITY + z);
+            if (rotationVector && t % 100 == 0) {
+                trace.addRotationVector(TRACE_START + t, new float[]{0, 0, 0, 1});
+            }
+            if (t % FIX_MS == 0) {
+                trace.addLocation(TRACE_START + t, 53.5 + t * 1e-8, -113.5);
+            }
+        }
+        return trace;
+    }
+
+    private static class Collector implements SensorProcessor.Sink {
+        private final List<Long> accelTimes = new ArrayList<>();
+        private final List<Float> accelZ = new ArrayList<>();
+        private final List<Long> fixTimes = new ArrayList<>();
+
+        @Override
+        public void accel(long timestamp, float x, float y, float z) {
+            accelTimes.add(timestamp);
+            accelZ.add(z);
+        }
+
+        @Override
+        public void location(long timestamp, double lat, double lon) {
+            fixTimes.add(timestamp);
+        }
+
+        SegmentAggregator aggregate() {
+            long[] fixes = new long[fixTimes.size()];
+            for (int i = 0; i < fixes.length; i++) {
+                fixes[i] = fixTimes.get(i);
+            }
+            SegmentAggregator segments = new SegmentAggregator(fixes);
+            for (int i = 0; i < accelTimes.size(); i++) {
+                segments.add(accelTimes.get(i), accelZ.get(i));
+            }
+            return segments;
+        }
+    }
+}
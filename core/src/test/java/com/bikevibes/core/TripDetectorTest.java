@@ -0,0 +1,123 @@
+package com.bikevibes.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TripDetectorTest {
+    // Metres per degree of longitude at the latitude of the fixes
+    private static final double LAT = 53.5;
+    private static final double METRES_PER_DEGREE = 111195 * Math.cos(Math.toRadians(LAT));
+    private static final double CYCLING = 5;
+    private static final double WALKING = 1.2;
+    private static final double DRIVING = 20;
+
+    private final List<String> events = new ArrayList<>();
+    private final TripDetector detector = new TripDetector(new TripDetector.Listener() {
+        @Override
+        public void onTripStart(long timestamp) {
+            events.add("start " + timestamp);
+        }
+
+        @Override
+        public void onTripEnd(long timestamp) {
+            events.add("end " + timestamp);
+        }
+
+        @Override
+        public void onIdle(long timestamp) {
+            events.add("idle " + timestamp);
+        }
+    });
+    private final MotionGate gate = new MotionGate(detector::onMotionChanged);
+    private double lon = -113.5;
+
+    @Test
+    public void shortMovement_startsNoTrip() {
+        feed(0, 20000, 1f, CYCLING);
+        feed(20000, 120000, 0.01f, 0);
+        assertFalse(detector.isRecording());
+        assertFalse(detector.isAwake());
+        assertEquals(1, events.size());
+        assertTrue(events.get(0).startsWith("idle "));
+    }
+
+    @Test
+    public void noMovement_idlesOnceGateIsStill() {
+        // The gate takes the rider to be moving until its readings show otherwise
+        feed(0, 240000, 0.01f, 0);
+        assertEquals(1, events.size());
+        assertEquals("idle 30000", events.get(0));
+    }
+
+    @Test
+    public void walking_startsNoTrip() {
+        feed(0, 240000, 1f, WALKING);
+        assertFalse(detector.isRecording());
+        assertFalse(detector.isAwake());
+        assertEquals(1, events.size());
+        assertTrue(events.get(0).startsWith("idle 18"));
+    }
+
+    @Test
+    public void driving_startsNoTrip() {
+        feed(0, 240000, 1f, DRIVING);
+        assertFalse(detector.isRecording());
+        assertEquals(1, events.size());
+        assertTrue(events.get(0).startsWith("idle "));
+    }
+
+    @Test
+    public void cycling_startsTripWhenMovementStarted() {
+        feed(0, 30000, 1f, CYCLING);
+        assertEquals(0, detector.getEarliestStart());
+        feed(30000, 90000, 1f, CYCLING);
+        assertTrue(detector.isRecording());
+        assertEquals(-1, detector.getEarliestStart());
+        assertEquals(1, events.size());
+        assertEquals("start 0", events.get(0));
+    }
+
+    @Test
+    public void longStop_splitsTrips() {
+        feed(0, 120000, 1f, CYCLING);
+        assertTrue(detector.isRecording());
+        // A stop at a light stays part of the trip
+        feed(120000, 240000, 0.01f, 0);
+        feed(240000, 300000, 1f, CYCLING);
+        assertEquals(1, events.size());
+
+        // A long stop ends it and the detector sleeps until woken, then riding on starts the next one
+        feed(300000, 700000, 0.01f, 0);
+        assertFalse(detector.isRecording());
+        assertFalse(detector.isAwake());
+        detector.wake();
+        feed(700000, 800000, 1f, CYCLING);
+        assertTrue(detector.isRecording());
+        assertEquals(3, events.size());
+        assertEquals("start 0", events.get(0));
+        assertTrue(events.get(1).startsWith("end 3"));
+        assertEquals("start 700000", events.get(2));
+    }
+
+    /**
+     * Feed readings of alternating sign at 5 Hz to the gate and the detector, and a GPS fix every
+     * 5 s moving east at a speed.
+     * @param speed - the speed of the fixes in m/s
+     */
+    private void feed(long start, long end, float amplitude, double speed) {
+        for (long t = start; t < end; t += 200) {
+            gate.onAccel(t, (t / 200) % 2 == 0 ? amplitude : -amplitude);
+            detector.onReading(t, gate.isMoving());
+            if (t % 5000 == 0) {
+                lon += speed * 5 / METRES_PER_DEGREE;
+                detector.onLocation(t, LAT, lon);
+            }
+        }
+    }
+}
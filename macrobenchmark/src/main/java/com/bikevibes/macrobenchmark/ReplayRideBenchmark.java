@@ -0,0 +1,86 @@
+package com.bikevibes.macrobenchmark;
+
+import android.content.Intent;
+import android.os.SystemClock;
+
+import androidx.benchmark.macro.CompilationMode;
+import androidx.benchmark.macro.Metric;
+import androidx.benchmark.macro.StartupMode;
+import androidx.benchmark.macro.TraceSectionMetric;
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import kotlin.Unit;
+
+/**
+ * Launches a debug build of the app made with -PtraceSections=true, replays a synthetic
+ * 30 minute ride as fast as possible and lets the trip finalize and draw, while Perfetto records
+ * the trace sections of each pipeline stage. Reports the duration of the first instance of each
+ * section per iteration; scripts/profile_ride.sh checks the medians against their budgets.
+ *
+ * The sensor callback section is not reported since replays bypass the sensors, and the JSON
+ * build only runs on upload.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class ReplayRideBenchmark {
+    private static final String PACKAGE = "com.bikevibes.bikeapp";
+    private static final int ITERATIONS = 5;
+    private static final int RIDE_SECONDS = 30 * 60;
+    private static final long SETTLE_MS = 15000;
+
+    // Must match the extras of TrackingService and the section names of Tracer
+    private static final String EXTRA_SYNTHETIC_SECONDS = PACKAGE + ".SYNTHETIC_SECONDS";
+    private static final String EXTRA_REPLAY_SPEED = PACKAGE + ".REPLAY_SPEED";
+    private static final String EXTRA_REPLAY_STOP = PACKAGE + ".REPLAY_STOP";
+    private static final String[] SECTIONS = {
+            "BikeVibes:rotation",
+            "BikeVibes:cacheFlush",
+            "BikeVibes:dbInsert",
+            "BikeVibes:segmentBuild",
+            "BikeVibes:updateTrip",
+            "BikeVibes:polylines",
+    };
+
+    @Rule
+    public MacrobenchmarkRule benchmarkRule = new MacrobenchmarkRule();
+
+    @Test
+    public void replayRide() {
+        List<Metric> metrics = new ArrayList<>();
+        for (String section : SECTIONS) {
+            metrics.add(new TraceSectionMetric(section));
+        }
+        benchmarkRule.measureRepeated(PACKAGE, metrics, new CompilationMode.None(), StartupMode.COLD, ITERATIONS,
+                scope -> {
+                    // Keep the permission dialog from covering the map
+                    try {
+                        scope.getDevice().executeShellCommand(
+                                "pm grant " + PACKAGE + " android.permission.ACCESS_FINE_LOCATION");
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                    return Unit.INSTANCE;
+                },
+                scope -> {
+                    Intent intent = new Intent(Intent.ACTION_MAIN);
+                    intent.setClassName(PACKAGE, PACKAGE + ".MainActivity");
+                    intent.putExtra(EXTRA_SYNTHETIC_SECONDS, RIDE_SECONDS);
+                    intent.putExtra(EXTRA_REPLAY_SPEED, 0f);
+                    intent.putExtra(EXTRA_REPLAY_STOP, true);
+                    scope.startActivityAndWait(intent);
+                    // The replay, finalizing the trip and drawing it all happen in the background
+                    SystemClock.sleep(SETTLE_MS);
+                    return Unit.INSTANCE;
+                });
+    }
+}
@@ -0,0 +1,148 @@
+package com.bikevibes.macrobenchmark;
+
+import android.content.Intent;
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+import androidx.benchmark.macro.CompilationMode;
+import androidx.benchmark.macro.MacrobenchmarkScope;
+import androidx.benchmark.macro.Metric;
+import androidx.benchmark.macro.StartupMode;
+import androidx.benchmark.macro.StartupTimingMetric;
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.uiautomator.By;
+import androidx.test.uiautomator.UiDevice;
+import androidx.test.uiautomator.Until;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import kotlin.Unit;
+
+/**
+ * Measures cold starts of a debug build of the app, from launching the process to the first frame
+ * (time to initial display) and to the last trip being shown (time to full display, which
+ * MainActivity reports once the trip is drawn).
+ *
+ * The app is started with its benchmark data set, a separate database, partition directory and
+ * snapshot that debug builds use while the marker file exists, so the rider's data is never
+ * touched. The data set is one synthetic ride, recorded by replaying it before the measurements.
+ * Starts are measured with the trip snapshot, as after a normal launch, and without it, so the
+ * trip is loaded from the database. scripts/profile_startup.sh checks the medians against their budgets.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class StartupBenchmark {
+    private static final String PACKAGE = "com.bikevibes.bikeapp";
+    private static final int ITERATIONS = 10;
+    private static final int RIDE_SECONDS = 10 * 60;
+    private static final long SETTLE_MS = 15000;
+    private static final long TRIP_TIMEOUT_MS = 10000;
+
+    // Must match the extras of TrackingService and the benchmark files of BikeApp
+    private static final String EXTRA_SYNTHETIC_SECONDS = PACKAGE + ".SYNTHETIC_SECONDS";
+    private static final String EXTRA_REPLAY_SPEED = PACKAGE + ".REPLAY_SPEED";
+    private static final String EXTRA_REPLAY_STOP = PACKAGE + ".REPLAY_STOP";
+    private static final String MARKER = "files/benchmark_data";
+    private static final String SNAPSHOT = "files/benchmark_last_trip.bin";
+    private static final String[] DATA = {
+            MARKER, SNAPSHOT, "files/benchmark_sensor_logs", "databases/benchmark_bike.db",
+            "databases/benchmark_bike.db-wal", "databases/benchmark_bike.db-shm", "databases/benchmark_partitions"
+    };
+    private static final Pattern TRIP_SHOWN = Pattern.compile("(?!Unknown$).+");
+
+    @Rule
+    public MacrobenchmarkRule benchmarkRule = new MacrobenchmarkRule();
+
+    private UiDevice device;
+
+    /**
+     * Switch the app to a fresh benchmark data set and record a ride into it.
+     */
+    @Before
+    public void seedData() {
+        device = UiDevice.getInstance(InstrumentationRegistry.getInstrumentation());
+        shell("pm grant " + PACKAGE + " android.permission.ACCESS_FINE_LOCATION");
+        shell("am force-stop " + PACKAGE);
+        deleteData();
+        shell("run-as " + PACKAGE + " mkdir -p files");
+        shell("run-as " + PACKAGE + " touch " + MARKER);
+
+        shell("am start -W -n " + PACKAGE + "/.MainActivity --ei " + EXTRA_SYNTHETIC_SECONDS + " " + RIDE_SECONDS
+                + " --ef " + EXTRA_REPLAY_SPEED + " 0 --ez " + EXTRA_REPLAY_STOP + " true");
+        // The replay, finalizing the trip and writing its snapshot all happen in the background
+        SystemClock.sleep(SETTLE_MS);
+        shell("am force-stop " + PACKAGE);
+    }
+
+    @After
+    public void deleteSeed() {
+        shell("am force-stop " + PACKAGE);
+        deleteData();
+    }
+
+    @Test
+    public void startupFromSnapshot() {
+        measure(false);
+    }
+
+    @Test
+    public void startupFromDatabase() {
+        measure(true);
+    }
+
+    /**
+     * Measure cold starts until the trip is shown.
+     * @param deleteSnapshot - true to delete the trip snapshot before each start
+     */
+    private void measure(boolean deleteSnapshot) {
+        List<Metric> metrics = Collections.singletonList(new StartupTimingMetric());
+        benchmarkRule.measureRepeated(PACKAGE, metrics, new CompilationMode.None(), StartupMode.COLD, ITERATIONS,
+                scope -> {
+                    if (deleteSnapshot) {
+                        shell("run-as " + PACKAGE + " rm -f " + SNAPSHOT);
+                    }
+                    return Unit.INSTANCE;
+                },
+                scope -> {
+                    Intent intent = new Intent(Intent.ACTION_MAIN);
+                    intent.setClassName(PACKAGE, PACKAGE + ".MainActivity");
+                    scope.startActivityAndWait(intent);
+                    waitForTrip(scope);
+                    return Unit.INSTANCE;
+                });
+    }
+
+    /**
+     * Wait until the trip summary has been displayed, which is when the app reports it is fully drawn.
+     */
+    private static void waitForTrip(MacrobenchmarkScope scope) {
+        if (!scope.getDevice().wait(Until.hasObject(By.res(PACKAGE, "dateTextView").text(TRIP_SHOWN)),
+                TRIP_TIMEOUT_MS)) {
+            throw new AssertionError("Trip was not displayed within " + TRIP_TIMEOUT_MS + " ms");
+        }
+    }
+
+    private void deleteData() {
+        shell("run-as " + PACKAGE + " rm -rf " + TextUtils.join(" ", DATA));
+    }
+
+    private void shell(String command) {
+        try {
+            device.executeShellCommand(command);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
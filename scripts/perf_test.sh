@@ -0,0 +1,16 @@
+#!/usr/bin/env bash
+# Runs the repository performance suite at full scale.
+#
+# Plain unit test runs only use the 10k sample database. This generates and finalizes the 1M and 10M sample
+# databases too and fails if any repository operation is over its latency budget. Meant for CI and before
+# merging schema or query changes; the 10M database takes several minutes to build.
+#
+# Usage: scripts/perf_test.sh [budget scale]
+#   budget scale - multiplies every budget, e.g. 2 for a slow machine (default 1)
+set -euo pipefail
+
+cd "$(dirname "$0")/.."
+SCALE="${1:-1}"
+
+./gradlew :app:testDebugUnitTest --tests com.bikevibes.bikeapp.RepositoryPerformanceTest \
+    -PperfSizes=10000,1000000,10000000 -PperfBudgetScale="$SCALE"
@@ -0,0 +1,58 @@
+#!/usr/bin/env bash
+# Profiles the sensor-to-map pipeline on the connected device.
+#
+# Builds the app with trace sections, runs the replayed-ride macrobenchmark, which records a
+# Perfetto trace of every iteration, and fails if the median duration of any stage is over its
+# budget. The traces can be opened at https://ui.perfetto.dev to see where the time went.
+#
+# Usage: scripts/profile_ride.sh [budget scale]
+#   budget scale - multiplies every budget, e.g. 2 for a slow device (default 1)
+set -euo pipefail
+
+cd "$(dirname "$0")/.."
+SCALE="${1:-1}"
+OUTPUT=macrobenchmark/build/outputs/connected_android_test_additional_output
+
+rm -rf "$OUTPUT"
+./gradlew -PtraceSections=true :macrobenchmark:connectedCheck \
+    -Pandroid.testInstrumentationRunnerArguments.class=com.bikevibes.macrobenchmark.ReplayRideBenchmark
+
+RESULTS=$(find "$OUTPUT" -name '*benchmarkData.json' | head -n 1)
+if [ -z "$RESULTS" ]; then
+    echo "No benchmark results in $OUTPUT" >&2
+    exit 1
+fi
+echo "Traces:"
+find "$OUTPUT" -name '*.perfetto-trace'
+
+python3 - "$RESULTS" "$SCALE" <<'PYTHON'
+import json
+import sys
+
+# Budgets in ms for the median of each stage on a debug build of a mid-range phone
+BUDGETS = {
+    "BikeVibes:rotation": 1,
+    "BikeVibes:cacheFlush": 2,
+    "BikeVibes:dbInsert": 50,
+    "BikeVibes:segmentBuild": 500,
+    "BikeVibes:updateTrip": 16,
+    "BikeVibes:polylines": 50,
+}
+
+results, scale = sys.argv[1], float(sys.argv[2])
+with open(results) as f:
+    metrics = json.load(f)["benchmarks"][0]["metrics"]
+
+failed = False
+for section, budget in BUDGETS.items():
+    metric = metrics.get(section + "Ms")
+    if metric is None:
+        print("%-24s missing from the trace" % section)
+        failed = True
+        continue
+    median = metric["median"]
+    over = median > budget * scale
+    failed |= over
+    print("%-24s %8.2f ms (budget %.0f ms)%s" % (section, median, budget * scale, "  OVER" if over else ""))
+sys.exit(1 if failed else 0)
+PYTHON
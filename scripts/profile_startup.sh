@@ -0,0 +1,54 @@
+#!/usr/bin/env bash
+# Measures cold starts of the app on the connected device.
+#
+# Runs the startup macrobenchmark, which starts a debug build of the app with its own benchmark data set,
+# and fails if the median time to the first frame or to the last trip being shown is over its budget.
+# Starts are measured both with the trip snapshot and with the trip loaded from the database.
+#
+# Usage: scripts/profile_startup.sh [budget scale]
+#   budget scale - multiplies every budget, e.g. 2 for a slow device (default 1)
+set -euo pipefail
+
+cd "$(dirname "$0")/.."
+SCALE="${1:-1}"
+OUTPUT=macrobenchmark/build/outputs/connected_android_test_additional_output
+
+rm -rf "$OUTPUT"
+./gradlew :macrobenchmark:connectedCheck \
+    -Pandroid.testInstrumentationRunnerArguments.class=com.bikevibes.macrobenchmark.StartupBenchmark
+
+RESULTS=$(find "$OUTPUT" -name '*benchmarkData.json' | head -n 1)
+if [ -z "$RESULTS" ]; then
+    echo "No benchmark results in $OUTPUT" >&2
+    exit 1
+fi
+
+python3 - "$RESULTS" "$SCALE" <<'PYTHON'
+import json
+import sys
+
+# Budgets in ms for the median cold start of a debug build on a mid-range phone
+BUDGETS = {
+    "startupFromSnapshot": {"timeToInitialDisplayMs": 1200, "timeToFullDisplayMs": 1500},
+    "startupFromDatabase": {"timeToInitialDisplayMs": 1200, "timeToFullDisplayMs": 2500},
+}
+
+results, scale = sys.argv[1], float(sys.argv[2])
+with open(results) as f:
+    benchmarks = {b["name"]: b["metrics"] for b in json.load(f)["benchmarks"]}
+
+failed = False
+for name, budgets in BUDGETS.items():
+    for metric, budget in budgets.items():
+        values = benchmarks.get(name, {}).get(metric)
+        if values is None:
+            print("%-20s %-24s missing from the results" % (name, metric))
+            failed = True
+            continue
+        median = values["median"]
+        over = median > budget * scale
+        failed |= over
+        print("%-20s %-24s %8.1f ms (budget %.0f ms)%s"
+              % (name, metric, median, budget * scale, "  OVER" if over else ""))
+sys.exit(1 if failed else 0)
+PYTHON